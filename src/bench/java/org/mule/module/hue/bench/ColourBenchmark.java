@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.bench;
+
+import org.mule.module.hue.ColourUtils;
+import org.mule.module.hue.Gamut;
+
+import java.awt.Color;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the colour conversions used when building light states
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ColourBenchmark
+{
+    private int[] rgb;
+    private double[] xy;
+
+    @Setup
+    public void setUp()
+    {
+        rgb = new int[256];
+        for (int i = 0; i < rgb.length; i++)
+        {
+            rgb[i] = (i * 0x010203 * 37) & 0xFFFFFF;
+        }
+        xy = new double[rgb.length * 2];
+    }
+
+    @Benchmark
+    public List<Double> namedColourToXy()
+    {
+        return ColourUtils.getXYForColour("orange");
+    }
+
+    @Benchmark
+    public List<Double> htmlColourToXy()
+    {
+        return ColourUtils.getXYForColour("#F567BA");
+    }
+
+    @Benchmark
+    public Color parseHtmlColour()
+    {
+        return ColourUtils.parseColour("#F567BA");
+    }
+
+    @Benchmark
+    public double[] batchToXy()
+    {
+        ColourUtils.rgbToXy(rgb, 0, xy, 0, rgb.length);
+        return xy;
+    }
+
+    @Benchmark
+    public double[] batchToGamutXy()
+    {
+        ColourUtils.rgbToXy(rgb, 0, xy, 0, rgb.length, Gamut.B);
+        return xy;
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.bench;
+
+import org.mule.module.hue.HueConnector;
+import org.mule.module.hue.transport.HueTransport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the cost the connector adds to a call, from the processor down to the transport: routing, the
+ * dispatcher, serialization, metrics and parsing the answer. The transport is replaced by canned answers, so no
+ * HTTP is involved and the figures leave out the client, the socket and the bridge. Throttling is disabled so
+ * only the connector is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConnectorOverheadBenchmark
+{
+    private HueConnector connector;
+    private org.mule.module.hue.model.State state;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        connector = new HueConnector();
+        connector.setIpAddress("127.0.0.1");
+        connector.setUsername("benchmark");
+        connector.setLightCommandsPerSecond(0);
+        connector.setGroupCommandsPerSecond(0);
+        connector.setTransport(new StubTransport());
+        connector.connect();
+
+        state = new org.mule.module.hue.model.State();
+        state.setOn(true);
+        state.setBrightness(200);
+        state.setXy(0.5, 0.4);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        connector.disconnect();
+    }
+
+    @Benchmark
+    public org.mule.module.hue.model.State setLightState() throws IOException
+    {
+        return connector.setLightState("1", state);
+    }
+
+    @Benchmark
+    public Object getLightState() throws IOException
+    {
+        return connector.getLightState("1");
+    }
+
+    /**
+     * Answers every call with a canned bridge response
+     */
+    private static class StubTransport implements HueTransport
+    {
+        private static final String SUCCESS = "[{\"success\":{\"/lights/1/state/on\":true}},"
+                                              + "{\"success\":{\"/lights/1/state/bri\":200}},"
+                                              + "{\"success\":{\"/lights/1/state/xy\":[0.5,0.4]}}]";
+
+        public String get(String path) throws IOException
+        {
+            return path.length() == 0 ? "{}" : ModelBenchmark.LIGHT;
+        }
+
+        public InputStream getStream(String path) throws IOException
+        {
+            return new ByteArrayInputStream(get(path).getBytes("UTF-8"));
+        }
+
+        public String put(String path, byte[] body) throws IOException
+        {
+            return SUCCESS;
+        }
+
+        public String post(String path, byte[] body) throws IOException
+        {
+            return SUCCESS;
+        }
+
+        public String delete(String path) throws IOException
+        {
+            return SUCCESS;
+        }
+
+        public void dispose()
+        {
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.bench;
+
+import org.mule.module.hue.json.ModelReader;
+import org.mule.module.hue.json.ModelWriter;
+import org.mule.module.hue.model.Command;
+import org.mule.module.hue.model.GroupAttributes;
+import org.mule.module.hue.model.LightAttributes;
+import org.mule.module.hue.model.Schedule;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the json encoding of the commands sent to the bridge and the decoding of its responses,
+ * comparing the reflective object mapper with the hand written {@link ModelWriter} and {@link ModelReader}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ModelBenchmark
+{
+    static final String LIGHT = "{\"state\":{\"on\":true,\"bri\":144,\"hue\":13088,\"sat\":212,\"xy\":[0.5128,0.4147],"
+                                + "\"ct\":467,\"alert\":\"none\",\"effect\":\"none\",\"colormode\":\"xy\",\"reachable\":true},"
+                                + "\"type\":\"Extended color light\",\"name\":\"Hue Lamp 1\",\"modelid\":\"LCT001\","
+                                + "\"swversion\":\"66009461\",\"pointsymbol\":{\"1\":\"none\",\"2\":\"none\"}}";
+
+    static final String GROUP = "{\"action\":{\"on\":true,\"bri\":254,\"hue\":33536,\"sat\":144,\"xy\":[0.346,0.3568],"
+                                + "\"ct\":201,\"effect\":\"none\",\"colormode\":\"xy\"},"
+                                + "\"lights\":[\"1\",\"2\",\"3\",\"4\",\"5\",\"6\"],\"name\":\"Living room\"}";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ModelWriter writer = new ModelWriter(mapper);
+    private final ModelReader reader = new ModelReader(mapper);
+    private org.mule.module.hue.model.State state;
+    private Schedule schedule;
+
+    @Setup
+    public void setUp()
+    {
+        state = new org.mule.module.hue.model.State();
+        state.setOn(true);
+        state.setBrightness(200);
+        state.setColor("orange");
+
+        Command command = new Command();
+        command.setMethod(Command.Method.PUT);
+        command.setAddress("/api/benchmark/groups/0/action");
+        command.setBody(state);
+        schedule = new Schedule();
+        schedule.setName("wake");
+        schedule.setTime("2013-12-01T07:00:00");
+        schedule.setCommand(command);
+    }
+
+    @Benchmark
+    public String writeState() throws IOException
+    {
+        return mapper.writeValueAsString(state);
+    }
+
+    @Benchmark
+    public String writeSchedule() throws IOException
+    {
+        return mapper.writeValueAsString(schedule);
+    }
+
+    @Benchmark
+    public LightAttributes readLightAttributes() throws IOException
+    {
+        return mapper.readValue(LIGHT, LightAttributes.class);
+    }
+
+    @Benchmark
+    public GroupAttributes readGroupAttributes() throws IOException
+    {
+        return mapper.readValue(GROUP, GroupAttributes.class);
+    }
+
+    @Benchmark
+    public byte[] writeStateModelWriter()
+    {
+        return writer.write(state);
+    }
+
+    @Benchmark
+    public byte[] writeScheduleModelWriter() throws IOException
+    {
+        return writer.write(schedule);
+    }
+
+    @Benchmark
+    public LightAttributes readLightAttributesModelReader() throws IOException
+    {
+        return reader.readLight(LIGHT);
+    }
+
+    @Benchmark
+    public GroupAttributes readGroupAttributesModelReader() throws IOException
+    {
+        return reader.readGroup(GROUP);
+    }
+}
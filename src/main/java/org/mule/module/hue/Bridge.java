@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue;
+
+import org.mule.module.hue.cache.DatastoreCache;
+import org.mule.module.hue.dispatch.CommandDispatcher;
+import org.mule.module.hue.dispatch.ConcurrencyLimiter;
+import org.mule.module.hue.dispatch.GroupPlanner;
+import org.mule.module.hue.transport.HueTransport;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Everything the connector holds for one bridge. Each bridge has its own connections, command queues and
+ * rate budgets, so a slow or busy bridge does not hold back the others.
+ * <p/>
+ * The lights and groups of the primary bridge, the one given by the ipAddress and username of the
+ * configuration, keep their plain identifiers. Those of every additional bridge are qualified with its
+ * name, e.g. <code>annex:3</code>.
+ */
+class Bridge
+{
+    /**
+     * Separates the name of a bridge from the identifier of a light or group
+     */
+    static final char SEPARATOR = ':';
+
+    private final String name;
+    private final String username;
+    private final HueTransport transport;
+    // read by the background warm-up of a lazy connect, which also sets the planner and then warm
+    volatile CommandDispatcher dispatcher;
+    volatile GroupPlanner planner;
+    volatile boolean warm;
+    // the gamut of every light whose model is known, read from the datastore when warmed
+    volatile Map<String, Gamut> gamuts = Collections.emptyMap();
+    ConcurrencyLimiter limiter;
+    DatastoreCache cache;
+    ExecutorService asyncExecutor;
+    // false for a transport handed to the connector, which is left for its owner to dispose
+    boolean ownsTransport = true;
+
+    /**
+     * @param name      the name of the bridge, null for the primary bridge
+     * @param username  the user the connector acts as on this bridge
+     * @param transport the transport to the bridge
+     */
+    Bridge(String name, String username, HueTransport transport)
+    {
+        this.name = name;
+        this.username = username;
+        this.transport = transport;
+    }
+
+    String getName()
+    {
+        return name;
+    }
+
+    String getUsername()
+    {
+        return username;
+    }
+
+    HueTransport getTransport()
+    {
+        return transport;
+    }
+
+    /**
+     * @param id the identifier of a light or group on this bridge
+     * @return the identifier used by the connector for the light or group
+     */
+    String qualify(String id)
+    {
+        return name == null ? id : name + SEPARATOR + id;
+    }
+
+    /**
+     * @param lightId the identifier of a light on this bridge
+     * @return the gamut of the model of the light, {@link Gamut#FULL} until the light has been seen in the datastore
+     */
+    Gamut gamutOf(String lightId)
+    {
+        Gamut gamut = gamuts.get(lightId);
+        return gamut == null ? Gamut.FULL : gamut;
+    }
+
+    /**
+     * Stops everything running for this bridge and releases its connections
+     */
+    void close()
+    {
+        if (cache != null)
+        {
+            cache.stop();
+            cache = null;
+        }
+        if (asyncExecutor != null)
+        {
+            asyncExecutor.shutdownNow();
+            asyncExecutor = null;
+        }
+        if (dispatcher != null)
+        {
+            dispatcher.stop();
+            dispatcher = null;
+        }
+        planner = null;
+        disposeTransport();
+    }
+
+    /**
+     * Releases the connections of the transport, unless it belongs to whoever handed it to the connector
+     */
+    void disposeTransport()
+    {
+        if (ownsTransport)
+        {
+            transport.dispose();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return name == null ? "primary bridge" : "bridge " + name;
+    }
+}
@@ -21,13 +21,51 @@ import java.util.Map;
  */
 public class ColourUtils
 {
+    /**
+     * The x coordinate of the D65 white point, used for black which has no chromaticity
+     */
+    public static final double WHITE_POINT_X = 0.3127;
+
+    /**
+     * The y coordinate of the D65 white point, used for black which has no chromaticity
+     */
+    public static final double WHITE_POINT_Y = 0.3290;
+
     private static final Map<String, Color> COLOUR_MAP;
 
+    /**
+     * The Wide RGB D65 conversion from gamma corrected RGB to CIE XYZ, one row of red, green and blue
+     * factors for each of X, Y and Z
+     */
+    private static final double[] RGB_TO_XYZ = {
+            0.649926f, 0.103455f, 0.197109f,
+            0.234327f, 0.743075f, 0.022598f,
+            0.0000000f, 0.053077f, 1.035763f};
+
+    /**
+     * The gamma corrected value of every 8 bit channel value
+     */
+    private static final double[] GAMMA = new double[256];
+
     static
     {
         COLOUR_MAP = loadColourMap();
+        for (int i = 0; i < GAMMA.length; i++)
+        {
+            double c = i / 255d;
+            GAMMA[i] = (c > 0.04045f) ? Math.pow((c + 0.055f) / (1.0f + 0.055f), 2.4f) : (c / 12.92f);
+        }
     }
 
+    private static final ThreadLocal<double[]> SCRATCH = new ThreadLocal<double[]>()
+    {
+        @Override
+        protected double[] initialValue()
+        {
+            return new double[2];
+        }
+    };
+
     private static Map<String, java.awt.Color> loadColourMap()
     {
         try
@@ -63,34 +101,75 @@ public class ColourUtils
     }
 
     public static double[] rgbToXyz(int r, int g, int b) {
+        double[] xyz = new double[3];
+        rgbToXyz(r, g, b, xyz);
+        return xyz;
+    }
 
-        double[] rgb = scaleValues(0, 255, r, g, b);
-        double red = rgb[0];
-        double green = rgb[1];
-        double blue = rgb[2];
-
+    /**
+     * Converts an RGB colour to CIE XYZ without allocating
+     *
+     * @param r   the red channel, 0 to 255
+     * @param g   the green channel, 0 to 255
+     * @param b   the blue channel, 0 to 255
+     * @param xyz receives X, Y and Z at index 0, 1 and 2
+     * @throws IllegalArgumentException if a channel is outside 0 to 255
+     */
+    public static void rgbToXyz(int r, int g, int b, double[] xyz) {
         //Apply a gamma correction to the RGB values, which makes the color more vivid
-        double _red = (red > 0.04045f) ? Math.pow((red + 0.055f) / (1.0f + 0.055f), 2.4f) : (red / 12.92f);
-        double _green = (green > 0.04045f) ? Math.pow((green + 0.055f) / (1.0f + 0.055f), 2.4f) : (green / 12.92f);
-        double _blue = (blue > 0.04045f) ? Math.pow((blue + 0.055f) / (1.0f + 0.055f), 2.4f) : (blue / 12.92f);
+        double _red = GAMMA[channel(r)];
+        double _green = GAMMA[channel(g)];
+        double _blue = GAMMA[channel(b)];
 
         //Convert the RGB values to XYZ using the Wide RGB D65 conversion formula
-        double X = _red * 0.649926f + _green * 0.103455f + _blue * 0.197109f;
-        double Y = _red * 0.234327f + _green * 0.743075f + _blue * 0.022598f;
-        double Z = _red * 0.0000000f + _green * 0.053077f + _blue * 1.035763f;
-        
-        return new double[]{X, Y, Z};
+        xyz[0] = toXyz(0, _red, _green, _blue);
+        xyz[1] = toXyz(1, _red, _green, _blue);
+        xyz[2] = toXyz(2, _red, _green, _blue);
     }
-    
+
+    /**
+     * @return X, Y or Z, for row 0, 1 or 2, of a gamma corrected RGB colour
+     */
+    private static double toXyz(int row, double r, double g, double b)
+    {
+        int i = row * 3;
+        return r * RGB_TO_XYZ[i] + g * RGB_TO_XYZ[i + 1] + b * RGB_TO_XYZ[i + 2];
+    }
+
+    /**
+     * Converts CIE XYZ to xy. Black has no chromaticity and maps to the D65 white point, like in every other
+     * conversion.
+     */
     public static double[] XyzToXy(double... vals)
     {
         double[] result = new double[2];
+        double sum = vals[0] + vals[1] + vals[2];
+        if (sum == 0)
+        {
+            result[0] = WHITE_POINT_X;
+            result[1] = WHITE_POINT_Y;
+            return result;
+        }
 
-        result[0] = vals[0] / (vals[0] + vals[1] + vals[2]);
-        result[1] = vals[1] / (vals[0] + vals[1] + vals[2]);
+        result[0] = vals[0] / sum;
+        result[1] = vals[1] / sum;
         return result;
     }
 
+    /**
+     * @param value an 8 bit channel value
+     * @return the value
+     * @throws IllegalArgumentException if the value is outside 0 to 255
+     */
+    static int channel(int value)
+    {
+        if (value < 0 || value > 255)
+        {
+            throw new IllegalArgumentException("Colour channel out of range 0 to 255: " + value);
+        }
+        return value;
+    }
+
     /**
      * Decode an HTML color string like '#F567BA;' into a {@link Color}
      *
@@ -162,6 +241,104 @@ public class ColourUtils
         }
     }
 
+    /**
+     * Converts a colour to xy without allocating for named colours
+     *
+     * @param colour a named colour or an HTML colour, see {@link #parseColour(String)}
+     * @param xy     receives x at index 0 and y at index 1
+     */
+    public static void getXYForColour(String colour, double[] xy)
+    {
+        rgbToXy(parseColour(colour).getRGB(), xy, 0);
+    }
+
+    /**
+     * Converts a packed RGB colour, as returned by {@link Color#getRGB()}, to xy. Black has no chromaticity
+     * and maps to the D65 white point.
+     *
+     * @param rgb      the packed colour, 0xRRGGBB, the alpha byte is ignored
+     * @param xy       the buffer receiving x then y
+     * @param xyOffset the index in xy to write x at
+     */
+    public static void rgbToXy(int rgb, double[] xy, int xyOffset)
+    {
+        double r = GAMMA[(rgb >> 16) & 0xFF];
+        double g = GAMMA[(rgb >> 8) & 0xFF];
+        double b = GAMMA[rgb & 0xFF];
+
+        double X = toXyz(0, r, g, b);
+        double Y = toXyz(1, r, g, b);
+        double Z = toXyz(2, r, g, b);
+        double sum = X + Y + Z;
+        if (sum == 0)
+        {
+            xy[xyOffset] = WHITE_POINT_X;
+            xy[xyOffset + 1] = WHITE_POINT_Y;
+        }
+        else
+        {
+            xy[xyOffset] = X / sum;
+            xy[xyOffset + 1] = Y / sum;
+        }
+    }
+
+    /**
+     * Converts a batch of packed RGB colours to xy without allocating
+     *
+     * @param rgb       packed colours, 0xRRGGBB, the alpha byte is ignored
+     * @param rgbOffset the index of the first colour to convert
+     * @param xy        the buffer receiving x then y for every colour
+     * @param xyOffset  the index in xy to write the first x at
+     * @param count     the number of colours to convert
+     */
+    public static void rgbToXy(int[] rgb, int rgbOffset, double[] xy, int xyOffset, int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            rgbToXy(rgb[rgbOffset + i], xy, xyOffset + 2 * i);
+        }
+    }
+
+    /**
+     * Converts a batch of packed RGB colours to xy without allocating
+     *
+     * @param rgb       packed colours, 0xRRGGBB, the alpha byte is ignored
+     * @param rgbOffset the index of the first colour to convert
+     * @param xy        the buffer receiving x then y for every colour
+     * @param xyOffset  the index in xy to write the first x at
+     * @param count     the number of colours to convert
+     */
+    public static void rgbToXy(int[] rgb, int rgbOffset, float[] xy, int xyOffset, int count)
+    {
+        double[] tmp = SCRATCH.get();
+        for (int i = 0; i < count; i++)
+        {
+            rgbToXy(rgb[rgbOffset + i], tmp, 0);
+            xy[xyOffset + 2 * i] = (float) tmp[0];
+            xy[xyOffset + 2 * i + 1] = (float) tmp[1];
+        }
+    }
+
+    /**
+     * Converts a batch of packed RGB colours to the closest xy a gamut can reproduce using its lookup
+     * table, without allocating
+     *
+     * @param rgb       packed colours, 0xRRGGBB, the alpha byte is ignored
+     * @param rgbOffset the index of the first colour to convert
+     * @param xy        the buffer receiving x then y for every colour
+     * @param xyOffset  the index in xy to write the first x at
+     * @param count     the number of colours to convert
+     * @param gamut     the gamut of the lamps the colours are meant for
+     */
+    public static void rgbToXy(int[] rgb, int rgbOffset, double[] xy, int xyOffset, int count, Gamut gamut)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            int c = rgb[rgbOffset + i];
+            gamut.toXy((c >> 16) & 0xFF, (c >> 8) & 0xFF, c & 0xFF, xy, xyOffset + 2 * i);
+        }
+    }
+
     public static List<Double> getXYForColour(String colour)
     {
         Color c = parseColour(colour);
@@ -174,4 +351,24 @@ public class ColourUtils
         xyList.add(xy[1]);
         return xyList;
     }
+
+    /**
+     * Converts a colour to the closest xy that a lamp model can reproduce, using the precomputed table
+     * of the {@link Gamut} of the model
+     *
+     * @param colour  a named colour or an HTML colour, see {@link #parseColour(String)}
+     * @param modelId the model of the lamp i.e. 'LCT001', see {@link org.mule.module.hue.model.LightAttributes#getModelid()}
+     * @return a list holding x then y
+     */
+    public static List<Double> getXYForColour(String colour, String modelId)
+    {
+        Color c = parseColour(colour);
+        double[] xy = new double[2];
+        Gamut.forModel(modelId).toXy(c.getRed(), c.getGreen(), c.getBlue(), xy);
+
+        List<Double> xyList = new ArrayList<Double>(2);
+        xyList.add(xy[0]);
+        xyList.add(xy[1]);
+        return xyList;
+    }
 }
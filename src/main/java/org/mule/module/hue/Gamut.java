@@ -0,0 +1,263 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue;
+
+import org.mule.module.hue.model.LightAttributes;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The colour gamuts of the Hue lamps, each a triangle in CIE xy space. A colour outside the gamut of a
+ * lamp is re-mapped by the bridge, so converting with the gamut of the lamp gives the same colour on
+ * every bulb.
+ * <p/>
+ * Each gamut holds a lookup table of RGB to xy, precomputed on first use with 5 bits per channel, so
+ * converting a colour is a single array read rather than three gamma corrections and a clamp. Colours are
+ * scaled up to full brightness before the lookup, since brightness hardly changes chromaticity and a dark
+ * colour would otherwise quantize to grey.
+ */
+public enum Gamut
+{
+    /**
+     * LivingColors and LightStrips
+     */
+    A(0.704, 0.296, 0.2151, 0.7106, 0.138, 0.08),
+    /**
+     * The first generation Hue bulbs
+     */
+    B(0.675, 0.322, 0.409, 0.518, 0.167, 0.04),
+    /**
+     * Later generation Hue bulbs and LightStrips plus
+     */
+    C(0.692, 0.308, 0.17, 0.7, 0.153, 0.048),
+    /**
+     * Lamps of an unknown model, the whole of the xy space is accepted
+     */
+    FULL(1.0, 0.0, 0.0, 1.0, 0.0, 0.0);
+
+    private static final int BITS = 5;
+    private static final int LEVELS = 1 << BITS;
+    private static final Map<String, Gamut> MODELS = new HashMap<String, Gamut>();
+
+    static
+    {
+        for (String model : new String[]{"LLC001", "LLC005", "LLC006", "LLC007", "LLC010", "LLC011", "LLC012",
+                "LLC013", "LLC014", "LST001"})
+        {
+            MODELS.put(model, A);
+        }
+        for (String model : new String[]{"LCT001", "LCT002", "LCT003", "LCT007", "LLM001"})
+        {
+            MODELS.put(model, B);
+        }
+        for (String model : new String[]{"LCT010", "LCT011", "LCT012", "LCT014", "LCT015", "LCT016", "LLC020",
+                "LST002"})
+        {
+            MODELS.put(model, C);
+        }
+    }
+
+    private final double redX, redY, greenX, greenY, blueX, blueY;
+    private volatile float[] table;
+
+    Gamut(double redX, double redY, double greenX, double greenY, double blueX, double blueY)
+    {
+        this.redX = redX;
+        this.redY = redY;
+        this.greenX = greenX;
+        this.greenY = greenY;
+        this.blueX = blueX;
+        this.blueY = blueY;
+    }
+
+    /**
+     * Gets the gamut of a lamp model
+     *
+     * @param modelId the model of the lamp i.e. 'LCT001', may be null
+     * @return the gamut of the model, {@link #FULL} if the model is not known
+     */
+    public static Gamut forModel(String modelId)
+    {
+        Gamut gamut = modelId == null ? null : MODELS.get(modelId);
+        return gamut == null ? FULL : gamut;
+    }
+
+    /**
+     * Gets the gamut of a light
+     *
+     * @param light the light as read from the bridge
+     * @return the gamut of the light, {@link #FULL} if its model is not known
+     */
+    public static Gamut forLight(LightAttributes light)
+    {
+        return forModel(light == null ? null : light.getModelid());
+    }
+
+    /**
+     * Converts an RGB colour to the closest xy this gamut can reproduce using the lookup table.
+     * Each channel of the colour scaled to full brightness is quantized to 5 bits, black maps to the D65
+     * white point.
+     *
+     * @param r  the red channel, 0 to 255
+     * @param g  the green channel, 0 to 255
+     * @param b  the blue channel, 0 to 255
+     * @param xy receives x at index 0 and y at index 1
+     * @throws IllegalArgumentException if a channel is outside 0 to 255
+     */
+    public void toXy(int r, int g, int b, double[] xy)
+    {
+        toXy(r, g, b, xy, 0);
+    }
+
+    /**
+     * Converts an RGB colour to the closest xy this gamut can reproduce using the lookup table.
+     *
+     * @param r        the red channel, 0 to 255
+     * @param g        the green channel, 0 to 255
+     * @param b        the blue channel, 0 to 255
+     * @param xy       the buffer receiving x then y
+     * @param xyOffset the index in xy to write x at
+     * @throws IllegalArgumentException if a channel is outside 0 to 255
+     */
+    public void toXy(int r, int g, int b, double[] xy, int xyOffset)
+    {
+        int max = Math.max(ColourUtils.channel(r), Math.max(ColourUtils.channel(g), ColourUtils.channel(b)));
+        if (max <= 0)
+        {
+            xy[xyOffset] = ColourUtils.WHITE_POINT_X;
+            xy[xyOffset + 1] = ColourUtils.WHITE_POINT_Y;
+            return;
+        }
+        float[] t = table();
+        int i = index(brighten(r, max), brighten(g, max), brighten(b, max)) << 1;
+        xy[xyOffset] = t[i];
+        xy[xyOffset + 1] = t[i + 1];
+    }
+
+    /**
+     * Moves an xy colour to the closest point inside this gamut. Colours already inside are left unchanged
+     *
+     * @param x  the x coordinate
+     * @param y  the y coordinate
+     * @param xy receives x at index 0 and y at index 1
+     */
+    public void clamp(double x, double y, double[] xy)
+    {
+        if (contains(x, y))
+        {
+            xy[0] = x;
+            xy[1] = y;
+            return;
+        }
+
+        double bestX = 0, bestY = 0, best = Double.MAX_VALUE;
+        double[][] edges = {{redX, redY, greenX, greenY}, {greenX, greenY, blueX, blueY}, {blueX, blueY, redX, redY}};
+        for (double[] edge : edges)
+        {
+            double dx = edge[2] - edge[0];
+            double dy = edge[3] - edge[1];
+            double t = ((x - edge[0]) * dx + (y - edge[1]) * dy) / (dx * dx + dy * dy);
+            t = Math.max(0, Math.min(1, t));
+            double px = edge[0] + t * dx;
+            double py = edge[1] + t * dy;
+            double d = (x - px) * (x - px) + (y - py) * (y - py);
+            if (d < best)
+            {
+                best = d;
+                bestX = px;
+                bestY = py;
+            }
+        }
+        xy[0] = bestX;
+        xy[1] = bestY;
+    }
+
+    /**
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return true if the colour is inside this gamut, edges included
+     */
+    public boolean contains(double x, double y)
+    {
+        double d1 = cross(x, y, redX, redY, greenX, greenY);
+        double d2 = cross(x, y, greenX, greenY, blueX, blueY);
+        double d3 = cross(x, y, blueX, blueY, redX, redY);
+        boolean negative = d1 < 0 || d2 < 0 || d3 < 0;
+        boolean positive = d1 > 0 || d2 > 0 || d3 > 0;
+        return !(negative && positive);
+    }
+
+    private static double cross(double x, double y, double x1, double y1, double x2, double y2)
+    {
+        return (x - x2) * (y1 - y2) - (x1 - x2) * (y - y2);
+    }
+
+    /**
+     * @return the channel of a colour scaled so its brightest channel is 255
+     */
+    private static int brighten(int channel, int max)
+    {
+        return (channel * 255 + max / 2) / max;
+    }
+
+    private static int quantize(int channel)
+    {
+        return (channel * (LEVELS - 1) + 127) / 255;
+    }
+
+    private static int index(int r, int g, int b)
+    {
+        return (quantize(r) << (2 * BITS)) | (quantize(g) << BITS) | quantize(b);
+    }
+
+    private float[] table()
+    {
+        float[] t = table;
+        if (t == null)
+        {
+            t = buildTable();
+            table = t;
+        }
+        return t;
+    }
+
+    private float[] buildTable()
+    {
+        float[] t = new float[LEVELS * LEVELS * LEVELS * 2];
+        double[] xy = new double[2];
+        for (int r = 0; r < LEVELS; r++)
+        {
+            for (int g = 0; g < LEVELS; g++)
+            {
+                for (int b = 0; b < LEVELS; b++)
+                {
+                    int i = ((r << (2 * BITS)) | (g << BITS) | b) << 1;
+                    if (r == 0 && g == 0 && b == 0)
+                    {
+                        xy[0] = ColourUtils.WHITE_POINT_X;
+                        xy[1] = ColourUtils.WHITE_POINT_Y;
+                    }
+                    else
+                    {
+                        double[] raw = ColourUtils.XyzToXy(ColourUtils.rgbToXyz(level(r), level(g), level(b)));
+                        clamp(raw[0], raw[1], xy);
+                    }
+                    t[i] = (float) xy[0];
+                    t[i + 1] = (float) xy[1];
+                }
+            }
+        }
+        return t;
+    }
+
+    private static int level(int quantized)
+    {
+        return (quantized * 255 + (LEVELS - 1) / 2) / (LEVELS - 1);
+    }
+}
@@ -13,23 +13,81 @@ import org.mule.api.annotations.Category;
 import org.mule.api.annotations.Configurable;
 import org.mule.api.annotations.Connector;
 import org.mule.api.annotations.Processor;
+import org.mule.api.annotations.Source;
 import org.mule.api.annotations.display.FriendlyName;
 import org.mule.api.annotations.display.Placement;
 import org.mule.api.annotations.lifecycle.Start;
+import org.mule.api.annotations.lifecycle.Stop;
 import org.mule.api.annotations.param.ConnectionKey;
+import org.mule.api.annotations.param.Default;
 import org.mule.api.annotations.param.Optional;
+import org.mule.api.callback.SourceCallback;
+import org.mule.module.hue.animation.AnimationEngine;
+import org.mule.module.hue.cache.DatastoreCache;
+import org.mule.module.hue.dispatch.CommandDispatcher;
+import org.mule.module.hue.dispatch.CommandFuture;
+import org.mule.module.hue.dispatch.ConcurrencyLimiter;
+import org.mule.module.hue.dispatch.GroupPlanner;
+import org.mule.module.hue.dispatch.RestorePlanner;
+import org.mule.module.hue.dispatch.StateTracker;
+import org.mule.module.hue.json.LightsReader;
+import org.mule.module.hue.json.ModelReader;
+import org.mule.module.hue.json.ModelWriter;
+import org.mule.module.hue.json.ResponseReader;
+import org.mule.module.hue.metrics.HueMetrics;
+import org.mule.module.hue.model.Animation;
+import org.mule.module.hue.model.AnimationStats;
+import org.mule.module.hue.model.BridgeResponse;
 import org.mule.module.hue.model.Command;
+import org.mule.module.hue.model.Datastore;
 import org.mule.module.hue.model.GroupAttributes;
 import org.mule.module.hue.model.LightAttributes;
+import org.mule.module.hue.model.LightChange;
+import org.mule.module.hue.model.LightResult;
+import org.mule.module.hue.model.LightSnapshot;
+import org.mule.module.hue.model.LightUpdate;
 import org.mule.module.hue.model.Schedule;
+import org.mule.module.hue.model.ScheduleReconciliation;
 import org.mule.module.hue.model.State;
+import org.mule.module.hue.schedule.LocalScheduler;
+import org.mule.module.hue.schedule.ScheduleReconciler;
+import org.mule.module.hue.transport.AdaptiveTransport;
+import org.mule.module.hue.transport.HueTransport;
+import org.mule.module.hue.transport.JerseyTransport;
+import org.mule.module.hue.transport.MeteredTransport;
+import org.mule.module.hue.transport.SingleFlightTransport;
+import org.mule.module.hue.watch.LightChangeDetector;
+import org.mule.util.concurrent.DaemonThreadFactory;
 
-import com.sun.jersey.api.client.Client;
-import com.sun.jersey.api.client.WebResource;
-
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ObjectNode;
 
 /**
  * Connects to the Philips Hue smart lighting system.
@@ -44,129 +102,1794 @@ import org.codehaus.jackson.map.ObjectMapper;
 @Category(name = "org.mule.tooling.ui.modules.core.miscellaneous", description = "Miscellaneous")
 public class HueConnector
 {
+    private static final Log logger = LogFactory.getLog(HueConnector.class);
+
     /**
      * The expected date format by this service - used to create scheduled commands
      */
     public static final String ISO86012004Format = "yyyy-MM-ddThh:mm:ss";
 
     /**
-     * The local ip address for the hue base station
+     * The number of times a set of lights must be updated together before a group is created for it
+     */
+    private static final int GROUP_RECURRENCE = 3;
+
+    /**
+     * The rate of light commands a bridge sustains, budgeted by animations when commands are not throttled
+     */
+    private static final double BRIDGE_LIGHT_COMMANDS_PER_SECOND = 10;
+
+    /**
+     * The group holding every light of a bridge
+     */
+    private static final String ALL_LIGHTS = "0";
+
+    /**
+     * The precision in milliseconds with which commands scheduled on the connector run
+     */
+    private static final long LOCAL_SCHEDULE_TICK = 100;
+
+    /**
+     * Commands due sooner than this many milliseconds are never handed to the bridge, whose clock may be behind
+     * and which refuses schedules in the past
+     */
+    private static final long OFFLOAD_LEAD = 10000;
+
+    /**
+     * The milliseconds to wait before reading the datastore of a bridge again when a lazy connect failed to
+     */
+    private static final long WARM_UP_RETRY = 10000;
+
+    /**
+     * The local ip address for the hue base station
+     */
+    @Configurable
+    private String ipAddress;
+
+    /**
+     * the username that has access to the hue base station
+     */
+    @Configurable
+    @ConnectionKey
+    private String username;
+
+    /**
+     * The maximum number of persistent connections kept open to the hue base station
+     */
+    @Configurable
+    @Optional
+    @Default("4")
+    private int maxConnections;
+
+    /**
+     * The time in milliseconds to wait for a connection to the hue base station, 0 waits forever
+     */
+    @Configurable
+    @Optional
+    @Default("5000")
+    private int connectTimeout;
+
+    /**
+     * The time in milliseconds to wait for a response from the hue base station, 0 waits forever
+     */
+    @Configurable
+    @Optional
+    @Default("10000")
+    private int readTimeout;
+
+    /**
+     * The maximum number of light commands sent to the hue base station per second. Newer states for a light
+     * that is still waiting to be sent are merged into the waiting command. 0 sends every command immediately
+     */
+    @Configurable
+    @Optional
+    @Default("10")
+    private double lightCommandsPerSecond;
+
+    /**
+     * The maximum number of group commands sent to the hue base station per second. Newer states for a group
+     * that is still waiting to be sent are merged into the waiting command. 0 sends every command immediately
+     */
+    @Configurable
+    @Optional
+    @Default("1")
+    private double groupCommandsPerSecond;
+
+    /**
+     * The time in milliseconds light and group states read from the hue base station are kept in memory.
+     * The cache is filled from a single read of the whole datastore and refreshed in the background.
+     * 0 disables the cache so every read goes to the hue base station
+     */
+    @Configurable
+    @Optional
+    @Default("0")
+    private long cacheTtl;
+
+    /**
+     * The time in milliseconds a state acknowledged by the hue base station is trusted when deciding which
+     * properties of a new state need to be sent. Properties already in effect are left out of the command and
+     * commands that would change nothing are not sent at all. Changes made outside of the connector, e.g. from
+     * the hue app, are not seen so keep this short when lights are also controlled from elsewhere.
+     * 0 sends every property of every state
+     */
+    @Configurable
+    @Optional
+    @Default("0")
+    private long suppressionTtl;
+
+    /**
+     * The minimum number of lights given an identical state by set-light-states for the state to be sent as a
+     * single group command, when a group holding exactly those lights exists. 0 sends every light its own command
+     */
+    @Configurable
+    @Optional
+    @Default("0")
+    private int groupRoutingMinLights;
+
+    /**
+     * The maximum number of groups the connector may create on the hue base station for sets of lights that keep
+     * being updated together by set-light-states. The groups are named mule-N and the least recently used one is
+     * deleted to make room for a new one. Groups edited outside of the connector are only seen again on reconnect.
+     * 0 only uses the existing groups
+     */
+    @Configurable
+    @Optional
+    @Default("0")
+    private int managedGroups;
+
+    /**
+     * Further bridges to connect to, as a comma separated list of name=ipAddress/username e.g.
+     * annex=192.168.1.3/newdeveloper. Their lights and groups are addressed by the name of the bridge followed by
+     * a colon and the identifier on that bridge, e.g. annex:3, while those of the primary bridge given by ipAddress
+     * and username keep their plain identifiers. Each bridge gets its own connections and command rates.
+     */
+    @Configurable
+    @Optional
+    private String additionalBridges;
+
+    /**
+     * The file in which the commands scheduled with schedule-command are kept until they run, so they survive a
+     * restart. When not set they are kept in memory only
+     */
+    @Configurable
+    @Optional
+    private String localScheduleStore;
+
+    /**
+     * Whether to connect without reading the whole datastore of each bridge first. Credentials are checked with a
+     * small request so the application starts straight away, and the datastore is read in the background to warm
+     * the cache, group routing and state suppression
+     */
+    @Configurable
+    @Optional
+    @Default("false")
+    private boolean lazyConnect;
+
+    /**
+     * Whether to adapt the number of calls in flight to each bridge to what it sustains, between 1 and
+     * maxConnections, and to try again the calls it is too busy for after a random backoff
+     */
+    @Configurable
+    @Optional
+    @Default("false")
+    private boolean adaptiveConcurrency;
+
+    /**
+     * The number of times a call the bridge was too busy for is tried again when adaptiveConcurrency is set
+     */
+    @Configurable
+    @Optional
+    @Default("3")
+    private int maxRetries;
+
+    /**
+     * The milliseconds a call may spend waiting for its turn and backing off when adaptiveConcurrency is set,
+     * on top of which each attempt is bounded by readTimeout. 0 for no deadline
+     */
+    @Configurable
+    @Optional
+    @Default("0")
+    private long requestDeadline;
+
+    private HueTransport transport;
+    // whether the transport was created by connect, rather than set, and so is released by disconnect
+    private boolean ownsTransport;
+    private final HueMetrics metrics = new HueMetrics();
+    private Bridge primary;
+    private List<Bridge> bridges = Collections.emptyList();
+    private Map<String, Bridge> bridgesByName = Collections.emptyMap();
+    private volatile Map<String, Bridge> lightIndex = Collections.emptyMap();
+    private volatile Map<String, Bridge> groupIndex = Collections.emptyMap();
+    private ExecutorService executor;
+    private ScheduledExecutorService scheduler;
+    private AnimationEngine animations;
+    private LocalScheduler localScheduler;
+    private ObjectMapper mapper = new ObjectMapper();
+    private ResponseReader responseReader = new ResponseReader(mapper);
+    private ModelReader modelReader = new ModelReader(mapper);
+    private ModelWriter modelWriter = new ModelWriter(mapper);
+    private RestorePlanner restorePlanner = new RestorePlanner(mapper);
+
+    /**
+     * The local ip address for the hue base station
+     *
+     * @return The local ip address for the hue base station
+     */
+    public String getIpAddress()
+    {
+        return ipAddress;
+    }
+
+    /**
+     * Sets the local ip address for the hue base station
+     *
+     * @param ipAddress the local ip address for the hue base station
+     */
+    public void setIpAddress(String ipAddress)
+    {
+        this.ipAddress = ipAddress;
+    }
+
+    /**
+     * Gets the username that has access to the hue base station
+     *
+     * @return the username that has access to the hue base station
+     */
+    public String getUsername()
+    {
+        return username;
+    }
+
+    /**
+     * Sets the username that has access to the hue base station
+     *
+     * @param userName the username that has access to the hue base station
+     */
+    public void setUsername(String username)
+    {
+        this.username = username;
+    }
+
+    /**
+     * Gets the maximum number of persistent connections kept open to the hue base station
+     *
+     * @return the maximum number of connections
+     */
+    public int getMaxConnections()
+    {
+        return maxConnections;
+    }
+
+    /**
+     * Sets the maximum number of persistent connections kept open to the hue base station
+     *
+     * @param maxConnections the maximum number of connections
+     */
+    public void setMaxConnections(int maxConnections)
+    {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Gets the connect timeout in milliseconds
+     *
+     * @return the connect timeout in milliseconds
+     */
+    public int getConnectTimeout()
+    {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets the connect timeout in milliseconds
+     *
+     * @param connectTimeout the connect timeout in milliseconds, 0 waits forever
+     */
+    public void setConnectTimeout(int connectTimeout)
+    {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Gets the read timeout in milliseconds
+     *
+     * @return the read timeout in milliseconds
+     */
+    public int getReadTimeout()
+    {
+        return readTimeout;
+    }
+
+    /**
+     * Sets the read timeout in milliseconds
+     *
+     * @param readTimeout the read timeout in milliseconds, 0 waits forever
+     */
+    public void setReadTimeout(int readTimeout)
+    {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Gets the maximum number of light commands sent per second
+     *
+     * @return the maximum number of light commands sent per second
+     */
+    public double getLightCommandsPerSecond()
+    {
+        return lightCommandsPerSecond;
+    }
+
+    /**
+     * Sets the maximum number of light commands sent per second
+     *
+     * @param lightCommandsPerSecond the maximum number of light commands sent per second, 0 disables throttling
+     */
+    public void setLightCommandsPerSecond(double lightCommandsPerSecond)
+    {
+        this.lightCommandsPerSecond = lightCommandsPerSecond;
+    }
+
+    /**
+     * Gets the maximum number of group commands sent per second
+     *
+     * @return the maximum number of group commands sent per second
+     */
+    public double getGroupCommandsPerSecond()
+    {
+        return groupCommandsPerSecond;
+    }
+
+    /**
+     * Sets the maximum number of group commands sent per second
+     *
+     * @param groupCommandsPerSecond the maximum number of group commands sent per second, 0 disables throttling
+     */
+    public void setGroupCommandsPerSecond(double groupCommandsPerSecond)
+    {
+        this.groupCommandsPerSecond = groupCommandsPerSecond;
+    }
+
+    /**
+     * Gets the time in milliseconds states are cached for
+     *
+     * @return the time in milliseconds states are cached for, 0 if caching is disabled
+     */
+    public long getCacheTtl()
+    {
+        return cacheTtl;
+    }
+
+    /**
+     * Sets the time in milliseconds states are cached for
+     *
+     * @param cacheTtl the time in milliseconds states are cached for, 0 disables the cache
+     */
+    public void setCacheTtl(long cacheTtl)
+    {
+        this.cacheTtl = cacheTtl;
+    }
+
+    /**
+     * Gets the time in milliseconds an acknowledged state is trusted to suppress unchanged properties
+     *
+     * @return the time in milliseconds an acknowledged state is trusted, 0 if suppression is disabled
+     */
+    public long getSuppressionTtl()
+    {
+        return suppressionTtl;
+    }
+
+    /**
+     * Sets the time in milliseconds an acknowledged state is trusted to suppress unchanged properties
+     *
+     * @param suppressionTtl the time in milliseconds an acknowledged state is trusted, 0 disables suppression
+     */
+    public void setSuppressionTtl(long suppressionTtl)
+    {
+        this.suppressionTtl = suppressionTtl;
+    }
+
+    /**
+     * Gets the minimum number of lights sharing a state for it to be sent to a group
+     *
+     * @return the minimum number of lights sharing a state for it to be sent to a group, 0 if routing is disabled
+     */
+    public int getGroupRoutingMinLights()
+    {
+        return groupRoutingMinLights;
+    }
+
+    /**
+     * Sets the minimum number of lights sharing a state for it to be sent to a group
+     *
+     * @param groupRoutingMinLights the minimum number of lights sharing a state, 0 disables routing
+     */
+    public void setGroupRoutingMinLights(int groupRoutingMinLights)
+    {
+        this.groupRoutingMinLights = groupRoutingMinLights;
+    }
+
+    /**
+     * Gets the maximum number of groups the connector may create
+     *
+     * @return the maximum number of groups the connector may create
+     */
+    public int getManagedGroups()
+    {
+        return managedGroups;
+    }
+
+    /**
+     * Sets the maximum number of groups the connector may create
+     *
+     * @param managedGroups the maximum number of groups the connector may create, 0 to only use existing groups
+     */
+    public void setManagedGroups(int managedGroups)
+    {
+        this.managedGroups = managedGroups;
+    }
+
+    /**
+     * Gets the additional bridges to connect to
+     *
+     * @return the comma separated list of name=ipAddress/username, or null if there are none
+     */
+    public String getAdditionalBridges()
+    {
+        return additionalBridges;
+    }
+
+    /**
+     * Sets the additional bridges to connect to
+     *
+     * @param additionalBridges the comma separated list of name=ipAddress/username
+     */
+    public void setAdditionalBridges(String additionalBridges)
+    {
+        this.additionalBridges = additionalBridges;
+    }
+
+    /**
+     * Gets the file in which scheduled commands are kept
+     *
+     * @return the path of the file, or null if scheduled commands are kept in memory only
+     */
+    public String getLocalScheduleStore()
+    {
+        return localScheduleStore;
+    }
+
+    /**
+     * Sets the file in which scheduled commands are kept
+     *
+     * @param localScheduleStore the path of the file
+     */
+    public void setLocalScheduleStore(String localScheduleStore)
+    {
+        this.localScheduleStore = localScheduleStore;
+    }
+
+    /**
+     * Gets whether the datastore of each bridge is read in the background after connecting
+     *
+     * @return true if the connector connects lazily
+     */
+    public boolean isLazyConnect()
+    {
+        return lazyConnect;
+    }
+
+    /**
+     * Sets whether the datastore of each bridge is read in the background after connecting
+     *
+     * @param lazyConnect true to connect lazily
+     */
+    public void setLazyConnect(boolean lazyConnect)
+    {
+        this.lazyConnect = lazyConnect;
+    }
+
+    /**
+     * Gets whether the calls in flight to each bridge adapt to what it sustains
+     *
+     * @return true if concurrency is adaptive
+     */
+    public boolean isAdaptiveConcurrency()
+    {
+        return adaptiveConcurrency;
+    }
+
+    /**
+     * Sets whether the calls in flight to each bridge adapt to what it sustains
+     *
+     * @param adaptiveConcurrency true to adapt concurrency and retry overloaded calls
+     */
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency)
+    {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    /**
+     * Gets the number of times an overloaded call is tried again
+     *
+     * @return the number of retries
+     */
+    public int getMaxRetries()
+    {
+        return maxRetries;
+    }
+
+    /**
+     * Sets the number of times an overloaded call is tried again
+     *
+     * @param maxRetries the number of retries
+     */
+    public void setMaxRetries(int maxRetries)
+    {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Gets the milliseconds a call may spend waiting and backing off
+     *
+     * @return the deadline, 0 for none
+     */
+    public long getRequestDeadline()
+    {
+        return requestDeadline;
+    }
+
+    /**
+     * Sets the milliseconds a call may spend waiting and backing off
+     *
+     * @param requestDeadline the deadline, 0 for none
+     */
+    public void setRequestDeadline(long requestDeadline)
+    {
+        this.requestDeadline = requestDeadline;
+    }
+
+    /**
+     * Gets the latencies and counts of the calls made to the bridges, also registered as an MXBean named
+     * org.mule.module.hue:type=HueConnector,name="ipAddress" while the connector is connected
+     *
+     * @return the metrics of this configuration
+     */
+    public HueMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Gets the transport used to talk to the primary hue base station
+     *
+     * @return the transport, or null if the connector has not been started
+     */
+    public HueTransport getTransport()
+    {
+        return transport;
+    }
+
+    /**
+     * Sets the transport used to talk to the hue base station. If not set a pooled
+     * {@link JerseyTransport} is created from this configuration when the connector starts.
+     * A transport that is set outlives disconnect and is left for the caller to dispose.
+     *
+     * @param transport the transport to use
+     */
+    public void setTransport(HueTransport transport)
+    {
+        this.transport = transport;
+    }
+
+    /**
+     * Connect to the primary bridge and to every additional bridge, building the index that routes each light
+     * and group to the bridge it belongs to. With lazyConnect only the credentials are checked before returning
+     * and the index is built in the background
+     *
+     * @throws ConnectionException if a bridge cannot be reached or does not know the user
+     */
+    @Start
+    public void connect() throws ConnectionException
+    {
+        List<String[]> additional = parseBridges(additionalBridges);
+        if (transport == null)
+        {
+            transport = new JerseyTransport(getBaseUri(), maxConnections, connectTimeout, readTimeout);
+            ownsTransport = true;
+        }
+        metrics.register(ipAddress);
+        executor = Executors.newCachedThreadPool(new DaemonThreadFactory("hue-connector"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("hue-scheduler"));
+
+        long start = System.nanoTime();
+        List<Bridge> opened = new ArrayList<Bridge>();
+        Map<String, Bridge> byName = new HashMap<String, Bridge>();
+        Map<String, Bridge> lights = new HashMap<String, Bridge>();
+        Map<String, Bridge> groups = new HashMap<String, Bridge>();
+        try
+        {
+            Bridge primaryBridge = newBridge(null, username, transport);
+            primaryBridge.ownsTransport = ownsTransport;
+            opened.add(open(primaryBridge, lights, groups));
+            for (String[] spec : additional)
+            {
+                String uri = "http://" + spec[1] + "/api/" + spec[2];
+                HueTransport bridgeTransport = new JerseyTransport(uri, maxConnections, connectTimeout, readTimeout);
+                Bridge bridge = newBridge(spec[0], spec[2], bridgeTransport);
+                opened.add(open(bridge, lights, groups));
+                byName.put(spec[0], bridge);
+            }
+        }
+        catch (ConnectionException e)
+        {
+            abandon(opened, start);
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            abandon(opened, start);
+            throw e;
+        }
+        metrics.operation("connect").record(System.nanoTime() - start, false);
+        animations = new AnimationEngine(new AnimationSink(), lightCommandsPerSecond > 0 ? lightCommandsPerSecond : BRIDGE_LIGHT_COMMANDS_PER_SECOND);
+
+        primary = opened.get(0);
+        bridges = opened;
+        bridgesByName = byName;
+        lightIndex = lights;
+        groupIndex = groups;
+        if (lazyConnect)
+        {
+            for (Bridge bridge : opened)
+            {
+                warmUp(bridge);
+            }
+        }
+
+        try
+        {
+            localScheduler = new LocalScheduler(new CommandSink(), mapper, LOCAL_SCHEDULE_TICK,
+                                                localScheduleStore != null ? new File(localScheduleStore) : null);
+        }
+        catch (IOException e)
+        {
+            disconnect();
+            throw new ConnectionException(ConnectionExceptionCode.UNKNOWN, null,
+                                          "Could not load the scheduled commands from " + localScheduleStore + ": " + e.getMessage(), e);
+        }
+        localScheduler.start(scheduler);
+    }
+
+    /**
+     * Releases what a failed connect had acquired before it failed
+     */
+    private void abandon(List<Bridge> opened, long start)
+    {
+        for (Bridge bridge : opened)
+        {
+            close(bridge);
+        }
+        releaseTransport();
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+        metrics.unregister();
+        metrics.operation("connect").record(System.nanoTime() - start, true);
+    }
+
+    /**
+     * Wraps the transport to a bridge in the metrics, in the limiter when concurrency is adaptive, and in the
+     * sharing of identical reads. The metrics go innermost so they count each attempt the bridge actually gets,
+     * without the waits and backoffs of the limiter.
+     */
+    private Bridge newBridge(String name, String username, HueTransport bridgeTransport)
+    {
+        bridgeTransport = new MeteredTransport(bridgeTransport, metrics, mapper);
+        ConcurrencyLimiter limiter = null;
+        if (adaptiveConcurrency)
+        {
+            limiter = new ConcurrencyLimiter(Math.max(maxConnections, 1));
+            bridgeTransport = new AdaptiveTransport(bridgeTransport, limiter, metrics, maxRetries, requestDeadline);
+        }
+        Bridge bridge = new Bridge(name, username, new SingleFlightTransport(bridgeTransport, metrics));
+        bridge.limiter = limiter;
+        return bridge;
+    }
+
+    private Bridge open(Bridge bridge, Map<String, Bridge> lights, Map<String, Bridge> groups) throws ConnectionException
+    {
+        HueTransport bridgeTransport = bridge.getTransport();
+        String res;
+        try
+        {
+            // group 0 is small and, unlike the configuration, only answered for a whitelisted user
+            res = bridgeTransport.get(lazyConnect ? "groups/" + ALL_LIGHTS : "");
+        }
+        catch (IOException e)
+        {
+            bridge.disposeTransport();
+            throw new ConnectionException(ConnectionExceptionCode.CANNOT_REACH, null, bridge + ": " + e.getMessage(), e);
+        }
+        try
+        {
+            responseReader.checkRead(res);
+        }
+        catch (IOException e)
+        {
+            bridge.disposeTransport();
+            throw new ConnectionException(ConnectionExceptionCode.INCORRECT_CREDENTIALS, "unauthorized user", bridge + ": " + e.getMessage(), e);
+        }
+
+        StateTracker tracker = suppressionTtl > 0 ? new StateTracker(suppressionTtl) : null;
+        bridge.dispatcher = new CommandDispatcher(bridgeTransport, mapper, lightCommandsPerSecond, groupCommandsPerSecond, tracker);
+        bridge.dispatcher.start();
+        metrics.addDispatcher(bridge.dispatcher);
+        if (bridge.limiter != null)
+        {
+            metrics.addLimiter(bridge.limiter);
+        }
+        // unthrottled async commands share as many threads as there are connections to the bridge
+        bridge.asyncExecutor = Executors.newFixedThreadPool(Math.max(maxConnections, 1), new DaemonThreadFactory("hue-async"));
+        bridge.dispatcher.setDirectExecutor(bridge.asyncExecutor);
+        if (cacheTtl > 0)
+        {
+            bridge.cache = new DatastoreCache(bridgeTransport, mapper, cacheTtl);
+            bridge.cache.start(scheduler);
+        }
+
+        if (!lazyConnect)
+        {
+            try
+            {
+                warm(bridge, modelReader.readDatastore(res), lights, groups);
+            }
+            catch (IOException e)
+            {
+                // every feature relying on the datastore learns what it needs on first use instead
+            }
+        }
+        return bridge;
+    }
+
+    /**
+     * Hands the datastore of a bridge to everything that starts from it: state suppression, group routing, the
+     * cache and the index of lights and groups
+     */
+    private void warm(Bridge bridge, Datastore datastore, Map<String, Bridge> lights, Map<String, Bridge> groups)
+    {
+        StateTracker tracker = bridge.dispatcher.getStateTracker();
+        if (tracker != null)
+        {
+            tracker.setGroupMembers(groupMembers(datastore));
+        }
+        if (groupRoutingMinLights > 0)
+        {
+            GroupPlanner planner = new GroupPlanner(bridge.getTransport(), mapper, groupRoutingMinLights, managedGroups, GROUP_RECURRENCE, tracker);
+            planner.load(datastore);
+            bridge.planner = planner;
+        }
+        if (bridge.cache != null)
+        {
+            bridge.cache.load(datastore);
+        }
+        if (datastore.getLights() != null)
+        {
+            Map<String, Gamut> gamuts = new HashMap<String, Gamut>();
+            for (Map.Entry<String, LightAttributes> light : datastore.getLights().entrySet())
+            {
+                lights.put(bridge.qualify(light.getKey()), bridge);
+                gamuts.put(light.getKey(), Gamut.forLight(light.getValue()));
+            }
+            bridge.gamuts = gamuts;
+        }
+        if (datastore.getGroups() != null)
+        {
+            for (String groupId : datastore.getGroups().keySet())
+            {
+                groups.put(bridge.qualify(groupId), bridge);
+            }
+        }
+        bridge.warm = true;
+    }
+
+    /**
+     * @return whether every bridge has been warmed with its datastore, which after a lazy connect happens in the
+     *         background
+     */
+    boolean isWarm()
+    {
+        for (Bridge bridge : bridges)
+        {
+            if (!bridge.warm)
+            {
+                return false;
+            }
+        }
+        return !bridges.isEmpty();
+    }
+
+    /**
+     * Reads the datastore of a bridge in the background after a lazy connect and warms the bridge with it, trying
+     * again every WARM_UP_RETRY milliseconds until it succeeds or the connector disconnects. Until then lights
+     * and groups are routed by their identifiers alone and the cache fills itself on first use.
+     */
+    private void warmUp(final Bridge bridge)
+    {
+        final ExecutorService warmUpExecutor = executor;
+        final ScheduledExecutorService retryScheduler = scheduler;
+        try
+        {
+            warmUpExecutor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    Datastore datastore;
+                    try
+                    {
+                        datastore = modelReader.readDatastore(responseReader.checkRead(bridge.getTransport().get("")));
+                    }
+                    catch (IOException e)
+                    {
+                        if (bridge.dispatcher == null)
+                        {
+                            return;
+                        }
+                        logger.warn("Could not read the datastore of the " + bridge + ", trying again in " + WARM_UP_RETRY + "ms: " + e.getMessage());
+                        try
+                        {
+                            retryScheduler.schedule(new Runnable()
+                            {
+                                public void run()
+                                {
+                                    warmUp(bridge);
+                                }
+                            }, WARM_UP_RETRY, TimeUnit.MILLISECONDS);
+                        }
+                        catch (RejectedExecutionException rejected)
+                        {
+                            // the connector disconnected
+                        }
+                        return;
+                    }
+                    synchronized (HueConnector.this)
+                    {
+                        if (bridge.dispatcher == null)
+                        {
+                            // disconnected in the meantime
+                            return;
+                        }
+                        Map<String, Bridge> lights = new HashMap<String, Bridge>(lightIndex);
+                        Map<String, Bridge> groups = new HashMap<String, Bridge>(groupIndex);
+                        warm(bridge, datastore, lights, groups);
+                        lightIndex = lights;
+                        groupIndex = groups;
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the connector disconnected
+        }
+    }
+
+    /**
+     * Disconnect, releasing the connections held open to the hue base stations
+     */
+    @Stop
+    public void disconnect()
+    {
+        if (animations != null)
+        {
+            animations.dispose();
+            animations = null;
+        }
+        if (localScheduler != null)
+        {
+            localScheduler.stop();
+            localScheduler = null;
+        }
+        if (scheduler != null)
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (executor != null)
+        {
+            executor.shutdownNow();
+            executor = null;
+        }
+        for (Bridge bridge : bridges)
+        {
+            close(bridge);
+        }
+        metrics.unregister();
+        bridges = Collections.emptyList();
+        bridgesByName = Collections.emptyMap();
+        lightIndex = Collections.emptyMap();
+        groupIndex = Collections.emptyMap();
+        primary = null;
+        releaseTransport();
+    }
+
+    /**
+     * Forgets the transport if connect created it, a transport that was set is kept for the next connect
+     */
+    private void releaseTransport()
+    {
+        if (ownsTransport)
+        {
+            transport = null;
+            ownsTransport = false;
+        }
+    }
+
+    private void close(Bridge bridge)
+    {
+        metrics.removeDispatcher(bridge.dispatcher);
+        if (bridge.limiter != null)
+        {
+            metrics.removeLimiter(bridge.limiter);
+        }
+        bridge.close();
+    }
+
+    /**
+     * Sets the state of an individual light. Commands are sent no faster than lightCommandsPerSecond, while
+     * a command waits to be sent newer states for the same light are merged into it.
+     * <p/>
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:set-light-state}
+     *
+     * @param lightId the identifier for the light to change
+     * @param state   the new state to apply to the light
+     * @return The new state of the light
+     * @throws IOException if there is a connection error or if the call returns an error response
+     */
+    @Processor
+    public State setLightState(String lightId, State state) throws IOException
+    {
+        Bridge bridge = route(lightIndex, lightId);
+        String localId = localId(lightId);
+        state = inGamut(bridge, localId, state);
+        responseReader.readSuccess(bridge.dispatcher.setLightState(localId, state));
+        if (bridge.cache != null)
+        {
+            bridge.cache.updateLight(localId, state);
+        }
+        return state;
+    }
+
+    /**
+     * Sets the state of a light group.  All lights in the group will be given the same state. Commands are sent
+     * no faster than groupCommandsPerSecond, while a command waits to be sent newer states for the same group
+     * are merged into it. Group 0 addresses every light of every bridge.
+     * <p/>
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:set-group-state}
+     *
+     * @param groupId the identifier for the group to change. The bridge has a default group is 0 which includes all lights known by the bridge
+     * @param state   the new state to apply to the group
+     * @return The new state of the group
+     * @throws IOException if there is a connection error or if the call returns an error response
+     */
+    @Processor
+    public State setGroupState(String groupId,  @Placement(group = "State") State state) throws IOException
+    {
+        if (ALL_LIGHTS.equals(groupId) && bridges.size() > 1)
+        {
+            // the bridges are addressed in parallel rather than one after the other
+            return await(setGroupStateAsync(groupId, state));
+        }
+        Bridge bridge = route(groupIndex, groupId);
+        String localId = localId(groupId);
+        responseReader.readSuccess(bridge.dispatcher.setGroupState(localId, state));
+        if (bridge.cache != null)
+        {
+            bridge.cache.updateGroup(localId, state);
+        }
+        return state;
+    }
+
+    /**
+     * Sets the state of an individual light without waiting for the bridge. The command is queued like with
+     * set-light-state and the returned future completes once it has been sent, so commands waiting for their turn
+     * do not hold a thread. Without throttling, commands are sent by at most maxConnections threads per bridge.
+     * <p/>
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:set-light-state-async}
+     *
+     * @param lightId the identifier for the light to change
+     * @param state   the new state to apply to the light
+     * @return the future new state of the light, failing with an IOException if the state could not be applied
+     * @throws IOException if the light belongs to an unknown bridge
+     */
+    @Processor
+    public Future<State> setLightStateAsync(String lightId, @Placement(group = "State") State state) throws IOException
+    {
+        return submitLightState(lightId, state);
+    }
+
+    private CommandFuture<State> submitLightState(String lightId, State requested) throws IOException
+    {
+        final Bridge bridge = route(lightIndex, lightId);
+        final String localId = localId(lightId);
+        final State state = inGamut(bridge, localId, requested);
+        final CommandFuture<State> future = new CommandFuture<State>();
+        bridge.dispatcher.submitLightState(localId, state).addCallback(new StateCallback(future, state, new AtomicInteger(1))
+        {
+            @Override
+            void applied()
+            {
+                if (bridge.cache != null)
+                {
+                    bridge.cache.updateLight(localId, state);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Sets the state of a light group without waiting for the bridge. The command is queued like with
+     * set-group-state and the returned future completes once it has been sent.
+     * <p/>
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:set-group-state-async}
+     *
+     * @param groupId the identifier for the group to change
+     * @param state   the new state to apply to the group
+     * @return the future new state of the group, failing with an IOException if the state could not be applied
+     * @throws IOException if the group belongs to an unknown bridge
+     */
+    @Processor
+    public Future<State> setGroupStateAsync(String groupId, @Placement(group = "State") State state) throws IOException
+    {
+        List<Bridge> targets = ALL_LIGHTS.equals(groupId) ? bridges : Collections.singletonList(route(groupIndex, groupId));
+        String localId = localId(groupId);
+        CommandFuture<State> future = new CommandFuture<State>();
+        AtomicInteger remaining = new AtomicInteger(targets.size());
+        for (Bridge bridge : targets)
+        {
+            submitGroupState(bridge, localId, state, future, remaining);
+        }
+        return future;
+    }
+
+    private void submitGroupState(final Bridge bridge, final String localId, final State state,
+                                  CommandFuture<State> future, AtomicInteger remaining)
+    {
+        bridge.dispatcher.submitGroupState(localId, state).addCallback(new StateCallback(future, state, remaining)
+        {
+            @Override
+            void applied()
+            {
+                if (bridge.cache != null)
+                {
+                    bridge.cache.updateGroup(localId, state);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets the state of many lights in one call. The states are applied in parallel, at most concurrency at a
+     * time on each bridge, and a failure to update one light does not stop the others from being updated.
+     * <p/>
+     * When groupRoutingMinLights is set, lights given an identical state are updated by a single group command
+     * if a group holds exactly those lights, and when managedGroups is set groups are created for sets of lights
+     * that keep being updated together.
+     * <p/>
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:set-light-states}
+     *
+     * @param states      the new state of each light keyed by the identifier of the light
+     * @param concurrency the maximum number of commands sent at the same time to each bridge. Only used when
+     *                    lightCommandsPerSecond and groupCommandsPerSecond are 0, throttled commands go out one
+     *                    at a time at the configured rate
+     * @return the outcome for each light, in the iteration order of states
+     * @throws InterruptedException if the thread is interrupted while waiting for the updates to finish
+     */
+    @Processor
+    public List<LightResult> setLightStates(@Placement(group = "States") Map<String, State> states,
+                                            @Optional @Default("4") int concurrency) throws InterruptedException
+    {
+        Map<String, LightResult> results = new ConcurrentHashMap<String, LightResult>();
+        apply(routes(states, results), results, concurrency);
+        return ordered(new ArrayList<String>(states.keySet()), results);
+    }
+
+    /**
+     * Sets the state of many lights in one call, like set-light-states, from a list of light and state pairs.
+     * When a light is listed more than once the last of its states is applied.
+     * <p/>
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:set-light-state-list}
+     *
+     * @param updates     the light and the new state of each update
+     * @param concurrency the maximum number of commands sent at the same time to each bridge. Only used when
+     *                    lightCommandsPerSecond and groupCommandsPerSecond are 0, throttled commands go out one
+     *                    at a time at the configured rate
+     * @return the outcome for each update, in the order of updates
+     * @throws InterruptedException if the thread is interrupted while waiting for the updates to finish
+     */
+    @Processor
+    public List<LightResult> setLightStateList(@Placement(group = "Updates") List<LightUpdate> updates,
+                                               @Optional @Default("4") int concurrency) throws InterruptedException
+    {
+        Map<String, State> states = new LinkedHashMap<String, State>();
+        List<String> order = new ArrayList<String>(updates.size());
+        for (LightUpdate update : updates)
+        {
+            states.put(update.getLightId(), update.getState());
+            order.add(update.getLightId());
+        }
+        Map<String, LightResult> results = new ConcurrentHashMap<String, LightResult>();
+        apply(routes(states, results), results, concurrency);
+        return ordered(order, results);
+    }
+
+    /**
+     * Sets the state of many lights without waiting for the bridge. All commands are queued at once, and routed
+     * through groups like with set-light-states, and the returned future completes once every one of them has
+     * been sent. The commands of each bridge are planned on its own threads, so a group created for them does not
+     * hold up the caller.
+     * <p/>
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:set-light-states-async}
+     *
+     * @param states the new state of each light keyed by the identifier of the light
+     * @return the future outcome for each light, in the iteration order of states
+     */
+    @Processor
+    public Future<List<LightResult>> setLightStatesAsync(@Placement(group = "States") Map<String, State> states)
+    {
+        final List<String> order = new ArrayList<String>(states.keySet());
+        final Map<String, LightResult> results = new ConcurrentHashMap<String, LightResult>();
+        Map<Bridge, Map<String, State>> byBridge = byBridge(states, results);
+        final CommandFuture<List<LightResult>> future = new CommandFuture<List<LightResult>>();
+        // one for the planning of each bridge, and one for each command once it is planned
+        final AtomicInteger remaining = new AtomicInteger(byBridge.size());
+        if (byBridge.isEmpty())
+        {
+            future.complete(ordered(order, results));
+            return future;
+        }
+
+        final AsyncResults done = new AsyncResults(order, results, remaining, future);
+
+        for (Map.Entry<Bridge, Map<String, State>> entry : byBridge.entrySet())
+        {
+            final Bridge bridge = entry.getKey();
+            final Map<String, State> bridgeStates = entry.getValue();
+            Runnable planning = new Runnable()
+            {
+                public void run()
+                {
+                    List<GroupPlanner.Route> routes;
+                    try
+                    {
+                        routes = plan(bridge, bridgeStates);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        done.failed(bridge, bridgeStates, e);
+                        return;
+                    }
+                    remaining.addAndGet(routes.size());
+                    for (GroupPlanner.Route route : routes)
+                    {
+                        submit(bridge, route, done);
+                    }
+                    done.done(Collections.<LightResult>emptyList());
+                }
+            };
+            ExecutorService executor = bridge.asyncExecutor;
+            try
+            {
+                if (executor == null)
+                {
+                    planning.run();
+                }
+                else
+                {
+                    executor.execute(planning);
+                }
+            }
+            catch (RejectedExecutionException e)
+            {
+                done.failed(bridge, bridgeStates, e);
+            }
+        }
+        return future;
+    }
+
+    private void submit(final Bridge bridge, GroupPlanner.Route planned, final AsyncResults done)
+    {
+        final GroupPlanner.Route route = inGamut(bridge, planned);
+        CommandFuture<String> command;
+        try
+        {
+            command = route.getGroupId() == null
+                      ? bridge.dispatcher.submitLightState(route.getLightIds().get(0), route.getState())
+                      : bridge.dispatcher.submitGroupState(route.getGroupId(), route.getState());
+        }
+        catch (RuntimeException e)
+        {
+            release(bridge, route);
+            done.done(results(bridge, route, null, new IOException(e.toString(), e)));
+            return;
+        }
+        command.addCallback(new CommandFuture.Callback<String>()
+        {
+            public void completed(String response)
+            {
+                release(bridge, route);
+                done.done(results(bridge, route, response, null));
+            }
+
+            public void failed(IOException error)
+            {
+                release(bridge, route);
+                done.done(results(bridge, route, null, error));
+            }
+        });
+    }
+
+    /**
+     * Collects the outcomes of an async bulk update, completing its future with the last of them
+     */
+    private class AsyncResults
+    {
+        private final List<String> order;
+        private final Map<String, LightResult> results;
+        private final AtomicInteger remaining;
+        private final CommandFuture<List<LightResult>> future;
+
+        AsyncResults(List<String> order, Map<String, LightResult> results, AtomicInteger remaining,
+                     CommandFuture<List<LightResult>> future)
+        {
+            this.order = order;
+            this.results = results;
+            this.remaining = remaining;
+            this.future = future;
+        }
+
+        void done(List<LightResult> routeResults)
+        {
+            for (LightResult result : routeResults)
+            {
+                results.put(result.getLightId(), result);
+            }
+            if (remaining.decrementAndGet() == 0)
+            {
+                future.complete(ordered(order, results));
+            }
+        }
+
+        /**
+         * Fails every light of a bridge whose commands could not be planned
+         */
+        void failed(Bridge bridge, Map<String, State> states, Exception e)
+        {
+            List<LightResult> failures = new ArrayList<LightResult>(states.size());
+            for (Map.Entry<String, State> state : states.entrySet())
+            {
+                failures.add(new LightResult(bridge.qualify(state.getKey()), state.getValue(), false, e.toString()));
+            }
+            done(failures);
+        }
+    }
+
+    /**
+     * Sends the commands planned for each bridge, at most concurrency at the same time to each of them
+     *
+     * @param routes      the commands to send to each bridge
+     * @param results     receives the outcome for each light
+     * @param concurrency the maximum number of commands sent at the same time to each bridge
+     * @throws InterruptedException if the thread is interrupted while waiting for the commands to finish
+     */
+    private void apply(Map<Bridge, List<GroupPlanner.Route>> routes, final Map<String, LightResult> results, int concurrency)
+            throws InterruptedException
+    {
+        List<Runnable> workers = new ArrayList<Runnable>();
+        for (final Map.Entry<Bridge, List<GroupPlanner.Route>> entry : routes.entrySet())
+        {
+            final Bridge bridge = entry.getKey();
+            final List<GroupPlanner.Route> bridgeRoutes = entry.getValue();
+            final AtomicInteger next = new AtomicInteger();
+            Runnable worker = new Runnable()
+            {
+                public void run()
+                {
+                    int i;
+                    while ((i = next.getAndIncrement()) < bridgeRoutes.size())
+                    {
+                        for (LightResult result : applyRoute(bridge, bridgeRoutes.get(i)))
+                        {
+                            results.put(result.getLightId(), result);
+                        }
+                    }
+                }
+            };
+            for (int i = Math.min(Math.max(concurrency, 1), bridgeRoutes.size()); i > 0; i--)
+            {
+                workers.add(worker);
+            }
+        }
+
+        if (!workers.isEmpty())
+        {
+            // the calling thread is one of the workers
+            List<Future<?>> futures = new ArrayList<Future<?>>(workers.size());
+            for (Runnable worker : workers.subList(1, workers.size()))
+            {
+                futures.add(executor.submit(worker));
+            }
+            workers.get(0).run();
+
+            for (Future<?> future : futures)
+            {
+                try
+                {
+                    future.get();
+                }
+                catch (ExecutionException e)
+                {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+    }
+
+    private static List<LightResult> ordered(List<String> order, Map<String, LightResult> results)
+    {
+        List<LightResult> ordered = new ArrayList<LightResult>(order.size());
+        for (String lightId : order)
+        {
+            ordered.add(results.get(lightId));
+        }
+        return ordered;
+    }
+
+    /**
+     * Splits a bulk update by bridge and plans the commands for each of them
+     *
+     * @param states   the new state of each light keyed by the identifier of the light
+     * @param failures receives a result for every light of an unknown bridge
+     * @return the commands to send to each bridge
+     */
+    private Map<Bridge, List<GroupPlanner.Route>> routes(Map<String, State> states, Map<String, LightResult> failures)
+    {
+        Map<Bridge, List<GroupPlanner.Route>> routes = new LinkedHashMap<Bridge, List<GroupPlanner.Route>>();
+        for (Map.Entry<Bridge, Map<String, State>> entry : byBridge(states, failures).entrySet())
+        {
+            routes.put(entry.getKey(), plan(entry.getKey(), entry.getValue()));
+        }
+        return routes;
+    }
+
+    /**
+     * Plans the commands of a bulk update for one bridge, through its groups when group routing is enabled
+     *
+     * @param bridge the bridge
+     * @param states the new state of each light keyed by the identifier of the light on the bridge
+     * @return the commands to send to the bridge
+     */
+    private List<GroupPlanner.Route> plan(Bridge bridge, Map<String, State> states)
+    {
+        GroupPlanner planner = bridge.planner;
+        if (planner != null)
+        {
+            return planner.plan(states);
+        }
+        List<GroupPlanner.Route> routes = new ArrayList<GroupPlanner.Route>(states.size());
+        for (Map.Entry<String, State> state : states.entrySet())
+        {
+            routes.add(new GroupPlanner.Route(null, Collections.singletonList(state.getKey()), state.getValue()));
+        }
+        return routes;
+    }
+
+    /**
+     * Splits the states of many lights by bridge
+     *
+     * @param states   the state of each light keyed by the identifier of the light
+     * @param failures receives a result for every light of an unknown bridge
+     * @return the states of the lights of each bridge keyed by the identifier of the light on the bridge
+     */
+    private Map<Bridge, Map<String, State>> byBridge(Map<String, State> states, Map<String, LightResult> failures)
+    {
+        Map<Bridge, Map<String, State>> byBridge = new LinkedHashMap<Bridge, Map<String, State>>();
+        for (Map.Entry<String, State> entry : states.entrySet())
+        {
+            Bridge bridge;
+            try
+            {
+                bridge = route(lightIndex, entry.getKey());
+            }
+            catch (IOException e)
+            {
+                failures.put(entry.getKey(), new LightResult(entry.getKey(), entry.getValue(), false, e.getMessage()));
+                continue;
+            }
+            Map<String, State> bridgeStates = byBridge.get(bridge);
+            if (bridgeStates == null)
+            {
+                bridgeStates = new LinkedHashMap<String, State>();
+                byBridge.put(bridge, bridgeStates);
+            }
+            bridgeStates.put(localId(entry.getKey()), entry.getValue());
+        }
+        return byBridge;
+    }
+
+    private List<LightResult> applyRoute(Bridge bridge, GroupPlanner.Route planned)
+    {
+        GroupPlanner.Route route = inGamut(bridge, planned);
+        try
+        {
+            String response = route.getGroupId() == null
+                              ? bridge.dispatcher.setLightState(route.getLightIds().get(0), route.getState())
+                              : bridge.dispatcher.setGroupState(route.getGroupId(), route.getState());
+            return results(bridge, route, response, null);
+        }
+        catch (IOException e)
+        {
+            return results(bridge, route, null, e);
+        }
+        catch (RuntimeException e)
+        {
+            // fails the lights of this route only, the others of the bulk update still go out
+            return results(bridge, route, null, new IOException(e.toString(), e));
+        }
+        finally
+        {
+            release(bridge, route);
+        }
+    }
+
+    /**
+     * Hands a route back to the planner of the bridge once its command is done, so its group may be evicted again
+     */
+    private static void release(Bridge bridge, GroupPlanner.Route route)
+    {
+        GroupPlanner planner = bridge.planner;
+        if (planner != null)
+        {
+            planner.release(route);
+        }
+    }
+
+    /**
+     * Moves the xy colour of a route to a single light into the gamut of the light, the lights of a group may
+     * have different gamuts and are left to the bridge
      */
-    @Configurable
-    private String ipAddress;
+    private static GroupPlanner.Route inGamut(Bridge bridge, GroupPlanner.Route route)
+    {
+        if (route.getGroupId() != null)
+        {
+            return route;
+        }
+        String lightId = route.getLightIds().get(0);
+        State state = inGamut(bridge, lightId, route.getState());
+        return state == route.getState() ? route : new GroupPlanner.Route(null, route.getLightIds(), state);
+    }
 
     /**
-     * the username that has access to the hue base station
+     * Moves an xy colour into the gamut of the model of the light, as converting the colour with the gamut of the
+     * model would, so the state sent and remembered is the one the lamp shows
+     *
+     * @return the state, or a copy of it with the colour moved if it was outside the gamut
      */
-    @Configurable
-    @ConnectionKey
-    private String username;
+    private static State inGamut(Bridge bridge, String lightId, State state)
+    {
+        if (state == null || !state.hasXy())
+        {
+            return state;
+        }
+        Gamut gamut = bridge.gamutOf(lightId);
+        if (gamut.contains(state.getX(), state.getY()))
+        {
+            return state;
+        }
+        double[] xy = new double[2];
+        gamut.clamp(state.getX(), state.getY(), xy);
+        State clamped = new State().merge(state);
+        clamped.setXy(xy[0], xy[1]);
+        return clamped;
+    }
 
-    private Client httpClient = Client.create();
-    private ObjectMapper mapper = new ObjectMapper();
+    private List<LightResult> results(Bridge bridge, GroupPlanner.Route route, String response, IOException error)
+    {
+        State state = route.getState();
+        if (error == null)
+        {
+            try
+            {
+                responseReader.readSuccess(response);
+            }
+            catch (IOException e)
+            {
+                error = e;
+            }
+        }
+
+        List<LightResult> results = new ArrayList<LightResult>(route.getLightIds().size());
+        for (String lightId : route.getLightIds())
+        {
+            String qualifiedId = bridge.qualify(lightId);
+            LightResult result;
+            if (error == null)
+            {
+                if (bridge.cache != null)
+                {
+                    bridge.cache.updateLight(lightId, state);
+                }
+                result = new LightResult(qualifiedId, state, true, null);
+            }
+            else if (error instanceof HueException)
+            {
+                result = new LightResult(qualifiedId, state, error.getMessage(), ((HueException) error).getErrors());
+            }
+            else
+            {
+                result = new LightResult(qualifiedId, state, false, error.getMessage());
+            }
+            if (route.getGroupId() != null)
+            {
+                result.setGroupId(bridge.qualify(route.getGroupId()));
+            }
+            results.add(result);
+        }
+        return results;
+    }
 
     /**
-     * The local ip address for the hue base station
+     * Takes a snapshot of the look of every light, to be restored later with restore-lights. The datastore of each
+     * bridge is read once, and only whether each light is on and, for the lights that are on, their brightness,
+     * effect and colour in the mode they work in are kept.
+     * <p/>
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:snapshot-lights}
      *
-     * @return The local ip address for the hue base station
+     * @return the state of every light keyed by the identifier of the light
+     * @throws IOException if there is a connection error or if a bridge returns an error response
      */
-    public String getIpAddress()
+    @Processor
+    public LightSnapshot snapshotLights() throws IOException
     {
-        return ipAddress;
+        LightSnapshot snapshot = new LightSnapshot(System.currentTimeMillis());
+        for (Map.Entry<Bridge, Datastore> entry : readDatastores(bridges).entrySet())
+        {
+            Bridge bridge = entry.getKey();
+            Map<String, LightAttributes> lights = entry.getValue().getLights();
+            if (lights == null)
+            {
+                continue;
+            }
+            for (Map.Entry<String, LightAttributes> light : lights.entrySet())
+            {
+                if (light.getValue().getState() != null)
+                {
+                    snapshot.getLights().put(bridge.qualify(light.getKey()), RestorePlanner.capture(light.getValue().getState()));
+                }
+            }
+        }
+        return snapshot;
     }
 
     /**
-     * Sets the local ip address for the hue base station
+     * Puts the lights back the way they were when a snapshot was taken, with as few commands as possible. The
+     * datastore of each bridge is read once to find the lights already in their saved state, which are left
+     * alone. The lights to be given the same state are sent group commands wherever an existing group holds only
+     * lights ending up in that state, and the other lights are sent one command each.
+     * <p/>
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:restore-lights}
      *
-     * @param ipAddress the local ip address for the hue base station
+     * @param snapshot    the snapshot taken by snapshot-lights
+     * @param concurrency the maximum number of commands sent at the same time to each bridge. Only used when
+     *                    lightCommandsPerSecond and groupCommandsPerSecond are 0, throttled commands go out one
+     *                    at a time at the configured rate
+     * @return the outcome for each light that was not already in its saved state, in the order of the snapshot
+     * @throws IOException          if there is a connection error or if a bridge returns an error response when
+     *                              reading its datastore
+     * @throws InterruptedException if the thread is interrupted while waiting for the updates to finish
      */
-    public void setIpAddress(String ipAddress)
+    @Processor
+    public List<LightResult> restoreLights(@Placement(group = "Snapshot") LightSnapshot snapshot,
+                                           @Optional @Default("4") int concurrency) throws IOException, InterruptedException
     {
-        this.ipAddress = ipAddress;
+        Map<String, LightResult> results = new ConcurrentHashMap<String, LightResult>();
+        Map<Bridge, Map<String, State>> saved = byBridge(snapshot.getLights(), results);
+        Map<Bridge, List<GroupPlanner.Route>> routes = new LinkedHashMap<Bridge, List<GroupPlanner.Route>>();
+        for (Map.Entry<Bridge, Datastore> entry : readDatastores(saved.keySet()).entrySet())
+        {
+            Bridge bridge = entry.getKey();
+            List<GroupPlanner.Route> bridgeRoutes = restorePlanner.plan(saved.get(bridge), entry.getValue());
+            // the lights were seen in another state than their saved one, whatever suppression believes
+            StateTracker tracker = bridge.dispatcher.getStateTracker();
+            if (tracker != null)
+            {
+                for (GroupPlanner.Route route : bridgeRoutes)
+                {
+                    for (String lightId : route.getLightIds())
+                    {
+                        tracker.forget(lightId);
+                    }
+                }
+            }
+            routes.put(bridge, bridgeRoutes);
+        }
+        apply(routes, results, concurrency);
+
+        List<LightResult> ordered = new ArrayList<LightResult>(results.size());
+        for (String lightId : snapshot.getLights().keySet())
+        {
+            LightResult result = results.get(lightId);
+            if (result != null)
+            {
+                ordered.add(result);
+            }
+        }
+        return ordered;
     }
 
     /**
-     * Gets the username that has access to the hue base station
+     * Reads the datastore of each bridge, in parallel when there are several
      *
-     * @return the username that has access to the hue base station
+     * @param targets the bridges to read
+     * @return the datastore of each bridge, in the order of targets
+     * @throws IOException if there is a connection error or if a bridge returns an error response
      */
-    public String getUsername()
+    private Map<Bridge, Datastore> readDatastores(Collection<Bridge> targets) throws IOException
     {
-        return username;
+        Map<Bridge, Datastore> datastores = new LinkedHashMap<Bridge, Datastore>();
+        if (targets.size() == 1)
+        {
+            Bridge bridge = targets.iterator().next();
+            datastores.put(bridge, modelReader.readDatastore(responseReader.checkRead(bridge.getTransport().get(""))));
+            return datastores;
+        }
+
+        Map<Bridge, Future<Datastore>> responses = new LinkedHashMap<Bridge, Future<Datastore>>();
+        for (final Bridge bridge : targets)
+        {
+            responses.put(bridge, executor.submit(new Callable<Datastore>()
+            {
+                public Datastore call() throws IOException
+                {
+                    return modelReader.readDatastore(responseReader.checkRead(bridge.getTransport().get("")));
+                }
+            }));
+        }
+        for (Map.Entry<Bridge, Future<Datastore>> response : responses.entrySet())
+        {
+            datastores.put(response.getKey(), await(response.getValue()));
+        }
+        return datastores;
     }
 
     /**
-     * Sets the username that has access to the hue base station
-     *
-     * @param userName the username that has access to the hue base station
+     * Completes the future of an async processor once the responses to its commands are known
      */
-    public void setUsername(String username)
+    private abstract class StateCallback implements CommandFuture.Callback<String>
     {
-        this.username = username;
+        private final CommandFuture<State> future;
+        private final State state;
+        private final AtomicInteger remaining;
+
+        /**
+         * @param remaining the number of commands left to complete the future, shared by their callbacks
+         */
+        StateCallback(CommandFuture<State> future, State state, AtomicInteger remaining)
+        {
+            this.future = future;
+            this.state = state;
+            this.remaining = remaining;
+        }
+
+        public void completed(String response)
+        {
+            try
+            {
+                responseReader.readSuccess(response);
+            }
+            catch (IOException e)
+            {
+                future.fail(e);
+                return;
+            }
+            applied();
+            if (remaining.decrementAndGet() == 0)
+            {
+                future.complete(state);
+            }
+        }
+
+        public void failed(IOException error)
+        {
+            future.fail(error);
+        }
+
+        /**
+         * Called once a bridge has applied the state, before the future completes
+         */
+        abstract void applied();
     }
 
     /**
-     * Connect
+     * Starts playing an animation over a set of lights. Every frame the colour and brightness of each light are
+     * interpolated between the keyframes of the animation and only the lights that changed visibly are sent a
+     * command. Frames are due at fixed times from the start, frames that cannot be played in time are dropped,
+     * and the commands of each frame are kept within lightCommandsPerSecond for each bridge, 10 when commands
+     * are not throttled, updating the lights furthest from their target first.
+     * <p/>
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:start-animation}
      *
-     * @throws ConnectionException
+     * @param animation the lights and keyframes to play
+     * @param frameRate the number of frames per second
+     * @return the identifier of the animation, used to stop it
+     * @throws IOException if a light belongs to an unknown bridge
      */
-    @Start
-    public void connect() throws ConnectionException
+    @Processor
+    public String startAnimation(@Placement(group = "Animation") Animation animation,
+                                 @Optional @Default("10") double frameRate) throws IOException
     {
-        String res = httpClient.resource(getBaseUri()).get(String.class);
-        if (res.contains("error"))
-        {
-            throw new ConnectionException(ConnectionExceptionCode.INCORRECT_CREDENTIALS, "unauthorized user", res);
-        }
+        return animations.start(animation, frameRate);
     }
 
     /**
-     * Sets the state of an individual light
+     * Stops an animation. The lights keep the state of the last frame they were sent.
      * <p/>
-     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:set-light-state}
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:stop-animation}
      *
-     * @param lightId the identifier for the light to change
-     * @param state   the new state to apply to the light
-     * @return The new state of the light
-     * @throws IOException if there is a connection error or if the call returns an error response
+     * @param animationId the identifier returned by start-animation
+     * @return how the animation played
      */
     @Processor
-    public State setLightState(String lightId, State state) throws IOException
+    public AnimationStats stopAnimation(String animationId)
     {
-        WebResource resource = httpClient.resource(getBaseUri() + "/lights/" + lightId + "/state");
-        String st = mapper.writeValueAsString(state);
-        String response = resource.put(String.class, st);
-        if (response.contains("error"))
+        AnimationStats stats = animations.stop(animationId);
+        if (stats == null)
         {
-            throw new IOException(response);
+            throw new IllegalArgumentException("No animation with id " + animationId);
         }
-        return state;
+        return stats;
     }
 
     /**
-     * Sets the state of a light group.  All lights in the group will be given the same state
+     * Gets how an animation has played so far: the frames rendered and dropped and the commands sent, put off
+     * and failed. Finished animations are remembered until they are stopped.
      * <p/>
-     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:set-group-state}
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:get-animation-stats}
      *
-     * @param groupId the identifier for the group to change. The bridge has a default group is 0 which includes all lights known by the bridge
-     * @param state   the new state to apply to the group
-     * @return The new state of the group
-     * @throws IOException if there is a connection error or if the call returns an error response
+     * @param animationId the identifier returned by start-animation
+     * @return how the animation played so far
      */
     @Processor
-    public State setGroupState(String groupId,  @Placement(group = "State") State state) throws IOException
+    public AnimationStats getAnimationStats(String animationId)
     {
-        WebResource resource = httpClient.resource(getBaseUri() + "/groups/" + groupId + "/action");
-        String response = resource.put(String.class, mapper.writeValueAsString(state));
-        if (response.contains("error"))
+        AnimationStats stats = animations.getStats(animationId);
+        if (stats == null)
         {
-            throw new IOException(response);
+            throw new IllegalArgumentException("No animation with id " + animationId);
+        }
+        return stats;
+    }
+
+    /**
+     * Sends the frames of animations to the bridge each light belongs to
+     */
+    private class AnimationSink implements AnimationEngine.Sink
+    {
+        public Object budgetOf(String lightId) throws IOException
+        {
+            return route(lightIndex, lightId);
+        }
+
+        public CommandFuture<State> submit(String lightId, State state) throws IOException
+        {
+            return submitLightState(lightId, state);
         }
-        return state;
     }
 
     /**
-     * Gets a list of all lights that have been discovered by the bridge
+     * Gets a list of all lights that have been discovered by the bridges. With additional bridges the lights of
+     * every bridge are read in parallel and listed together, those of additional bridges under qualified identifiers.
      * <p/>
      * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:get-lights}
      *
@@ -177,17 +1900,81 @@ public class HueConnector
     @Processor
     public String getLights() throws IOException
     {
-        WebResource resource = httpClient.resource(getBaseUri() + "/lights");
-        String response = resource.get(String.class);
-        if (response.contains("error"))
+        if (bridges.size() == 1)
         {
-            throw new IOException(response);
+            return responseReader.checkRead(primary.getTransport().get("lights"));
         }
-        return response;
+
+        List<Future<String>> responses = new ArrayList<Future<String>>(bridges.size());
+        for (final Bridge bridge : bridges)
+        {
+            responses.add(executor.submit(new Callable<String>()
+            {
+                public String call() throws IOException
+                {
+                    return responseReader.checkRead(bridge.getTransport().get("lights"));
+                }
+            }));
+        }
+        ObjectNode merged = mapper.createObjectNode();
+        for (int i = 0; i < bridges.size(); i++)
+        {
+            Iterator<Map.Entry<String, JsonNode>> fields = mapper.readTree(await(responses.get(i))).getFields();
+            while (fields.hasNext())
+            {
+                Map.Entry<String, JsonNode> field = fields.next();
+                merged.put(bridges.get(i).qualify(field.getKey()), field.getValue());
+            }
+        }
+        return mapper.writeValueAsString(merged);
+    }
+
+    /**
+     * Gets all lights that have been discovered by the bridges as typed attributes. The response is read as it
+     * streams in and the state of each light is only decoded when it is accessed, so picking a few lights out of
+     * a large installation does not pay for decoding all of them. With additional bridges the lights of every
+     * bridge are read in parallel.
+     * <p/>
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:get-light-attributes}
+     *
+     * @return the attributes of every light keyed by the identifier of the light, in the order listed by the bridges.
+     *         Depending on the bridge firmware only the name of each light may be listed.
+     * @throws IOException if there is a connection error or if the call returns an error response
+     */
+    @Processor
+    public Map<String, LightAttributes> getLightAttributes() throws IOException
+    {
+        if (bridges.size() == 1)
+        {
+            return new LightsReader(mapper).read(primary.getTransport().getStream("lights"));
+        }
+
+        List<Future<Map<String, LightAttributes>>> responses = new ArrayList<Future<Map<String, LightAttributes>>>(bridges.size());
+        for (final Bridge bridge : bridges)
+        {
+            responses.add(executor.submit(new Callable<Map<String, LightAttributes>>()
+            {
+                public Map<String, LightAttributes> call() throws IOException
+                {
+                    return new LightsReader(mapper).read(bridge.getTransport().getStream("lights"));
+                }
+            }));
+        }
+        Map<String, LightAttributes> merged = new LinkedHashMap<String, LightAttributes>();
+        for (int i = 0; i < bridges.size(); i++)
+        {
+            for (Map.Entry<String, LightAttributes> light : await(responses.get(i)).entrySet())
+            {
+                merged.put(bridges.get(i).qualify(light.getKey()), light.getValue());
+            }
+        }
+        return merged;
     }
 
     /**
-     * Creates a scheduled command tht will execute at a specific date and time
+     * Creates a scheduled command tht will execute at a specific date and time. The schedule is created on the
+     * bridge of the light or group the command addresses, given by its qualified identifier e.g.
+     * <code>/api/[username]/lights/annex:3/state</code>, and on the primary bridge for plain identifiers.
      * <p/>
      * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:create-schedule}
      *
@@ -212,24 +1999,347 @@ public class HueConnector
                                  @Placement(group = "Schedule", order = 3) @Optional String description,
                                  @Placement(group = "Command to Execute") Command command) throws IOException
     {
+        Addressed addressed = address(command);
         Schedule s = new Schedule();
-        s.setCommand(command);
+        s.setCommand(addressed.command);
         s.setName(scheduleName);
         s.setTime(time);
         s.setDescription(description);
 
-        WebResource resource = httpClient.resource(getBaseUri() + "/schedules");
-        String response = resource.post(String.class, mapper.writeValueAsString(s));
-        if (response.contains("error"))
+        String response = addressed.bridge.getTransport().post("schedules", modelWriter.write(s));
+        responseReader.readSuccess(response);
+        return response;
+    }
+
+    /**
+     * Makes the schedules of the bridges match a desired set of schedules. The schedules of each bridge are read
+     * once and matched to the desired ones by name, including the numbered names the bridge gives duplicates.
+     * A schedule with the same time and command is kept, other schedules of the same name are deleted and the
+     * desired schedule is only created if none was kept, so deploying the same schedules again changes nothing.
+     * Each schedule goes to the bridge of the light or group its command addresses, like with create-schedule.
+     * Command bodies are encoded compactly and those longer than the 90 characters the bridge
+     * accepts are reported as errors without touching the schedules of that name.
+     * <p/>
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:reconcile-schedules}
+     *
+     * @param schedules         the schedules the bridges should have, each with a distinct name
+     * @param prune             whether to also delete the schedules whose name matches no desired schedule
+     * @param commandsPerSecond the maximum number of creates and deletes sent to each bridge per second, 0 for no limit
+     * @return the identifiers of the schedules created, deleted and kept, and any schedule that could not be changed
+     * @throws IOException if the schedules of a bridge cannot be read
+     */
+    @Processor
+    public ScheduleReconciliation reconcileSchedules(@Placement(group = "Schedules") List<Schedule> schedules,
+                                                     @Optional @Default("false") boolean prune,
+                                                     @Optional @Default("5") double commandsPerSecond) throws IOException
+    {
+        Map<Bridge, List<Schedule>> byBridge = new LinkedHashMap<Bridge, List<Schedule>>();
+        for (Bridge bridge : bridges)
         {
-            throw new IOException(response);
+            byBridge.put(bridge, new ArrayList<Schedule>());
         }
-        return response;
+        for (Schedule schedule : schedules)
+        {
+            Addressed addressed = address(schedule.getCommand());
+            byBridge.get(addressed.bridge).add(withCommand(schedule, addressed.command));
+        }
+
+        ScheduleReconciliation result = new ScheduleReconciliation();
+        for (Map.Entry<Bridge, List<Schedule>> entry : byBridge.entrySet())
+        {
+            if (entry.getValue().isEmpty() && !prune)
+            {
+                continue;
+            }
+            Bridge bridge = entry.getKey();
+            ScheduleReconciliation reconciled = new ScheduleReconciler(bridge.getTransport(), mapper)
+                    .reconcile(entry.getValue(), prune, commandsPerSecond);
+            for (String id : reconciled.getCreated())
+            {
+                result.getCreated().add(bridge.qualify(id));
+            }
+            for (String id : reconciled.getDeleted())
+            {
+                result.getDeleted().add(bridge.qualify(id));
+            }
+            for (String id : reconciled.getUnchanged())
+            {
+                result.getUnchanged().add(bridge.qualify(id));
+            }
+            result.getErrors().addAll(reconciled.getErrors());
+        }
+        return result;
+    }
+
+    /**
+     * Finds the bridge a command is meant for and addresses the command the way that bridge expects it. A command
+     * for a light or group of an additional bridge names it by its qualified identifier, e.g.
+     * <code>/api/[username]/lights/annex:3/state</code>, and is rewritten with the identifier and the username used
+     * on that bridge. Plain identifiers are those of the primary bridge, like everywhere else in the connector.
+     *
+     * @param command a command to schedule
+     * @return the bridge and the command as that bridge runs it
+     * @throws IOException if the command names an unknown bridge, or addresses no light, group or schedule while
+     *                     several bridges are configured
+     */
+    private Addressed address(Command command) throws IOException
+    {
+        String address = command == null ? null : command.getAddress();
+        // "", "api", username, resource, identifier and the rest of the address
+        String[] parts = address == null ? new String[0] : address.split("/", 6);
+        if (parts.length < 5 || !"api".equals(parts[1]) || parts[4].length() == 0)
+        {
+            if (bridges.size() > 1)
+            {
+                throw new IOException("Cannot tell which bridge " + address + " is meant for, address a light, group or schedule by its qualified identifier");
+            }
+            return new Addressed(primary, command);
+        }
+        int separator = parts[4].indexOf(Bridge.SEPARATOR);
+        if (separator < 0)
+        {
+            return new Addressed(primary, command);
+        }
+        String name = parts[4].substring(0, separator);
+        Bridge bridge = bridgesByName.get(name);
+        if (bridge == null)
+        {
+            throw new IOException("No bridge named " + name + " is configured for " + address);
+        }
+        Command local = new Command();
+        local.setMethod(command.getMethod());
+        local.setBody(command.getBody());
+        local.setAddress("/api/" + bridge.getUsername() + "/" + parts[3] + "/" + parts[4].substring(separator + 1)
+                         + (parts.length > 5 ? "/" + parts[5] : ""));
+        return new Addressed(bridge, local);
+    }
+
+    /**
+     * @param schedule a schedule of the connector
+     * @param command  the command of the schedule as its bridge runs it
+     * @return a copy of the schedule running that command
+     */
+    private static Schedule withCommand(Schedule schedule, Command command)
+    {
+        if (schedule.getCommand() == command)
+        {
+            return schedule;
+        }
+        Schedule copy = new Schedule();
+        copy.setName(schedule.getName());
+        copy.setDescription(schedule.getDescription());
+        copy.setTime(schedule.getTime());
+        copy.setCommand(command);
+        return copy;
+    }
+
+    /**
+     * A command and the bridge it is meant for
+     */
+    private static class Addressed
+    {
+        final Bridge bridge;
+        final Command command;
+
+        Addressed(Bridge bridge, Command command)
+        {
+            this.bridge = bridge;
+            this.command = command;
+        }
+    }
+
+    /**
+     * Schedules a command to run from the connector rather than the bridge, which holds only a few schedules. Any
+     * number of commands may be scheduled and each costs the same to schedule, cancel and run however many are
+     * pending. Light and group states go through the same queues and rates as set-light-state and
+     * set-group-state, other commands are sent as they are. A command runs within a tenth of a second of its
+     * time. When localScheduleStore is set pending commands survive a restart and those that fell due while the
+     * connector was stopped run as soon as it starts.
+     * <p/>
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:schedule-command}
+     *
+     * @param scheduleName the name of the bridge schedule created if the command is offloaded to the bridge
+     * @param time         when to run the command, in UTC and in the format the bridge accepts (YYYY-MM-DDThh:mm:ss)
+     * @param command      the command to run, addressed like the command of a bridge schedule
+     * @return the identifier of the scheduled command, used to cancel it
+     * @throws IOException if the command cannot be stored
+     */
+    @Processor
+    public String scheduleCommand(@Placement(group = "Schedule", order = 1) @FriendlyName("Name") @Optional String scheduleName,
+                                  @Placement(group = "Schedule", order = 2) String time,
+                                  @Placement(group = "Command to Execute") Command command) throws IOException
+    {
+        Schedule schedule = new Schedule();
+        schedule.setName(scheduleName);
+        schedule.setTime(time);
+        schedule.setCommand(command);
+        return localScheduler.schedule(schedule);
+    }
+
+    /**
+     * Cancels a command scheduled with schedule-command that has not run yet
+     * <p/>
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:cancel-scheduled-command}
+     *
+     * @param scheduleId the identifier returned by schedule-command
+     * @return false if the command already ran, was offloaded to the bridge or does not exist
+     * @throws IOException if the store of scheduled commands cannot be updated
+     */
+    @Processor
+    public boolean cancelScheduledCommand(String scheduleId) throws IOException
+    {
+        return localScheduler.cancel(scheduleId);
+    }
+
+    /**
+     * Hands the commands scheduled with schedule-command that are due soon to the bridges, as bridge schedules, so
+     * they run even if the connector is stopped. Each command goes to the bridge it is addressed to, soonest first.
+     * Commands due within ten seconds stay on the connector, as do those whose body is longer than the bridge
+     * accepts. Offloading stops at the first schedule a bridge refuses, e.g. because its schedule list is full,
+     * and that command and the ones after it stay on the connector.
+     * <p/>
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:offload-scheduled-commands}
+     *
+     * @param horizon      how far ahead to look for commands, in milliseconds
+     * @param maxSchedules the maximum number of bridge schedules to create
+     * @return the identifiers of the schedules created on the bridges
+     * @throws IOException if a bridge refused the first schedule, or the store of scheduled commands cannot be updated
+     */
+    @Processor
+    public List<String> offloadScheduledCommands(@Optional @Default("3600000") long horizon,
+                                                 @Optional @Default("20") int maxSchedules) throws IOException
+    {
+        long now = System.currentTimeMillis();
+        Map<String, Schedule> taken = localScheduler.take(now + OFFLOAD_LEAD, now + horizon, maxSchedules);
+        List<String> created = new ArrayList<String>();
+        IOException failure = null;
+        for (Map.Entry<String, Schedule> entry : taken.entrySet())
+        {
+            Schedule schedule = entry.getValue();
+            Command command = schedule.getCommand();
+            if (failure == null && (command.getBody() == null
+                                    || modelWriter.writeBody(command.getBody()).length <= ScheduleReconciler.MAX_BODY_LENGTH))
+            {
+                Addressed addressed;
+                try
+                {
+                    addressed = address(command);
+                }
+                catch (IOException e)
+                {
+                    // stays on the connector, which reports it when it runs
+                    localScheduler.restore(entry.getKey(), schedule);
+                    continue;
+                }
+                Bridge bridge = addressed.bridge;
+                try
+                {
+                    BridgeResponse response = responseReader.readSuccess(bridge.getTransport().post("schedules",
+                            modelWriter.write(withCommand(schedule, addressed.command))));
+                    Object id = response.getSuccesses().isEmpty() ? null : response.getSuccesses().get(0).get("id");
+                    created.add(bridge.qualify(String.valueOf(id)));
+                    continue;
+                }
+                catch (IOException e)
+                {
+                    failure = e;
+                }
+            }
+            localScheduler.restore(entry.getKey(), schedule);
+        }
+        if (failure != null)
+        {
+            if (created.isEmpty())
+            {
+                throw failure;
+            }
+            logger.warn("Offloaded " + created.size() + " scheduled commands, the bridge refused the next one: " + failure.getMessage());
+        }
+        return created;
+    }
+
+    /**
+     * Runs the commands scheduled on the connector that fall due
+     */
+    private class CommandSink implements LocalScheduler.Sink
+    {
+        public void execute(Command scheduled) throws IOException
+        {
+            Addressed addressed = address(scheduled);
+            final Bridge bridge = addressed.bridge;
+            final Command command = addressed.command;
+            String prefix = "/api/" + bridge.getUsername() + "/";
+            final String address = command.getAddress();
+            if (address == null || !address.startsWith(prefix) || command.getMethod() == null)
+            {
+                throw new IOException("Cannot run " + command.getMethod() + " " + address + ", commands must address the API of a configured user");
+            }
+            final String path = address.substring(prefix.length());
+            String[] parts = path.split("/");
+            if (command.getMethod() == Command.Method.PUT && command.getBody() instanceof State && parts.length == 3)
+            {
+                State state = (State) command.getBody();
+                CommandFuture<State> future = null;
+                if ("lights".equals(parts[0]) && "state".equals(parts[2]))
+                {
+                    future = submitLightState(bridge.qualify(parts[1]), state);
+                }
+                else if ("groups".equals(parts[0]) && "action".equals(parts[2]))
+                {
+                    future = new CommandFuture<State>();
+                    submitGroupState(bridge, parts[1], state, future, new AtomicInteger(1));
+                }
+                if (future != null)
+                {
+                    future.addCallback(new CommandFuture.Callback<State>()
+                    {
+                        public void completed(State result)
+                        {
+                        }
 
+                        public void failed(IOException error)
+                        {
+                            logger.warn("Scheduled command " + address + " failed: " + error.getMessage());
+                        }
+                    });
+                    return;
+                }
+            }
+
+            final byte[] body = command.getBody() == null ? null : modelWriter.writeBody(command.getBody());
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    HueTransport bridgeTransport = bridge.getTransport();
+                    try
+                    {
+                        switch (command.getMethod())
+                        {
+                            case GET:
+                                responseReader.checkRead(bridgeTransport.get(path));
+                                break;
+                            case POST:
+                                responseReader.readSuccess(bridgeTransport.post(path, body));
+                                break;
+                            case PUT:
+                                responseReader.readSuccess(bridgeTransport.put(path, body));
+                                break;
+                            default:
+                                responseReader.readSuccess(bridgeTransport.delete(path));
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        logger.warn("Scheduled command " + address + " failed: " + e.getMessage());
+                    }
+                }
+            });
+        }
     }
 
     /**
-     * Gets the current state of an individual light
+     * Gets the current state of an individual light. When cacheTtl is set the state is served from memory
      * <p/>
      * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:get-light-state}
      *
@@ -241,18 +2351,21 @@ public class HueConnector
     @Processor
     public LightAttributes getLightState(String lightId) throws IOException
     {
-        WebResource resource = httpClient.resource(getBaseUri() + "/lights/" + lightId);
-        String response = resource.get(String.class);
-        if (response.contains("error"))
+        Bridge bridge = route(lightIndex, lightId);
+        String localId = localId(lightId);
+        if (bridge.cache != null)
         {
-            throw new IOException(response);
+            LightAttributes light = bridge.cache.getLight(localId);
+            if (light != null)
+            {
+                return light;
+            }
         }
-        System.out.println("This:" + response);
-        return mapper.readValue(response, LightAttributes.class);
+        return modelReader.readLight(responseReader.checkRead(bridge.getTransport().get("lights/" + localId)));
     }
 
     /**
-     * Gets the current state of an individual light
+     * Gets the current state of a light group. When cacheTtl is set the state is served from memory
      * <p/>
      * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:get-group-state}
      *
@@ -264,13 +2377,206 @@ public class HueConnector
     @Processor
     public GroupAttributes getGroupState(String groupId) throws IOException
     {
-        WebResource resource = httpClient.resource(getBaseUri() + "/groups/" + groupId);
-        String response = resource.get(String.class);
-        if (response.contains("error"))
+        Bridge bridge = route(groupIndex, groupId);
+        String localId = localId(groupId);
+        if (bridge.cache != null)
+        {
+            GroupAttributes group = bridge.cache.getGroup(localId);
+            if (group != null)
+            {
+                return group;
+            }
+        }
+        return modelReader.readGroup(responseReader.checkRead(bridge.getTransport().get("groups/" + localId)));
+    }
+
+    /**
+     * Watches the lights of the bridges and emits a message for every light that changed. The bridges are polled
+     * every minInterval while lights keep changing; while nothing changes the interval doubles up to maxInterval.
+     * The payload of each message is a {@link LightChange} holding the new attributes of the light and the
+     * properties that changed.
+     * <p/>
+     * {@sample.xml ../../../doc/Hue-connector.xml.sample hue:watch-lights}
+     *
+     * @param callback    the callback used to emit the changes
+     * @param minInterval the shortest time in milliseconds between two polls
+     * @param maxInterval the longest time in milliseconds between two polls
+     * @throws IllegalArgumentException if minInterval is less than 1 or maxInterval is less than minInterval
+     * @throws Exception if the source is interrupted, a change that cannot be processed is logged and skipped
+     */
+    @Source
+    public void watchLights(SourceCallback callback,
+                            @Optional @Default("500") long minInterval,
+                            @Optional @Default("10000") long maxInterval) throws Exception
+    {
+        if (minInterval < 1)
+        {
+            throw new IllegalArgumentException("minInterval must be at least 1ms, was " + minInterval);
+        }
+        if (maxInterval < minInterval)
+        {
+            throw new IllegalArgumentException("maxInterval must be at least minInterval " + minInterval + "ms, was " + maxInterval);
+        }
+        LightChangeDetector detector = new LightChangeDetector();
+        long interval = minInterval;
+        while (!Thread.currentThread().isInterrupted())
+        {
+            boolean changed = false;
+            List<LightChange> changes = Collections.emptyList();
+            try
+            {
+                Map<String, LightAttributes> lights = new LinkedHashMap<String, LightAttributes>();
+                for (Bridge bridge : bridges)
+                {
+                    Datastore datastore = modelReader.readDatastore(responseReader.checkRead(bridge.getTransport().get("")));
+                    if (bridge.cache != null)
+                    {
+                        bridge.cache.load(datastore);
+                    }
+                    if (datastore.getLights() != null)
+                    {
+                        for (Map.Entry<String, LightAttributes> light : datastore.getLights().entrySet())
+                        {
+                            lights.put(bridge.qualify(light.getKey()), light.getValue());
+                        }
+                    }
+                }
+                changes = detector.detect(lights);
+            }
+            catch (IOException e)
+            {
+                // a bridge is unavailable, back off and try again
+            }
+            catch (RuntimeException e)
+            {
+                logger.warn("Could not look for changed lights, trying again: " + e.getMessage(), e);
+            }
+            for (LightChange change : changes)
+            {
+                changed = true;
+                try
+                {
+                    callback.process(change);
+                }
+                catch (InterruptedException e)
+                {
+                    throw e;
+                }
+                catch (Exception e)
+                {
+                    // a flow failing on one change must not stop the source
+                    logger.warn("Could not process the change of light " + change.getLightId() + ": " + e.getMessage(), e);
+                }
+            }
+            interval = changed ? minInterval : Math.min(interval * 2, maxInterval);
+            Thread.sleep(interval);
+        }
+    }
+
+    /**
+     * Finds the bridge a light or group belongs to, first in the index built when connecting and then by the
+     * name qualifying the identifier, for lights and groups added since
+     *
+     * @param index the index of lights or of groups
+     * @param id    the identifier of the light or group
+     * @return the bridge the light or group belongs to
+     * @throws IOException if the identifier names an unknown bridge
+     */
+    private Bridge route(Map<String, Bridge> index, String id) throws IOException
+    {
+        Bridge bridge = index.get(id);
+        if (bridge != null)
+        {
+            return bridge;
+        }
+        int separator = id.indexOf(Bridge.SEPARATOR);
+        if (separator < 0)
+        {
+            return primary;
+        }
+        bridge = bridgesByName.get(id.substring(0, separator));
+        if (bridge == null)
+        {
+            throw new IOException("No bridge named " + id.substring(0, separator) + " is configured for " + id);
+        }
+        return bridge;
+    }
+
+    private static String localId(String id)
+    {
+        return id.substring(id.indexOf(Bridge.SEPARATOR) + 1);
+    }
+
+    private static <T> T await(Future<T> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the bridges");
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Parses the additional bridges of the configuration
+     *
+     * @param spec the comma separated list of name=ipAddress/username
+     * @return the name, ip address and username of each bridge
+     * @throws IllegalArgumentException if an entry is malformed or repeats the name of an earlier one
+     */
+    static List<String[]> parseBridges(String spec)
+    {
+        List<String[]> bridges = new ArrayList<String[]>();
+        Set<String> names = new HashSet<String>();
+        if (spec == null || spec.trim().length() == 0)
+        {
+            return bridges;
+        }
+        for (String entry : spec.split(","))
+        {
+            String trimmed = entry.trim();
+            int equals = trimmed.indexOf('=');
+            int slash = trimmed.lastIndexOf('/');
+            if (equals <= 0 || slash < equals + 2 || slash == trimmed.length() - 1
+                || trimmed.substring(0, equals).indexOf(Bridge.SEPARATOR) >= 0)
+            {
+                throw new IllegalArgumentException("Invalid bridge '" + trimmed + "', expected name=ipAddress/username");
+            }
+            String name = trimmed.substring(0, equals).trim();
+            if (!names.add(name))
+            {
+                throw new IllegalArgumentException("Invalid bridge '" + trimmed + "', the name " + name + " is already used");
+            }
+            bridges.add(new String[] {name, trimmed.substring(equals + 1, slash).trim(), trimmed.substring(slash + 1).trim()});
+        }
+        return bridges;
+    }
+
+    private static Map<String, List<String>> groupMembers(Datastore datastore)
+    {
+        Map<String, List<String>> members = new HashMap<String, List<String>>();
+        if (datastore.getGroups() != null)
         {
-            throw new IOException(response);
+            for (Map.Entry<String, GroupAttributes> group : datastore.getGroups().entrySet())
+            {
+                if (group.getValue().getLights() != null)
+                {
+                    members.put(group.getKey(), group.getValue().getLights());
+                }
+            }
         }
-        return mapper.readValue(response, GroupAttributes.class);
+        return members;
     }
 
     public final String getBaseUri()
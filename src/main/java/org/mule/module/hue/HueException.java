@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue;
+
+import org.mule.module.hue.model.Error;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Thrown when the bridge answers a call with one or more errors
+ */
+public class HueException extends IOException
+{
+    private final List<Error> errors;
+
+    public HueException(List<Error> errors)
+    {
+        super(describe(errors));
+        this.errors = errors;
+    }
+
+    /**
+     * @return the errors returned by the bridge
+     */
+    public List<Error> getErrors()
+    {
+        return errors;
+    }
+
+    /**
+     * Checks whether the bridge returned a given type of error
+     *
+     * @param type the error type i.e. 1 for unauthorized user or 901 for an internal error of the bridge
+     * @return true if one of the errors is of the given type
+     */
+    public boolean hasErrorType(int type)
+    {
+        for (Error error : errors)
+        {
+            if (error.getType() == type)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String describe(List<Error> errors)
+    {
+        StringBuilder buf = new StringBuilder();
+        for (Error error : errors)
+        {
+            if (buf.length() > 0)
+            {
+                buf.append("; ");
+            }
+            buf.append(error.getDescription()).append(" (type ").append(error.getType());
+            if (error.getAddress() != null)
+            {
+                buf.append(", address ").append(error.getAddress());
+            }
+            buf.append(")");
+        }
+        return buf.toString();
+    }
+}
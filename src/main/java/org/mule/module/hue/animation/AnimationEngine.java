@@ -0,0 +1,503 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.animation;
+
+import org.mule.module.hue.dispatch.CommandFuture;
+import org.mule.module.hue.dispatch.TokenBucket;
+import org.mule.module.hue.model.Animation;
+import org.mule.module.hue.model.AnimationStats;
+import org.mule.module.hue.model.State;
+import org.mule.util.concurrent.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Plays animations at a fixed frame rate. Frames are due at fixed times from the start of an animation, so a late
+ * frame does not push back the ones after it, and frames that are already overdue by the time the previous one
+ * is done are dropped rather than played late.
+ * <p/>
+ * Each frame renders the state of every light but only sends commands for the lights that changed visibly. The
+ * commands to the lights of one bridge are limited to the rate the bridge accepts, a budget shared by every
+ * animation playing on that bridge, and when a frame has more changed lights than the budget allows the lights
+ * furthest from their target go first. A light is not sent a
+ * new command while its previous one is in flight, and each command fades over the time until the light is
+ * expected to be updated again.
+ */
+public class AnimationEngine
+{
+    /**
+     * How many finished animations are remembered for their stats
+     */
+    private static final int FINISHED_KEPT = 64;
+
+    /**
+     * The change in xy, in thousandths, or in brightness that is worth a command
+     */
+    private static final double VISIBLE_CHANGE = 1;
+
+    /**
+     * How long a finished animation keeps trying to bring every light to its last keyframe
+     */
+    private static final long SETTLE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * The share of a second of commands a budget may save up while the animations are quiet
+     */
+    private static final double BURST_SECONDS = 0.1;
+
+    private static final Log logger = LogFactory.getLog(AnimationEngine.class);
+
+    /**
+     * Where the engine sends the frames
+     */
+    public interface Sink
+    {
+        /**
+         * @param lightId the identifier of a light
+         * @return the key of the budget the commands to the light count against, e.g. its bridge
+         * @throws IOException if the light cannot be addressed
+         */
+        Object budgetOf(String lightId) throws IOException;
+
+        /**
+         * @param lightId the identifier of a light
+         * @param state   the state to send to the light
+         * @return the future outcome of the command
+         * @throws IOException if the light cannot be addressed
+         */
+        CommandFuture<State> submit(String lightId, State state) throws IOException;
+    }
+
+    private final Sink sink;
+    private final double commandsPerSecond;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Player> players = new LinkedHashMap<String, Player>();
+    private final Map<Object, TokenBucket> budgets = new HashMap<Object, TokenBucket>();
+    private final AtomicLong ids = new AtomicLong();
+
+    /**
+     * @param sink              where to send the frames
+     * @param commandsPerSecond the number of light commands each budget allows per second
+     */
+    public AnimationEngine(Sink sink, double commandsPerSecond)
+    {
+        if (commandsPerSecond <= 0)
+        {
+            throw new IllegalArgumentException("commandsPerSecond must be greater than 0");
+        }
+        this.sink = sink;
+        this.commandsPerSecond = commandsPerSecond;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("hue-animation"));
+    }
+
+    /**
+     * Starts playing an animation
+     *
+     * @param animation the animation to play
+     * @param frameRate the number of frames per second
+     * @return the identifier of the animation
+     * @throws IOException              if a light cannot be addressed
+     * @throws IllegalArgumentException if the animation or frame rate is not valid
+     */
+    public String start(Animation animation, double frameRate) throws IOException
+    {
+        if (frameRate <= 0)
+        {
+            throw new IllegalArgumentException("frameRate must be greater than 0");
+        }
+        if (animation.getLights() == null || animation.getLights().isEmpty())
+        {
+            throw new IllegalArgumentException("An animation needs at least one light");
+        }
+        Timeline timeline = new Timeline(animation.getKeyframes(), animation.getDuration(), animation.isLoop());
+        Player player = new Player(String.valueOf(ids.incrementAndGet()), timeline, animation, frameRate);
+        synchronized (players)
+        {
+            players.put(player.id, player);
+            prune();
+        }
+        player.schedule(0);
+        return player.id;
+    }
+
+    /**
+     * Stops an animation and forgets it. The lights keep the state of the last frame sent.
+     *
+     * @param animationId the identifier of the animation
+     * @return how the animation played, null if there is no such animation
+     */
+    public AnimationStats stop(String animationId)
+    {
+        Player player;
+        synchronized (players)
+        {
+            player = players.remove(animationId);
+        }
+        if (player == null)
+        {
+            return null;
+        }
+        player.cancel();
+        return player.stats();
+    }
+
+    /**
+     * @param animationId the identifier of the animation
+     * @return how the animation played so far, null if there is no such animation
+     */
+    public AnimationStats getStats(String animationId)
+    {
+        Player player;
+        synchronized (players)
+        {
+            player = players.get(animationId);
+        }
+        return player == null ? null : player.stats();
+    }
+
+    /**
+     * Stops every animation and the thread playing them
+     */
+    public void dispose()
+    {
+        List<Player> stopped;
+        synchronized (players)
+        {
+            stopped = new ArrayList<Player>(players.values());
+            players.clear();
+        }
+        for (Player player : stopped)
+        {
+            player.cancel();
+        }
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * @param key the key of a budget, as given by the sink
+     * @return the bucket shared by every animation drawing on that budget
+     */
+    private TokenBucket budget(Object key)
+    {
+        synchronized (budgets)
+        {
+            TokenBucket bucket = budgets.get(key);
+            if (bucket == null)
+            {
+                bucket = new TokenBucket(commandsPerSecond, Math.max(1, commandsPerSecond * BURST_SECONDS));
+                budgets.put(key, bucket);
+            }
+            return bucket;
+        }
+    }
+
+    private void prune()
+    {
+        int finished = 0;
+        for (Player player : players.values())
+        {
+            finished += player.done ? 1 : 0;
+        }
+        for (Iterator<Player> it = players.values().iterator(); it.hasNext() && finished > FINISHED_KEPT; )
+        {
+            if (it.next().done)
+            {
+                it.remove();
+                finished--;
+            }
+        }
+    }
+
+    /**
+     * A light of a playing animation
+     */
+    private static class Slot
+    {
+        final String lightId;
+        final long delay;
+        final AtomicBoolean inFlight = new AtomicBoolean();
+        // what was last sent, reset by the callback of a failed command
+        volatile double x = Double.NaN;
+        volatile double y = Double.NaN;
+        volatile double brightness = Double.NaN;
+        double change;
+
+        Slot(String lightId, long delay)
+        {
+            this.lightId = lightId;
+            this.delay = delay;
+        }
+    }
+
+    /**
+     * The lights of an animation sharing a command budget
+     */
+    private static class Lane
+    {
+        final List<Slot> slots = new ArrayList<Slot>();
+        final TokenBucket budget;
+
+        Lane(TokenBucket budget)
+        {
+            this.budget = budget;
+        }
+    }
+
+    private static final Comparator<Slot> LARGEST_CHANGE_FIRST = new Comparator<Slot>()
+    {
+        public int compare(Slot a, Slot b)
+        {
+            return Double.compare(b.change, a.change);
+        }
+    };
+
+    private class Player implements Runnable
+    {
+        final String id;
+        final Timeline timeline;
+        final List<Lane> lanes = new ArrayList<Lane>();
+        final long periodNanos;
+        final long end;
+        final AtomicLong frames = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong commands = new AtomicLong();
+        final AtomicLong deferred = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final double[] sample = new double[3];
+        long start;
+        long frame;
+        volatile boolean done;
+        volatile ScheduledFuture<?> next;
+
+        Player(String id, Timeline timeline, Animation animation, double frameRate) throws IOException
+        {
+            this.id = id;
+            this.timeline = timeline;
+            this.periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / frameRate);
+
+            Map<Object, Lane> byBudget = new LinkedHashMap<Object, Lane>();
+            long delay = 0;
+            for (String lightId : animation.getLights())
+            {
+                Object budget = sink.budgetOf(lightId);
+                Lane lane = byBudget.get(budget);
+                if (lane == null)
+                {
+                    lane = new Lane(budget(budget));
+                    byBudget.put(budget, lane);
+                }
+                lane.slots.add(new Slot(lightId, delay));
+                delay += animation.getSpread();
+            }
+            lanes.addAll(byBudget.values());
+            this.end = timeline.isLoop() ? Long.MAX_VALUE : timeline.getDuration() + delay - animation.getSpread();
+        }
+
+        void schedule(long delayNanos)
+        {
+            if (start == 0)
+            {
+                start = System.nanoTime();
+            }
+            try
+            {
+                next = scheduler.schedule(this, Math.max(delayNanos, 0), TimeUnit.NANOSECONDS);
+            }
+            catch (RuntimeException e)
+            {
+                // the engine has been disposed
+                done = true;
+            }
+        }
+
+        void cancel()
+        {
+            done = true;
+            ScheduledFuture<?> scheduled = next;
+            if (scheduled != null)
+            {
+                scheduled.cancel(false);
+            }
+        }
+
+        AnimationStats stats()
+        {
+            return new AnimationStats(id, !done, frames.get(), dropped.get(), commands.get(), deferred.get(), failed.get());
+        }
+
+        public void run()
+        {
+            if (done)
+            {
+                return;
+            }
+            long now = System.nanoTime();
+            long due = (now - start) / periodNanos;
+            if (due > frame)
+            {
+                dropped.addAndGet(due - frame);
+                frame = due;
+            }
+
+            long time = TimeUnit.NANOSECONDS.toMillis(frame * periodNanos);
+            boolean pending = false;
+            try
+            {
+                for (Lane lane : lanes)
+                {
+                    pending |= render(lane, time);
+                }
+            }
+            catch (RuntimeException e)
+            {
+                logger.warn("Animation " + id + " stopped: " + e.getMessage(), e);
+                done = true;
+                return;
+            }
+            frames.incrementAndGet();
+
+            if (time >= end && (!pending || now - start - TimeUnit.MILLISECONDS.toNanos(end) > SETTLE_NANOS))
+            {
+                done = true;
+                return;
+            }
+            frame++;
+            schedule(start + frame * periodNanos - System.nanoTime());
+        }
+
+        /**
+         * Renders a frame for the lights of a lane and sends the largest changes the budget allows
+         *
+         * @return true if any light is not showing the frame yet
+         */
+        private boolean render(Lane lane, long time)
+        {
+            List<Slot> changed = new ArrayList<Slot>(lane.slots.size());
+            for (Slot slot : lane.slots)
+            {
+                timeline.sample(time - slot.delay, sample);
+                slot.change = change(slot);
+                if (slot.change >= VISIBLE_CHANGE)
+                {
+                    changed.add(slot);
+                }
+            }
+            if (changed.isEmpty())
+            {
+                return false;
+            }
+            Collections.sort(changed, LARGEST_CHANGE_FIRST);
+
+            // a light is expected to be updated again once every light of the lane has had its turn
+            long interval = Math.max(TimeUnit.NANOSECONDS.toMillis(periodNanos), (long) (1000 * lane.slots.size() / commandsPerSecond));
+            int transitionTime = (int) Math.max(1, Math.round(interval / 100.0));
+            boolean exhausted = false;
+            for (Slot slot : changed)
+            {
+                // only the thread playing the animations sets inFlight, so it cannot be taken in between
+                if (exhausted || slot.inFlight.get())
+                {
+                    deferred.incrementAndGet();
+                    continue;
+                }
+                if (!lane.budget.tryAcquire())
+                {
+                    exhausted = true;
+                    deferred.incrementAndGet();
+                    continue;
+                }
+                slot.inFlight.set(true);
+                timeline.sample(time - slot.delay, sample);
+                send(slot, transitionTime);
+            }
+            return true;
+        }
+
+        private double change(Slot slot)
+        {
+            double change = 0;
+            if (!Double.isNaN(sample[0]))
+            {
+                change = Double.isNaN(slot.x) ? Double.MAX_VALUE : 1000 * (Math.abs(sample[0] - slot.x) + Math.abs(sample[1] - slot.y));
+            }
+            if (!Double.isNaN(sample[2]))
+            {
+                change = Math.max(change, Double.isNaN(slot.brightness) ? Double.MAX_VALUE : Math.abs(Math.round(sample[2]) - slot.brightness));
+            }
+            return change;
+        }
+
+        private void send(final Slot slot, int transitionTime)
+        {
+            State state = new State();
+            state.setOn(true);
+            if (!Double.isNaN(sample[0]))
+            {
+                state.setXy(sample[0], sample[1]);
+            }
+            if (!Double.isNaN(sample[2]))
+            {
+                state.setBrightness((int) Math.round(sample[2]));
+            }
+            state.setTransitionTime(transitionTime);
+            slot.x = sample[0];
+            slot.y = sample[1];
+            slot.brightness = Math.round(sample[2]);
+            commands.incrementAndGet();
+
+            CommandFuture<State> future;
+            try
+            {
+                future = sink.submit(slot.lightId, state);
+            }
+            catch (IOException e)
+            {
+                failed(slot);
+                return;
+            }
+            future.addCallback(new CommandFuture.Callback<State>()
+            {
+                public void completed(State result)
+                {
+                    slot.inFlight.set(false);
+                }
+
+                public void failed(IOException error)
+                {
+                    Player.this.failed(slot);
+                }
+            });
+        }
+
+        private void failed(Slot slot)
+        {
+            failed.incrementAndGet();
+            // forget what was sent so the light is tried again in a later frame
+            slot.x = Double.NaN;
+            slot.brightness = Double.NaN;
+            slot.inFlight.set(false);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.animation;
+
+import org.mule.module.hue.ColourUtils;
+import org.mule.module.hue.model.Keyframe;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The keyframes of an animation compiled for sampling. Colours are converted to xy once, and colour and brightness
+ * are interpolated separately so a keyframe may set only one of them.
+ */
+public class Timeline
+{
+    private final long duration;
+    private final boolean loop;
+    private final long[] colourOffsets;
+    private final double[] x;
+    private final double[] y;
+    private final long[] brightnessOffsets;
+    private final double[] brightness;
+
+    /**
+     * @param keyframes the keyframes, in any order
+     * @param duration  the length of the timeline in milliseconds, null for the offset of the last keyframe
+     * @param loop      whether the timeline starts over once it ends
+     * @throws IllegalArgumentException if there are no keyframes, a keyframe is outside the timeline or a colour
+     *                                  is not recognised
+     */
+    public Timeline(List<Keyframe> keyframes, Long duration, boolean loop)
+    {
+        if (keyframes == null || keyframes.isEmpty())
+        {
+            throw new IllegalArgumentException("An animation needs at least one keyframe");
+        }
+        List<Keyframe> sorted = new ArrayList<Keyframe>(keyframes);
+        Collections.sort(sorted, new Comparator<Keyframe>()
+        {
+            public int compare(Keyframe a, Keyframe b)
+            {
+                return a.getOffset() < b.getOffset() ? -1 : a.getOffset() == b.getOffset() ? 0 : 1;
+            }
+        });
+        long last = sorted.get(sorted.size() - 1).getOffset();
+        this.duration = duration != null ? duration : last;
+        this.loop = loop;
+        if (sorted.get(0).getOffset() < 0 || last > this.duration)
+        {
+            throw new IllegalArgumentException("Keyframes must be between 0 and the duration of the animation, " + this.duration);
+        }
+        if (loop && this.duration <= 0)
+        {
+            throw new IllegalArgumentException("A looping animation must last longer than 0ms");
+        }
+
+        int colours = 0;
+        int brightnesses = 0;
+        for (Keyframe keyframe : sorted)
+        {
+            colours += keyframe.getColor() != null ? 1 : 0;
+            brightnesses += keyframe.getBrightness() != null ? 1 : 0;
+        }
+        colourOffsets = new long[colours];
+        x = new double[colours];
+        y = new double[colours];
+        brightnessOffsets = new long[brightnesses];
+        brightness = new double[brightnesses];
+        double[] xy = new double[2];
+        int c = 0;
+        int b = 0;
+        for (Keyframe keyframe : sorted)
+        {
+            if (keyframe.getColor() != null)
+            {
+                ColourUtils.getXYForColour(keyframe.getColor(), xy);
+                colourOffsets[c] = keyframe.getOffset();
+                x[c] = xy[0];
+                y[c++] = xy[1];
+            }
+            if (keyframe.getBrightness() != null)
+            {
+                brightnessOffsets[b] = keyframe.getOffset();
+                brightness[b++] = Math.max(0, Math.min(255, keyframe.getBrightness()));
+            }
+        }
+    }
+
+    /**
+     * @return the length of the timeline in milliseconds
+     */
+    public long getDuration()
+    {
+        return duration;
+    }
+
+    public boolean isLoop()
+    {
+        return loop;
+    }
+
+    /**
+     * Samples the timeline. Before the first keyframe the first values are held, as are the last values after
+     * the end of a timeline that does not loop.
+     *
+     * @param time the time in milliseconds from the start of the timeline, may be negative
+     * @param out  receives x, y and brightness, NaN for values no keyframe sets
+     */
+    public void sample(long time, double[] out)
+    {
+        long t = loop ? ((time % duration) + duration) % duration : time;
+        if (colourOffsets.length == 0)
+        {
+            out[0] = Double.NaN;
+            out[1] = Double.NaN;
+        }
+        else
+        {
+            out[0] = interpolate(colourOffsets, x, t);
+            out[1] = interpolate(colourOffsets, y, t);
+        }
+        out[2] = brightnessOffsets.length == 0 ? Double.NaN : interpolate(brightnessOffsets, brightness, t);
+    }
+
+    private double interpolate(long[] offsets, double[] values, long t)
+    {
+        int n = offsets.length;
+        int i = n - 1;
+        while (i >= 0 && offsets[i] > t)
+        {
+            i--;
+        }
+
+        long fromOffset;
+        long toOffset;
+        double from;
+        double to;
+        if (!loop)
+        {
+            if (i < 0)
+            {
+                return values[0];
+            }
+            if (i == n - 1)
+            {
+                return values[n - 1];
+            }
+            fromOffset = offsets[i];
+            toOffset = offsets[i + 1];
+            from = values[i];
+            to = values[i + 1];
+        }
+        else if (i < 0)
+        {
+            // between the last keyframe of the previous cycle and the first of this one
+            fromOffset = offsets[n - 1] - duration;
+            toOffset = offsets[0];
+            from = values[n - 1];
+            to = values[0];
+        }
+        else if (i == n - 1)
+        {
+            fromOffset = offsets[n - 1];
+            toOffset = offsets[0] + duration;
+            from = values[n - 1];
+            to = values[0];
+        }
+        else
+        {
+            fromOffset = offsets[i];
+            toOffset = offsets[i + 1];
+            from = values[i];
+            to = values[i + 1];
+        }
+        if (toOffset <= fromOffset)
+        {
+            return to;
+        }
+        return from + (to - from) * (t - fromOffset) / (toOffset - fromOffset);
+    }
+}
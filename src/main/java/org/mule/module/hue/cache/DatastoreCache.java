@@ -0,0 +1,335 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.cache;
+
+import org.mule.module.hue.json.ModelReader;
+import org.mule.module.hue.json.ResponseReader;
+import org.mule.module.hue.model.Datastore;
+import org.mule.module.hue.model.GroupAttributes;
+import org.mule.module.hue.model.LightAttributes;
+import org.mule.module.hue.model.State;
+import org.mule.module.hue.transport.HueTransport;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * An in-memory copy of the lights and groups of the bridge, filled from a single GET of the
+ * whole datastore. Entries are never served older than the time to live; the cache refreshes
+ * itself in the background before that so reads rarely have to wait for the bridge.
+ * <p/>
+ * Successful state changes are applied to the cached copy straight away so reads see them
+ * before the next refresh. The states of the lights are kept in a {@link LightStateStore} and each
+ * read of a light builds new attributes around a new state, while cached groups are replaced, never
+ * modified, so everything handed out to callers is safe for them to keep.
+ */
+public class DatastoreCache
+{
+    private static final Log logger = LogFactory.getLog(DatastoreCache.class);
+
+    private final HueTransport transport;
+    private final ModelReader modelReader;
+    private final ResponseReader responseReader;
+    private final long ttlNanos;
+    private volatile Snapshot snapshot;
+    private ScheduledFuture<?> refreshTask;
+
+    /**
+     * @param transport the transport used to fetch the datastore
+     * @param mapper    the mapper used to read the datastore
+     * @param ttl       the maximum age in milliseconds of the entries served by the cache
+     */
+    public DatastoreCache(HueTransport transport, ObjectMapper mapper, long ttl)
+    {
+        this.transport = transport;
+        this.modelReader = new ModelReader(mapper);
+        this.responseReader = new ResponseReader(mapper);
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+    }
+
+    /**
+     * Starts refreshing the cache in the background
+     *
+     * @param scheduler the scheduler used to run the refreshes
+     */
+    public void start(ScheduledExecutorService scheduler)
+    {
+        long period = Math.max(1, ttlNanos * 3 / 4);
+        refreshTask = scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    refresh();
+                }
+                catch (Exception e)
+                {
+                    logger.warn("Failed to refresh the hue datastore cache: " + e.getMessage());
+                }
+            }
+        }, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops refreshing the cache in the background
+     */
+    public void stop()
+    {
+        if (refreshTask != null)
+        {
+            refreshTask.cancel(false);
+            refreshTask = null;
+        }
+    }
+
+    /**
+     * Fetches the datastore from the bridge and replaces the content of the cache
+     *
+     * @throws IOException if the datastore cannot be fetched or read
+     */
+    public void refresh() throws IOException
+    {
+        load(transport.get(""));
+    }
+
+    /**
+     * Replaces the content of the cache with a datastore that has already been fetched
+     *
+     * @param datastore the raw datastore response
+     * @throws IOException if the datastore cannot be read
+     */
+    public void load(String datastore) throws IOException
+    {
+        load(modelReader.readDatastore(responseReader.checkRead(datastore)));
+    }
+
+    /**
+     * Replaces the content of the cache with a datastore that has already been read
+     *
+     * @param datastore the datastore
+     */
+    public void load(Datastore datastore)
+    {
+        snapshot = new Snapshot(datastore);
+    }
+
+    /**
+     * Gets a light from the cache, refreshing it first if it is older than the time to live
+     *
+     * @param lightId the identifier of the light
+     * @return the light or null if the bridge does not know it
+     * @throws IOException if the cache had to be refreshed and that failed
+     */
+    public LightAttributes getLight(String lightId) throws IOException
+    {
+        return fresh().getLight(lightId);
+    }
+
+    /**
+     * Gets a group from the cache, refreshing it first if it is older than the time to live
+     *
+     * @param groupId the identifier of the group
+     * @return the group or null if it is not part of the datastore, group 0 never is
+     * @throws IOException if the cache had to be refreshed and that failed
+     */
+    public GroupAttributes getGroup(String groupId) throws IOException
+    {
+        return fresh().groups.get(groupId);
+    }
+
+    /**
+     * Gets all lights from the cache, refreshing it first if it is older than the time to live
+     *
+     * @return an unmodifiable view of all lights keyed by identifier
+     * @throws IOException if the cache had to be refreshed and that failed
+     */
+    public Map<String, LightAttributes> getLights() throws IOException
+    {
+        Snapshot current = fresh();
+        Map<String, LightAttributes> lights = new LinkedHashMap<String, LightAttributes>();
+        for (String lightId : current.lights.keySet())
+        {
+            lights.put(lightId, current.getLight(lightId));
+        }
+        return Collections.unmodifiableMap(lights);
+    }
+
+    /**
+     * Gets all groups from the cache, refreshing it first if it is older than the time to live
+     *
+     * @return an unmodifiable view of all groups keyed by identifier
+     * @throws IOException if the cache had to be refreshed and that failed
+     */
+    public Map<String, GroupAttributes> getGroups() throws IOException
+    {
+        return Collections.unmodifiableMap(fresh().groups);
+    }
+
+    /**
+     * Applies a state that the bridge accepted for a light to the cached copy
+     *
+     * @param lightId the identifier of the light
+     * @param state   the state that was applied
+     */
+    public void updateLight(String lightId, State state)
+    {
+        Snapshot current = snapshot;
+        if (current != null)
+        {
+            current.updateLight(lightId, state);
+        }
+    }
+
+    /**
+     * Applies a state that the bridge accepted for a group to the cached copy of the group and of
+     * every light in it. A colour puts the group and its lights in the mode of the colour and replaces
+     * the values of the other modes
+     *
+     * @param groupId the identifier of the group, 0 addresses every light
+     * @param state   the state that was applied
+     */
+    public void updateGroup(String groupId, State state)
+    {
+        Snapshot current = snapshot;
+        if (current == null)
+        {
+            return;
+        }
+        if ("0".equals(groupId))
+        {
+            for (String lightId : current.lights.keySet())
+            {
+                current.updateLight(lightId, state);
+            }
+            return;
+        }
+
+        current.updateGroup(groupId, state);
+        GroupAttributes group = current.groups.get(groupId);
+        if (group != null && group.getLights() != null)
+        {
+            for (String lightId : group.getLights())
+            {
+                current.updateLight(lightId, state);
+            }
+        }
+    }
+
+    private Snapshot fresh() throws IOException
+    {
+        Snapshot current = snapshot;
+        if (current == null || current.isOlderThan(ttlNanos))
+        {
+            synchronized (this)
+            {
+                current = snapshot;
+                if (current == null || current.isOlderThan(ttlNanos))
+                {
+                    refresh();
+                    current = snapshot;
+                }
+            }
+        }
+        return current;
+    }
+
+    private static State merge(State current, State update)
+    {
+        State merged = new State();
+        if (current != null)
+        {
+            merged.merge(current);
+        }
+        merged.merge(update);
+        // merging already drops the colour modes the update replaces, its own mode is the one now in effect
+        String colormode = update.impliedColormode();
+        if (colormode != null)
+        {
+            merged.setStatus(merged.isReachable(), colormode);
+        }
+        return merged;
+    }
+
+    /**
+     * The content of the cache as read from one fetch of the datastore
+     */
+    private static class Snapshot
+    {
+        private final long loaded = System.nanoTime();
+        // the attributes of the lights without their states, which are in the store
+        private final Map<String, LightAttributes> lights = new LinkedHashMap<String, LightAttributes>();
+        private final LightStateStore states;
+        private final ConcurrentMap<String, GroupAttributes> groups = new ConcurrentHashMap<String, GroupAttributes>();
+
+        Snapshot(Datastore datastore)
+        {
+            states = new LightStateStore(datastore.getLights() == null ? 0 : datastore.getLights().size());
+            if (datastore.getLights() != null)
+            {
+                for (Map.Entry<String, LightAttributes> light : datastore.getLights().entrySet())
+                {
+                    lights.put(light.getKey(), light.getValue().withState(null));
+                    if (light.getValue().getState() != null)
+                    {
+                        states.put(light.getKey(), light.getValue().getState());
+                    }
+                }
+            }
+            if (datastore.getGroups() != null)
+            {
+                groups.putAll(datastore.getGroups());
+            }
+        }
+
+        boolean isOlderThan(long nanos)
+        {
+            return System.nanoTime() - loaded > nanos;
+        }
+
+        LightAttributes getLight(String lightId)
+        {
+            LightAttributes light = lights.get(lightId);
+            return light == null ? null : light.withState(states.getState(lightId));
+        }
+
+        void updateLight(String lightId, State state)
+        {
+            if (lights.containsKey(lightId) && !states.update(lightId, state))
+            {
+                // the bridge did not report a state for the light
+                states.put(lightId, state);
+            }
+        }
+
+        void updateGroup(String groupId, State state)
+        {
+            GroupAttributes group;
+            do
+            {
+                group = groups.get(groupId);
+                if (group == null)
+                {
+                    return;
+                }
+            }
+            while (!groups.replace(groupId, group, group.withState(merge(group.getState(), state))));
+        }
+    }
+}
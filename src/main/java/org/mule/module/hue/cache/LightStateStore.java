@@ -0,0 +1,395 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.cache;
+
+import org.mule.module.hue.model.State;
+
+import java.util.Arrays;
+
+/**
+ * Holds the states of many lights in primitive arrays, one per property, indexed by a dense ordinal given to each
+ * light as it is added. The state columns take 16 bytes per light instead of a {@link State} with its boxed
+ * properties, and applying a state to a light allocates nothing. {@link State} objects are only built when a state
+ * is read, and are never shared with the store.
+ * <p/>
+ * Ordinals are found through an open addressing table of ints kept at most half full, so on top of the state
+ * columns a light costs a reference to its identifier and two to four slots of the table, 28 to 36 bytes in all
+ * with compressed references. The identifier strings themselves are shared with the caller.
+ * <p/>
+ * The xy coordinates are kept to the precision of the bridge, four decimals. The transition time of a command is
+ * not part of the state of a light and is not kept.
+ */
+public class LightStateStore
+{
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int UNKNOWN = -1;
+    private static final double XY_SCALE = 10000;
+
+    private static final int ON_KNOWN = 1;
+    private static final int ON = 1 << 1;
+    private static final int REACHABLE_KNOWN = 1 << 2;
+    private static final int REACHABLE = 1 << 3;
+
+    private static final String[] COLORMODES = {null, "hs", "xy", "ct"};
+    private static final int COLORMODE_MASK = 3;
+    private static final int EFFECT_SHIFT = 2;
+    private static final int ALERT_SHIFT = 4;
+    private static final int ENUM_MASK = 3;
+
+    // the ordinal plus one of the light hashed to each slot, 0 for a free slot
+    private int[] slots;
+    private String[] lightIds;
+    private byte[] flags;
+    private byte[] modes;
+    private short[] brightness;
+    private int[] hue;
+    private short[] saturation;
+    private short[] ct;
+    private short[] x;
+    private short[] y;
+    private int size;
+
+    public LightStateStore()
+    {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of lights to make room for straight away
+     */
+    public LightStateStore(int capacity)
+    {
+        capacity = Math.max(capacity, 1);
+        lightIds = new String[capacity];
+        slots = new int[tableSize(capacity)];
+        flags = new byte[capacity];
+        modes = new byte[capacity];
+        brightness = unknownShorts(capacity);
+        hue = new int[capacity];
+        Arrays.fill(hue, UNKNOWN);
+        saturation = unknownShorts(capacity);
+        ct = unknownShorts(capacity);
+        x = unknownShorts(capacity);
+        y = unknownShorts(capacity);
+    }
+
+    /**
+     * Adds a light, or replaces the state of a light already in the store
+     *
+     * @param lightId the identifier of the light
+     * @param state   the state reported by the bridge, may be null if unknown
+     * @return the ordinal of the light
+     */
+    public synchronized int put(String lightId, State state)
+    {
+        int i = find(lightId);
+        if (i != UNKNOWN)
+        {
+            clear(i);
+        }
+        else
+        {
+            if (size == lightIds.length)
+            {
+                grow();
+            }
+            i = size++;
+            lightIds[i] = lightId;
+            index(i);
+        }
+        if (state != null)
+        {
+            apply(i, state);
+            modes[i] = (byte) ((modes[i] & ~COLORMODE_MASK) | colormode(state.impliedColormode()));
+            if (state.isReachable() != null)
+            {
+                flags[i] = (byte) (flags[i] | REACHABLE_KNOWN | (state.isReachable() ? REACHABLE : 0));
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Applies the properties set on a state to a light, leaving the others as they are. Without a colormode
+     * the state sets the mode of the colour it carries, ranked like the bridge ranks them: xy, ct then hs, and
+     * the values of the other modes are forgotten since they no longer describe the colour of the light
+     *
+     * @param lightId the identifier of the light
+     * @param state   the properties to apply
+     * @return false if the light is not in the store
+     */
+    public synchronized boolean update(String lightId, State state)
+    {
+        int ordinal = find(lightId);
+        if (ordinal == UNKNOWN)
+        {
+            return false;
+        }
+        String colormode = state.impliedColormode();
+        if (state.getColormode() == null && colormode != null)
+        {
+            forgetOtherModes(ordinal, colormode);
+        }
+        apply(ordinal, state);
+        if (colormode != null)
+        {
+            modes[ordinal] = (byte) ((modes[ordinal] & ~COLORMODE_MASK) | colormode(colormode));
+        }
+        if (state.isReachable() != null)
+        {
+            flags[ordinal] = (byte) ((flags[ordinal] & ~REACHABLE) | REACHABLE_KNOWN | (state.isReachable() ? REACHABLE : 0));
+        }
+        return true;
+    }
+
+    /**
+     * @param lightId the identifier of the light
+     * @return the ordinal of the light, or -1 if it is not in the store
+     */
+    public synchronized int ordinal(String lightId)
+    {
+        return find(lightId);
+    }
+
+    /**
+     * @param lightId the identifier of the light
+     * @return a new state holding what is known of the light, or null if it is not in the store
+     */
+    public synchronized State getState(String lightId)
+    {
+        int ordinal = find(lightId);
+        return ordinal == UNKNOWN ? null : getState(ordinal);
+    }
+
+    /**
+     * @param ordinal the ordinal of the light
+     * @return a new state holding what is known of the light
+     */
+    public synchronized State getState(int ordinal)
+    {
+        if (ordinal < 0 || ordinal >= size)
+        {
+            throw new IndexOutOfBoundsException("No light with ordinal " + ordinal);
+        }
+        State state = new State();
+        int flag = flags[ordinal];
+        if ((flag & ON_KNOWN) != 0)
+        {
+            state.setOn((flag & ON) != 0);
+        }
+        if (brightness[ordinal] != UNKNOWN)
+        {
+            state.setBrightness((int) brightness[ordinal]);
+        }
+        if (hue[ordinal] != UNKNOWN)
+        {
+            state.setHue(hue[ordinal]);
+        }
+        if (saturation[ordinal] != UNKNOWN)
+        {
+            state.setSaturation((int) saturation[ordinal]);
+        }
+        if (ct[ordinal] != UNKNOWN)
+        {
+            state.setCt((int) ct[ordinal]);
+        }
+        if (x[ordinal] != UNKNOWN)
+        {
+            state.setXy(x[ordinal] / XY_SCALE, y[ordinal] / XY_SCALE);
+        }
+        int mode = modes[ordinal];
+        int effect = (mode >> EFFECT_SHIFT) & ENUM_MASK;
+        if (effect != 0)
+        {
+            state.setEffect(State.Effect.values()[effect - 1]);
+        }
+        int alert = (mode >> ALERT_SHIFT) & ENUM_MASK;
+        if (alert != 0)
+        {
+            state.setAlert(State.Alert.values()[alert - 1]);
+        }
+        Boolean reachable = (flag & REACHABLE_KNOWN) != 0 ? Boolean.valueOf((flag & REACHABLE) != 0) : null;
+        state.setStatus(reachable, COLORMODES[mode & COLORMODE_MASK]);
+        return state;
+    }
+
+    /**
+     * @param ordinal the ordinal of the light
+     * @return the identifier of the light
+     */
+    public synchronized String getLightId(int ordinal)
+    {
+        if (ordinal < 0 || ordinal >= size)
+        {
+            throw new IndexOutOfBoundsException("No light with ordinal " + ordinal);
+        }
+        return lightIds[ordinal];
+    }
+
+    /**
+     * @return the number of lights in the store, whose ordinals go from 0 to one less than it
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the ordinal of the light, or -1 if it is not in the store
+     */
+    private int find(String lightId)
+    {
+        int mask = slots.length - 1;
+        for (int slot = hash(lightId) & mask; slots[slot] != 0; slot = (slot + 1) & mask)
+        {
+            int ordinal = slots[slot] - 1;
+            if (lightIds[ordinal].equals(lightId))
+            {
+                return ordinal;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Puts a light in the first free slot from its hash
+     */
+    private void index(int ordinal)
+    {
+        int mask = slots.length - 1;
+        int slot = hash(lightIds[ordinal]) & mask;
+        while (slots[slot] != 0)
+        {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = ordinal + 1;
+    }
+
+    private static int hash(String lightId)
+    {
+        int h = lightId.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the smallest power of two at least twice the capacity
+     */
+    private static int tableSize(int capacity)
+    {
+        return Integer.highestOneBit(capacity * 2 - 1) << 1;
+    }
+
+    private void apply(int i, State state)
+    {
+        if (state.getOn() != null)
+        {
+            flags[i] = (byte) ((flags[i] & ~ON) | ON_KNOWN | (state.getOn() ? ON : 0));
+        }
+        if (state.getBrightness() != null)
+        {
+            brightness[i] = state.getBrightness().shortValue();
+        }
+        if (state.getHue() != null)
+        {
+            hue[i] = state.getHue();
+        }
+        if (state.getSaturation() != null)
+        {
+            saturation[i] = state.getSaturation().shortValue();
+        }
+        if (state.getCt() != null)
+        {
+            ct[i] = state.getCt().shortValue();
+        }
+        if (state.hasXy())
+        {
+            x[i] = (short) Math.round(state.getX() * XY_SCALE);
+            y[i] = (short) Math.round(state.getY() * XY_SCALE);
+        }
+        if (state.getEffect() != null)
+        {
+            modes[i] = (byte) ((modes[i] & ~(ENUM_MASK << EFFECT_SHIFT)) | (state.getEffect().ordinal() + 1) << EFFECT_SHIFT);
+        }
+        if (state.getAlert() != null)
+        {
+            modes[i] = (byte) ((modes[i] & ~(ENUM_MASK << ALERT_SHIFT)) | (state.getAlert().ordinal() + 1) << ALERT_SHIFT);
+        }
+    }
+
+    private void forgetOtherModes(int i, String colormode)
+    {
+        if (!"xy".equals(colormode))
+        {
+            x[i] = UNKNOWN;
+            y[i] = UNKNOWN;
+        }
+        if (!"ct".equals(colormode))
+        {
+            ct[i] = UNKNOWN;
+        }
+        if (!"hs".equals(colormode))
+        {
+            hue[i] = UNKNOWN;
+            saturation[i] = UNKNOWN;
+        }
+    }
+
+    private void clear(int i)
+    {
+        flags[i] = 0;
+        modes[i] = 0;
+        brightness[i] = UNKNOWN;
+        hue[i] = UNKNOWN;
+        saturation[i] = UNKNOWN;
+        ct[i] = UNKNOWN;
+        x[i] = UNKNOWN;
+        y[i] = UNKNOWN;
+    }
+
+    private void grow()
+    {
+        int capacity = lightIds.length * 2;
+        lightIds = Arrays.copyOf(lightIds, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        modes = Arrays.copyOf(modes, capacity);
+        brightness = Arrays.copyOf(brightness, capacity);
+        hue = Arrays.copyOf(hue, capacity);
+        saturation = Arrays.copyOf(saturation, capacity);
+        ct = Arrays.copyOf(ct, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        for (int i = size; i < capacity; i++)
+        {
+            clear(i);
+        }
+        slots = new int[tableSize(capacity)];
+        for (int i = 0; i < size; i++)
+        {
+            index(i);
+        }
+    }
+
+    private static int colormode(String colormode)
+    {
+        for (int i = 1; i < COLORMODES.length; i++)
+        {
+            if (COLORMODES[i].equals(colormode))
+            {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private static short[] unknownShorts(int capacity)
+    {
+        short[] values = new short[capacity];
+        Arrays.fill(values, (short) UNKNOWN);
+        return values;
+    }
+}
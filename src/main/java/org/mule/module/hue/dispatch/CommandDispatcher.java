@@ -0,0 +1,437 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.dispatch;
+
+import org.mule.module.hue.json.ModelWriter;
+import org.mule.module.hue.json.ResponseReader;
+import org.mule.module.hue.model.State;
+import org.mule.module.hue.transport.HueTransport;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Queues state changes for lights and groups and sends them to the bridge no faster than it can
+ * sustain. Light and group commands are throttled independently, each by its own {@link TokenBucket}.
+ * <p/>
+ * While a command waits in the queue any newer state for the same light or group is merged into it,
+ * property by property with the newest value winning, so a burst of updates to one light goes out
+ * as a single PUT. Callers either block until the command carrying their update has been sent or get
+ * a {@link CommandFuture} for it, in which case the waiting command holds no thread.
+ * <p/>
+ * When given a {@link StateTracker} only the properties that differ from the last acknowledged state
+ * are sent, and a command that would change nothing is not sent at all.
+ */
+public class CommandDispatcher
+{
+    /**
+     * The number of locks comparing unqueued commands, resources hashed to the same lock are compared one after
+     * the other
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    private final HueTransport transport;
+    private final ModelWriter writer;
+    private final ResponseReader responseReader;
+    private final StateTracker tracker;
+    private final AtomicLong suppressed = new AtomicLong();
+    private volatile Executor directExecutor;
+    private final Lane lights;
+    private final Lane groups;
+
+    /**
+     * @param transport              the transport used to send the commands
+     * @param mapper                 the mapper used to read responses and encode what the model writer cannot
+     * @param lightCommandsPerSecond the rate at which light commands are sent, 0 sends them immediately
+     * @param groupCommandsPerSecond the rate at which group commands are sent, 0 sends them immediately
+     */
+    public CommandDispatcher(HueTransport transport, ObjectMapper mapper, double lightCommandsPerSecond, double groupCommandsPerSecond)
+    {
+        this(transport, mapper, lightCommandsPerSecond, groupCommandsPerSecond, null);
+    }
+
+    /**
+     * @param transport              the transport used to send the commands
+     * @param mapper                 the mapper used to read responses and encode what the model writer cannot
+     * @param lightCommandsPerSecond the rate at which light commands are sent, 0 sends them immediately
+     * @param groupCommandsPerSecond the rate at which group commands are sent, 0 sends them immediately
+     * @param tracker                the tracker used to only send changed properties, or null to always send them all
+     */
+    public CommandDispatcher(HueTransport transport, ObjectMapper mapper, double lightCommandsPerSecond, double groupCommandsPerSecond,
+                             StateTracker tracker)
+    {
+        this.transport = transport;
+        this.writer = new ModelWriter(mapper);
+        this.responseReader = new ResponseReader(mapper);
+        this.tracker = tracker;
+        this.lights = new Lane("lights/%s/state", lightCommandsPerSecond, false);
+        this.groups = new Lane("groups/%s/action", groupCommandsPerSecond, true);
+    }
+
+    /**
+     * Starts the threads that drain the queues
+     */
+    public void start()
+    {
+        lights.start("hue-dispatcher-lights");
+        groups.start("hue-dispatcher-groups");
+    }
+
+    /**
+     * Stops the threads that drain the queues. Commands still waiting fail with an {@link IOException}
+     */
+    public void stop()
+    {
+        lights.stop();
+        groups.stop();
+    }
+
+    /**
+     * Queues a new state for a light and waits for it to be sent
+     *
+     * @param lightId the identifier of the light
+     * @param state   the state to apply
+     * @return the raw response of the bridge to the command that carried the state
+     * @throws IOException if the command could not be sent
+     * @throws IllegalArgumentException if the state is null
+     */
+    public String setLightState(String lightId, State state) throws IOException
+    {
+        return lights.submit(lightId, state, false).await();
+    }
+
+    /**
+     * Queues a new state for a light without waiting for it to be sent
+     *
+     * @param lightId the identifier of the light
+     * @param state   the state to apply
+     * @return the future raw response of the bridge to the command that carries the state
+     * @throws IllegalArgumentException if the state is null
+     */
+    public CommandFuture<String> submitLightState(String lightId, State state)
+    {
+        return lights.submit(lightId, state, true);
+    }
+
+    /**
+     * Queues a new state for a group and waits for it to be sent
+     *
+     * @param groupId the identifier of the group
+     * @param state   the state to apply
+     * @return the raw response of the bridge to the command that carried the state
+     * @throws IOException if the command could not be sent
+     * @throws IllegalArgumentException if the state is null
+     */
+    public String setGroupState(String groupId, State state) throws IOException
+    {
+        return groups.submit(groupId, state, false).await();
+    }
+
+    /**
+     * Queues a new state for a group without waiting for it to be sent
+     *
+     * @param groupId the identifier of the group
+     * @param state   the state to apply
+     * @return the future raw response of the bridge to the command that carries the state
+     * @throws IllegalArgumentException if the state is null
+     */
+    public CommandFuture<String> submitGroupState(String groupId, State state)
+    {
+        return groups.submit(groupId, state, true);
+    }
+
+    /**
+     * Sets the executor that sends the commands submitted without waiting when a rate is 0 and there is no
+     * queue. Its number of threads bounds the number of such commands in flight. Without one those commands
+     * are sent by the submitting thread.
+     *
+     * @param directExecutor the executor sending unthrottled commands
+     */
+    public void setDirectExecutor(Executor directExecutor)
+    {
+        this.directExecutor = directExecutor;
+    }
+
+    /**
+     * @return the number of commands waiting to be sent
+     */
+    public int getQueueDepth()
+    {
+        return lights.size() + groups.size();
+    }
+
+    /**
+     * @return the number of updates that were merged into a command already waiting in the queue
+     */
+    public long getCoalescedCount()
+    {
+        return lights.coalesced.get() + groups.coalesced.get();
+    }
+
+    /**
+     * @return the number of commands that were not sent because they would not have changed anything
+     */
+    public long getSuppressedCount()
+    {
+        return suppressed.get();
+    }
+
+    /**
+     * @return the tracker of acknowledged states, or null if every property is always sent
+     */
+    public StateTracker getStateTracker()
+    {
+        return tracker;
+    }
+
+    /**
+     * A queue of commands for one class of resource, drained by its own thread
+     */
+    private class Lane implements Runnable
+    {
+        private final String pathFormat;
+        private final boolean group;
+        private final TokenBucket bucket;
+        private final LinkedHashMap<String, PendingCommand> pending = new LinkedHashMap<String, PendingCommand>();
+        private final AtomicLong coalesced = new AtomicLong();
+        private final Object[] locks = new Object[LOCK_STRIPES];
+        private volatile Thread thread;
+        private boolean stopped;
+
+        Lane(String pathFormat, double commandsPerSecond, boolean group)
+        {
+            this.pathFormat = pathFormat;
+            this.group = group;
+            this.bucket = commandsPerSecond > 0 ? new TokenBucket(commandsPerSecond, 1) : null;
+            for (int i = 0; i < locks.length; i++)
+            {
+                locks[i] = new Object();
+            }
+        }
+
+        synchronized void start(String name)
+        {
+            if (bucket != null && thread == null)
+            {
+                stopped = false;
+                thread = new Thread(this, name);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        void stop()
+        {
+            Thread t;
+            synchronized (this)
+            {
+                t = thread;
+                thread = null;
+                stopped = t != null;
+                for (PendingCommand command : pending.values())
+                {
+                    command.future.fail(new IOException("The command dispatcher has been stopped"));
+                }
+                pending.clear();
+            }
+            if (t != null)
+            {
+                t.interrupt();
+            }
+        }
+
+        synchronized int size()
+        {
+            return pending.size();
+        }
+
+        CommandFuture<String> submit(final String id, final State state, boolean async)
+        {
+            if (state == null)
+            {
+                throw new IllegalArgumentException("A command needs a state");
+            }
+            final String path = String.format(pathFormat, id);
+            final CommandFuture<String> future = new CommandFuture<String>();
+            // queued or sent directly is decided under the lock so a command cannot be queued after stop
+            synchronized (this)
+            {
+                if (thread != null)
+                {
+                    PendingCommand command = pending.get(id);
+                    if (command == null)
+                    {
+                        command = new PendingCommand(id, path);
+                        pending.put(id, command);
+                        notifyAll();
+                    }
+                    else
+                    {
+                        coalesced.incrementAndGet();
+                    }
+                    command.state.merge(state);
+                    return command.future;
+                }
+                if (stopped)
+                {
+                    future.fail(new IOException("The command dispatcher has been stopped"));
+                    return future;
+                }
+            }
+
+            Runnable direct = new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        future.complete(sendDirect(id, path, state));
+                    }
+                    catch (IOException e)
+                    {
+                        future.fail(e);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        future.fail(new IOException(e.getMessage(), e));
+                    }
+                }
+            };
+            Executor executor = directExecutor;
+            if (async && executor != null)
+            {
+                executor.execute(direct);
+            }
+            else
+            {
+                direct.run();
+            }
+            return future;
+        }
+
+        private String sendDirect(String id, String path, State state) throws IOException
+        {
+            if (tracker == null)
+            {
+                return transport.put(path, writer.write(state));
+            }
+            // without a queue commands to the same resource must still be compared one at a time
+            synchronized (lock(id))
+            {
+                return send(id, path, state);
+            }
+        }
+
+        private String send(String id, String path, State state) throws IOException
+        {
+            if (tracker == null)
+            {
+                return transport.put(path, writer.write(state));
+            }
+            State delta = group ? tracker.groupDelta(id, state) : tracker.lightDelta(id, state);
+            if (delta == null)
+            {
+                suppressed.incrementAndGet();
+                return "[]";
+            }
+            if (!group)
+            {
+                String response = transport.put(path, writer.write(delta));
+                tracker.lightAcknowledged(id, delta, responseReader.read(response).isSuccess());
+                return response;
+            }
+            tracker.groupSending(id);
+            boolean success = false;
+            try
+            {
+                String response = transport.put(path, writer.write(delta));
+                success = responseReader.read(response).isSuccess();
+                return response;
+            }
+            finally
+            {
+                tracker.groupAcknowledged(id, delta, success);
+            }
+        }
+
+        /**
+         * @return the lock of the stripe a resource is hashed to, a fixed set so it does not grow with the lights
+         */
+        private Object lock(String id)
+        {
+            int h = id.hashCode();
+            return locks[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
+        }
+
+        public void run()
+        {
+            while (thread == Thread.currentThread())
+            {
+                PendingCommand command;
+                try
+                {
+                    synchronized (this)
+                    {
+                        while (pending.isEmpty())
+                        {
+                            wait();
+                        }
+                    }
+                    // keep merging while we wait for the bridge to accept another command
+                    bucket.acquire();
+                    synchronized (this)
+                    {
+                        Iterator<Map.Entry<String, PendingCommand>> it = pending.entrySet().iterator();
+                        command = it.next().getValue();
+                        it.remove();
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+
+                try
+                {
+                    command.future.complete(send(command.id, command.path, command.state));
+                }
+                catch (IOException e)
+                {
+                    command.future.fail(e);
+                }
+                catch (RuntimeException e)
+                {
+                    command.future.fail(new IOException(e.getMessage(), e));
+                }
+            }
+        }
+    }
+
+    /**
+     * A command waiting in the queue and the future its callers wait on
+     */
+    private static class PendingCommand
+    {
+        private final String id;
+        private final String path;
+        private final State state = new State();
+        private final CommandFuture<String> future = new CommandFuture<String>();
+
+        PendingCommand(String id, String path)
+        {
+            this.id = id;
+            this.path = path;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.dispatch;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The pending outcome of a command sent to the bridge. Callers may block on it like any {@link Future}
+ * or register a {@link Callback} that runs once the outcome is known, so a command waiting for its turn
+ * does not hold a thread. Commands already handed to the bridge cannot be cancelled.
+ *
+ * @param <T> the type of the outcome
+ */
+public class CommandFuture<T> implements Future<T>
+{
+    /**
+     * Notified once the outcome of a command is known. Callbacks run on the thread that completes the
+     * command, usually a dispatcher thread, so they must not block.
+     *
+     * @param <T> the type of the outcome
+     */
+    public interface Callback<T>
+    {
+        void completed(T result);
+
+        void failed(IOException error);
+    }
+
+    private static final Log logger = LogFactory.getLog(CommandFuture.class);
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private List<Callback<T>> callbacks = new ArrayList<Callback<T>>(1);
+    private volatile T result;
+    private volatile IOException error;
+
+    /**
+     * Creates a future that is already complete
+     *
+     * @param result the outcome
+     * @param <T>    the type of the outcome
+     * @return the future
+     */
+    public static <T> CommandFuture<T> completed(T result)
+    {
+        CommandFuture<T> future = new CommandFuture<T>();
+        future.complete(result);
+        return future;
+    }
+
+    /**
+     * @param result the outcome of the command
+     * @return true if this call completed the future, false if it was already done
+     */
+    public boolean complete(T result)
+    {
+        List<Callback<T>> toNotify;
+        synchronized (this)
+        {
+            if (callbacks == null)
+            {
+                return false;
+            }
+            this.result = result;
+            toNotify = callbacks;
+            callbacks = null;
+            done.countDown();
+        }
+        for (Callback<T> callback : toNotify)
+        {
+            notify(callback);
+        }
+        return true;
+    }
+
+    /**
+     * @param error the reason the command failed
+     * @return true if this call completed the future, false if it was already done
+     */
+    public boolean fail(IOException error)
+    {
+        List<Callback<T>> toNotify;
+        synchronized (this)
+        {
+            if (callbacks == null)
+            {
+                return false;
+            }
+            this.error = error;
+            toNotify = callbacks;
+            callbacks = null;
+            done.countDown();
+        }
+        for (Callback<T> callback : toNotify)
+        {
+            notify(callback);
+        }
+        return true;
+    }
+
+    /**
+     * Registers a callback, running it straight away if the outcome is already known
+     *
+     * @param callback the callback to notify
+     */
+    public void addCallback(Callback<T> callback)
+    {
+        synchronized (this)
+        {
+            if (callbacks != null)
+            {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        notify(callback);
+    }
+
+    /**
+     * Waits for the outcome, failing like a blocking call would
+     *
+     * @return the outcome
+     * @throws IOException if the command failed or the thread was interrupted
+     */
+    public T await() throws IOException
+    {
+        try
+        {
+            done.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the command to be sent");
+        }
+        if (error != null)
+        {
+            throw new IOException(error.getMessage(), error);
+        }
+        return result;
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        return false;
+    }
+
+    public boolean isCancelled()
+    {
+        return false;
+    }
+
+    public boolean isDone()
+    {
+        return done.getCount() == 0;
+    }
+
+    public T get() throws InterruptedException, ExecutionException
+    {
+        done.await();
+        return outcome();
+    }
+
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if (!done.await(timeout, unit))
+        {
+            throw new TimeoutException();
+        }
+        return outcome();
+    }
+
+    private void notify(Callback<T> callback)
+    {
+        try
+        {
+            if (error != null)
+            {
+                callback.failed(error);
+            }
+            else
+            {
+                callback.completed(result);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // one failing callback must not keep the others from being notified
+            logger.warn("Command callback failed", e);
+        }
+    }
+
+    private T outcome() throws ExecutionException
+    {
+        if (error != null)
+        {
+            throw new ExecutionException(error.getMessage(), error);
+        }
+        return result;
+    }
+}
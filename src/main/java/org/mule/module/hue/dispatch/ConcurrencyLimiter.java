@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.dispatch;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of calls in flight to a bridge, adapting the limit to what the bridge sustains. Every
+ * healthy call raises the limit by one over the limit, so a full window of healthy calls raises it by one, while
+ * an overloaded call cuts it in half. A call is overloaded when it failed, the bridge answered with an internal
+ * error or it took more than twice the usual latency of its kind of call and at least 10ms. The usual latency is
+ * a slow moving average kept for each kind of call, so reading the whole datastore is not compared with setting
+ * the state of a light, and a bridge that becomes slower for good is eventually allowed more calls again.
+ * <p/>
+ * The limit is cut at most once per round trip: the calls already in flight when it was cut saw the same
+ * overload and do not cut it again.
+ */
+public class ConcurrencyLimiter
+{
+    private static final double BACKOFF_RATIO = 0.5;
+    private static final double LATENCY_TOLERANCE = 2;
+    private static final double SMOOTHING = 0.05;
+    private static final int WARM_UP_SAMPLES = 10;
+    private static final long MIN_SLOW_LATENCY = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final int maxLimit;
+    private double limit;
+    private int inFlight;
+    private final Map<String, Latency> latencies = new HashMap<String, Latency>();
+    private long lastDecrease;
+
+    /**
+     * @param maxLimit the most calls ever allowed in flight, also the limit to start with
+     */
+    public ConcurrencyLimiter(int maxLimit)
+    {
+        if (maxLimit < 1)
+        {
+            throw new IllegalArgumentException("maxLimit must be at least 1");
+        }
+        this.maxLimit = maxLimit;
+        this.limit = maxLimit;
+        this.lastDecrease = System.nanoTime();
+    }
+
+    /**
+     * Waits until a call may be made
+     *
+     * @param deadline the {@link System#nanoTime()} after which to give up, 0 to wait as long as it takes
+     * @return the time the call was allowed to start, to hand back to {@link #release(String, long, boolean)}, or 0 if the
+     *         deadline passed first
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized long acquire(long deadline) throws InterruptedException
+    {
+        while (inFlight >= (int) limit)
+        {
+            if (deadline == 0)
+            {
+                wait();
+            }
+            else
+            {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                {
+                    return 0;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+        inFlight++;
+        long start = System.nanoTime();
+        // 0 means the deadline passed
+        return start != 0 ? start : 1;
+    }
+
+    /**
+     * Ends a call, adapting the limit to its outcome
+     *
+     * @param operation  the kind of call, e.g. <code>PUT lights/{id}/state</code>, whose usual latency the call is
+     *                   compared with
+     * @param start      the time returned by {@link #acquire(long)}
+     * @param overloaded whether the call failed or the bridge answered it with an internal error
+     */
+    public synchronized void release(String operation, long start, boolean overloaded)
+    {
+        inFlight--;
+        long now = System.nanoTime();
+        long latency = now - start;
+        Latency usual = latencies.get(operation);
+        if (usual == null)
+        {
+            usual = new Latency();
+            latencies.put(operation, usual);
+        }
+        boolean slow = usual.samples >= WARM_UP_SAMPLES && latency > Math.max(usual.average * LATENCY_TOLERANCE, MIN_SLOW_LATENCY);
+        if (!overloaded)
+        {
+            usual.average = usual.samples == 0 ? latency : usual.average + SMOOTHING * (latency - usual.average);
+            usual.samples++;
+        }
+        if (overloaded || slow)
+        {
+            if (start - lastDecrease > 0)
+            {
+                limit = Math.max(1, limit * BACKOFF_RATIO);
+                lastDecrease = now;
+            }
+        }
+        else
+        {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return the number of calls currently allowed in flight
+     */
+    public synchronized int getLimit()
+    {
+        return (int) limit;
+    }
+
+    /**
+     * @return the number of calls in flight
+     */
+    public synchronized int getInFlight()
+    {
+        return inFlight;
+    }
+
+    /**
+     * The usual latency of a kind of call
+     */
+    private static class Latency
+    {
+        double average;
+        int samples;
+    }
+}
@@ -0,0 +1,494 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.dispatch;
+
+import org.mule.module.hue.json.JsonBuffer;
+import org.mule.module.hue.json.ModelWriter;
+import org.mule.module.hue.json.ResponseReader;
+import org.mule.module.hue.model.BridgeResponse;
+import org.mule.module.hue.model.Datastore;
+import org.mule.module.hue.model.GroupAttributes;
+import org.mule.module.hue.model.State;
+import org.mule.module.hue.transport.HueTransport;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Plans how a bulk update of many lights is sent to the bridge. Lights given an identical state are
+ * sent a single group command when a group of the bridge holds exactly those lights, so the bridge
+ * broadcasts the state once instead of receiving one command per light.
+ * <p/>
+ * When allowed to, the planner also creates groups for sets of lights that keep being updated together.
+ * The groups it creates are named with {@link #MANAGED_PREFIX} so they are recognized again after a
+ * restart, and the least recently used of them is deleted to make room when the bridge runs out of groups.
+ * A group is never deleted while a route through it is in use, every route returned by {@link #plan(Map)}
+ * must be given back to {@link #release(Route)} once its command is done.
+ */
+public class GroupPlanner
+{
+    /**
+     * The number of groups a bridge can hold, not counting group 0
+     */
+    public static final int MAX_GROUPS = 16;
+
+    /**
+     * The prefix of the names of the groups created by the planner
+     */
+    public static final String MANAGED_PREFIX = "mule-";
+
+    private static final Log logger = LogFactory.getLog(GroupPlanner.class);
+    private static final String ALL_LIGHTS = "0";
+    private static final int MAX_CANDIDATES = 64;
+
+    private final HueTransport transport;
+    private final ModelWriter writer;
+    private final ResponseReader responseReader;
+    private final int minLights;
+    private final int maxManagedGroups;
+    private final int recurrence;
+    private final StateTracker tracker;
+
+    private Set<String> allLights = Collections.emptySet();
+    private final Map<Set<String>, String> groups = new HashMap<Set<String>, String>();
+    private final Map<String, List<String>> members = new HashMap<String, List<String>>();
+    private final LinkedHashMap<Set<String>, String> managed = new LinkedHashMap<Set<String>, String>(16, 0.75f, true);
+    private final LinkedHashMap<Set<String>, Integer> candidates = new LinkedHashMap<Set<String>, Integer>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Set<String>, Integer> eldest)
+        {
+            return size() > MAX_CANDIDATES;
+        }
+    };
+    private final Set<Set<String>> creating = new HashSet<Set<String>>();
+    // the number of planned routes through each group whose command is not done yet
+    private final Map<String, Integer> inUse = new HashMap<String, Integer>();
+    private int nextName = 1;
+    private long routed;
+
+    /**
+     * @param transport        the transport used to create and delete groups
+     * @param mapper           the mapper used to read the responses of the bridge
+     * @param minLights        the minimum number of lights sharing a state for it to be sent to a group
+     * @param maxManagedGroups the maximum number of groups the planner may create, 0 to only use existing groups
+     * @param recurrence       the number of times a set of lights must be updated together before a group is created for it
+     * @param tracker          the tracker to keep informed of the members of each group, may be null
+     */
+    public GroupPlanner(HueTransport transport, ObjectMapper mapper, int minLights, int maxManagedGroups, int recurrence,
+                        StateTracker tracker)
+    {
+        this.transport = transport;
+        this.writer = new ModelWriter(mapper);
+        this.responseReader = new ResponseReader(mapper);
+        this.minLights = Math.max(minLights, 2);
+        this.maxManagedGroups = Math.min(maxManagedGroups, MAX_GROUPS);
+        this.recurrence = Math.max(recurrence, 1);
+        this.tracker = tracker;
+    }
+
+    /**
+     * Learns the lights and groups of the bridge, adopting the groups created by an earlier planner
+     *
+     * @param datastore the datastore of the bridge
+     */
+    public synchronized void load(Datastore datastore)
+    {
+        allLights = datastore.getLights() == null ? Collections.<String>emptySet() : new HashSet<String>(datastore.getLights().keySet());
+        groups.clear();
+        members.clear();
+        managed.clear();
+        if (datastore.getGroups() != null)
+        {
+            for (Map.Entry<String, GroupAttributes> entry : datastore.getGroups().entrySet())
+            {
+                GroupAttributes group = entry.getValue();
+                if (group.getLights() == null)
+                {
+                    continue;
+                }
+                Set<String> lightIds = new HashSet<String>(group.getLights());
+                groups.put(lightIds, entry.getKey());
+                members.put(entry.getKey(), group.getLights());
+                if (group.getName() != null && group.getName().startsWith(MANAGED_PREFIX))
+                {
+                    managed.put(lightIds, entry.getKey());
+                    nextName = Math.max(nextName, nameNumber(group.getName()) + 1);
+                }
+            }
+        }
+        membersChanged();
+    }
+
+    /**
+     * Splits a bulk update into commands. The groups to create or delete are decided while holding the planner,
+     * and created or deleted outside of it so planning for other updates does not wait on the bridge.
+     *
+     * @param states the new state of each light keyed by the identifier of the light
+     * @return the commands to send, each to a group or to a single light, to be released once sent
+     */
+    public List<Route> plan(Map<String, State> states)
+    {
+        Map<String, List<String>> lightsByBody = new LinkedHashMap<String, List<String>>();
+        Map<String, State> stateByBody = new HashMap<String, State>();
+        for (Map.Entry<String, State> entry : states.entrySet())
+        {
+            String body = body(entry.getValue());
+            List<String> lightIds = lightsByBody.get(body);
+            if (lightIds == null)
+            {
+                lightIds = new ArrayList<String>();
+                lightsByBody.put(body, lightIds);
+                stateByBody.put(body, entry.getValue());
+            }
+            lightIds.add(entry.getKey());
+        }
+
+        Map<String, String> groupByBody = new HashMap<String, String>();
+        Map<String, Creation> creations = new LinkedHashMap<String, Creation>();
+        synchronized (this)
+        {
+            for (Map.Entry<String, List<String>> entry : lightsByBody.entrySet())
+            {
+                if (entry.getValue().size() < minLights)
+                {
+                    continue;
+                }
+                Set<String> lightIds = new HashSet<String>(entry.getValue());
+                String groupId = groupFor(lightIds);
+                if (groupId != null)
+                {
+                    groupByBody.put(entry.getKey(), groupId);
+                    acquire(groupId);
+                }
+                else if (shouldCreate(lightIds))
+                {
+                    Creation creation = reserve(lightIds);
+                    if (creation != null)
+                    {
+                        creations.put(entry.getKey(), creation);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, Creation> entry : creations.entrySet())
+        {
+            String groupId = create(entry.getValue());
+            if (groupId != null)
+            {
+                groupByBody.put(entry.getKey(), groupId);
+            }
+        }
+
+        List<Route> routes = new ArrayList<Route>();
+        int saved = 0;
+        for (Map.Entry<String, List<String>> entry : lightsByBody.entrySet())
+        {
+            List<String> lightIds = entry.getValue();
+            State state = stateByBody.get(entry.getKey());
+            String groupId = groupByBody.get(entry.getKey());
+            if (groupId != null)
+            {
+                saved += lightIds.size() - 1;
+                routes.add(new Route(groupId, lightIds, state));
+            }
+            else
+            {
+                for (String lightId : lightIds)
+                {
+                    routes.add(new Route(null, Collections.singletonList(lightId), state));
+                }
+            }
+        }
+        synchronized (this)
+        {
+            routed += saved;
+        }
+        return routes;
+    }
+
+    /**
+     * Marks the command of a planned route as done, so its group may be deleted again to make room
+     *
+     * @param route a route returned by {@link #plan(Map)}
+     */
+    public synchronized void release(Route route)
+    {
+        if (route.getGroupId() == null)
+        {
+            return;
+        }
+        Integer count = inUse.get(route.getGroupId());
+        if (count == null || count <= 1)
+        {
+            inUse.remove(route.getGroupId());
+        }
+        else
+        {
+            inUse.put(route.getGroupId(), count - 1);
+        }
+    }
+
+    private void acquire(String groupId)
+    {
+        Integer count = inUse.get(groupId);
+        inUse.put(groupId, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * @return the number of light commands saved by sending group commands instead
+     */
+    public synchronized long getRoutedCount()
+    {
+        return routed;
+    }
+
+    /**
+     * @return the identifiers of the groups created by the planner, least recently used first
+     */
+    public synchronized List<String> getManagedGroups()
+    {
+        return new ArrayList<String>(managed.values());
+    }
+
+    private String groupFor(Set<String> lightIds)
+    {
+        if (lightIds.equals(allLights))
+        {
+            return ALL_LIGHTS;
+        }
+        String groupId = managed.get(lightIds);
+        return groupId != null ? groupId : groups.get(lightIds);
+    }
+
+    /**
+     * Counts an update of a set of lights that has no group
+     *
+     * @return whether the set has now been updated together often enough to get its own group
+     */
+    private boolean shouldCreate(Set<String> lightIds)
+    {
+        if (maxManagedGroups == 0 || creating.contains(lightIds))
+        {
+            return false;
+        }
+        Integer seen = candidates.get(lightIds);
+        seen = seen == null ? 1 : seen + 1;
+        if (seen < recurrence)
+        {
+            candidates.put(lightIds, seen);
+            return false;
+        }
+        candidates.remove(lightIds);
+        return true;
+    }
+
+    /**
+     * Names the group to create for a set of lights and, when the bridge has no room left, takes the least recently
+     * used managed group that no route is using out of the plans so it can be deleted
+     *
+     * @return the group to create, or null if there is no room for it
+     */
+    private Creation reserve(Set<String> lightIds)
+    {
+        Map.Entry<Set<String>, String> evicted = null;
+        if (managed.size() + creating.size() >= maxManagedGroups || groups.size() + creating.size() >= MAX_GROUPS)
+        {
+            Iterator<Map.Entry<Set<String>, String>> eldest = managed.entrySet().iterator();
+            while (evicted == null && eldest.hasNext())
+            {
+                Map.Entry<Set<String>, String> entry = eldest.next();
+                if (!inUse.containsKey(entry.getValue()))
+                {
+                    evicted = new AbstractMap.SimpleImmutableEntry<Set<String>, String>(entry);
+                    eldest.remove();
+                }
+            }
+            if (evicted == null)
+            {
+                return null;
+            }
+            groups.remove(evicted.getKey());
+            members.remove(evicted.getValue());
+            membersChanged();
+        }
+        creating.add(lightIds);
+        return new Creation(lightIds, MANAGED_PREFIX + nextName++, evicted);
+    }
+
+    /**
+     * Deletes the group evicted for a creation, if any, then creates the group
+     *
+     * @return the identifier of the new group, or null if it could not be created
+     */
+    private String create(Creation creation)
+    {
+        Set<String> lightIds = creation.lightIds;
+        List<String> sorted = new ArrayList<String>(new TreeSet<String>(lightIds));
+        String groupId = null;
+        boolean deleted = false;
+        try
+        {
+            if (creation.evicted != null)
+            {
+                responseReader.readSuccess(transport.delete("groups/" + creation.evicted.getValue()));
+            }
+            deleted = true;
+
+            JsonBuffer body = new JsonBuffer().write((byte) '{').writeAscii("\"name\":").writeString(creation.name)
+                    .writeAscii(",\"lights\":[");
+            for (int i = 0; i < sorted.size(); i++)
+            {
+                if (i > 0)
+                {
+                    body.write((byte) ',');
+                }
+                body.writeString(sorted.get(i));
+            }
+            body.writeAscii("]}");
+
+            BridgeResponse response = responseReader.readSuccess(transport.post("groups", body.toByteArray()));
+            Object id = response.getSuccesses().isEmpty() ? null : response.getSuccesses().get(0).get("id");
+            if (id != null)
+            {
+                groupId = id.toString().substring(id.toString().lastIndexOf('/') + 1);
+            }
+        }
+        catch (IOException e)
+        {
+            logger.warn("Could not create a group for lights " + lightIds + ", sending them one command each", e);
+        }
+
+        synchronized (this)
+        {
+            creating.remove(lightIds);
+            if (!deleted)
+            {
+                // the evicted group is still on the bridge
+                Map.Entry<Set<String>, String> evicted = creation.evicted;
+                groups.put(evicted.getKey(), evicted.getValue());
+                members.put(evicted.getValue(), new ArrayList<String>(new TreeSet<String>(evicted.getKey())));
+                managed.put(evicted.getKey(), evicted.getValue());
+            }
+            if (groupId != null)
+            {
+                groups.put(lightIds, groupId);
+                members.put(groupId, sorted);
+                managed.put(lightIds, groupId);
+                acquire(groupId);
+            }
+            membersChanged();
+        }
+        return groupId;
+    }
+
+    private void membersChanged()
+    {
+        if (tracker != null)
+        {
+            tracker.setGroupMembers(members);
+        }
+    }
+
+    /**
+     * @return the number ending the name of a managed group, or 0 if it ends with something else
+     */
+    private static int nameNumber(String name)
+    {
+        try
+        {
+            return Integer.parseInt(name.substring(MANAGED_PREFIX.length()));
+        }
+        catch (NumberFormatException e)
+        {
+            return 0;
+        }
+    }
+
+    private String body(State state)
+    {
+        try
+        {
+            return new String(writer.write(state), "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A group the planner decided to create, with the managed group to delete first to make room for it
+     */
+    private static class Creation
+    {
+        private final Set<String> lightIds;
+        private final String name;
+        private final Map.Entry<Set<String>, String> evicted;
+
+        Creation(Set<String> lightIds, String name, Map.Entry<Set<String>, String> evicted)
+        {
+            this.lightIds = lightIds;
+            this.name = name;
+            this.evicted = evicted;
+        }
+    }
+
+    /**
+     * A command of a bulk update, sent either to a group or to a single light
+     */
+    public static class Route
+    {
+        private final String groupId;
+        private final List<String> lightIds;
+        private final State state;
+
+        public Route(String groupId, List<String> lightIds, State state)
+        {
+            this.groupId = groupId;
+            this.lightIds = lightIds;
+            this.state = state;
+        }
+
+        /**
+         * @return the group to send the state to, or null if the state goes to a single light
+         */
+        public String getGroupId()
+        {
+            return groupId;
+        }
+
+        /**
+         * @return the lights given the state
+         */
+        public List<String> getLightIds()
+        {
+            return lightIds;
+        }
+
+        public State getState()
+        {
+            return state;
+        }
+    }
+}
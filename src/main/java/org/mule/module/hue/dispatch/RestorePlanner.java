@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.dispatch;
+
+import org.mule.module.hue.json.ModelWriter;
+import org.mule.module.hue.model.Datastore;
+import org.mule.module.hue.model.GroupAttributes;
+import org.mule.module.hue.model.LightAttributes;
+import org.mule.module.hue.model.State;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Plans the fewest commands bringing the lights of a bridge back to saved states. Lights already in their saved
+ * state are left alone, and the lights to be given the same state are sent group commands wherever a group of the
+ * bridge, group 0 included, holds only lights that are to end up in that state. A group may hold lights that are
+ * already in the state, since sending it to them again changes nothing.
+ * <p/>
+ * Groups are picked greedily, the one covering the most lights still to update first, until no group covers at
+ * least two of them. The remaining lights are sent one command each.
+ */
+public class RestorePlanner
+{
+    private static final String ALL_LIGHTS = "0";
+
+    private final ModelWriter writer;
+
+    /**
+     * @param mapper the mapper used to compare states
+     */
+    public RestorePlanner(ObjectMapper mapper)
+    {
+        this.writer = new ModelWriter(mapper);
+    }
+
+    /**
+     * Keeps the properties of a state that make a light look the way it does. The colour is only kept in the mode
+     * the light is working in, and nothing but being off is kept for a light that is off since the bridge refuses
+     * to change the other properties of a light that stays off.
+     *
+     * @param current the state reported by the bridge
+     * @return the state to restore the light to
+     */
+    public static State capture(State current)
+    {
+        State saved = new State();
+        saved.setOn(current.getOn());
+        if (!Boolean.TRUE.equals(current.getOn()))
+        {
+            return saved;
+        }
+        saved.setBrightness(current.getBrightness());
+        saved.setEffect(current.getEffect());
+        String colormode = current.getColormode();
+        if ("xy".equals(colormode) && current.hasXy())
+        {
+            saved.setXy(current.getX(), current.getY());
+        }
+        else if ("ct".equals(colormode))
+        {
+            saved.setCt(current.getCt());
+        }
+        else if ("hs".equals(colormode))
+        {
+            saved.setHue(current.getHue());
+            saved.setSaturation(current.getSaturation());
+        }
+        return saved;
+    }
+
+    /**
+     * @param saved   the state to restore each light to keyed by the identifier of the light
+     * @param current the datastore of the bridge, read just before restoring
+     * @return the commands to send, each to a group or to a single light, listing only the lights that change
+     */
+    public List<GroupPlanner.Route> plan(Map<String, State> saved, Datastore current)
+    {
+        Map<String, LightAttributes> lights = current.getLights() == null
+                                              ? Collections.<String, LightAttributes>emptyMap() : current.getLights();
+        Map<String, Set<String>> changing = new LinkedHashMap<String, Set<String>>();
+        Map<String, Set<String>> settled = new LinkedHashMap<String, Set<String>>();
+        Map<String, State> stateByBody = new LinkedHashMap<String, State>();
+        for (Map.Entry<String, State> entry : saved.entrySet())
+        {
+            String body = body(entry.getValue());
+            stateByBody.put(body, entry.getValue());
+            LightAttributes light = lights.get(entry.getKey());
+            boolean same = light != null && light.getState() != null && isIn(entry.getValue(), light.getState());
+            add(same ? settled : changing, body, entry.getKey());
+        }
+
+        Map<String, Set<String>> groups = new LinkedHashMap<String, Set<String>>();
+        groups.put(ALL_LIGHTS, lights.keySet());
+        if (current.getGroups() != null)
+        {
+            for (Map.Entry<String, GroupAttributes> group : current.getGroups().entrySet())
+            {
+                if (group.getValue().getLights() != null && !group.getValue().getLights().isEmpty())
+                {
+                    groups.put(group.getKey(), new HashSet<String>(group.getValue().getLights()));
+                }
+            }
+        }
+
+        List<GroupPlanner.Route> routes = new ArrayList<GroupPlanner.Route>();
+        for (Map.Entry<String, Set<String>> entry : changing.entrySet())
+        {
+            Set<String> remaining = entry.getValue();
+            State state = stateByBody.get(entry.getKey());
+            Set<String> allowed = new HashSet<String>(remaining);
+            if (settled.containsKey(entry.getKey()))
+            {
+                allowed.addAll(settled.get(entry.getKey()));
+            }
+
+            while (remaining.size() >= 2)
+            {
+                String bestGroup = null;
+                List<String> bestCovered = Collections.emptyList();
+                for (Map.Entry<String, Set<String>> group : groups.entrySet())
+                {
+                    if (group.getValue().size() < 2 || !allowed.containsAll(group.getValue()))
+                    {
+                        continue;
+                    }
+                    List<String> covered = new ArrayList<String>();
+                    for (String lightId : remaining)
+                    {
+                        if (group.getValue().contains(lightId))
+                        {
+                            covered.add(lightId);
+                        }
+                    }
+                    if (covered.size() > bestCovered.size())
+                    {
+                        bestGroup = group.getKey();
+                        bestCovered = covered;
+                    }
+                }
+                if (bestCovered.size() < 2)
+                {
+                    break;
+                }
+                routes.add(new GroupPlanner.Route(bestGroup, bestCovered, state));
+                remaining.removeAll(bestCovered);
+            }
+            for (String lightId : remaining)
+            {
+                routes.add(new GroupPlanner.Route(null, Collections.singletonList(lightId), state));
+            }
+        }
+        return routes;
+    }
+
+    /**
+     * @param saved   the state to restore a light to
+     * @param current the state reported by the bridge
+     * @return whether the light already looks the way it is saved, which takes the light to be working in the
+     *         colour mode of the saved state since the bridge keeps the values of the other modes
+     */
+    private static boolean isIn(State saved, State current)
+    {
+        if (saved.diff(current) != null)
+        {
+            return false;
+        }
+        if (saved.hasXy())
+        {
+            return "xy".equals(current.getColormode());
+        }
+        if (saved.getCt() != null)
+        {
+            return "ct".equals(current.getColormode());
+        }
+        if (saved.getHue() != null || saved.getSaturation() != null)
+        {
+            return "hs".equals(current.getColormode());
+        }
+        return true;
+    }
+
+    private static void add(Map<String, Set<String>> lightsByBody, String body, String lightId)
+    {
+        Set<String> lightIds = lightsByBody.get(body);
+        if (lightIds == null)
+        {
+            lightIds = new LinkedHashSet<String>();
+            lightsByBody.put(body, lightIds);
+        }
+        lightIds.add(lightId);
+    }
+
+    private String body(State state)
+    {
+        try
+        {
+            return new String(writer.write(state), "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
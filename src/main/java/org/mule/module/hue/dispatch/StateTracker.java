@@ -0,0 +1,329 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.dispatch;
+
+import org.mule.module.hue.model.State;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the last state the bridge acknowledged for every light and group so that only the
+ * properties that actually change need to be sent. Only commands that went through the connector are
+ * seen, so a known state is trusted for a limited time after which the next command is sent in full.
+ * <p/>
+ * A group command also applies to the lights of the group, and a light command makes the last action
+ * of every group holding the light stale. When the members of a group are not known every light, or
+ * every group, is forgotten instead.
+ * <p/>
+ * While a group command is in flight the bridge may apply a light command to one of its lights before or
+ * after it, so the lights of the group are unknown until the group command is acknowledged and those that
+ * were commanded meanwhile stay unknown after it.
+ */
+public class StateTracker
+{
+    private static final String ALL_LIGHTS = "0";
+
+    private final long ttlNanos;
+    private final ConcurrentMap<String, Known> lights = new ConcurrentHashMap<String, Known>();
+    private final ConcurrentMap<String, Known> groups = new ConcurrentHashMap<String, Known>();
+    private volatile Map<String, List<String>> members = Collections.emptyMap();
+    private final Map<String, Map<String, Known>> inFlight = new HashMap<String, Map<String, Known>>();
+
+    /**
+     * @param ttl how long in milliseconds an acknowledged state is trusted
+     */
+    public StateTracker(long ttl)
+    {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+    }
+
+    /**
+     * Sets the lights in each group of the bridge
+     *
+     * @param members the identifiers of the lights of each group, keyed by group identifier
+     */
+    public void setGroupMembers(Map<String, List<String>> members)
+    {
+        this.members = new HashMap<String, List<String>>(members);
+    }
+
+    /**
+     * @param lightId the identifier of the light
+     * @param state   the state to apply
+     * @return the properties of the state that need to be sent, or null if none do
+     */
+    public State lightDelta(String lightId, State state)
+    {
+        return delta(lights, lightId, state);
+    }
+
+    /**
+     * @param groupId the identifier of the group
+     * @param state   the state to apply
+     * @return the properties of the state that need to be sent, or null if none do
+     */
+    public State groupDelta(String groupId, State state)
+    {
+        return delta(groups, groupId, state);
+    }
+
+    /**
+     * Records the outcome of a light command
+     *
+     * @param lightId the identifier of the light
+     * @param sent    the properties that were sent
+     * @param success whether the bridge applied every property
+     */
+    public void lightAcknowledged(String lightId, State sent, boolean success)
+    {
+        synchronized (inFlight)
+        {
+            release(lightId);
+        }
+        record(lights, lightId, sent, success);
+        groupsChanged(lightId);
+    }
+
+    /**
+     * Forgets the known state of a light, for when it was seen to be in another state than the one known
+     *
+     * @param lightId the identifier of the light
+     */
+    public void forget(String lightId)
+    {
+        synchronized (inFlight)
+        {
+            release(lightId);
+        }
+        lights.remove(lightId);
+        groupsChanged(lightId);
+    }
+
+    private void groupsChanged(String lightId)
+    {
+        Map<String, List<String>> members = this.members;
+        for (String groupId : groups.keySet())
+        {
+            List<String> lightIds = members.get(groupId);
+            if (lightIds == null || lightIds.contains(lightId))
+            {
+                groups.remove(groupId);
+            }
+        }
+    }
+
+    /**
+     * Sets aside the known state of the lights of a group while a command to the group is in flight, so a
+     * command to one of them meanwhile is sent in full
+     *
+     * @param groupId the identifier of the group
+     */
+    public void groupSending(String groupId)
+    {
+        Collection<String> lightIds = ALL_LIGHTS.equals(groupId) ? null : members.get(groupId);
+        synchronized (inFlight)
+        {
+            if (lightIds == null)
+            {
+                for (Map<String, Known> held : inFlight.values())
+                {
+                    held.clear();
+                }
+                lights.clear();
+                inFlight.put(groupId, new HashMap<String, Known>());
+                return;
+            }
+            Map<String, Known> held = new HashMap<String, Known>();
+            for (String lightId : lightIds)
+            {
+                // a light in two groups in flight is left unknown, which one the bridge applied last is not known
+                Known known = release(lightId);
+                if (known == null)
+                {
+                    known = lights.remove(lightId);
+                }
+                if (known != null)
+                {
+                    held.put(lightId, known);
+                }
+            }
+            inFlight.put(groupId, held);
+        }
+    }
+
+    private Known release(String lightId)
+    {
+        Known known = null;
+        for (Map<String, Known> held : inFlight.values())
+        {
+            Known removed = held.remove(lightId);
+            if (removed != null)
+            {
+                known = removed;
+            }
+        }
+        return known;
+    }
+
+    /**
+     * Records the outcome of a group command
+     *
+     * @param groupId the identifier of the group
+     * @param sent    the properties that were sent
+     * @param success whether the bridge applied every property
+     */
+    public void groupAcknowledged(String groupId, State sent, boolean success)
+    {
+        Collection<String> lightIds = ALL_LIGHTS.equals(groupId) ? lights.keySet() : members.get(groupId);
+        synchronized (inFlight)
+        {
+            Map<String, Known> held = inFlight.remove(groupId);
+            if (lightIds == null)
+            {
+                lights.clear();
+            }
+            else if (held != null)
+            {
+                for (String lightId : lightIds)
+                {
+                    Known known = held.get(lightId);
+                    // a light commanded while the group was in flight, or not known before, stays unknown
+                    if (known == null)
+                    {
+                        lights.remove(lightId);
+                    }
+                    else
+                    {
+                        lights.put(lightId, known);
+                        record(lights, lightId, sent, success);
+                    }
+                }
+            }
+            else
+            {
+                for (String lightId : lightIds)
+                {
+                    // only lights with a known state can be brought up to date, the others stay unknown
+                    if (lights.get(lightId) != null)
+                    {
+                        record(lights, lightId, sent, success);
+                    }
+                }
+            }
+        }
+
+        for (String otherId : groups.keySet())
+        {
+            if (!otherId.equals(groupId))
+            {
+                groups.remove(otherId);
+            }
+        }
+        record(groups, groupId, sent, success);
+    }
+
+    /**
+     * Forgets every known state
+     */
+    public void clear()
+    {
+        synchronized (inFlight)
+        {
+            for (Map<String, Known> held : inFlight.values())
+            {
+                held.clear();
+            }
+        }
+        lights.clear();
+        groups.clear();
+    }
+
+    private State delta(ConcurrentMap<String, Known> states, String id, State state)
+    {
+        Known known = states.get(id);
+        if (known == null || System.nanoTime() - known.since > ttlNanos)
+        {
+            return state;
+        }
+        return state.diff(known.state);
+    }
+
+    private void record(ConcurrentMap<String, Known> states, String id, State sent, boolean success)
+    {
+        if (!success)
+        {
+            states.remove(id);
+            return;
+        }
+        Known known = states.get(id);
+        if (known == null || System.nanoTime() - known.since > ttlNanos)
+        {
+            states.put(id, new Known(apply(new State(), sent), System.nanoTime()));
+        }
+        else
+        {
+            states.put(id, new Known(apply(known.state, sent), known.since));
+        }
+    }
+
+    /**
+     * Applies sent properties to a known state. Setting the colour in one mode makes the values of
+     * the other modes meaningless, so those are dropped.
+     */
+    private static State apply(State known, State sent)
+    {
+        State merged = new State().merge(known).merge(sent);
+        State next = new State();
+        next.setOn(merged.getOn());
+        next.setBrightness(merged.getBrightness());
+        next.setEffect(merged.getEffect());
+        if (sent.hasXy())
+        {
+            next.setXy(sent.getX(), sent.getY());
+        }
+        else if (sent.getCt() != null)
+        {
+            next.setCt(sent.getCt());
+        }
+        else if (sent.getHue() != null || sent.getSaturation() != null)
+        {
+            next.setHue(merged.getHue());
+            next.setSaturation(merged.getSaturation());
+        }
+        else
+        {
+            if (merged.hasXy())
+            {
+                next.setXy(merged.getX(), merged.getY());
+            }
+            next.setCt(merged.getCt());
+            next.setHue(merged.getHue());
+            next.setSaturation(merged.getSaturation());
+        }
+        return next;
+    }
+
+    private static class Known
+    {
+        private final State state;
+        private final long since;
+
+        Known(State state, long since)
+        {
+            this.state = state;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.dispatch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket used to keep the commands sent to the bridge within the rate it can sustain.
+ * Tokens are refilled continuously at a fixed rate up to the capacity of the bucket.
+ */
+public class TokenBucket
+{
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param tokensPerSecond the rate at which tokens are refilled
+     * @param capacity        the maximum number of tokens that can be saved up for a burst
+     */
+    public TokenBucket(double tokensPerSecond, double capacity)
+    {
+        if (tokensPerSecond <= 0)
+        {
+            throw new IllegalArgumentException("tokensPerSecond must be greater than 0");
+        }
+        this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes a token from the bucket, possibly going into debt
+     *
+     * @return the time in nanoseconds the caller has to wait before the token may be used
+     */
+    public synchronized long reserve()
+    {
+        refill();
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) (-tokens / tokensPerNano);
+    }
+
+    /**
+     * Takes a token from the bucket if one is available right now
+     *
+     * @return true if a token was taken
+     */
+    public synchronized boolean tryAcquire()
+    {
+        refill();
+        if (tokens < 1)
+        {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * Takes a token from the bucket, blocking until it may be used
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire() throws InterruptedException
+    {
+        long wait = reserve();
+        if (wait > 0)
+        {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private void refill()
+    {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.json;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer holding UTF-8 encoded json, meant to be reset and reused for every document
+ * written by a thread so that encoding a command does not allocate.
+ */
+public class JsonBuffer
+{
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] TRUE = "true".getBytes();
+    private static final byte[] FALSE = "false".getBytes();
+    private static final byte[] NULL = "null".getBytes();
+
+    private byte[] buf;
+    private int length;
+
+    public JsonBuffer()
+    {
+        this(256);
+    }
+
+    public JsonBuffer(int capacity)
+    {
+        buf = new byte[capacity];
+    }
+
+    /**
+     * Empties the buffer keeping its capacity
+     *
+     * @return this buffer
+     */
+    public JsonBuffer reset()
+    {
+        length = 0;
+        return this;
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    public int length()
+    {
+        return length;
+    }
+
+    /**
+     * @return a copy of the bytes written
+     */
+    public byte[] toByteArray()
+    {
+        return Arrays.copyOf(buf, length);
+    }
+
+    @Override
+    public String toString()
+    {
+        try
+        {
+            return new String(buf, 0, length, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public JsonBuffer write(byte b)
+    {
+        ensure(1);
+        buf[length++] = b;
+        return this;
+    }
+
+    public JsonBuffer write(byte[] bytes)
+    {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, length, bytes.length);
+        length += bytes.length;
+        return this;
+    }
+
+    public JsonBuffer writeBoolean(boolean value)
+    {
+        return write(value ? TRUE : FALSE);
+    }
+
+    public JsonBuffer writeNull()
+    {
+        return write(NULL);
+    }
+
+    public JsonBuffer writeInt(int value)
+    {
+        if (value == Integer.MIN_VALUE)
+        {
+            return writeAscii(String.valueOf(value));
+        }
+        ensure(11);
+        if (value < 0)
+        {
+            buf[length++] = '-';
+            value = -value;
+        }
+        int start = length;
+        do
+        {
+            buf[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        while (value != 0);
+        reverse(start, length - 1);
+        return this;
+    }
+
+    /**
+     * Writes a number with four decimals, the precision the bridge works with for xy colours.
+     * Values outside of 0 to 1000 are written in full.
+     *
+     * @param value the value to write
+     * @return this buffer
+     */
+    public JsonBuffer writeDecimal(double value)
+    {
+        if (!(value >= 0 && value < 1000))
+        {
+            return writeAscii(Double.toString(value));
+        }
+        int scaled = (int) Math.round(value * 10000);
+        writeInt(scaled / 10000);
+        write((byte) '.');
+        int fraction = scaled % 10000;
+        ensure(4);
+        for (int divisor = 1000; divisor > 0; divisor /= 10)
+        {
+            buf[length++] = (byte) ('0' + fraction / divisor % 10);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a decimal like {@link #writeDecimal(double)} without its trailing zeros, e.g. 0.5 rather than 0.5000
+     *
+     * @param value the value to write
+     * @return this buffer
+     */
+    public JsonBuffer writeShortDecimal(double value)
+    {
+        int start = length;
+        writeDecimal(value);
+        int point = start;
+        while (point < length && buf[point] != '.')
+        {
+            point++;
+        }
+        if (point < length)
+        {
+            // keep one digit after the point so the value still reads as a decimal
+            while (length > point + 2 && buf[length - 1] == '0')
+            {
+                length--;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes a string known to hold only ascii characters that need no escaping, without quotes
+     *
+     * @param value the value to write
+     * @return this buffer
+     */
+    public JsonBuffer writeAscii(String value)
+    {
+        int n = value.length();
+        ensure(n);
+        for (int i = 0; i < n; i++)
+        {
+            buf[length++] = (byte) value.charAt(i);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a quoted and escaped json string
+     *
+     * @param value the value to write
+     * @return this buffer
+     */
+    public JsonBuffer writeString(String value)
+    {
+        int n = value.length();
+        ensure(n + 2);
+        buf[length++] = '"';
+        for (int i = 0; i < n; i++)
+        {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\')
+            {
+                ensure(1);
+                buf[length++] = (byte) c;
+            }
+            else if (c == '"' || c == '\\')
+            {
+                ensure(2);
+                buf[length++] = '\\';
+                buf[length++] = (byte) c;
+            }
+            else if (c < 0x20)
+            {
+                ensure(6);
+                buf[length++] = '\\';
+                buf[length++] = 'u';
+                buf[length++] = '0';
+                buf[length++] = '0';
+                buf[length++] = HEX[c >> 4];
+                buf[length++] = HEX[c & 0xF];
+            }
+            else if (c < 0x800)
+            {
+                ensure(2);
+                buf[length++] = (byte) (0xC0 | (c >> 6));
+                buf[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                ensure(4);
+                buf[length++] = (byte) (0xF0 | (cp >> 18));
+                buf[length++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[length++] = (byte) (0x80 | (cp & 0x3F));
+            }
+            else
+            {
+                ensure(3);
+                buf[length++] = (byte) (0xE0 | (c >> 12));
+                buf[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        ensure(1);
+        buf[length++] = '"';
+        return this;
+    }
+
+    private void reverse(int from, int to)
+    {
+        while (from < to)
+        {
+            byte b = buf[from];
+            buf[from++] = buf[to];
+            buf[to--] = b;
+        }
+    }
+
+    private void ensure(int extra)
+    {
+        if (length + extra > buf.length)
+        {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + extra));
+        }
+    }
+}
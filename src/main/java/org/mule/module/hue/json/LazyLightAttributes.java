@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.json;
+
+import org.mule.module.hue.model.LightAttributes;
+import org.mule.module.hue.model.State;
+
+import java.io.IOException;
+
+/**
+ * Light attributes whose state is kept as raw json until it is first asked for
+ */
+class LazyLightAttributes extends LightAttributes
+{
+    private final ModelReader reader;
+    private String rawState;
+
+    LazyLightAttributes(ModelReader reader)
+    {
+        this.reader = reader;
+    }
+
+    void setRawState(String rawState)
+    {
+        this.rawState = rawState;
+    }
+
+    @Override
+    public synchronized State getState()
+    {
+        if (rawState != null)
+        {
+            try
+            {
+                super.setState(reader.readState(rawState));
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException("Invalid state for light " + getName() + ": " + rawState, e);
+            }
+            rawState = null;
+        }
+        return super.getState();
+    }
+
+    @Override
+    public synchronized void setState(State state)
+    {
+        rawState = null;
+        super.setState(state);
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.json;
+
+import org.mule.module.hue.HueException;
+import org.mule.module.hue.model.LightAttributes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Reads the response of a GET on the lights of the bridge incrementally. The attributes of each
+ * light are read as they stream in, while its state is only copied as raw json and decoded the first
+ * time {@link LightAttributes#getState()} is called.
+ */
+public class LightsReader
+{
+    private final ObjectMapper mapper;
+    private final ModelReader reader;
+    private final ResponseReader responseReader;
+
+    /**
+     * @param mapper the mapper whose factory creates the parsers
+     */
+    public LightsReader(ObjectMapper mapper)
+    {
+        this.mapper = mapper;
+        this.reader = new ModelReader(mapper);
+        this.responseReader = new ResponseReader(mapper);
+    }
+
+    /**
+     * Reads all the lights from a response stream, closing it once done
+     *
+     * @param in the response of the bridge
+     * @return the lights keyed by identifier, in the order the bridge listed them
+     * @throws HueException if the stream holds an error response
+     * @throws IOException  if the stream cannot be read
+     */
+    public Map<String, LightAttributes> read(InputStream in) throws IOException
+    {
+        JsonParser parser = mapper.getJsonFactory().createJsonParser(in);
+        try
+        {
+            return read(parser);
+        }
+        finally
+        {
+            parser.close();
+        }
+    }
+
+    /**
+     * Reads all the lights from a parser positioned before the start of the lights object
+     *
+     * @param parser the parser to read from
+     * @return the lights keyed by identifier, in the order the bridge listed them
+     * @throws HueException if the parser holds an error response
+     * @throws IOException  if the parser cannot be read
+     */
+    public Map<String, LightAttributes> read(JsonParser parser) throws IOException
+    {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.START_ARRAY)
+        {
+            // the bridge answers errors with an array
+            throw responseReader.readErrors(parser);
+        }
+        ModelReader.expect(parser, token, JsonToken.START_OBJECT);
+
+        Map<String, LightAttributes> lights = new LinkedHashMap<String, LightAttributes>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String lightId = parser.getCurrentName();
+            ModelReader.expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            lights.put(lightId, readLight(parser));
+        }
+        return lights;
+    }
+
+    private LightAttributes readLight(JsonParser parser) throws IOException
+    {
+        LazyLightAttributes light = new LazyLightAttributes(reader);
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("state".equals(field))
+            {
+                light.setRawState(copy(parser));
+            }
+            else if ("name".equals(field))
+            {
+                light.setName(parser.getText());
+            }
+            else if ("type".equals(field))
+            {
+                light.setType(parser.getText());
+            }
+            else if ("modelid".equals(field))
+            {
+                light.setModelid(parser.getText());
+            }
+            else if ("swversion".equals(field))
+            {
+                light.setSwversion(parser.getText());
+            }
+            else if ("pointsymbol".equals(field))
+            {
+                light.setPointsymbol(parser.readValueAs(Object.class));
+            }
+            else
+            {
+                parser.skipChildren();
+            }
+        }
+        return light;
+    }
+
+    private String copy(JsonParser parser) throws IOException
+    {
+        StringWriter out = new StringWriter(128);
+        JsonGenerator generator = mapper.getJsonFactory().createJsonGenerator(out);
+        generator.copyCurrentStructure(parser);
+        generator.close();
+        return out.toString();
+    }
+}
@@ -0,0 +1,508 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.json;
+
+import org.mule.module.hue.model.Command;
+import org.mule.module.hue.model.Datastore;
+import org.mule.module.hue.model.GroupAttributes;
+import org.mule.module.hue.model.LightAttributes;
+import org.mule.module.hue.model.Scene;
+import org.mule.module.hue.model.Schedule;
+import org.mule.module.hue.model.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+
+/**
+ * Reads the lights, groups, schedules and states returned by the bridge straight off a streaming parser
+ * instead of going through reflection. Unknown properties are skipped, as are effect and alert values this
+ * version of the connector does not know about. Scenes and the bridge configuration are rarely read so
+ * they are still handed to the object mapper.
+ */
+public class ModelReader
+{
+    private static final TypeReference<Map<String, Object>> CONFIG = new TypeReference<Map<String, Object>>() { };
+    private static final TypeReference<List<Scene>> SCENES = new TypeReference<List<Scene>>() { };
+
+    private final ObjectMapper mapper;
+
+    /**
+     * @param mapper the mapper whose factory creates the parsers and which reads the less common types
+     */
+    public ModelReader(ObjectMapper mapper)
+    {
+        this.mapper = mapper;
+    }
+
+    /**
+     * Reads a state from a GET response
+     *
+     * @param json the raw response
+     * @return the state
+     * @throws IOException if the response is not valid json or is an error response
+     */
+    public State readState(String json) throws IOException
+    {
+        JsonParser parser = mapper.getJsonFactory().createJsonParser(json);
+        try
+        {
+            return readState(parser, start(parser));
+        }
+        finally
+        {
+            parser.close();
+        }
+    }
+
+    /**
+     * Reads the attributes of a light from a GET response
+     *
+     * @param json the raw response
+     * @return the light
+     * @throws IOException if the response is not valid json or is an error response
+     */
+    public LightAttributes readLight(String json) throws IOException
+    {
+        JsonParser parser = mapper.getJsonFactory().createJsonParser(json);
+        try
+        {
+            return readLight(parser, start(parser));
+        }
+        finally
+        {
+            parser.close();
+        }
+    }
+
+    /**
+     * Reads the attributes of a group from a GET response
+     *
+     * @param json the raw response
+     * @return the group
+     * @throws IOException if the response is not valid json or is an error response
+     */
+    public GroupAttributes readGroup(String json) throws IOException
+    {
+        JsonParser parser = mapper.getJsonFactory().createJsonParser(json);
+        try
+        {
+            return readGroup(parser, start(parser));
+        }
+        finally
+        {
+            parser.close();
+        }
+    }
+
+    /**
+     * Reads a schedule from a GET response or from a schedule stored by the connector
+     *
+     * @param json the raw schedule
+     * @return the schedule
+     * @throws IOException if the schedule is not valid json or is an error response
+     */
+    public Schedule readSchedule(String json) throws IOException
+    {
+        JsonParser parser = mapper.getJsonFactory().createJsonParser(json);
+        try
+        {
+            return readSchedule(parser, start(parser));
+        }
+        finally
+        {
+            parser.close();
+        }
+    }
+
+    /**
+     * Reads the whole datastore from a GET response
+     *
+     * @param json the raw response
+     * @return the datastore
+     * @throws IOException if the response is not valid json or is an error response
+     */
+    public Datastore readDatastore(String json) throws IOException
+    {
+        JsonParser parser = mapper.getJsonFactory().createJsonParser(json);
+        try
+        {
+            return readDatastore(parser, start(parser));
+        }
+        finally
+        {
+            parser.close();
+        }
+    }
+
+    /**
+     * Reads a state from a parser positioned on the start of the state object
+     *
+     * @param parser the parser to read from
+     * @param token  the current token of the parser
+     * @return the state
+     * @throws IOException if the parser cannot be read or is not on an object
+     */
+    public State readState(JsonParser parser, JsonToken token) throws IOException
+    {
+        expect(parser, token, JsonToken.START_OBJECT);
+        State state = new State();
+        Boolean reachable = null;
+        String colormode = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NULL)
+            {
+                continue;
+            }
+            if ("on".equals(field))
+            {
+                state.setOn(parser.getBooleanValue());
+            }
+            else if ("bri".equals(field))
+            {
+                state.setBrightness(parser.getIntValue());
+            }
+            else if ("hue".equals(field))
+            {
+                state.setHue(parser.getIntValue());
+            }
+            else if ("sat".equals(field))
+            {
+                state.setSaturation(parser.getIntValue());
+            }
+            else if ("ct".equals(field))
+            {
+                state.setCt(parser.getIntValue());
+            }
+            else if ("xy".equals(field))
+            {
+                expect(parser, value, JsonToken.START_ARRAY);
+                parser.nextToken();
+                double x = parser.getDoubleValue();
+                parser.nextToken();
+                double y = parser.getDoubleValue();
+                expect(parser, parser.nextToken(), JsonToken.END_ARRAY);
+                state.setXy(x, y);
+            }
+            else if ("transitiontime".equals(field))
+            {
+                state.setTransitionTime(parser.getIntValue());
+            }
+            else if ("alert".equals(field))
+            {
+                state.setAlert(alert(parser.getText()));
+            }
+            else if ("effect".equals(field))
+            {
+                state.setEffect(effect(parser.getText()));
+            }
+            else if ("reachable".equals(field))
+            {
+                reachable = parser.getBooleanValue();
+            }
+            else if ("colormode".equals(field))
+            {
+                colormode = parser.getText();
+            }
+            else
+            {
+                parser.skipChildren();
+            }
+        }
+        state.setStatus(reachable, colormode);
+        return state;
+    }
+
+    /**
+     * Reads the attributes of a light from a parser positioned on the start of the light object
+     *
+     * @param parser the parser to read from
+     * @param token  the current token of the parser
+     * @return the light
+     * @throws IOException if the parser cannot be read or is not on an object
+     */
+    public LightAttributes readLight(JsonParser parser, JsonToken token) throws IOException
+    {
+        expect(parser, token, JsonToken.START_OBJECT);
+        LightAttributes light = new LightAttributes();
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("state".equals(field))
+            {
+                light.setState(readState(parser, value));
+            }
+            else if ("name".equals(field))
+            {
+                light.setName(parser.getText());
+            }
+            else if ("type".equals(field))
+            {
+                light.setType(parser.getText());
+            }
+            else if ("modelid".equals(field))
+            {
+                light.setModelid(parser.getText());
+            }
+            else if ("swversion".equals(field))
+            {
+                light.setSwversion(parser.getText());
+            }
+            else if ("pointsymbol".equals(field))
+            {
+                light.setPointsymbol(parser.readValueAs(Object.class));
+            }
+            else
+            {
+                parser.skipChildren();
+            }
+        }
+        return light;
+    }
+
+    /**
+     * Reads the attributes of a group from a parser positioned on the start of the group object
+     *
+     * @param parser the parser to read from
+     * @param token  the current token of the parser
+     * @return the group
+     * @throws IOException if the parser cannot be read or is not on an object
+     */
+    public GroupAttributes readGroup(JsonParser parser, JsonToken token) throws IOException
+    {
+        expect(parser, token, JsonToken.START_OBJECT);
+        GroupAttributes group = new GroupAttributes();
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("action".equals(field))
+            {
+                group.setState(readState(parser, value));
+            }
+            else if ("name".equals(field))
+            {
+                group.setName(parser.getText());
+            }
+            else if ("lights".equals(field))
+            {
+                expect(parser, value, JsonToken.START_ARRAY);
+                List<String> lights = new ArrayList<String>();
+                while (parser.nextToken() != JsonToken.END_ARRAY)
+                {
+                    lights.add(parser.getText());
+                }
+                group.setLights(lights);
+            }
+            else if ("scenes".equals(field) && value != JsonToken.VALUE_NULL)
+            {
+                group.setScenes(parser.<List<Scene>>readValueAs(SCENES));
+            }
+            else
+            {
+                parser.skipChildren();
+            }
+        }
+        return group;
+    }
+
+    /**
+     * Reads a schedule from a parser positioned on the start of the schedule object. The body of its command
+     * is read as a {@link State}, the only kind of body the connector sends.
+     *
+     * @param parser the parser to read from
+     * @param token  the current token of the parser
+     * @return the schedule
+     * @throws IOException if the parser cannot be read or is not on an object
+     */
+    public Schedule readSchedule(JsonParser parser, JsonToken token) throws IOException
+    {
+        expect(parser, token, JsonToken.START_OBJECT);
+        Schedule schedule = new Schedule();
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("name".equals(field))
+            {
+                schedule.setName(parser.getText());
+            }
+            else if ("description".equals(field))
+            {
+                schedule.setDescription(parser.getText());
+            }
+            else if ("time".equals(field))
+            {
+                schedule.setTime(parser.getText());
+            }
+            else if ("command".equals(field) && value == JsonToken.START_OBJECT)
+            {
+                schedule.setCommand(readCommand(parser, value));
+            }
+            else
+            {
+                parser.skipChildren();
+            }
+        }
+        return schedule;
+    }
+
+    private Command readCommand(JsonParser parser, JsonToken token) throws IOException
+    {
+        Command command = new Command();
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("address".equals(field))
+            {
+                command.setAddress(parser.getText());
+            }
+            else if ("method".equals(field))
+            {
+                command.setMethod(method(parser.getText()));
+            }
+            else if ("body".equals(field) && value == JsonToken.START_OBJECT)
+            {
+                command.setBody(readState(parser, value));
+            }
+            else
+            {
+                parser.skipChildren();
+            }
+        }
+        return command;
+    }
+
+    /**
+     * Reads the whole datastore from a parser positioned on its start
+     *
+     * @param parser the parser to read from
+     * @param token  the current token of the parser
+     * @return the datastore
+     * @throws IOException if the parser cannot be read or is not on an object
+     */
+    public Datastore readDatastore(JsonParser parser, JsonToken token) throws IOException
+    {
+        expect(parser, token, JsonToken.START_OBJECT);
+        Datastore datastore = new Datastore();
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("lights".equals(field))
+            {
+                expect(parser, value, JsonToken.START_OBJECT);
+                Map<String, LightAttributes> lights = new LinkedHashMap<String, LightAttributes>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME)
+                {
+                    String id = parser.getCurrentName();
+                    lights.put(id, readLight(parser, parser.nextToken()));
+                }
+                datastore.setLights(lights);
+            }
+            else if ("groups".equals(field))
+            {
+                expect(parser, value, JsonToken.START_OBJECT);
+                Map<String, GroupAttributes> groups = new LinkedHashMap<String, GroupAttributes>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME)
+                {
+                    String id = parser.getCurrentName();
+                    groups.put(id, readGroup(parser, parser.nextToken()));
+                }
+                datastore.setGroups(groups);
+            }
+            else if ("schedules".equals(field) && value != JsonToken.VALUE_NULL)
+            {
+                expect(parser, value, JsonToken.START_OBJECT);
+                Map<String, Schedule> schedules = new LinkedHashMap<String, Schedule>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME)
+                {
+                    String id = parser.getCurrentName();
+                    schedules.put(id, readSchedule(parser, parser.nextToken()));
+                }
+                datastore.setSchedules(schedules);
+            }
+            else if ("config".equals(field) && value != JsonToken.VALUE_NULL)
+            {
+                datastore.setConfig(parser.<Map<String, Object>>readValueAs(CONFIG));
+            }
+            else
+            {
+                parser.skipChildren();
+            }
+        }
+        return datastore;
+    }
+
+    private JsonToken start(JsonParser parser) throws IOException
+    {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.START_ARRAY)
+        {
+            // the bridge answers errors with an array
+            throw new IOException(mapper.writeValueAsString(parser.readValueAsTree()));
+        }
+        return token;
+    }
+
+    private static State.Alert alert(String value)
+    {
+        for (State.Alert alert : State.Alert.values())
+        {
+            if (alert.name().equals(value))
+            {
+                return alert;
+            }
+        }
+        return null;
+    }
+
+    private static Command.Method method(String value)
+    {
+        for (Command.Method method : Command.Method.values())
+        {
+            if (method.name().equalsIgnoreCase(value))
+            {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private static State.Effect effect(String value)
+    {
+        for (State.Effect effect : State.Effect.values())
+        {
+            if (effect.name().equals(value))
+            {
+                return effect;
+            }
+        }
+        return null;
+    }
+
+    static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws IOException
+    {
+        if (actual != expected)
+        {
+            throw new IOException("Unexpected " + actual + " at " + parser.getCurrentLocation() + ", expected " + expected);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.json;
+
+import org.mule.module.hue.model.Command;
+import org.mule.module.hue.model.CommandBody;
+import org.mule.module.hue.model.Schedule;
+import org.mule.module.hue.model.State;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Writes the bodies sent to the bridge without going through reflection. Only the properties that
+ * are set are written, like the NON_NULL inclusion of the model classes, and the read-only
+ * <code>reachable</code> and <code>colormode</code> properties of a {@link State} are never sent.
+ * <p/>
+ * Each thread encodes into its own reusable {@link JsonBuffer}, so the only allocation per body is
+ * the returned array.
+ */
+public class ModelWriter
+{
+    private static final byte[] BRI = field("bri");
+    private static final byte[] EFFECT = field("effect");
+    private static final byte[] SAT = field("sat");
+    private static final byte[] ALERT = field("alert");
+    private static final byte[] HUE = field("hue");
+    private static final byte[] ON = field("on");
+    private static final byte[] CT = field("ct");
+    private static final byte[] XY = field("xy");
+    private static final byte[] TRANSITION_TIME = field("transitiontime");
+    private static final byte[] BODY = field("body");
+    private static final byte[] ADDRESS = field("address");
+    private static final byte[] METHOD = field("method");
+    private static final byte[] NAME = field("name");
+    private static final byte[] DESCRIPTION = field("description");
+    private static final byte[] COMMAND = field("command");
+    private static final byte[] TIME = field("time");
+
+    private static final ThreadLocal<JsonBuffer> BUFFERS = new ThreadLocal<JsonBuffer>()
+    {
+        @Override
+        protected JsonBuffer initialValue()
+        {
+            return new JsonBuffer();
+        }
+    };
+
+    private final ObjectMapper mapper;
+
+    /**
+     * @param mapper the mapper used for command bodies other than states
+     */
+    public ModelWriter(ObjectMapper mapper)
+    {
+        this.mapper = mapper;
+    }
+
+    /**
+     * @param state the state to encode
+     * @return the state as UTF-8 encoded json
+     */
+    public byte[] write(State state)
+    {
+        JsonBuffer out = BUFFERS.get().reset();
+        writeState(state, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param schedule the schedule to encode
+     * @return the schedule as UTF-8 encoded json
+     * @throws IOException if the body of its command cannot be encoded
+     */
+    public byte[] write(Schedule schedule) throws IOException
+    {
+        JsonBuffer out = BUFFERS.get().reset();
+        writeSchedule(schedule, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Appends a state to a buffer
+     *
+     * @param state the state to encode
+     * @param out   the buffer to write to
+     */
+    public void writeState(State state, JsonBuffer out)
+    {
+        writeState(state, out, false);
+    }
+
+    private void writeState(State state, JsonBuffer out, boolean compact)
+    {
+        int start = out.length();
+        out.write((byte) '{');
+        if (state.getBrightness() != null)
+        {
+            separate(out, start).write(BRI).writeInt(state.getBrightness());
+        }
+        if (state.getEffect() != null)
+        {
+            separate(out, start).write(EFFECT).writeString(state.getEffect().name());
+        }
+        if (state.getSaturation() != null)
+        {
+            separate(out, start).write(SAT).writeInt(state.getSaturation());
+        }
+        if (state.getAlert() != null)
+        {
+            separate(out, start).write(ALERT).writeString(state.getAlert().name());
+        }
+        if (state.getHue() != null)
+        {
+            separate(out, start).write(HUE).writeInt(state.getHue());
+        }
+        if (state.getOn() != null)
+        {
+            separate(out, start).write(ON).writeBoolean(state.getOn());
+        }
+        if (state.getCt() != null)
+        {
+            separate(out, start).write(CT).writeInt(state.getCt());
+        }
+        if (state.hasXy())
+        {
+            separate(out, start).write(XY).write((byte) '[');
+            if (compact)
+            {
+                out.writeShortDecimal(state.getX()).write((byte) ',').writeShortDecimal(state.getY());
+            }
+            else
+            {
+                out.writeDecimal(state.getX()).write((byte) ',').writeDecimal(state.getY());
+            }
+            out.write((byte) ']');
+        }
+        if (state.getTransitionTime() != null)
+        {
+            separate(out, start).write(TRANSITION_TIME).writeInt(state.getTransitionTime());
+        }
+        out.write((byte) '}');
+    }
+
+    /**
+     * Encodes the body of a scheduled command the way {@link #writeCommand(Command, JsonBuffer)} does
+     *
+     * @param body the body to encode
+     * @return the UTF-8 encoded json
+     * @throws IOException if the body cannot be encoded
+     */
+    public byte[] writeBody(CommandBody body) throws IOException
+    {
+        JsonBuffer out = BUFFERS.get().reset();
+        writeBody(body, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Appends a command to a buffer. The command is meant to be stored by the bridge, which limits the length of
+     * its body, so decimals in the body are written without trailing zeros.
+     *
+     * @param command the command to encode
+     * @param out     the buffer to write to
+     * @throws IOException if the body of the command cannot be encoded
+     */
+    public void writeCommand(Command command, JsonBuffer out) throws IOException
+    {
+        int start = out.length();
+        out.write((byte) '{');
+        CommandBody body = command.getBody();
+        if (body != null)
+        {
+            separate(out, start).write(BODY);
+            writeBody(body, out);
+        }
+        if (command.getAddress() != null)
+        {
+            separate(out, start).write(ADDRESS).writeString(command.getAddress());
+        }
+        if (command.getMethod() != null)
+        {
+            separate(out, start).write(METHOD).writeString(command.getMethod().name());
+        }
+        out.write((byte) '}');
+    }
+
+    /**
+     * Appends a schedule to a buffer
+     *
+     * @param schedule the schedule to encode
+     * @param out      the buffer to write to
+     * @throws IOException if the body of its command cannot be encoded
+     */
+    public void writeSchedule(Schedule schedule, JsonBuffer out) throws IOException
+    {
+        int start = out.length();
+        out.write((byte) '{');
+        if (schedule.getName() != null)
+        {
+            separate(out, start).write(NAME).writeString(schedule.getName());
+        }
+        if (schedule.getDescription() != null)
+        {
+            separate(out, start).write(DESCRIPTION).writeString(schedule.getDescription());
+        }
+        if (schedule.getCommand() != null)
+        {
+            separate(out, start).write(COMMAND);
+            writeCommand(schedule.getCommand(), out);
+        }
+        if (schedule.getTime() != null)
+        {
+            separate(out, start).write(TIME).writeString(schedule.getTime());
+        }
+        out.write((byte) '}');
+    }
+
+    /**
+     * Appends the body of a scheduled command to a buffer, see {@link #writeCommand(Command, JsonBuffer)}
+     *
+     * @param body the body to encode
+     * @param out  the buffer to write to
+     * @throws IOException if the body cannot be encoded
+     */
+    public void writeBody(CommandBody body, JsonBuffer out) throws IOException
+    {
+        if (body instanceof State)
+        {
+            writeState((State) body, out, true);
+        }
+        else
+        {
+            out.write(mapper.writeValueAsBytes(body));
+        }
+    }
+
+    private static JsonBuffer separate(JsonBuffer out, int start)
+    {
+        // anything past the opening brace means a property was already written
+        return out.length() > start + 1 ? out.write((byte) ',') : out;
+    }
+
+    private static byte[] field(String name)
+    {
+        return ("\"" + name + "\":").getBytes();
+    }
+}
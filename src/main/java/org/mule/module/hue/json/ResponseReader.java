@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.json;
+
+import org.mule.module.hue.HueException;
+import org.mule.module.hue.model.BridgeResponse;
+import org.mule.module.hue.model.Error;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Reads the responses of the bridge in a single streaming pass. Commands (PUT, POST and DELETE) are
+ * answered with an array of success and error entries; reads (GET) are answered with the resource itself,
+ * an object, unless they failed in which case the bridge sends an array of errors.
+ */
+public class ResponseReader
+{
+    private final ObjectMapper mapper;
+
+    /**
+     * @param mapper the mapper used to read the values of success entries
+     */
+    public ResponseReader(ObjectMapper mapper)
+    {
+        this.mapper = mapper;
+    }
+
+    /**
+     * Reads the response to a command
+     *
+     * @param response the raw response
+     * @return the success and error entries of the response
+     * @throws IOException if the response is not valid json
+     */
+    public BridgeResponse read(String response) throws IOException
+    {
+        JsonParser parser = mapper.getJsonFactory().createJsonParser(response);
+        try
+        {
+            return read(parser);
+        }
+        finally
+        {
+            parser.close();
+        }
+    }
+
+    /**
+     * Reads the response to a command and fails if any item of the command failed
+     *
+     * @param response the raw response
+     * @return the success entries of the response
+     * @throws HueException if the response holds any error
+     * @throws IOException  if the response is not valid json
+     */
+    public BridgeResponse readSuccess(String response) throws IOException
+    {
+        BridgeResponse result = read(response);
+        if (!result.isSuccess())
+        {
+            throw new HueException(result.getErrors());
+        }
+        return result;
+    }
+
+    /**
+     * Checks the response to a read. Only the first character is looked at unless the response is an error.
+     *
+     * @param response the raw response
+     * @return the response
+     * @throws HueException if the response is an error
+     * @throws IOException  if the response is an error that is not valid json
+     */
+    public String checkRead(String response) throws IOException
+    {
+        for (int i = 0; i < response.length(); i++)
+        {
+            char c = response.charAt(i);
+            if (c == '[')
+            {
+                BridgeResponse result = read(response);
+                throw new HueException(result.getErrors());
+            }
+            if (!Character.isWhitespace(c))
+            {
+                break;
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Reads the error response to a read from a parser positioned on the start of its array, for readers that
+     * stream the resource instead of checking the whole response first
+     *
+     * @param parser the parser to read from
+     * @return the exception holding the errors of the response
+     * @throws IOException if the response is not valid json
+     */
+    HueException readErrors(JsonParser parser) throws IOException
+    {
+        return new HueException(readEntries(parser, false).getErrors());
+    }
+
+    private BridgeResponse read(JsonParser parser) throws IOException
+    {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.START_OBJECT)
+        {
+            // some commands answer with a single entry rather than an array
+            return readEntries(parser, true);
+        }
+        if (token != JsonToken.START_ARRAY)
+        {
+            throw new IOException("Unexpected response from the bridge, expected an array but found " + token);
+        }
+        return readEntries(parser, false);
+    }
+
+    private BridgeResponse readEntries(JsonParser parser, boolean single) throws IOException
+    {
+        List<Map<String, Object>> successes = new ArrayList<Map<String, Object>>(2);
+        List<Error> errors = Collections.emptyList();
+        while (single || parser.nextToken() == JsonToken.START_OBJECT)
+        {
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String kind = parser.getCurrentName();
+                parser.nextToken();
+                if ("success".equals(kind))
+                {
+                    successes.add(readSuccess(parser));
+                }
+                else if ("error".equals(kind))
+                {
+                    if (errors.isEmpty())
+                    {
+                        errors = new ArrayList<Error>(1);
+                    }
+                    errors.add(readError(parser));
+                }
+                else
+                {
+                    parser.skipChildren();
+                }
+            }
+            if (single)
+            {
+                break;
+            }
+        }
+        return new BridgeResponse(successes, errors);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> readSuccess(JsonParser parser) throws IOException
+    {
+        if (parser.getCurrentToken() == JsonToken.START_OBJECT)
+        {
+            return parser.readValueAs(Map.class);
+        }
+        // deletions are acknowledged with a plain message i.e. "/schedules/1 deleted"
+        return Collections.singletonMap(parser.getText(), null);
+    }
+
+    private Error readError(JsonParser parser) throws IOException
+    {
+        Error error = new Error();
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("type".equals(field))
+            {
+                error.setType(parser.getIntValue());
+            }
+            else if ("address".equals(field))
+            {
+                error.setAddress(parser.getText());
+            }
+            else if ("description".equals(field))
+            {
+                error.setDescription(parser.getText());
+            }
+            else
+            {
+                parser.skipChildren();
+            }
+        }
+        return error;
+    }
+}
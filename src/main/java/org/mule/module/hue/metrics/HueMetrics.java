@@ -0,0 +1,293 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.metrics;
+
+import org.mule.module.hue.dispatch.CommandDispatcher;
+import org.mule.module.hue.dispatch.ConcurrencyLimiter;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The metrics of one connector configuration, shared by the transports and dispatchers of all its bridges and
+ * registered in the platform MBean server as <code>org.mule.module.hue:type=HueConnector,name=...</code>
+ */
+public class HueMetrics implements HueMetricsMXBean
+{
+    /**
+     * The error type counted for calls that did not get an answer from the bridge
+     */
+    public static final String TRANSPORT_ERROR = "transport";
+
+    private static final String DOMAIN = "org.mule.module.hue";
+    private static final Log logger = LogFactory.getLog(HueMetrics.class);
+
+    private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<String, OperationMetrics>();
+    private final ConcurrentMap<String, AtomicLong> errorTypes = new ConcurrentHashMap<String, AtomicLong>();
+    private final List<CommandDispatcher> dispatchers = new CopyOnWriteArrayList<CommandDispatcher>();
+    private final List<ConcurrencyLimiter> limiters = new CopyOnWriteArrayList<ConcurrencyLimiter>();
+    private final AtomicLong sharedReads = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong deadlinesExceeded = new AtomicLong();
+    private volatile long since = System.nanoTime();
+    private ObjectName objectName;
+
+    /**
+     * @param name the name of the operation
+     * @return the metrics of the operation, created on first use
+     */
+    public OperationMetrics operation(String name)
+    {
+        OperationMetrics metrics = operations.get(name);
+        if (metrics == null)
+        {
+            OperationMetrics created = new OperationMetrics();
+            metrics = operations.putIfAbsent(name, created);
+            if (metrics == null)
+            {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @param type the error type given by the bridge, or {@link #TRANSPORT_ERROR}
+     */
+    public void countError(String type)
+    {
+        AtomicLong count = errorTypes.get(type);
+        if (count == null)
+        {
+            AtomicLong created = new AtomicLong();
+            count = errorTypes.putIfAbsent(type, created);
+            if (count == null)
+            {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Counts a read answered by a GET another caller already had in flight
+     */
+    public void countSharedRead()
+    {
+        sharedReads.incrementAndGet();
+    }
+
+    /**
+     * Counts a call tried again after the bridge was too busy for it
+     */
+    public void countRetry()
+    {
+        retries.incrementAndGet();
+    }
+
+    /**
+     * Counts a call given up because it could not be made within its deadline
+     */
+    public void countDeadlineExceeded()
+    {
+        deadlinesExceeded.incrementAndGet();
+    }
+
+    /**
+     * @param dispatcher a dispatcher whose queue depth and counts are to be reported
+     */
+    public void addDispatcher(CommandDispatcher dispatcher)
+    {
+        dispatchers.add(dispatcher);
+    }
+
+    /**
+     * @param dispatcher a dispatcher that is no longer used
+     */
+    public void removeDispatcher(CommandDispatcher dispatcher)
+    {
+        dispatchers.remove(dispatcher);
+    }
+
+    /**
+     * @param limiter a limiter whose limit is to be reported
+     */
+    public void addLimiter(ConcurrencyLimiter limiter)
+    {
+        limiters.add(limiter);
+    }
+
+    /**
+     * @param limiter a limiter that is no longer used
+     */
+    public void removeLimiter(ConcurrencyLimiter limiter)
+    {
+        limiters.remove(limiter);
+    }
+
+    public Map<String, OperationStats> getOperations()
+    {
+        double seconds = (System.nanoTime() - since) / (double) TimeUnit.SECONDS.toNanos(1);
+        Map<String, OperationStats> stats = new TreeMap<String, OperationStats>();
+        for (Map.Entry<String, OperationMetrics> operation : operations.entrySet())
+        {
+            stats.put(operation.getKey(), operation.getValue().snapshot(seconds));
+        }
+        return stats;
+    }
+
+    public Map<String, Long> getErrorTypes()
+    {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> type : errorTypes.entrySet())
+        {
+            counts.put(type.getKey(), type.getValue().get());
+        }
+        return counts;
+    }
+
+    public int getQueueDepth()
+    {
+        int depth = 0;
+        for (CommandDispatcher dispatcher : dispatchers)
+        {
+            depth += dispatcher.getQueueDepth();
+        }
+        return depth;
+    }
+
+    public long getCoalescedCount()
+    {
+        long count = 0;
+        for (CommandDispatcher dispatcher : dispatchers)
+        {
+            count += dispatcher.getCoalescedCount();
+        }
+        return count;
+    }
+
+    public long getSuppressedCount()
+    {
+        long count = 0;
+        for (CommandDispatcher dispatcher : dispatchers)
+        {
+            count += dispatcher.getSuppressedCount();
+        }
+        return count;
+    }
+
+    public int getConcurrencyLimit()
+    {
+        int limit = 0;
+        for (ConcurrencyLimiter limiter : limiters)
+        {
+            limit += limiter.getLimit();
+        }
+        return limit;
+    }
+
+    public long getSharedReadCount()
+    {
+        return sharedReads.get();
+    }
+
+    public long getRetryCount()
+    {
+        return retries.get();
+    }
+
+    public long getDeadlineExceededCount()
+    {
+        return deadlinesExceeded.get();
+    }
+
+    public void reset()
+    {
+        for (OperationMetrics operation : operations.values())
+        {
+            operation.reset();
+        }
+        errorTypes.clear();
+        sharedReads.set(0);
+        retries.set(0);
+        deadlinesExceeded.set(0);
+        since = System.nanoTime();
+    }
+
+    /**
+     * Registers these metrics in the platform MBean server unless they already are. A number is appended to the
+     * name if it is taken. Failing to register is logged rather than thrown, the connector works the same without.
+     *
+     * @param name the name identifying the connector configuration
+     * @return the name the metrics were registered under, null if they could not be registered
+     */
+    public synchronized ObjectName register(String name)
+    {
+        if (objectName != null)
+        {
+            return objectName;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            for (int i = 1; objectName == null; i++)
+            {
+                ObjectName candidate = new ObjectName(DOMAIN + ":type=HueConnector,name="
+                                                      + ObjectName.quote(i == 1 ? name : name + " " + i));
+                if (!server.isRegistered(candidate))
+                {
+                    server.registerMBean(this, candidate);
+                    objectName = candidate;
+                }
+            }
+        }
+        catch (JMException e)
+        {
+            logger.warn("Could not register the metrics of " + name + ": " + e.getMessage());
+        }
+        catch (SecurityException e)
+        {
+            logger.warn("Could not register the metrics of " + name + ": " + e.getMessage());
+        }
+        return objectName;
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server
+     */
+    public synchronized void unregister()
+    {
+        if (objectName == null)
+        {
+            return;
+        }
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+        catch (JMException e)
+        {
+            logger.debug("Could not unregister " + objectName + ": " + e.getMessage());
+        }
+        objectName = null;
+    }
+}
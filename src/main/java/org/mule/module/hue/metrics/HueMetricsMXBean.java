@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.metrics;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link HueMetrics}. Counts and latencies cover the time since the connector
+ * connected or the metrics were last reset.
+ */
+public interface HueMetricsMXBean
+{
+    /**
+     * @return the latencies and counts of each kind of call, keyed by the name of the operation e.g. setLightState
+     */
+    Map<String, OperationStats> getOperations();
+
+    /**
+     * @return the number of errors keyed by the error type given by the bridge, or transport for calls that did
+     *         not get an answer
+     */
+    Map<String, Long> getErrorTypes();
+
+    /**
+     * @return the number of commands waiting to be sent
+     */
+    int getQueueDepth();
+
+    /**
+     * @return the number of commands merged into a command that was already waiting to be sent
+     */
+    long getCoalescedCount();
+
+    /**
+     * @return the number of commands not sent because they would not have changed anything
+     */
+    long getSuppressedCount();
+
+    /**
+     * @return the number of calls allowed in flight to the bridges, 0 unless adaptiveConcurrency is set
+     */
+    int getConcurrencyLimit();
+
+    /**
+     * @return the number of reads answered by a GET another caller already had in flight
+     */
+    long getSharedReadCount();
+
+    /**
+     * @return the number of calls tried again after the bridge was too busy for them, each attempt is also counted
+     *         in the operations
+     */
+    long getRetryCount();
+
+    /**
+     * @return the number of calls given up because they could not be made within requestDeadline
+     */
+    long getDeadlineExceededCount();
+
+    /**
+     * Forgets all counts and latencies
+     */
+    void reset();
+}
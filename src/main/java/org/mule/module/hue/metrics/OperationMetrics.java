@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latencies and failures of one kind of call to the bridge
+ */
+public class OperationMetrics
+{
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * @param nanos  how long the call took
+     * @param failed true if the call failed or the bridge answered with an error
+     */
+    public void record(long nanos, boolean failed)
+    {
+        latencies.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (failed)
+        {
+            errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param seconds the time over which the calls were counted
+     * @return the current values
+     */
+    OperationStats snapshot(double seconds)
+    {
+        long count = latencies.getCount();
+        return new OperationStats(count, errors.get(), seconds > 0 ? count / seconds : 0,
+                                  millis(latencies.getPercentile(0.5)), millis(latencies.getPercentile(0.99)),
+                                  millis(latencies.getPercentile(0.999)), millis(latencies.getMax()),
+                                  latencies.getMean() / 1000);
+    }
+
+    void reset()
+    {
+        latencies.reset();
+        errors.set(0);
+    }
+
+    private static double millis(long micros)
+    {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The values of {@link OperationMetrics} at a point in time, latencies are in milliseconds
+ */
+public class OperationStats
+{
+    private final long count;
+    private final long errors;
+    private final double throughput;
+    private final double p50;
+    private final double p99;
+    private final double p999;
+    private final double max;
+    private final double mean;
+
+    @ConstructorProperties({"count", "errors", "throughput", "p50", "p99", "p999", "max", "mean"})
+    public OperationStats(long count, long errors, double throughput, double p50, double p99, double p999, double max, double mean)
+    {
+        this.count = count;
+        this.errors = errors;
+        this.throughput = throughput;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+        this.mean = mean;
+    }
+
+    /**
+     * @return the number of calls
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return the number of calls that failed or were answered with an error
+     */
+    public long getErrors()
+    {
+        return errors;
+    }
+
+    /**
+     * @return the mean number of calls per second
+     */
+    public double getThroughput()
+    {
+        return throughput;
+    }
+
+    public double getP50()
+    {
+        return p50;
+    }
+
+    public double getP99()
+    {
+        return p99;
+    }
+
+    public double getP999()
+    {
+        return p999;
+    }
+
+    public double getMax()
+    {
+        return max;
+    }
+
+    public double getMean()
+    {
+        return mean;
+    }
+}
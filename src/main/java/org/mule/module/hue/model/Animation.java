@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.model;
+
+import org.mule.api.annotations.param.Default;
+import org.mule.api.annotations.param.Optional;
+
+import java.util.List;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
+/**
+ * A timeline of keyframes played over a set of lights. Every light plays the same keyframes, each one spread
+ * milliseconds behind the light before it, so a spread turns a fade into a chase and a still timeline into a
+ * gradient.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonSerialize(include= JsonSerialize.Inclusion.NON_NULL)
+public class Animation
+{
+    /**
+     * The identifiers of the lights to animate, in the order the spread is applied
+     */
+    @JsonProperty("lights")
+    private List<String> lights;
+
+    /**
+     * The keyframes of the timeline, in any order
+     */
+    @JsonProperty("keyframes")
+    private List<Keyframe> keyframes;
+
+    /**
+     * The length of the timeline in milliseconds, defaults to the offset of the last keyframe. When looping the
+     * lights change from the last keyframe back to the first over the remaining time.
+     */
+    @JsonProperty("duration")
+    @Optional
+    private Long duration;
+
+    /**
+     * Whether the timeline starts over once it ends
+     */
+    @JsonProperty("loop")
+    @Optional @Default("false")
+    private boolean loop;
+
+    /**
+     * How many milliseconds each light runs behind the light before it
+     */
+    @JsonProperty("spread")
+    @Optional @Default("0")
+    private long spread;
+
+    public List<String> getLights()
+    {
+        return lights;
+    }
+
+    public void setLights(List<String> lights)
+    {
+        this.lights = lights;
+    }
+
+    public List<Keyframe> getKeyframes()
+    {
+        return keyframes;
+    }
+
+    public void setKeyframes(List<Keyframe> keyframes)
+    {
+        this.keyframes = keyframes;
+    }
+
+    public Long getDuration()
+    {
+        return duration;
+    }
+
+    public void setDuration(Long duration)
+    {
+        this.duration = duration;
+    }
+
+    public boolean isLoop()
+    {
+        return loop;
+    }
+
+    public void setLoop(boolean loop)
+    {
+        this.loop = loop;
+    }
+
+    public long getSpread()
+    {
+        return spread;
+    }
+
+    public void setSpread(long spread)
+    {
+        this.spread = spread;
+    }
+}
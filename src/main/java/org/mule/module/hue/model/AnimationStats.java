@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.model;
+
+import org.codehaus.jackson.annotate.JsonProperty;
+
+/**
+ * How an animation has played so far
+ */
+public class AnimationStats
+{
+    /**
+     * The identifier of the animation
+     */
+    @JsonProperty("id")
+    private String animationId;
+
+    /**
+     * Whether the animation is still playing
+     */
+    @JsonProperty("running")
+    private boolean running;
+
+    /**
+     * The number of frames rendered
+     */
+    @JsonProperty("frames")
+    private long frames;
+
+    /**
+     * The number of frames skipped because rendering fell behind
+     */
+    @JsonProperty("dropped")
+    private long droppedFrames;
+
+    /**
+     * The number of light commands sent
+     */
+    @JsonProperty("commands")
+    private long commands;
+
+    /**
+     * The number of light updates put off because the frame was out of budget or the previous command to the
+     * light was still in flight
+     */
+    @JsonProperty("deferred")
+    private long deferredCommands;
+
+    /**
+     * The number of light commands that failed
+     */
+    @JsonProperty("failed")
+    private long failedCommands;
+
+    public AnimationStats()
+    {
+    }
+
+    public AnimationStats(String animationId, boolean running, long frames, long droppedFrames, long commands,
+                          long deferredCommands, long failedCommands)
+    {
+        this.animationId = animationId;
+        this.running = running;
+        this.frames = frames;
+        this.droppedFrames = droppedFrames;
+        this.commands = commands;
+        this.deferredCommands = deferredCommands;
+        this.failedCommands = failedCommands;
+    }
+
+    public String getAnimationId()
+    {
+        return animationId;
+    }
+
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    public long getFrames()
+    {
+        return frames;
+    }
+
+    public long getDroppedFrames()
+    {
+        return droppedFrames;
+    }
+
+    public long getCommands()
+    {
+        return commands;
+    }
+
+    public long getDeferredCommands()
+    {
+        return deferredCommands;
+    }
+
+    public long getFailedCommands()
+    {
+        return failedCommands;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The response of the bridge to a command. The bridge answers with one entry per item of the command,
+ * either a success entry mapping the address of the item to its new value i.e. <code>{"/lights/1/state/on": true}</code>
+ * or an {@link Error}. Success entries that are a plain message, such as the acknowledgement of a deletion,
+ * map the message to null.
+ */
+public class BridgeResponse
+{
+    private final List<Map<String, Object>> successes;
+    private final List<Error> errors;
+
+    public BridgeResponse(List<Map<String, Object>> successes, List<Error> errors)
+    {
+        this.successes = successes;
+        this.errors = errors;
+    }
+
+    /**
+     * @return the success entries of the response
+     */
+    public List<Map<String, Object>> getSuccesses()
+    {
+        return successes;
+    }
+
+    /**
+     * @return the error entries of the response
+     */
+    public List<Error> getErrors()
+    {
+        return errors;
+    }
+
+    /**
+     * @return true if no item of the command failed
+     */
+    public boolean isSuccess()
+    {
+        return errors.isEmpty();
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.model;
+
+import java.util.Map;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+/**
+ * The full datastore of the bridge as returned by a GET on the API root of the user.
+ * It holds every light, group and schedule known by the bridge along with its configuration.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class Datastore
+{
+    /**
+     * All lights known by the bridge keyed by their identifier
+     */
+    @JsonProperty("lights")
+    private Map<String, LightAttributes> lights;
+
+    /**
+     * All groups known by the bridge keyed by their identifier. Group 0, which holds every light, is not listed
+     */
+    @JsonProperty("groups")
+    private Map<String, GroupAttributes> groups;
+
+    /**
+     * All schedules known by the bridge keyed by their identifier
+     */
+    @JsonProperty("schedules")
+    private Map<String, Schedule> schedules;
+
+    /**
+     * The configuration of the bridge
+     */
+    @JsonProperty("config")
+    private Map<String, Object> config;
+
+    public Map<String, LightAttributes> getLights()
+    {
+        return lights;
+    }
+
+    public void setLights(Map<String, LightAttributes> lights)
+    {
+        this.lights = lights;
+    }
+
+    public Map<String, GroupAttributes> getGroups()
+    {
+        return groups;
+    }
+
+    public void setGroups(Map<String, GroupAttributes> groups)
+    {
+        this.groups = groups;
+    }
+
+    public Map<String, Schedule> getSchedules()
+    {
+        return schedules;
+    }
+
+    public void setSchedules(Map<String, Schedule> schedules)
+    {
+        this.schedules = schedules;
+    }
+
+    public Map<String, Object> getConfig()
+    {
+        return config;
+    }
+
+    public void setConfig(Map<String, Object> config)
+    {
+        this.config = config;
+    }
+}
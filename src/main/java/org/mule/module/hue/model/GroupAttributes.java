@@ -9,11 +9,13 @@ package org.mule.module.hue.model;
 
 import java.util.List;
 
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 import org.codehaus.jackson.annotate.JsonProperty;
 
 /**
  * This is a read-only response describing the state of a group of lights
  */
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class GroupAttributes
 {
     /**
@@ -46,18 +48,54 @@ public class GroupAttributes
         return name;
     }
 
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
     public State getState()
     {
         return state;
     }
 
+    public void setState(State state)
+    {
+        this.state = state;
+    }
+
     public List<String> getLights()
     {
         return lights;
     }
 
+    public void setLights(List<String> lights)
+    {
+        this.lights = lights;
+    }
+
     public List<Scene> getScenes()
     {
         return scenes;
     }
+
+    public void setScenes(List<Scene> scenes)
+    {
+        this.scenes = scenes;
+    }
+
+    /**
+     * Creates a copy of these attributes with a different state
+     *
+     * @param state the state of the copy
+     * @return the copy
+     */
+    public GroupAttributes withState(State state)
+    {
+        GroupAttributes copy = new GroupAttributes();
+        copy.name = name;
+        copy.state = state;
+        copy.lights = lights;
+        copy.scenes = scenes;
+        return copy;
+    }
 }
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.model;
+
+import org.mule.api.annotations.param.Optional;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
+/**
+ * The colour and brightness of a light at a point in an {@link Animation}. Between two keyframes the colour and
+ * brightness change linearly.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonSerialize(include= JsonSerialize.Inclusion.NON_NULL)
+public class Keyframe
+{
+    /**
+     * The time of the keyframe in milliseconds from the start of the animation
+     */
+    @JsonProperty("offset")
+    private long offset;
+
+    /**
+     * A named color or an HTML color, see {@link State#setColor(String)}. Without a color the colour of the
+     * lights is left as it is.
+     */
+    @JsonProperty("color")
+    @Optional
+    private String color;
+
+    /**
+     * The brightness from 0 to 255. Without a brightness the brightness of the lights is left as it is.
+     */
+    @JsonProperty("bri")
+    @Optional
+    private Integer brightness;
+
+    public Keyframe()
+    {
+    }
+
+    public Keyframe(long offset, String color, Integer brightness)
+    {
+        this.offset = offset;
+        this.color = color;
+        this.brightness = brightness;
+    }
+
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    public void setOffset(long offset)
+    {
+        this.offset = offset;
+    }
+
+    public String getColor()
+    {
+        return color;
+    }
+
+    public void setColor(String color)
+    {
+        this.color = color;
+    }
+
+    public Integer getBrightness()
+    {
+        return brightness;
+    }
+
+    public void setBrightness(Integer brightness)
+    {
+        this.brightness = brightness;
+    }
+}
@@ -7,11 +7,13 @@
  */
 package org.mule.module.hue.model;
 
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 import org.codehaus.jackson.annotate.JsonProperty;
 
 /**
  * A representation of all light attributes including state
  */
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class LightAttributes
 {
     /**
@@ -55,28 +57,76 @@ public class LightAttributes
         return state;
     }
 
+    public void setState(State state)
+    {
+        this.state = state;
+    }
+
     public String getName()
     {
         return name;
     }
 
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
     public String getType()
     {
         return type;
     }
 
+    public void setType(String type)
+    {
+        this.type = type;
+    }
+
     public String getModelid()
     {
         return modelid;
     }
 
+    public void setModelid(String modelid)
+    {
+        this.modelid = modelid;
+    }
+
     public String getSwversion()
     {
         return swversion;
     }
 
+    public void setSwversion(String swversion)
+    {
+        this.swversion = swversion;
+    }
+
     public Object getPointsymbol()
     {
         return pointsymbol;
     }
+
+    public void setPointsymbol(Object pointsymbol)
+    {
+        this.pointsymbol = pointsymbol;
+    }
+
+    /**
+     * Creates a copy of these attributes with a different state
+     *
+     * @param state the state of the copy
+     * @return the copy
+     */
+    public LightAttributes withState(State state)
+    {
+        LightAttributes copy = new LightAttributes();
+        copy.setState(state);
+        copy.name = name;
+        copy.type = type;
+        copy.modelid = modelid;
+        copy.swversion = swversion;
+        copy.pointsymbol = pointsymbol;
+        return copy;
+    }
 }
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.model;
+
+import java.util.Map;
+
+import org.codehaus.jackson.annotate.JsonProperty;
+
+/**
+ * Describes how a light changed between two reads of the bridge
+ */
+public class LightChange
+{
+    /**
+     * The identifier of the light
+     */
+    @JsonProperty("id")
+    private String lightId;
+
+    /**
+     * The attributes of the light after the change, null if the light was removed from the bridge
+     */
+    @JsonProperty("light")
+    private LightAttributes light;
+
+    /**
+     * The properties that changed keyed by their name in the Hue API i.e. 'bri' or 'xy', with their new value.
+     * A light that was just discovered lists all its properties
+     */
+    @JsonProperty("changes")
+    private Map<String, Object> changes;
+
+    public LightChange(String lightId, LightAttributes light, Map<String, Object> changes)
+    {
+        this.lightId = lightId;
+        this.light = light;
+        this.changes = changes;
+    }
+
+    public String getLightId()
+    {
+        return lightId;
+    }
+
+    public LightAttributes getLight()
+    {
+        return light;
+    }
+
+    public Map<String, Object> getChanges()
+    {
+        return changes;
+    }
+
+    /**
+     * @return true if the light is no longer known by the bridge
+     */
+    public boolean isRemoved()
+    {
+        return light == null;
+    }
+}
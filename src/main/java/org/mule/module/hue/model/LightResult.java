@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.model;
+
+import java.util.List;
+
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
+/**
+ * The outcome of applying a state to one light as part of a bulk update
+ */
+@JsonSerialize(include= JsonSerialize.Inclusion.NON_NULL)
+public class LightResult
+{
+    /**
+     * The identifier of the light
+     */
+    @JsonProperty("id")
+    private String lightId;
+
+    /**
+     * The state that was applied to the light
+     */
+    @JsonProperty("state")
+    private State state;
+
+    /**
+     * Whether the state was applied
+     */
+    @JsonProperty("success")
+    private boolean success;
+
+    /**
+     * The reason the state could not be applied, only set when success is false
+     */
+    @JsonProperty("error")
+    private String error;
+
+    /**
+     * The errors returned by the bridge, only set when success is false and the bridge rejected the state
+     */
+    @JsonProperty("errors")
+    private List<Error> errors;
+
+    /**
+     * The group the state was sent to, only set when the light was updated together with others by a group command
+     */
+    @JsonProperty("group")
+    private String groupId;
+
+    public LightResult()
+    {
+    }
+
+    public LightResult(String lightId, State state, boolean success, String error)
+    {
+        this.lightId = lightId;
+        this.state = state;
+        this.success = success;
+        this.error = error;
+    }
+
+    public LightResult(String lightId, State state, String error, List<Error> errors)
+    {
+        this(lightId, state, false, error);
+        this.errors = errors;
+    }
+
+    public String getLightId()
+    {
+        return lightId;
+    }
+
+    public State getState()
+    {
+        return state;
+    }
+
+    public boolean isSuccess()
+    {
+        return success;
+    }
+
+    public String getError()
+    {
+        return error;
+    }
+
+    public List<Error> getErrors()
+    {
+        return errors;
+    }
+
+    public String getGroupId()
+    {
+        return groupId;
+    }
+
+    public void setGroupId(String groupId)
+    {
+        this.groupId = groupId;
+    }
+}
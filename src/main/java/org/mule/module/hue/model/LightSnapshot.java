@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.codehaus.jackson.annotate.JsonProperty;
+
+/**
+ * The look of the lights at one moment, taken to be restored later. Only what makes a light look the way it does
+ * is kept: whether it is on and, for the lights that are on, the brightness, the effect and the colour in the mode
+ * the light was working in.
+ */
+public class LightSnapshot
+{
+    /**
+     * When the snapshot was taken, in milliseconds since the epoch
+     */
+    @JsonProperty("taken")
+    private long taken;
+
+    /**
+     * The state of each light keyed by the identifier of the light
+     */
+    @JsonProperty("lights")
+    private Map<String, State> lights = new LinkedHashMap<String, State>();
+
+    public LightSnapshot()
+    {
+    }
+
+    public LightSnapshot(long taken)
+    {
+        this.taken = taken;
+    }
+
+    public long getTaken()
+    {
+        return taken;
+    }
+
+    public void setTaken(long taken)
+    {
+        this.taken = taken;
+    }
+
+    public Map<String, State> getLights()
+    {
+        return lights;
+    }
+
+    public void setLights(Map<String, State> lights)
+    {
+        this.lights = lights;
+    }
+}
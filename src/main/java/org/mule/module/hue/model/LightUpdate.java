@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.model;
+
+import org.codehaus.jackson.annotate.JsonProperty;
+
+/**
+ * A state to apply to one light as part of a bulk update
+ */
+public class LightUpdate
+{
+    /**
+     * The identifier of the light
+     */
+    @JsonProperty("id")
+    private String lightId;
+
+    /**
+     * The state to apply to the light
+     */
+    @JsonProperty("state")
+    private State state;
+
+    public LightUpdate()
+    {
+    }
+
+    public LightUpdate(String lightId, State state)
+    {
+        this.lightId = lightId;
+        this.state = state;
+    }
+
+    public String getLightId()
+    {
+        return lightId;
+    }
+
+    public void setLightId(String lightId)
+    {
+        this.lightId = lightId;
+    }
+
+    public State getState()
+    {
+        return state;
+    }
+
+    public void setState(State state)
+    {
+        this.state = state;
+    }
+}
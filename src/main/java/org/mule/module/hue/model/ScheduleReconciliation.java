@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.annotate.JsonProperty;
+
+/**
+ * What reconciling the schedules of the bridge with the desired schedules did
+ */
+public class ScheduleReconciliation
+{
+    /**
+     * The identifiers of the schedules created
+     */
+    @JsonProperty("created")
+    private final List<String> created = new ArrayList<String>();
+
+    /**
+     * The identifiers of the schedules deleted
+     */
+    @JsonProperty("deleted")
+    private final List<String> deleted = new ArrayList<String>();
+
+    /**
+     * The identifiers of the schedules that already matched a desired schedule
+     */
+    @JsonProperty("unchanged")
+    private final List<String> unchanged = new ArrayList<String>();
+
+    /**
+     * Why a schedule could not be created or deleted
+     */
+    @JsonProperty("errors")
+    private final List<String> errors = new ArrayList<String>();
+
+    public List<String> getCreated()
+    {
+        return created;
+    }
+
+    public List<String> getDeleted()
+    {
+        return deleted;
+    }
+
+    public List<String> getUnchanged()
+    {
+        return unchanged;
+    }
+
+    public List<String> getErrors()
+    {
+        return errors;
+    }
+
+    /**
+     * @return true if every schedule could be created or deleted
+     */
+    public boolean isSuccess()
+    {
+        return errors.isEmpty();
+    }
+}
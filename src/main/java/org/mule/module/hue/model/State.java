@@ -11,10 +11,11 @@ import org.mule.api.annotations.param.Default;
 import org.mule.api.annotations.param.Optional;
 import org.mule.module.hue.ColourUtils;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 import org.codehaus.jackson.annotate.JsonProperty;
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 
@@ -32,9 +33,12 @@ import org.codehaus.jackson.map.annotate.JsonSerialize;
  * or hue and saturation (hs). A light may contain different settings for xy, ct and hs, but only the mode indicated
  * by the colormode parameter will be certain to give the active light color.
  */
+@JsonIgnoreProperties(ignoreUnknown = true)
 @JsonSerialize(include= JsonSerialize.Inclusion.NON_NULL)
 public class State implements CommandBody
 {
+    private static final double XY_PRECISION = 0.0001;
+
     public static enum Alert {
         /**
          * The light is not performing an alert effect.
@@ -131,14 +135,15 @@ public class State implements CommandBody
      * If the specified coordinates are not in the CIE color space, the closest color to the coordinates will be chosen.	Optional
      */
     @JsonProperty("xy")
-    private List<Double> xyColor;
+    private double[] xyColor;
 
     /**
      * The duration of the transition from the light’s current state to the new state. This is given as a multiple of 100ms
      * and defaults to 4 (400ms). For example, setting transistiontime:10 will make the transition last 1 second.	Optional
      */
-//    @JsonProperty("transitiontime")
-//    private int transitiontime;
+    @JsonProperty("transitiontime")
+    @Optional
+    private Integer transitionTime;
 
     /**
      * The x and y coordinates of a color in CIE color space.
@@ -236,6 +241,16 @@ public class State implements CommandBody
         this.hue = hue;
     }
 
+    public Integer getTransitionTime()
+    {
+        return transitionTime;
+    }
+
+    public void setTransitionTime(Integer transitionTime)
+    {
+        this.transitionTime = transitionTime;
+    }
+
     public Boolean getOn()
     {
         return on;
@@ -258,16 +273,82 @@ public class State implements CommandBody
 
     public String getXy()
     {
+        if (xy == null && xyColor != null)
+        {
+            xy = xyColor[0] + "," + xyColor[1];
+        }
         return xy;
     }
 
     public void setXy(String xy)
     {
         String[] s = xy.split(",");
+        setXy(Double.parseDouble(s[0].trim()), Double.parseDouble(s[1].trim()));
         this.xy = xy;
-        xyColor = new ArrayList<Double>(2);
-        xyColor.add(new Double(s[0].trim()));
-        xyColor.add(new Double(s[1].trim()));
+    }
+
+    /**
+     * Sets the x and y coordinates of the color in CIE color space without going through a string.
+     * The coordinates are stored in place, so repeatedly setting them does not allocate.
+     *
+     * @param x the x coordinate, between 0 and 1
+     * @param y the y coordinate, between 0 and 1
+     */
+    public void setXy(double x, double y)
+    {
+        if (xyColor == null)
+        {
+            xyColor = new double[2];
+        }
+        xyColor[0] = x;
+        xyColor[1] = y;
+        xy = null;
+        color = null;
+    }
+
+    private void clearXy()
+    {
+        xyColor = null;
+        xy = null;
+        color = null;
+    }
+
+    /**
+     * @return whether an xy color is set
+     */
+    @JsonIgnore
+    public boolean hasXy()
+    {
+        return xyColor != null;
+    }
+
+    /**
+     * @return the x coordinate of the color in CIE color space, only meaningful if {@link #hasXy()}
+     */
+    @JsonIgnore
+    public double getX()
+    {
+        return xyColor[0];
+    }
+
+    /**
+     * @return the y coordinate of the color in CIE color space, only meaningful if {@link #hasXy()}
+     */
+    @JsonIgnore
+    public double getY()
+    {
+        return xyColor[1];
+    }
+
+    /**
+     * The x and y coordinates of the color in CIE color space as sent to or read from the bridge
+     *
+     * @return a list holding x then y, or null if no xy color is set
+     */
+    @JsonIgnore
+    public List<Double> getXyColor()
+    {
+        return xyColor == null ? null : Arrays.asList(xyColor[0], xyColor[1]);
     }
 
     public String getColor()
@@ -277,8 +358,166 @@ public class State implements CommandBody
 
     public void setColor(String color)
     {
-        xyColor = ColourUtils.getXYForColour(color);
-        setXy(String.valueOf(xyColor.get(0)) + "," + xyColor.get(1));
+        if (xyColor == null)
+        {
+            xyColor = new double[2];
+        }
+        ColourUtils.getXYForColour(color, xyColor);
+        xy = null;
+        this.color = color;
+    }
+
+    /**
+     * Copies every property that is set on the given state onto this state, so the values of
+     * the given state win wherever both states are set. The colour modes replace each other: a
+     * colour given as xy clears ct, hue and saturation, a ct clears xy, hue and saturation, and a
+     * hue or saturation clears xy and ct, since the bridge would otherwise keep the mode it ranks
+     * first, xy then ct then hs.
+     *
+     * @param other the newer state
+     * @return this state
+     */
+    public State merge(State other)
+    {
+        if (other.xyColor != null)
+        {
+            ct = null;
+            hue = null;
+            saturation = null;
+        }
+        else if (other.ct != null)
+        {
+            clearXy();
+            hue = null;
+            saturation = null;
+        }
+        else if (other.hue != null || other.saturation != null)
+        {
+            clearXy();
+            ct = null;
+        }
+        if (other.brightness != null)
+        {
+            brightness = other.brightness;
+        }
+        if (other.effect != null)
+        {
+            effect = other.effect;
+        }
+        if (other.saturation != null)
+        {
+            saturation = other.saturation;
+        }
+        if (other.alert != null)
+        {
+            alert = other.alert;
+        }
+        if (other.hue != null)
+        {
+            hue = other.hue;
+        }
+        if (other.on != null)
+        {
+            on = other.on;
+        }
+        if (other.ct != null)
+        {
+            ct = other.ct;
+        }
+        if (other.xyColor != null)
+        {
+            xyColor = other.xyColor.clone();
+            xy = other.xy;
+            color = other.color;
+        }
+        if (other.transitionTime != null)
+        {
+            transitionTime = other.transitionTime;
+        }
+        if (other.reachable != null)
+        {
+            reachable = other.reachable;
+        }
+        if (other.colormode != null)
+        {
+            colormode = other.colormode;
+        }
+        return this;
+    }
+
+    /**
+     * Creates a state holding only the properties of this state that are not already in effect according
+     * to a known state. The alert is always kept since every alert command triggers a new effect, the
+     * transition time is kept along with any change, and xy coordinates closer than the precision of the
+     * bridge are considered equal.
+     *
+     * @param known the state known to be in effect
+     * @return the properties that need to be sent, or null if there are none
+     */
+    public State diff(State known)
+    {
+        State delta = new State();
+        boolean changed = false;
+        if (brightness != null && !brightness.equals(known.brightness))
+        {
+            delta.brightness = brightness;
+            changed = true;
+        }
+        if (effect != null && effect != known.effect)
+        {
+            delta.effect = effect;
+            changed = true;
+        }
+        if (saturation != null && !saturation.equals(known.saturation))
+        {
+            delta.saturation = saturation;
+            changed = true;
+        }
+        if (alert != null)
+        {
+            delta.alert = alert;
+            changed = true;
+        }
+        if (hue != null && !hue.equals(known.hue))
+        {
+            delta.hue = hue;
+            changed = true;
+        }
+        if (on != null && !on.equals(known.on))
+        {
+            delta.on = on;
+            changed = true;
+        }
+        if (ct != null && !ct.equals(known.ct))
+        {
+            delta.ct = ct;
+            changed = true;
+        }
+        if (xyColor != null && (known.xyColor == null
+                                || Math.abs(xyColor[0] - known.xyColor[0]) >= XY_PRECISION
+                                || Math.abs(xyColor[1] - known.xyColor[1]) >= XY_PRECISION))
+        {
+            delta.setXy(xyColor[0], xyColor[1]);
+            changed = true;
+        }
+        if (changed)
+        {
+            delta.transitionTime = transitionTime;
+        }
+        return changed ? delta : null;
+    }
+
+    /**
+     * Sets the read-only properties reported by the bridge, used by readers that do not go through
+     * the object mapper
+     *
+     * @param reachable  whether the light can be reached by the bridge
+     * @param colormode  the color mode the light is working in
+     */
+    public void setStatus(Boolean reachable, String colormode)
+    {
+        this.reachable = reachable;
+        this.colormode = colormode;
     }
 
     @JsonIgnore
@@ -292,4 +531,31 @@ public class State implements CommandBody
     {
         return colormode;
     }
+
+    /**
+     * The color mode a light is in once this state is applied: the reported colormode if there is one, else
+     * the mode of the color the state sets, ranked like the bridge ranks them, xy then ct then hs
+     *
+     * @return "xy", "ct" or "hs", or null if the state sets no color
+     */
+    public String impliedColormode()
+    {
+        if (colormode != null)
+        {
+            return colormode;
+        }
+        if (xyColor != null)
+        {
+            return "xy";
+        }
+        if (ct != null)
+        {
+            return "ct";
+        }
+        if (hue != null || saturation != null)
+        {
+            return "hs";
+        }
+        return null;
+    }
 }
\ No newline at end of file
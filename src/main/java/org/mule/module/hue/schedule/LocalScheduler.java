@@ -0,0 +1,335 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.schedule;
+
+import org.mule.module.hue.json.JsonBuffer;
+import org.mule.module.hue.json.ModelReader;
+import org.mule.module.hue.json.ModelWriter;
+import org.mule.module.hue.model.Command;
+import org.mule.module.hue.model.Schedule;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Runs scheduled commands from the connector instead of the bridge, which holds only a few schedules. Pending
+ * schedules wait in a {@link TimingWheel}, so adding, cancelling and running one costs the same however many are
+ * pending, and when a store is given they are written to a {@link ScheduleJournal} and loaded again on start.
+ * Schedules that fell due while the connector was stopped run on the first tick after it starts.
+ * <p/>
+ * A schedule is removed from the store before its command runs, so a command runs at most once.
+ */
+public class LocalScheduler
+{
+    private static final Log logger = LogFactory.getLog(LocalScheduler.class);
+
+    /**
+     * The format of schedule times, the one the bridge accepts, always in UTC
+     */
+    public static final String TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
+
+    /**
+     * Runs the commands that fall due
+     */
+    public interface Sink
+    {
+        /**
+         * Runs a command. Called on the scheduler thread, so the command must be handed off rather than waited for.
+         *
+         * @param command the command
+         * @throws IOException if the command cannot be run
+         */
+        void execute(Command command) throws IOException;
+    }
+
+    private final Sink sink;
+    private final ModelReader modelReader;
+    private final ModelWriter modelWriter;
+    private final TimingWheel<Pending> wheel;
+    private final Map<String, TimingWheel.Entry<Pending>> pending = new HashMap<String, TimingWheel.Entry<Pending>>();
+    private final ScheduleJournal journal;
+    private long nextId = 1;
+    private ScheduledFuture<?> tickTask;
+
+    /**
+     * Creates the scheduler, loading the schedules left in the store
+     *
+     * @param sink       runs the commands that fall due
+     * @param mapper     the mapper used to store the schedules
+     * @param tickMillis the precision of the scheduler in milliseconds
+     * @param store      the file the pending schedules are kept in, null to keep them in memory only
+     * @throws IOException if the store cannot be read or written
+     */
+    public LocalScheduler(Sink sink, ObjectMapper mapper, long tickMillis, File store) throws IOException
+    {
+        this.sink = sink;
+        this.modelReader = new ModelReader(mapper);
+        this.modelWriter = new ModelWriter(mapper);
+        this.wheel = new TimingWheel<Pending>(tickMillis, System.currentTimeMillis());
+        this.journal = store != null ? new ScheduleJournal(store) : null;
+        if (journal != null)
+        {
+            for (Map.Entry<String, String> record : journal.load().entrySet())
+            {
+                String id = record.getKey();
+                try
+                {
+                    Schedule schedule = modelReader.readSchedule(record.getValue());
+                    pending.put(id, wheel.add(new Pending(id, schedule), parseTime(schedule.getTime())));
+                    nextId = Math.max(nextId, Long.parseLong(id) + 1);
+                }
+                catch (Exception e)
+                {
+                    logger.warn("Dropping unreadable schedule " + id + " from " + store + ": " + e.getMessage());
+                    journal.remove(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts running the schedules as they fall due
+     *
+     * @param scheduler the scheduler used to move the wheel forward every tick
+     */
+    public void start(ScheduledExecutorService scheduler)
+    {
+        long tickMillis = wheel.getTickMillis();
+        tickTask = scheduler.scheduleAtFixedRate(new Runnable()
+        {
+            public void run()
+            {
+                tick(System.currentTimeMillis());
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops running schedules and closes the store. Pending schedules stay in the store.
+     */
+    public synchronized void stop()
+    {
+        if (tickTask != null)
+        {
+            tickTask.cancel(false);
+            tickTask = null;
+        }
+        if (journal != null)
+        {
+            journal.close();
+        }
+    }
+
+    /**
+     * Adds a schedule
+     *
+     * @param schedule the schedule, with a command and a time in {@link #TIME_FORMAT}
+     * @return the identifier of the schedule, used to cancel it
+     * @throws IOException              if the schedule cannot be stored
+     * @throws IllegalArgumentException if the schedule has no command or its time cannot be read
+     */
+    public synchronized String schedule(Schedule schedule) throws IOException
+    {
+        if (schedule.getCommand() == null)
+        {
+            throw new IllegalArgumentException("A schedule needs a command");
+        }
+        long due = parseTime(schedule.getTime());
+        String id = String.valueOf(nextId++);
+        add(id, schedule, due);
+        return id;
+    }
+
+    /**
+     * Cancels a schedule that has not run yet
+     *
+     * @param id the identifier of the schedule
+     * @return false if there is no such schedule pending
+     * @throws IOException if the store cannot be written
+     */
+    public synchronized boolean cancel(String id) throws IOException
+    {
+        TimingWheel.Entry<Pending> entry = pending.get(id);
+        if (entry == null)
+        {
+            return false;
+        }
+        wheel.cancel(entry);
+        remove(id);
+        return true;
+    }
+
+    /**
+     * @return the number of schedules waiting to run
+     */
+    public synchronized int size()
+    {
+        return pending.size();
+    }
+
+    /**
+     * Removes the schedules due within a window, so they can be handed to the bridge
+     *
+     * @param from  the earliest due time in milliseconds
+     * @param until the latest due time in milliseconds
+     * @param max   the maximum number of schedules to remove
+     * @return the removed schedules keyed by identifier, earliest first
+     * @throws IOException if the store cannot be written
+     */
+    public synchronized Map<String, Schedule> take(long from, long until, int max) throws IOException
+    {
+        List<TimingWheel.Entry<Pending>> taken = new ArrayList<TimingWheel.Entry<Pending>>();
+        wheel.drain(from, until, max, taken);
+        Collections.sort(taken, new Comparator<TimingWheel.Entry<Pending>>()
+        {
+            public int compare(TimingWheel.Entry<Pending> a, TimingWheel.Entry<Pending> b)
+            {
+                return a.getDue() < b.getDue() ? -1 : a.getDue() == b.getDue() ? 0 : 1;
+            }
+        });
+        Map<String, Schedule> schedules = new LinkedHashMap<String, Schedule>();
+        for (TimingWheel.Entry<Pending> entry : taken)
+        {
+            remove(entry.getItem().id);
+            schedules.put(entry.getItem().id, entry.getItem().schedule);
+        }
+        return schedules;
+    }
+
+    /**
+     * Puts back a schedule removed by {@link #take(long, long, int)} that could not be handed to the bridge
+     *
+     * @param id       the identifier of the schedule
+     * @param schedule the schedule
+     * @throws IOException if the schedule cannot be stored
+     */
+    public synchronized void restore(String id, Schedule schedule) throws IOException
+    {
+        add(id, schedule, parseTime(schedule.getTime()));
+    }
+
+    /**
+     * Runs the schedules that fell due. Called every tick once the scheduler is started.
+     *
+     * @param now the current time in milliseconds
+     */
+    public void tick(long now)
+    {
+        List<TimingWheel.Entry<Pending>> expired = new ArrayList<TimingWheel.Entry<Pending>>();
+        synchronized (this)
+        {
+            wheel.advance(now, expired);
+            for (TimingWheel.Entry<Pending> entry : expired)
+            {
+                try
+                {
+                    remove(entry.getItem().id);
+                }
+                catch (IOException e)
+                {
+                    logger.warn("Could not remove schedule " + entry.getItem().id + " from the store", e);
+                }
+            }
+        }
+        for (TimingWheel.Entry<Pending> entry : expired)
+        {
+            try
+            {
+                sink.execute(entry.getItem().schedule.getCommand());
+            }
+            catch (Exception e)
+            {
+                logger.warn("Could not run schedule " + entry.getItem().id + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * @param time a time in {@link #TIME_FORMAT}
+     * @return the time in milliseconds
+     * @throws IllegalArgumentException if the time cannot be read
+     */
+    public static long parseTime(String time)
+    {
+        if (time == null)
+        {
+            throw new IllegalArgumentException("A schedule needs a time");
+        }
+        SimpleDateFormat format = new SimpleDateFormat(TIME_FORMAT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        format.setLenient(false);
+        try
+        {
+            return format.parse(time).getTime();
+        }
+        catch (ParseException e)
+        {
+            throw new IllegalArgumentException("Schedule times are in " + TIME_FORMAT + " format, not " + time);
+        }
+    }
+
+    private void add(String id, Schedule schedule, long due) throws IOException
+    {
+        if (journal != null)
+        {
+            JsonBuffer out = new JsonBuffer();
+            modelWriter.writeSchedule(schedule, out);
+            journal.add(id, out.toString());
+        }
+        pending.put(id, wheel.add(new Pending(id, schedule), due));
+    }
+
+    private void remove(String id) throws IOException
+    {
+        pending.remove(id);
+        if (journal != null)
+        {
+            journal.remove(id);
+            if (journal.needsCompaction())
+            {
+                Map<String, String> records = new LinkedHashMap<String, String>();
+                JsonBuffer out = new JsonBuffer();
+                for (Map.Entry<String, TimingWheel.Entry<Pending>> entry : pending.entrySet())
+                {
+                    modelWriter.writeSchedule(entry.getValue().getItem().schedule, out.reset());
+                    records.put(entry.getKey(), out.toString());
+                }
+                journal.rewrite(records);
+            }
+        }
+    }
+
+    private static final class Pending
+    {
+        private final String id;
+        private final Schedule schedule;
+
+        private Pending(String id, Schedule schedule)
+        {
+            this.id = id;
+            this.schedule = schedule;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.schedule;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An append-only file of the records kept by the {@link LocalScheduler}. Each change appends a single line, a
+ * record being added or removed, so the cost of a change does not depend on the number of records. Once more
+ * lines are obsolete than live the file is rewritten with only the live records, which keeps that cost constant
+ * when spread over the changes that made the lines obsolete.
+ * <p/>
+ * Lines are flushed as they are written so they survive the process stopping, but are not forced to disk. A
+ * line cut short by a crash is skipped when the file is loaded. The journal is not thread safe.
+ */
+public class ScheduleJournal
+{
+    private static final Log logger = LogFactory.getLog(ScheduleJournal.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char ADD = '+';
+    private static final char REMOVE = '-';
+    private static final int MIN_COMPACTION = 1024;
+
+    private final File file;
+    private Writer writer;
+    private int live;
+    private int obsolete;
+
+    /**
+     * @param file the file holding the journal, created if missing
+     */
+    public ScheduleJournal(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Reads the live records and opens the journal for writing. The file is compacted first if it needs to be.
+     *
+     * @return the live records keyed by identifier, in the order they were added
+     * @throws IOException if the file cannot be read or opened
+     */
+    public Map<String, String> load() throws IOException
+    {
+        Map<String, String> records = new LinkedHashMap<String, String>();
+        int lines = 0;
+        if (file.exists())
+        {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+            try
+            {
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    lines++;
+                    int space = line.indexOf(' ');
+                    if (line.length() > 1 && line.charAt(0) == ADD && space > 1)
+                    {
+                        records.put(line.substring(1, space), line.substring(space + 1));
+                    }
+                    else if (line.length() > 1 && line.charAt(0) == REMOVE)
+                    {
+                        records.remove(line.substring(1));
+                    }
+                    else
+                    {
+                        logger.warn("Skipping unreadable line " + lines + " of " + file);
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        live = records.size();
+        obsolete = lines - live;
+        if (obsolete > 0 && obsolete >= live)
+        {
+            rewrite(records);
+        }
+        else
+        {
+            writer = open();
+        }
+        return records;
+    }
+
+    /**
+     * Appends a record
+     *
+     * @param id     the identifier of the record, without spaces
+     * @param record the record, on a single line
+     * @throws IOException if the line cannot be written
+     */
+    public void add(String id, String record) throws IOException
+    {
+        writer.write(ADD);
+        writer.write(id);
+        writer.write(' ');
+        writer.write(record);
+        writer.write('\n');
+        writer.flush();
+        live++;
+    }
+
+    /**
+     * Appends the removal of a record
+     *
+     * @param id the identifier of the record
+     * @throws IOException if the line cannot be written
+     */
+    public void remove(String id) throws IOException
+    {
+        writer.write(REMOVE);
+        writer.write(id);
+        writer.write('\n');
+        writer.flush();
+        live--;
+        // the record and its removal are now both obsolete
+        obsolete += 2;
+    }
+
+    /**
+     * @return whether enough lines are obsolete to rewrite the file
+     */
+    public boolean needsCompaction()
+    {
+        return obsolete >= MIN_COMPACTION && obsolete > live;
+    }
+
+    /**
+     * Replaces the file with one holding only the given records
+     *
+     * @param records the live records keyed by identifier
+     * @throws IOException if the file cannot be written
+     */
+    public void rewrite(Map<String, String> records) throws IOException
+    {
+        if (writer != null)
+        {
+            writer.close();
+            writer = null;
+        }
+        File next = new File(file.getPath() + ".tmp");
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(next), UTF8));
+        try
+        {
+            for (Map.Entry<String, String> record : records.entrySet())
+            {
+                out.write(ADD);
+                out.write(record.getKey());
+                out.write(' ');
+                out.write(record.getValue());
+                out.write('\n');
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        if (!next.renameTo(file) && !(file.delete() && next.renameTo(file)))
+        {
+            throw new IOException("Could not replace " + file + " with " + next);
+        }
+        live = records.size();
+        obsolete = 0;
+        writer = open();
+    }
+
+    /**
+     * Closes the file
+     */
+    public void close()
+    {
+        if (writer != null)
+        {
+            try
+            {
+                writer.close();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Could not close " + file, e);
+            }
+            writer = null;
+        }
+    }
+
+    private Writer open() throws IOException
+    {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs())
+        {
+            throw new IOException("Could not create the directory of " + file);
+        }
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF8));
+    }
+}
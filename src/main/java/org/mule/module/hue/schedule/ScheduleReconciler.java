@@ -0,0 +1,264 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.schedule;
+
+import org.mule.module.hue.dispatch.TokenBucket;
+import org.mule.module.hue.json.ModelReader;
+import org.mule.module.hue.json.ModelWriter;
+import org.mule.module.hue.json.ResponseReader;
+import org.mule.module.hue.model.BridgeResponse;
+import org.mule.module.hue.model.Command;
+import org.mule.module.hue.model.Schedule;
+import org.mule.module.hue.model.ScheduleReconciliation;
+import org.mule.module.hue.transport.HueTransport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Brings the schedules of a bridge in line with a desired set of schedules. The schedules of the bridge are read
+ * once and matched to the desired ones by name, including the names the bridge gives duplicates, e.g. 'wake 1'.
+ * A schedule with the same time and command as the desired one is kept, every other schedule of that name is
+ * deleted and the desired schedule is only created if none was kept. Deletes are sent before creates so they
+ * make room under the schedule limit of the bridge.
+ */
+public class ScheduleReconciler
+{
+    /**
+     * The longest command body the bridge stores
+     */
+    public static final int MAX_BODY_LENGTH = 90;
+
+    private final HueTransport transport;
+    private final ModelReader modelReader;
+    private final ModelWriter modelWriter;
+    private final ResponseReader responseReader;
+
+    /**
+     * @param transport the transport to the bridge
+     * @param mapper    the mapper used to read and write the schedules
+     */
+    public ScheduleReconciler(HueTransport transport, ObjectMapper mapper)
+    {
+        this.transport = transport;
+        this.modelReader = new ModelReader(mapper);
+        this.modelWriter = new ModelWriter(mapper);
+        this.responseReader = new ResponseReader(mapper);
+    }
+
+    /**
+     * Reconciles the schedules of the bridge. A schedule that cannot be created or deleted is reported in the
+     * errors of the result and does not stop the others.
+     *
+     * @param desired           the schedules the bridge should have, each with a distinct name
+     * @param prune             whether to delete the schedules whose name matches no desired schedule
+     * @param commandsPerSecond the maximum number of creates and deletes sent per second, 0 for no limit
+     * @return what was created, deleted and kept
+     * @throws IOException              if the schedules of the bridge cannot be read
+     * @throws IllegalArgumentException if a desired schedule has no name or two have the same name
+     */
+    public ScheduleReconciliation reconcile(List<Schedule> desired, boolean prune, double commandsPerSecond) throws IOException
+    {
+        ScheduleReconciliation result = new ScheduleReconciliation();
+        Map<String, Schedule> byName = new LinkedHashMap<String, Schedule>();
+        for (Schedule schedule : desired)
+        {
+            if (schedule.getName() == null)
+            {
+                throw new IllegalArgumentException("Every schedule needs a name to be reconciled");
+            }
+            if (byName.put(schedule.getName(), schedule) != null)
+            {
+                throw new IllegalArgumentException("More than one schedule is named " + schedule.getName());
+            }
+        }
+
+        Map<String, Schedule> current = modelReader.readDatastore(responseReader.checkRead(transport.get(""))).getSchedules();
+        if (current == null)
+        {
+            current = Collections.emptyMap();
+        }
+        Map<String, Map<String, Schedule>> candidates = new LinkedHashMap<String, Map<String, Schedule>>();
+        List<String> deletes = new ArrayList<String>();
+        for (Map.Entry<String, Schedule> schedule : current.entrySet())
+        {
+            String name = desiredName(schedule.getValue().getName(), byName);
+            if (name == null)
+            {
+                if (prune)
+                {
+                    deletes.add(schedule.getKey());
+                }
+                continue;
+            }
+            Map<String, Schedule> named = candidates.get(name);
+            if (named == null)
+            {
+                named = new LinkedHashMap<String, Schedule>();
+                candidates.put(name, named);
+            }
+            named.put(schedule.getKey(), schedule.getValue());
+        }
+
+        List<byte[]> creates = new ArrayList<byte[]>();
+        List<String> createNames = new ArrayList<String>();
+        for (Schedule schedule : byName.values())
+        {
+            byte[] body = body(schedule);
+            if (body != null && body.length > MAX_BODY_LENGTH)
+            {
+                // leave the schedules of that name alone rather than delete what cannot be replaced
+                result.getErrors().add("The command of schedule " + schedule.getName() + " is " + body.length
+                                       + " characters long, the bridge accepts at most " + MAX_BODY_LENGTH);
+                continue;
+            }
+            Map<String, Schedule> named = candidates.get(schedule.getName());
+            String kept = null;
+            if (named != null)
+            {
+                for (Map.Entry<String, Schedule> candidate : named.entrySet())
+                {
+                    if (kept == null && matches(schedule, body, candidate.getValue()))
+                    {
+                        kept = candidate.getKey();
+                        result.getUnchanged().add(kept);
+                    }
+                    else
+                    {
+                        deletes.add(candidate.getKey());
+                    }
+                }
+            }
+            if (kept == null)
+            {
+                creates.add(modelWriter.write(schedule));
+                createNames.add(schedule.getName());
+            }
+        }
+
+        TokenBucket bucket = commandsPerSecond > 0 ? new TokenBucket(commandsPerSecond, 1) : null;
+        for (String id : deletes)
+        {
+            pace(bucket);
+            try
+            {
+                responseReader.readSuccess(transport.delete("schedules/" + id));
+                result.getDeleted().add(id);
+            }
+            catch (IOException e)
+            {
+                result.getErrors().add("Could not delete schedule " + id + ": " + e.getMessage());
+            }
+        }
+        for (int i = 0; i < creates.size(); i++)
+        {
+            pace(bucket);
+            try
+            {
+                BridgeResponse response = responseReader.readSuccess(transport.post("schedules", creates.get(i)));
+                Object id = response.getSuccesses().isEmpty() ? null : response.getSuccesses().get(0).get("id");
+                result.getCreated().add(String.valueOf(id));
+            }
+            catch (IOException e)
+            {
+                result.getErrors().add("Could not create schedule " + createNames.get(i) + ": " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param name    the name of a schedule of the bridge
+     * @param desired the desired schedules keyed by name
+     * @return the name of the desired schedule the schedule is an instance of, null if there is none
+     */
+    static String desiredName(String name, Map<String, Schedule> desired)
+    {
+        if (name == null)
+        {
+            return null;
+        }
+        if (desired.containsKey(name))
+        {
+            return name;
+        }
+        // the bridge appends a space and a number to names that are already taken
+        int space = name.lastIndexOf(' ');
+        if (space <= 0 || space == name.length() - 1)
+        {
+            return null;
+        }
+        for (int i = space + 1; i < name.length(); i++)
+        {
+            if (!Character.isDigit(name.charAt(i)))
+            {
+                return null;
+            }
+        }
+        String base = name.substring(0, space);
+        return desired.containsKey(base) ? base : null;
+    }
+
+    private boolean matches(Schedule desired, byte[] desiredBody, Schedule actual) throws IOException
+    {
+        if (!equal(desired.getTime(), actual.getTime()))
+        {
+            return false;
+        }
+        Command expected = desired.getCommand();
+        Command command = actual.getCommand();
+        if (expected == null || command == null)
+        {
+            return expected == command;
+        }
+        return equal(expected.getAddress(), command.getAddress())
+               && expected.getMethod() == command.getMethod()
+               && Arrays.equals(desiredBody, body(actual));
+    }
+
+    private byte[] body(Schedule schedule) throws IOException
+    {
+        Command command = schedule.getCommand();
+        return command == null || command.getBody() == null ? null : modelWriter.writeBody(command.getBody());
+    }
+
+    private static boolean equal(Object a, Object b)
+    {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static void pace(TokenBucket bucket) throws InterruptedIOException
+    {
+        if (bucket == null)
+        {
+            return;
+        }
+        long wait = bucket.reserve();
+        if (wait > 0)
+        {
+            try
+            {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reconciling schedules");
+            }
+        }
+    }
+}
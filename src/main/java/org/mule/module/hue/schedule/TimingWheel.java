@@ -0,0 +1,280 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.schedule;
+
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel holding items until they fall due. Time is cut into ticks; the first level has a
+ * slot for each of the next 256 ticks and every further level has 64 slots, each as long as a whole turn of the
+ * level below. Adding and cancelling an item are O(1), and an item moves down a level at most four times before
+ * it expires, whatever the number of items held. Items due further than 2^32 ticks ahead are parked in the last
+ * level until they come within reach.
+ * <p/>
+ * An item never expires before it is due and at most one tick after. The wheel is not thread safe.
+ *
+ * @param <T> the type of the items
+ */
+public class TimingWheel<T>
+{
+    private static final int ROOT_BITS = 8;
+    private static final int LEVEL_BITS = 6;
+    private static final int LEVELS = 5;
+    private static final int ROOT_MASK = (1 << ROOT_BITS) - 1;
+    private static final int LEVEL_MASK = (1 << LEVEL_BITS) - 1;
+    private static final long MAX_TICKS = (1L << (ROOT_BITS + (LEVELS - 1) * LEVEL_BITS)) - 1;
+
+    private final long tickMillis;
+    private final Entry<T>[][] slots;
+    private long tick;
+    private int size;
+
+    /**
+     * @param tickMillis the length of a tick in milliseconds
+     * @param now        the current time in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMillis, long now)
+    {
+        if (tickMillis <= 0)
+        {
+            throw new IllegalArgumentException("The tick of a timing wheel must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.tick = now / tickMillis;
+        slots = new Entry[LEVELS][];
+        for (int level = 0; level < LEVELS; level++)
+        {
+            slots[level] = new Entry[level == 0 ? 1 << ROOT_BITS : 1 << LEVEL_BITS];
+            for (int i = 0; i < slots[level].length; i++)
+            {
+                // each slot is a circular list around an empty head so entries unlink themselves
+                Entry<T> head = new Entry<T>(null, 0, 0);
+                head.prev = head;
+                head.next = head;
+                slots[level][i] = head;
+            }
+        }
+    }
+
+    /**
+     * @return the length of a tick in milliseconds
+     */
+    public long getTickMillis()
+    {
+        return tickMillis;
+    }
+
+    /**
+     * @return the number of items waiting
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Adds an item. An item already due expires on the next call to {@link #advance(long, List)}.
+     *
+     * @param item the item
+     * @param due  the time the item is due in milliseconds
+     * @return the entry of the item, used to cancel it
+     */
+    public Entry<T> add(T item, long due)
+    {
+        // round up so the item expires on the first tick that starts at or after its due time
+        long expires = due / tickMillis + (due % tickMillis > 0 ? 1 : 0);
+        Entry<T> entry = new Entry<T>(item, due, expires);
+        place(entry);
+        size++;
+        return entry;
+    }
+
+    /**
+     * Removes an item before it expires
+     *
+     * @param entry the entry returned when the item was added
+     * @return false if the item already expired or was cancelled
+     */
+    public boolean cancel(Entry<T> entry)
+    {
+        if (entry.next == null)
+        {
+            return false;
+        }
+        unlink(entry);
+        size--;
+        return true;
+    }
+
+    /**
+     * Moves the wheel forward to the current time
+     *
+     * @param now     the current time in milliseconds
+     * @param expired receives the entries that fell due, tick by tick
+     */
+    public void advance(long now, List<Entry<T>> expired)
+    {
+        long target = now / tickMillis;
+        while (tick <= target)
+        {
+            int index = (int) (tick & ROOT_MASK);
+            if (index == 0)
+            {
+                // a turn of the first level is over, refill it from the next slot of the level above
+                for (int level = 1; level < LEVELS && cascade(level) == 0; level++)
+                {
+                }
+            }
+            Entry<T> head = slots[0][index];
+            while (head.next != head)
+            {
+                Entry<T> entry = head.next;
+                unlink(entry);
+                if (entry.expires > tick)
+                {
+                    // only an item parked beyond the reach of the wheel can get here early
+                    place(entry);
+                    continue;
+                }
+                size--;
+                expired.add(entry);
+            }
+            tick++;
+        }
+    }
+
+    /**
+     * Removes the items due within a window, visiting only the levels that can hold such items
+     *
+     * @param from  the earliest due time in milliseconds, inclusive
+     * @param until the latest due time in milliseconds, inclusive
+     * @param max   the maximum number of items to remove
+     * @param out   receives the removed entries, in no particular order
+     */
+    public void drain(long from, long until, int max, List<Entry<T>> out)
+    {
+        long last = until / tickMillis;
+        int taken = 0;
+        for (int level = 0; level < LEVELS && taken < max; level++)
+        {
+            int shift = ROOT_BITS + (level - 1) * LEVEL_BITS;
+            if (level > 0 && last < ((tick >> shift) + 1) << shift)
+            {
+                // the items of a level are due no earlier than the next slot of that level starts
+                break;
+            }
+            for (Entry<T> head : slots[level])
+            {
+                Entry<T> entry = head.next;
+                while (entry != head && taken < max)
+                {
+                    Entry<T> next = entry.next;
+                    if (entry.due >= from && entry.due <= until)
+                    {
+                        unlink(entry);
+                        size--;
+                        out.add(entry);
+                        taken++;
+                    }
+                    entry = next;
+                }
+            }
+        }
+    }
+
+    private int cascade(int level)
+    {
+        int index = (int) ((tick >> (ROOT_BITS + (level - 1) * LEVEL_BITS)) & LEVEL_MASK);
+        Entry<T> head = slots[level][index];
+        Entry<T> entry = head.next;
+        head.next = head;
+        head.prev = head;
+        while (entry != head)
+        {
+            Entry<T> next = entry.next;
+            place(entry);
+            entry = next;
+        }
+        return index;
+    }
+
+    private void place(Entry<T> entry)
+    {
+        long expires = entry.expires;
+        long delta = expires - tick;
+        Entry<T> head;
+        if (delta < 0)
+        {
+            head = slots[0][(int) (tick & ROOT_MASK)];
+        }
+        else if (delta <= ROOT_MASK)
+        {
+            head = slots[0][(int) (expires & ROOT_MASK)];
+        }
+        else
+        {
+            if (delta > MAX_TICKS)
+            {
+                expires = tick + MAX_TICKS;
+            }
+            int level = 1;
+            while (level < LEVELS - 1 && delta >= 1L << (ROOT_BITS + level * LEVEL_BITS))
+            {
+                level++;
+            }
+            head = slots[level][(int) ((expires >> (ROOT_BITS + (level - 1) * LEVEL_BITS)) & LEVEL_MASK)];
+        }
+        entry.prev = head.prev;
+        entry.next = head;
+        head.prev.next = entry;
+        head.prev = entry;
+    }
+
+    private static <T> void unlink(Entry<T> entry)
+    {
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    /**
+     * An item held by the wheel
+     *
+     * @param <T> the type of the item
+     */
+    public static final class Entry<T>
+    {
+        private final T item;
+        private final long due;
+        private final long expires;
+        private Entry<T> prev;
+        private Entry<T> next;
+
+        private Entry(T item, long due, long expires)
+        {
+            this.item = item;
+            this.due = due;
+            this.expires = expires;
+        }
+
+        public T getItem()
+        {
+            return item;
+        }
+
+        /**
+         * @return the time the item is due in milliseconds
+         */
+        public long getDue()
+        {
+            return due;
+        }
+    }
+}
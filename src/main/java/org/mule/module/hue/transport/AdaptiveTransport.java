@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.transport;
+
+import org.mule.module.hue.dispatch.ConcurrencyLimiter;
+import org.mule.module.hue.metrics.HueMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the calls made through another transport within what the bridge sustains. Calls wait for a
+ * {@link ConcurrencyLimiter} before going out, and a call the bridge was too busy for, one answered with an
+ * internal error (type 901) or that failed, is tried again after a random backoff that doubles with every
+ * attempt, so callers retrying together spread out instead of hitting the bridge at the same moment.
+ * <p/>
+ * Failed calls are only tried again when repeating them is safe, which excludes a POST that may have reached the
+ * bridge. Each call has a deadline covering the wait for the limiter and the backoffs, an attempt in progress is
+ * bounded by the read timeout of the transport. When the retries or the deadline run out the last answer is
+ * returned, or the last failure thrown. The retries and the calls given up on their deadline are counted in the
+ * {@link HueMetrics}.
+ */
+public class AdaptiveTransport implements HueTransport
+{
+    private static final long BASE_BACKOFF = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MAX_BACKOFF = TimeUnit.SECONDS.toNanos(5);
+
+    private final HueTransport delegate;
+    private final ConcurrencyLimiter limiter;
+    private final HueMetrics metrics;
+    private final int maxRetries;
+    private final long deadlineNanos;
+    private final Random random = new Random();
+
+    /**
+     * @param delegate   the transport making the calls
+     * @param limiter    the limiter of the bridge
+     * @param metrics    the metrics counting the retries and the missed deadlines
+     * @param maxRetries the number of times an overloaded call is tried again
+     * @param deadline   the milliseconds a call may take including waits and retries, 0 for no deadline
+     */
+    public AdaptiveTransport(HueTransport delegate, ConcurrencyLimiter limiter, HueMetrics metrics, int maxRetries, long deadline)
+    {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.metrics = metrics;
+        this.maxRetries = maxRetries;
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadline);
+    }
+
+    public String get(final String path) throws IOException
+    {
+        return call(new Call<String>()
+        {
+            public String run() throws IOException
+            {
+                return delegate.get(path);
+            }
+        }, "GET", path, true);
+    }
+
+    public InputStream getStream(final String path) throws IOException
+    {
+        // the limiter is released once the response starts streaming in
+        return call(new Call<InputStream>()
+        {
+            public InputStream run() throws IOException
+            {
+                return delegate.getStream(path);
+            }
+        }, "GET", path, true);
+    }
+
+    public String put(final String path, final byte[] body) throws IOException
+    {
+        return call(new Call<String>()
+        {
+            public String run() throws IOException
+            {
+                return delegate.put(path, body);
+            }
+        }, "PUT", path, true);
+    }
+
+    public String post(final String path, final byte[] body) throws IOException
+    {
+        return call(new Call<String>()
+        {
+            public String run() throws IOException
+            {
+                return delegate.post(path, body);
+            }
+        }, "POST", path, false);
+    }
+
+    public String delete(final String path) throws IOException
+    {
+        return call(new Call<String>()
+        {
+            public String run() throws IOException
+            {
+                return delegate.delete(path);
+            }
+        }, "DELETE", path, true);
+    }
+
+    public void dispose()
+    {
+        delegate.dispose();
+    }
+
+    /**
+     * @return the limiter of the bridge
+     */
+    public ConcurrencyLimiter getLimiter()
+    {
+        return limiter;
+    }
+
+    private <T> T call(Call<T> call, String method, String path, boolean idempotent) throws IOException
+    {
+        String operation = method + " " + MeteredTransport.template(path);
+        long deadline = deadlineNanos > 0 ? System.nanoTime() + deadlineNanos : 0;
+        for (int attempt = 0; ; attempt++)
+        {
+            long start;
+            try
+            {
+                start = limiter.acquire(deadline);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to call the bridge");
+            }
+            if (start == 0)
+            {
+                metrics.countDeadlineExceeded();
+                throw new IOException("The bridge was too busy to call within " + TimeUnit.NANOSECONDS.toMillis(deadlineNanos) + "ms");
+            }
+
+            T response = null;
+            IOException failure = null;
+            try
+            {
+                response = call.run();
+            }
+            catch (IOException e)
+            {
+                failure = e;
+            }
+            boolean overloaded = failure != null || isOverloaded(response);
+            limiter.release(operation, start, overloaded);
+            if (!overloaded)
+            {
+                return response;
+            }
+
+            long backoff = backoff(attempt);
+            boolean late = deadline != 0 && System.nanoTime() + backoff - deadline >= 0;
+            if (attempt >= maxRetries || (failure != null && !idempotent) || late)
+            {
+                if (late && attempt < maxRetries && (failure == null || idempotent))
+                {
+                    metrics.countDeadlineExceeded();
+                }
+                if (failure != null)
+                {
+                    throw failure;
+                }
+                return response;
+            }
+            metrics.countRetry();
+            try
+            {
+                TimeUnit.NANOSECONDS.sleep(backoff);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while backing off from the bridge");
+            }
+        }
+    }
+
+    /**
+     * @param attempt the number of the attempt that failed, from 0
+     * @return a random backoff between 0 and a ceiling doubling with every attempt
+     */
+    private long backoff(int attempt)
+    {
+        long ceiling = Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(attempt, 20));
+        return (long) (random.nextDouble() * ceiling);
+    }
+
+    /**
+     * @param response the answer of the bridge
+     * @return whether the bridge answered with an internal error, the error it gives when it is overloaded
+     */
+    static boolean isOverloaded(Object response)
+    {
+        if (!(response instanceof String))
+        {
+            return false;
+        }
+        String body = (String) response;
+        // errors only come in the array answering a command, the bridge writes them without spaces
+        return body.startsWith("[") && body.indexOf("\"type\":901") >= 0;
+    }
+
+    private interface Call<T>
+    {
+        T run() throws IOException;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The HTTP layer used by the connector to talk to a single bridge. Paths are relative to the
+ * API root of the configured user i.e. 'lights/1/state'. An empty path addresses the whole
+ * datastore of the bridge.
+ * <p/>
+ * Implementations must be thread safe, the connector shares a single transport between all
+ * flows using the same configuration.
+ */
+public interface HueTransport
+{
+    /**
+     * Performs a GET on a bridge resource
+     *
+     * @param path the resource path relative to the API root of the user
+     * @return the raw response body
+     * @throws IOException if the bridge cannot be reached or answers with an HTTP error status
+     */
+    String get(String path) throws IOException;
+
+    /**
+     * Performs a GET on a bridge resource without buffering the response
+     *
+     * @param path the resource path relative to the API root of the user
+     * @return a stream over the response body, callers must close it to release the connection
+     * @throws IOException if the bridge cannot be reached or answers with an HTTP error status
+     */
+    InputStream getStream(String path) throws IOException;
+
+    /**
+     * Performs a PUT on a bridge resource
+     *
+     * @param path the resource path relative to the API root of the user
+     * @param body the UTF-8 encoded json body to send
+     * @return the raw response body
+     * @throws IOException if the bridge cannot be reached or answers with an HTTP error status
+     */
+    String put(String path, byte[] body) throws IOException;
+
+    /**
+     * Performs a POST on a bridge resource
+     *
+     * @param path the resource path relative to the API root of the user
+     * @param body the UTF-8 encoded json body to send
+     * @return the raw response body
+     * @throws IOException if the bridge cannot be reached or answers with an HTTP error status
+     */
+    String post(String path, byte[] body) throws IOException;
+
+    /**
+     * Performs a DELETE on a bridge resource
+     *
+     * @param path the resource path relative to the API root of the user
+     * @return the raw response body
+     * @throws IOException if the bridge cannot be reached or answers with an HTTP error status
+     */
+    String delete(String path) throws IOException;
+
+    /**
+     * Releases any connections held by this transport
+     */
+    void dispose();
+}
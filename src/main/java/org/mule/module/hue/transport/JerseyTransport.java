@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.transport;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.UniformInterfaceException;
+import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.client.apache.ApacheHttpClient;
+import com.sun.jersey.client.apache.ApacheHttpClientHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.ws.rs.core.MediaType;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+/**
+ * The default transport. It keeps a pool of persistent (keep-alive) connections to the bridge
+ * and caches the {@link WebResource} for every path it has been asked for, so repeated commands
+ * to the same light or group do not rebuild and re-parse the resource URI.
+ */
+public class JerseyTransport implements HueTransport
+{
+    private final String baseUri;
+    private final MultiThreadedHttpConnectionManager connectionManager;
+    private final Client client;
+    private final ConcurrentMap<String, WebResource> resources = new ConcurrentHashMap<String, WebResource>();
+
+    /**
+     * @param baseUri        the API root of the user on the bridge i.e. 'http://192.168.1.2/api/user'
+     * @param maxConnections the maximum number of connections kept open to the bridge
+     * @param connectTimeout the connect timeout in milliseconds, 0 waits forever
+     * @param readTimeout    the read timeout in milliseconds, 0 waits forever
+     */
+    public JerseyTransport(String baseUri, int maxConnections, int connectTimeout, int readTimeout)
+    {
+        this.baseUri = baseUri;
+
+        connectionManager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(maxConnections);
+        params.setMaxTotalConnections(maxConnections);
+        params.setConnectionTimeout(connectTimeout);
+        params.setSoTimeout(readTimeout);
+        params.setStaleCheckingEnabled(true);
+
+        client = new ApacheHttpClient(new ApacheHttpClientHandler(new HttpClient(connectionManager)));
+        client.setConnectTimeout(connectTimeout);
+        client.setReadTimeout(readTimeout);
+    }
+
+    public String get(String path) throws IOException
+    {
+        try
+        {
+            return resource(path).get(String.class);
+        }
+        catch (UniformInterfaceException e)
+        {
+            throw new IOException(e.getResponse().getEntity(String.class), e);
+        }
+        catch (ClientHandlerException e)
+        {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    public InputStream getStream(String path) throws IOException
+    {
+        try
+        {
+            return resource(path).get(InputStream.class);
+        }
+        catch (UniformInterfaceException e)
+        {
+            throw new IOException(e.getResponse().getEntity(String.class), e);
+        }
+        catch (ClientHandlerException e)
+        {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    public String put(String path, byte[] body) throws IOException
+    {
+        try
+        {
+            return resource(path).type(MediaType.APPLICATION_JSON_TYPE).put(String.class, body);
+        }
+        catch (UniformInterfaceException e)
+        {
+            throw new IOException(e.getResponse().getEntity(String.class), e);
+        }
+        catch (ClientHandlerException e)
+        {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    public String post(String path, byte[] body) throws IOException
+    {
+        try
+        {
+            return resource(path).type(MediaType.APPLICATION_JSON_TYPE).post(String.class, body);
+        }
+        catch (UniformInterfaceException e)
+        {
+            throw new IOException(e.getResponse().getEntity(String.class), e);
+        }
+        catch (ClientHandlerException e)
+        {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    public String delete(String path) throws IOException
+    {
+        try
+        {
+            return resource(path).delete(String.class);
+        }
+        catch (UniformInterfaceException e)
+        {
+            throw new IOException(e.getResponse().getEntity(String.class), e);
+        }
+        catch (ClientHandlerException e)
+        {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    public void dispose()
+    {
+        resources.clear();
+        client.destroy();
+        connectionManager.shutdown();
+    }
+
+    /**
+     * Looks up the cached resource for a path, creating it on first use
+     *
+     * @param path the resource path relative to the API root of the user
+     * @return the resource for the path
+     */
+    protected WebResource resource(String path)
+    {
+        WebResource resource = resources.get(path);
+        if (resource == null)
+        {
+            resource = client.resource(path.length() == 0 ? baseUri : baseUri + "/" + path);
+            WebResource existing = resources.putIfAbsent(path, resource);
+            if (existing != null)
+            {
+                resource = existing;
+            }
+        }
+        return resource;
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.transport;
+
+import org.mule.module.hue.json.ResponseReader;
+import org.mule.module.hue.metrics.HueMetrics;
+import org.mule.module.hue.metrics.OperationMetrics;
+import org.mule.module.hue.model.BridgeResponse;
+import org.mule.module.hue.model.Error;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Records the latency and outcome of every call made through another transport. Calls are named after the
+ * operation they perform, e.g. a PUT on 'lights/3/state' is a setLightState, and error responses are counted
+ * by the error type given by the bridge. Only responses that hold an error are parsed.
+ * <p/>
+ * The latency of {@link #getStream(String)} covers the time until the response starts streaming in.
+ */
+public class MeteredTransport implements HueTransport
+{
+    private static final Map<String, String> OPERATIONS = new HashMap<String, String>();
+
+    static
+    {
+        OPERATIONS.put("GET ", "getDatastore");
+        OPERATIONS.put("GET lights", "getLights");
+        OPERATIONS.put("GET lights/{id}", "getLightState");
+        OPERATIONS.put("PUT lights/{id}/state", "setLightState");
+        OPERATIONS.put("GET groups/{id}", "getGroupState");
+        OPERATIONS.put("PUT groups/{id}/action", "setGroupState");
+        OPERATIONS.put("POST groups", "createGroup");
+        OPERATIONS.put("DELETE groups/{id}", "deleteGroup");
+        OPERATIONS.put("POST schedules", "createSchedule");
+    }
+
+    private final HueTransport delegate;
+    private final HueMetrics metrics;
+    private final ResponseReader responseReader;
+    private final ConcurrentMap<String, OperationMetrics> byRequest = new ConcurrentHashMap<String, OperationMetrics>();
+
+    /**
+     * @param delegate the transport making the calls
+     * @param metrics  the metrics to record the calls in
+     * @param mapper   the mapper used to read error responses
+     */
+    public MeteredTransport(HueTransport delegate, HueMetrics metrics, ObjectMapper mapper)
+    {
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.responseReader = new ResponseReader(mapper);
+    }
+
+    public String get(final String path) throws IOException
+    {
+        return call(new Call<String>()
+        {
+            public String run() throws IOException
+            {
+                return delegate.get(path);
+            }
+        }, "GET", path);
+    }
+
+    public InputStream getStream(final String path) throws IOException
+    {
+        return call(new Call<InputStream>()
+        {
+            public InputStream run() throws IOException
+            {
+                return delegate.getStream(path);
+            }
+        }, "GET", path);
+    }
+
+    public String put(final String path, final byte[] body) throws IOException
+    {
+        return call(new Call<String>()
+        {
+            public String run() throws IOException
+            {
+                return delegate.put(path, body);
+            }
+        }, "PUT", path);
+    }
+
+    public String post(final String path, final byte[] body) throws IOException
+    {
+        return call(new Call<String>()
+        {
+            public String run() throws IOException
+            {
+                return delegate.post(path, body);
+            }
+        }, "POST", path);
+    }
+
+    public String delete(final String path) throws IOException
+    {
+        return call(new Call<String>()
+        {
+            public String run() throws IOException
+            {
+                return delegate.delete(path);
+            }
+        }, "DELETE", path);
+    }
+
+    public void dispose()
+    {
+        delegate.dispose();
+    }
+
+    private <T> T call(Call<T> call, String method, String path) throws IOException
+    {
+        OperationMetrics operation = operation(method, path);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try
+        {
+            T response = call.run();
+            // a stream is only read by the caller, its errors are not counted
+            failed = response instanceof String && countErrors((String) response);
+            return response;
+        }
+        catch (IOException e)
+        {
+            metrics.countError(HueMetrics.TRANSPORT_ERROR);
+            throw e;
+        }
+        finally
+        {
+            operation.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * Counts the errors held by a response
+     *
+     * @param response the response
+     * @return true if the response holds any error
+     */
+    private boolean countErrors(String response)
+    {
+        // errors only come in the array answering a command or replacing a resource
+        if (!response.startsWith("[") || response.indexOf("\"error\"") < 0)
+        {
+            return false;
+        }
+        try
+        {
+            BridgeResponse parsed = responseReader.read(response);
+            if (parsed.isSuccess())
+            {
+                return false;
+            }
+            for (Error error : parsed.getErrors())
+            {
+                metrics.countError(String.valueOf(error.getType()));
+            }
+        }
+        catch (IOException e)
+        {
+            // not a bridge response after all, the caller finds out when reading it
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Looks up the metrics of a request, naming it after its operation on first use
+     *
+     * @param method the HTTP method
+     * @param path   the resource path
+     * @return the metrics of the operation
+     */
+    private OperationMetrics operation(String method, String path)
+    {
+        // keyed by template so there is one entry per kind of request, however many lights and groups there are
+        String request = method + " " + template(path);
+        OperationMetrics operation = byRequest.get(request);
+        if (operation == null)
+        {
+            String name = OPERATIONS.get(request);
+            operation = metrics.operation(name != null ? name : request);
+            byRequest.put(request, operation);
+        }
+        return operation;
+    }
+
+    /**
+     * @param path a resource path, e.g. lights/3/state
+     * @return the path with every identifier replaced by {id}, e.g. lights/{id}/state
+     */
+    static String template(String path)
+    {
+        StringBuilder template = new StringBuilder(path.length());
+        for (String segment : path.split("/"))
+        {
+            if (template.length() > 0)
+            {
+                template.append('/');
+            }
+            template.append(isId(segment) ? "{id}" : segment);
+        }
+        return template.toString();
+    }
+
+    private static boolean isId(String segment)
+    {
+        if (segment.length() == 0)
+        {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); i++)
+        {
+            if (!Character.isDigit(segment.charAt(i)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private interface Call<T>
+    {
+        T run() throws IOException;
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.transport;
+
+import org.mule.module.hue.dispatch.CommandFuture;
+import org.mule.module.hue.metrics.HueMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shares a GET in flight with every caller asking for the same resource at the same time, so the reads sent to
+ * the bridge grow with the number of distinct resources rather than with the number of callers. A caller joining
+ * a GET gets the same response, or the same failure, as the caller that sent it.
+ * <p/>
+ * Once a PUT, POST or DELETE returns, the GETs in flight are no longer shared, so a read that starts after a
+ * write never gets an answer older than that write. Streamed GETs are never shared.
+ */
+public class SingleFlightTransport implements HueTransport
+{
+    private final HueTransport delegate;
+    private final HueMetrics metrics;
+    private final ConcurrentMap<String, CommandFuture<String>> inFlight = new ConcurrentHashMap<String, CommandFuture<String>>();
+
+    /**
+     * @param delegate the transport making the calls
+     * @param metrics  the metrics counting the shared reads
+     */
+    public SingleFlightTransport(HueTransport delegate, HueMetrics metrics)
+    {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    public String get(String path) throws IOException
+    {
+        CommandFuture<String> flight = new CommandFuture<String>();
+        CommandFuture<String> shared = inFlight.putIfAbsent(path, flight);
+        if (shared != null)
+        {
+            metrics.countSharedRead();
+            return shared.await();
+        }
+        try
+        {
+            String response = delegate.get(path);
+            flight.complete(response);
+            return response;
+        }
+        catch (IOException e)
+        {
+            flight.fail(e);
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            flight.fail(new IOException(e.getMessage(), e));
+            throw e;
+        }
+        finally
+        {
+            inFlight.remove(path, flight);
+        }
+    }
+
+    public InputStream getStream(String path) throws IOException
+    {
+        return delegate.getStream(path);
+    }
+
+    public String put(String path, byte[] body) throws IOException
+    {
+        try
+        {
+            return delegate.put(path, body);
+        }
+        finally
+        {
+            inFlight.clear();
+        }
+    }
+
+    public String post(String path, byte[] body) throws IOException
+    {
+        try
+        {
+            return delegate.post(path, body);
+        }
+        finally
+        {
+            inFlight.clear();
+        }
+    }
+
+    public String delete(String path) throws IOException
+    {
+        try
+        {
+            return delegate.delete(path);
+        }
+        finally
+        {
+            inFlight.clear();
+        }
+    }
+
+    public void dispose()
+    {
+        delegate.dispose();
+    }
+}
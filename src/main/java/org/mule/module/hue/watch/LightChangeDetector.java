@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.watch;
+
+import org.mule.module.hue.model.LightAttributes;
+import org.mule.module.hue.model.LightChange;
+import org.mule.module.hue.model.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the last known properties of every light and works out which lights, and which of their
+ * properties, changed in a new read of the bridge. Not thread safe, it is meant to be driven by a
+ * single polling thread.
+ */
+public class LightChangeDetector
+{
+    private Map<String, Map<String, Object>> lastKnown;
+
+    /**
+     * Compares a new read of the lights against the last one
+     *
+     * @param lights all the lights known by the bridge keyed by identifier
+     * @return the lights that changed since the last read, empty on the first read
+     */
+    public List<LightChange> detect(Map<String, LightAttributes> lights)
+    {
+        Map<String, Map<String, Object>> current = new HashMap<String, Map<String, Object>>(lights.size());
+        for (Map.Entry<String, LightAttributes> entry : lights.entrySet())
+        {
+            current.put(entry.getKey(), properties(entry.getValue()));
+        }
+
+        Map<String, Map<String, Object>> previous = lastKnown;
+        lastKnown = current;
+        if (previous == null)
+        {
+            return Collections.emptyList();
+        }
+
+        List<LightChange> changes = new ArrayList<LightChange>();
+        for (Map.Entry<String, Map<String, Object>> entry : current.entrySet())
+        {
+            Map<String, Object> before = previous.get(entry.getKey());
+            Map<String, Object> changed = before == null ? entry.getValue() : diff(before, entry.getValue());
+            if (!changed.isEmpty())
+            {
+                changes.add(new LightChange(entry.getKey(), lights.get(entry.getKey()), changed));
+            }
+        }
+        for (String lightId : previous.keySet())
+        {
+            if (!current.containsKey(lightId))
+            {
+                changes.add(new LightChange(lightId, null, Collections.<String, Object>emptyMap()));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Forgets everything, the next read is treated as the first one
+     */
+    public void reset()
+    {
+        lastKnown = null;
+    }
+
+    private static Map<String, Object> diff(Map<String, Object> before, Map<String, Object> after)
+    {
+        Map<String, Object> changed = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Object> entry : after.entrySet())
+        {
+            Object old = before.get(entry.getKey());
+            if (old == null ? entry.getValue() != null : !old.equals(entry.getValue()))
+            {
+                changed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return changed;
+    }
+
+    private static Map<String, Object> properties(LightAttributes light)
+    {
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        properties.put("name", light.getName());
+        State state = light.getState();
+        if (state != null)
+        {
+            properties.put("on", state.getOn());
+            properties.put("bri", state.getBrightness());
+            properties.put("hue", state.getHue());
+            properties.put("sat", state.getSaturation());
+            properties.put("ct", state.getCt());
+            properties.put("xy", state.getXyColor());
+            properties.put("alert", state.getAlert());
+            properties.put("effect", state.getEffect());
+            properties.put("colormode", state.getColormode());
+            properties.put("reachable", state.isReachable());
+        }
+        return properties;
+    }
+}
@@ -20,4 +20,75 @@ public class ColourUtilsTestCase
         Assert.assertEquals(new Double(0.7350000501337899), XY.get(0));
         Assert.assertEquals(new Double(0.2649999498662102), XY.get(1));
     }
+
+    @Test
+    public void testGamutXYConverter() {
+        // red is outside gamut B so it is moved onto the red corner of the gamut
+        List<Double> XY = ColourUtils.getXYForColour("red", "LCT001");
+        Assert.assertEquals(0.675, XY.get(0), 0.0001);
+        Assert.assertEquals(0.322, XY.get(1), 0.0001);
+
+        // white is inside every gamut so only the quantization of the table shows
+        List<Double> exact = ColourUtils.getXYForColour("white");
+        XY = ColourUtils.getXYForColour("white", "LCT010");
+        Assert.assertEquals(exact.get(0), XY.get(0), 0.0001);
+        Assert.assertEquals(exact.get(1), XY.get(1), 0.0001);
+
+        // unknown models are not clamped
+        XY = ColourUtils.getXYForColour("red", "unknown");
+        Assert.assertEquals(0.735, XY.get(0), 0.0001);
+        // a dark colour keeps its hue rather than turning grey
+        double[] dark = new double[2];
+        Gamut.FULL.toXy(3, 0, 0, dark);
+        Assert.assertEquals(0.735, dark[0], 0.0001);
+        Assert.assertEquals(0.265, dark[1], 0.0001);
+        Gamut.C.toXy(0, 0, 40, dark);
+        Assert.assertEquals(0.153, dark[0], 0.0001);
+        Assert.assertEquals(0.048, dark[1], 0.0001);
+    }
+
+    @Test
+    public void testBatchXYConverter() {
+        int[] rgb = {0xFF0000, 0x00FF00, 0x0000FF, 0x808080, 0x000000};
+        double[] xy = new double[rgb.length * 2];
+        float[] xyf = new float[rgb.length * 2];
+        ColourUtils.rgbToXy(rgb, 0, xy, 0, rgb.length);
+        ColourUtils.rgbToXy(rgb, 0, xyf, 0, rgb.length);
+
+        for (int i = 0; i < rgb.length - 1; i++) {
+            java.awt.Color c = new java.awt.Color(rgb[i]);
+            double[] expected = ColourUtils.XyzToXy(ColourUtils.rgbToXyz(c.getRed(), c.getGreen(), c.getBlue()));
+            Assert.assertEquals(expected[0], xy[2 * i], 0);
+            Assert.assertEquals(expected[1], xy[2 * i + 1], 0);
+            Assert.assertEquals(expected[0], xyf[2 * i], 0.000001);
+        }
+        // black has no chromaticity and maps to the white point
+        Assert.assertEquals(ColourUtils.WHITE_POINT_X, xy[8], 0);
+        Assert.assertEquals(ColourUtils.WHITE_POINT_Y, xy[9], 0);
+    }
+
+    @Test
+    public void testBlackIsTheWhitePointEverywhere() {
+        List<Double> XY = ColourUtils.getXYForColour("black");
+        Assert.assertEquals(ColourUtils.WHITE_POINT_X, XY.get(0), 0);
+        Assert.assertEquals(ColourUtils.WHITE_POINT_Y, XY.get(1), 0);
+
+        double[] xy = new double[2];
+        ColourUtils.getXYForColour("off", xy);
+        Assert.assertEquals(ColourUtils.WHITE_POINT_X, xy[0], 0);
+        Gamut.B.toXy(0, 0, 0, xy);
+        Assert.assertEquals(ColourUtils.WHITE_POINT_X, xy[0], 0);
+        XY = ColourUtils.getXYForColour("black", "LCT001");
+        Assert.assertEquals(ColourUtils.WHITE_POINT_Y, XY.get(1), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testChannelsOutOfRangeAreRejected() {
+        ColourUtils.rgbToXyz(256, 0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGamutChannelsOutOfRangeAreRejected() {
+        Gamut.C.toXy(0, -1, 0, new double[2]);
+    }
 }
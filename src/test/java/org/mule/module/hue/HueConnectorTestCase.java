@@ -0,0 +1,931 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue;
+
+import org.mule.api.ConnectionException;
+import org.mule.api.callback.SourceCallback;
+import org.mule.module.hue.dispatch.GroupPlanner;
+import org.mule.module.hue.metrics.HueMetrics;
+import org.mule.module.hue.metrics.OperationStats;
+import org.mule.module.hue.model.Animation;
+import org.mule.module.hue.model.AnimationStats;
+import org.mule.module.hue.model.Command;
+import org.mule.module.hue.model.Keyframe;
+import org.mule.module.hue.model.LightAttributes;
+import org.mule.module.hue.model.LightResult;
+import org.mule.module.hue.model.LightSnapshot;
+import org.mule.module.hue.model.LightUpdate;
+import org.mule.module.hue.model.Schedule;
+import org.mule.module.hue.model.ScheduleReconciliation;
+import org.mule.module.hue.model.State;
+import org.mule.module.hue.schedule.LocalScheduler;
+import org.mule.module.hue.stub.StubHueBridge;
+import org.mule.module.hue.transport.HueTransport;
+import org.mule.module.hue.transport.JerseyTransport;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.codehaus.jackson.JsonNode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the connector against an in-process {@link StubHueBridge}
+ */
+public class HueConnectorTestCase
+{
+    private StubHueBridge bridge;
+    private HueConnector connector;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        bridge = new StubHueBridge("testuser", 20);
+        bridge.setLightCommandsPerSecond(0);
+        bridge.setGroupCommandsPerSecond(0);
+        bridge.start();
+        connector = newConnector(bridge.getUsername());
+        connector.connect();
+    }
+
+    @After
+    public void tearDown()
+    {
+        connector.disconnect();
+        bridge.stop();
+    }
+
+    @Test
+    public void testSetAndGetLightState() throws Exception
+    {
+        State state = new State();
+        state.setOn(true);
+        state.setBrightness(200);
+        state.setColor("blue");
+        connector.setLightState("3", state);
+
+        LightAttributes light = connector.getLightState("3");
+        Assert.assertEquals("Hue Lamp 3", light.getName());
+        Assert.assertEquals(Boolean.TRUE, light.getState().getOn());
+        Assert.assertEquals(Integer.valueOf(200), light.getState().getBrightness());
+        Assert.assertEquals("xy", light.getState().getColormode());
+    }
+
+    @Test
+    public void testBridgeErrorsAreTyped() throws Exception
+    {
+        State state = new State();
+        state.setBrightness(200);
+        try
+        {
+            connector.setLightState("3", state);
+            Assert.fail("a light that is off cannot change brightness");
+        }
+        catch (HueException e)
+        {
+            Assert.assertTrue(e.hasErrorType(201));
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception
+    {
+        State state = new State();
+        state.setOn(true);
+        connector.setLightState("3", state);
+        connector.setLightState("4", state);
+        state.setOn(null);
+        state.setBrightness(200);
+        try
+        {
+            connector.setLightState("5", state);
+        }
+        catch (HueException e)
+        {
+            // counted as an error of type 201
+        }
+        connector.getLightState("3");
+
+        HueMetrics metrics = connector.getMetrics();
+        OperationStats set = metrics.getOperations().get("setLightState");
+        Assert.assertEquals(3, set.getCount());
+        Assert.assertEquals(1, set.getErrors());
+        Assert.assertTrue(set.getP99() >= set.getP50());
+        Assert.assertEquals(1, metrics.getOperations().get("getLightState").getCount());
+        Assert.assertEquals(1, metrics.getOperations().get("connect").getCount());
+        Assert.assertEquals(Long.valueOf(1), metrics.getErrorTypes().get("201"));
+
+        ObjectName name = new ObjectName("org.mule.module.hue:type=HueConnector,name=" + ObjectName.quote(bridge.getIpAddress()));
+        CompositeData stats = (CompositeData) ((TabularData) ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(name, "Operations")).get(new Object[] {"setLightState"}).get("value");
+        Assert.assertEquals(3L, stats.get("count"));
+        connector.disconnect();
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        connector.connect();
+    }
+
+    @Test
+    public void testSetLightStates() throws Exception
+    {
+        Map<String, State> states = new LinkedHashMap<String, State>();
+        for (int i = 1; i <= 20; i++)
+        {
+            State state = new State();
+            state.setOn(true);
+            state.setHue(i * 1000);
+            states.put(String.valueOf(i), state);
+        }
+        states.put("99", new State());
+
+        List<LightResult> results = connector.setLightStates(states, 5);
+        Assert.assertEquals(21, results.size());
+        for (int i = 0; i < 20; i++)
+        {
+            Assert.assertTrue(results.get(i).isSuccess());
+        }
+        Assert.assertFalse(results.get(20).isSuccess());
+        Assert.assertEquals(3, results.get(20).getErrors().get(0).getType());
+        Assert.assertEquals(20000, bridge.getLightState("20").path("hue").getIntValue());
+    }
+
+    @Test
+    public void testSetLightStateList() throws Exception
+    {
+        State red = new State();
+        red.setOn(true);
+        red.setHue(0);
+        State blue = new State();
+        blue.setOn(true);
+        blue.setHue(46920);
+        List<LightUpdate> updates = Arrays.asList(new LightUpdate("1", red), new LightUpdate("2", null),
+                                                  new LightUpdate("3", red), new LightUpdate("1", blue));
+
+        // queued commands fail on the calling thread when their state cannot be merged
+        HueConnector throttled = newConnector(bridge.getUsername());
+        throttled.setLightCommandsPerSecond(50);
+        throttled.connect();
+        try
+        {
+            List<LightResult> results = throttled.setLightStateList(updates, 2);
+            Assert.assertEquals(4, results.size());
+            Assert.assertTrue(results.get(0).isSuccess());
+            // a light that could not be sent its state fails alone
+            Assert.assertFalse(results.get(1).isSuccess());
+            Assert.assertNotNull(results.get(1).getError());
+            Assert.assertTrue(results.get(2).isSuccess());
+            Assert.assertEquals(46920, bridge.getLightState("1").path("hue").getIntValue());
+            Assert.assertEquals(0, bridge.getLightState("3").path("hue").getIntValue());
+        }
+        finally
+        {
+            throttled.disconnect();
+        }
+    }
+
+    @Test
+    public void testIdenticalStatesAreRoutedThroughGroups() throws Exception
+    {
+        String desk = bridge.addGroup("Desk", "1", "2", "3");
+        // left by an earlier connector, adopted and evicted first
+        bridge.addGroup(GroupPlanner.MANAGED_PREFIX + "7", "9", "10");
+        HueConnector routing = newConnector(bridge.getUsername());
+        routing.setGroupRoutingMinLights(2);
+        routing.setManagedGroups(1);
+        routing.connect();
+        try
+        {
+            State on = new State();
+            on.setOn(true);
+            Map<String, State> states = new LinkedHashMap<String, State>();
+            states.put("1", on);
+            states.put("4", new State());
+            states.put("2", on);
+            states.put("3", on);
+
+            int commands = bridge.getCommandCount();
+            List<LightResult> results = routing.setLightStates(states, 2);
+            Assert.assertEquals(2, bridge.getCommandCount() - commands);
+            Assert.assertEquals("1", results.get(0).getLightId());
+            Assert.assertEquals(desk, results.get(0).getGroupId());
+            Assert.assertNull(results.get(1).getGroupId());
+            Assert.assertEquals(desk, results.get(3).getGroupId());
+            Assert.assertTrue(bridge.getLightState("2").path("on").getBooleanValue());
+
+            // a set of lights updated together again and again gets its own group
+            String managed = null;
+            for (int i = 0; i < 3; i++)
+            {
+                states.clear();
+                states.put("5", on);
+                states.put("6", on);
+                managed = routing.setLightStates(states, 2).get(0).getGroupId();
+            }
+            Assert.assertNotNull(managed);
+            Assert.assertEquals(2, bridge.getGroupCount());
+            // named after the groups already on the bridge
+            Assert.assertEquals(GroupPlanner.MANAGED_PREFIX + "8", bridge.getGroupName(managed));
+
+            // which makes room for the next recurring set once it is the least recently used
+            for (int i = 0; i < 3; i++)
+            {
+                states.clear();
+                states.put("7", on);
+                states.put("8", on);
+                routing.setLightStates(states, 2);
+            }
+            Assert.assertEquals(2, bridge.getGroupCount());
+            Assert.assertTrue(bridge.getLightState("8").path("on").getBooleanValue());
+        }
+        finally
+        {
+            routing.disconnect();
+        }
+    }
+
+    @Test
+    public void testAsyncCommands() throws Exception
+    {
+        State on = new State();
+        on.setOn(true);
+        Assert.assertSame(on, connector.setLightStateAsync("1", on).get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(bridge.getLightState("1").path("on").getBooleanValue());
+
+        try
+        {
+            State bright = new State();
+            bright.setBrightness(100);
+            connector.setLightStateAsync("2", bright).get(5, TimeUnit.SECONDS);
+            Assert.fail("a light that is off cannot change brightness");
+        }
+        catch (ExecutionException e)
+        {
+            Assert.assertTrue(((HueException) e.getCause()).hasErrorType(201));
+        }
+
+        // throttled commands wait in the dispatcher queue rather than on threads
+        HueConnector throttled = newConnector(bridge.getUsername());
+        throttled.setLightCommandsPerSecond(50);
+        throttled.connect();
+        try
+        {
+            Map<String, State> states = new LinkedHashMap<String, State>();
+            for (int i = 1; i <= 20; i++)
+            {
+                State state = new State();
+                state.setOn(true);
+                state.setHue(i);
+                states.put(String.valueOf(i), state);
+            }
+            bridge.hold();
+            Future<List<LightResult>> results;
+            try
+            {
+                results = throttled.setLightStatesAsync(states);
+                Assert.assertFalse(results.isDone());
+            }
+            finally
+            {
+                bridge.release();
+            }
+            Assert.assertEquals(20, results.get(5, TimeUnit.SECONDS).size());
+            for (LightResult result : results.get())
+            {
+                Assert.assertTrue(result.isSuccess());
+            }
+            Assert.assertEquals(20, bridge.getLightState("20").path("hue").getIntValue());
+        }
+        finally
+        {
+            throttled.disconnect();
+        }
+    }
+
+    @Test
+    public void testAnimation() throws Exception
+    {
+        Animation animation = new Animation();
+        animation.setLights(Arrays.asList("1", "2", "3", "4"));
+        animation.setKeyframes(Arrays.asList(new Keyframe(0, "Red", 10), new Keyframe(400, "Blue", 100)));
+        animation.setSpread(100);
+
+        String id = connector.startAnimation(animation, 20);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (connector.getAnimationStats(id).isRunning() && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(50);
+        }
+        AnimationStats stats = connector.stopAnimation(id);
+        Assert.assertFalse(stats.isRunning());
+        Assert.assertEquals(0, stats.getFailedCommands());
+        // 4 lights changing every frame but only 10 commands per second for the bridge
+        Assert.assertTrue(stats.getDeferredCommands() > 0);
+        Assert.assertTrue(stats.getCommands() < stats.getFrames() * 4);
+
+        // the lamps of the stub are LCT001 so blue is moved into their gamut
+        double[] blue = new double[2];
+        ColourUtils.getXYForColour("Blue", blue);
+        Gamut.B.clamp(blue[0], blue[1], blue);
+        for (int i = 1; i <= 4; i++)
+        {
+            JsonNode light = bridge.getLightState(String.valueOf(i));
+            Assert.assertTrue(light.path("on").getBooleanValue());
+            Assert.assertEquals(100, light.path("bri").getIntValue());
+            Assert.assertEquals(blue[0], light.path("xy").get(0).getDoubleValue(), 0.001);
+        }
+        Assert.assertFalse(bridge.getLightState("5").path("on").getBooleanValue());
+    }
+
+    @Test
+    public void testColourIsConvertedWithTheGamutOfTheLamp() throws Exception
+    {
+        State state = new State();
+        state.setOn(true);
+        state.setColor("Blue");
+        State sent = connector.setLightState("1", state);
+
+        List<Double> expected = ColourUtils.getXYForColour("Blue", "LCT001");
+        Assert.assertEquals(expected.get(0), sent.getX(), 0.001);
+        Assert.assertEquals(expected.get(1), sent.getY(), 0.001);
+        JsonNode light = bridge.getLightState("1");
+        Assert.assertEquals(expected.get(0), light.path("xy").get(0).getDoubleValue(), 0.001);
+        Assert.assertEquals(expected.get(1), light.path("xy").get(1).getDoubleValue(), 0.001);
+        // the caller's state is left as it was
+        Assert.assertEquals("Blue", state.getColor());
+    }
+
+    @Test
+    public void testGetLightAttributes() throws Exception
+    {
+        Map<String, LightAttributes> lights = connector.getLightAttributes();
+        Assert.assertEquals(20, lights.size());
+        Assert.assertEquals("LCT001", lights.get("7").getModelid());
+        Assert.assertEquals(Boolean.FALSE, lights.get("7").getState().getOn());
+    }
+
+    @Test
+    public void testSnapshotAndRestore() throws Exception
+    {
+        String desk = bridge.addGroup("Desk", "1", "2", "3");
+        bridge.addGroup("Hall", "5", "6", "7");
+        Map<String, State> look = new LinkedHashMap<String, State>();
+        for (int i = 1; i <= 3; i++)
+        {
+            State state = new State();
+            state.setOn(true);
+            state.setBrightness(200);
+            state.setHue(1000);
+            state.setSaturation(100);
+            look.put(String.valueOf(i), state);
+        }
+        State warm = new State();
+        warm.setOn(true);
+        warm.setCt(300);
+        look.put("4", warm);
+        connector.setLightStates(look, 4);
+
+        LightSnapshot snapshot = connector.snapshotLights();
+        Assert.assertEquals(20, snapshot.getLights().size());
+        Assert.assertEquals(Integer.valueOf(1000), snapshot.getLights().get("2").getHue());
+        Assert.assertNull(snapshot.getLights().get("4").getHue());
+        Assert.assertNull(snapshot.getLights().get("5").getBrightness());
+
+        Map<String, State> alert = new LinkedHashMap<String, State>();
+        for (int i = 1; i <= 6; i++)
+        {
+            State red = new State();
+            red.setOn(true);
+            red.setHue(0);
+            red.setSaturation(254);
+            alert.put(String.valueOf(i), red);
+        }
+        connector.setLightStates(alert, 4);
+
+        int commands = bridge.getCommandCount();
+        int requests = bridge.getRequestCount();
+        List<LightResult> results = connector.restoreLights(snapshot, 4);
+        // the desk group, light 4 and the hall group, where light 7 already is off
+        Assert.assertEquals(3, bridge.getCommandCount() - commands);
+        Assert.assertEquals(4, bridge.getRequestCount() - requests);
+        Assert.assertEquals(6, results.size());
+        Assert.assertEquals(desk, results.get(0).getGroupId());
+        Assert.assertNull(results.get(3).getGroupId());
+        for (LightResult result : results)
+        {
+            Assert.assertTrue(result.isSuccess());
+        }
+        Assert.assertEquals(1000, bridge.getLightState("2").path("hue").getIntValue());
+        Assert.assertEquals(300, bridge.getLightState("4").path("ct").getIntValue());
+        Assert.assertFalse(bridge.getLightState("6").path("on").getBooleanValue());
+
+        commands = bridge.getCommandCount();
+        Assert.assertTrue(connector.restoreLights(snapshot, 4).isEmpty());
+        Assert.assertEquals(commands, bridge.getCommandCount());
+    }
+
+    @Test
+    public void testCreateSchedule() throws Exception
+    {
+        State state = new State();
+        state.setOn(true);
+        Command command = new Command();
+        command.setMethod(Command.Method.PUT);
+        command.setAddress("/api/testuser/groups/0/action");
+        command.setBody(state);
+
+        connector.createSchedule("wake", "2030-01-01T07:00:00", null, command);
+        connector.createSchedule("wake", "2030-01-02T07:00:00", null, command);
+        Assert.assertEquals(2, bridge.getScheduleCount());
+    }
+
+    @Test
+    public void testReconcileSchedules() throws Exception
+    {
+        connector.createSchedule("wake", "2030-01-01T07:00:00", null, allLights(true));
+        connector.createSchedule("wake", "2030-01-01T07:00:00", null, allLights(true));
+        connector.createSchedule("sleep", "2030-01-01T23:00:00", null, allLights(false));
+        connector.createSchedule("other", "2030-01-01T12:00:00", null, allLights(false));
+
+        List<Schedule> desired = Arrays.asList(schedule("wake", "2030-01-01T07:00:00", allLights(true)),
+                                               schedule("sleep", "2030-01-01T22:30:00", allLights(false)),
+                                               schedule("lunch", "2030-01-01T12:30:00", allLights(true)));
+        ScheduleReconciliation result = connector.reconcileSchedules(desired, false, 0);
+        Assert.assertTrue(result.isSuccess());
+        Assert.assertEquals(Arrays.asList("1"), result.getUnchanged());
+        Assert.assertEquals(Arrays.asList("2", "3"), result.getDeleted());
+        Assert.assertEquals(2, result.getCreated().size());
+        Assert.assertEquals(4, bridge.getScheduleCount());
+
+        // deploying the same schedules again changes nothing
+        result = connector.reconcileSchedules(desired, false, 0);
+        Assert.assertEquals(3, result.getUnchanged().size());
+        Assert.assertTrue(result.getCreated().isEmpty());
+        Assert.assertTrue(result.getDeleted().isEmpty());
+
+        result = connector.reconcileSchedules(desired, true, 0);
+        Assert.assertEquals(Arrays.asList("4"), result.getDeleted());
+        Assert.assertEquals(3, bridge.getScheduleCount());
+
+        State verbose = new State();
+        verbose.setOn(true);
+        verbose.setBrightness(254);
+        verbose.setHue(65535);
+        verbose.setSaturation(254);
+        verbose.setXy(0.12345, 0.54321);
+        verbose.setEffect(State.Effect.colorloop);
+        verbose.setAlert(State.Alert.lselect);
+        Command command = allLights(true);
+        command.setBody(verbose);
+        result = connector.reconcileSchedules(Arrays.asList(schedule("wake", "2030-01-01T08:00:00", command)), false, 0);
+        Assert.assertEquals(1, result.getErrors().size());
+        Assert.assertTrue(result.getDeleted().isEmpty());
+    }
+
+    private static Command allLights(boolean on)
+    {
+        State state = new State();
+        state.setOn(on);
+        Command command = new Command();
+        command.setMethod(Command.Method.PUT);
+        command.setAddress("/api/testuser/groups/0/action");
+        command.setBody(state);
+        return command;
+    }
+
+    private static Schedule schedule(String name, String time, Command command)
+    {
+        Schedule schedule = new Schedule();
+        schedule.setName(name);
+        schedule.setTime(time);
+        schedule.setCommand(command);
+        return schedule;
+    }
+
+    @Test
+    public void testScheduledCommands() throws Exception
+    {
+        File store = File.createTempFile("hue-schedules", ".log");
+        HueConnector local = newConnector(bridge.getUsername());
+        local.setLocalScheduleStore(store.getPath());
+        local.connect();
+        try
+        {
+            State on = new State();
+            on.setOn(true);
+            Command command = new Command();
+            command.setMethod(Command.Method.PUT);
+            command.setAddress("/api/testuser/lights/3/state");
+            command.setBody(on);
+            long now = System.currentTimeMillis();
+            local.scheduleCommand(null, utc(now + 1000), command);
+            String wake = local.scheduleCommand("wake", "2030-01-01T07:00:00", allLights(true));
+            local.scheduleCommand("soon", utc(now + 3600000), allLights(false));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!Boolean.TRUE.equals(local.getLightState("3").getState().getOn()) && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals(Boolean.TRUE, local.getLightState("3").getState().getOn());
+
+            // pending commands survive a restart
+            local.disconnect();
+            local.connect();
+            Assert.assertEquals(1, local.offloadScheduledCommands(7200000, 20).size());
+            Assert.assertEquals(1, bridge.getScheduleCount());
+            Assert.assertTrue(local.cancelScheduledCommand(wake));
+            Assert.assertFalse(local.cancelScheduledCommand(wake));
+        }
+        finally
+        {
+            local.disconnect();
+            store.delete();
+        }
+    }
+
+    private static String utc(long time)
+    {
+        SimpleDateFormat format = new SimpleDateFormat(LocalScheduler.TIME_FORMAT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(time));
+    }
+
+    @Test
+    public void testAdditionalBridges() throws Exception
+    {
+        StubHueBridge annex = new StubHueBridge("testuser", 3);
+        annex.setLightCommandsPerSecond(0);
+        annex.setGroupCommandsPerSecond(0);
+        annex.start();
+        HueConnector sharded = newConnector("testuser");
+        sharded.setAdditionalBridges("annex=" + annex.getIpAddress() + "/testuser");
+        sharded.connect();
+        try
+        {
+            Map<String, LightAttributes> lights = sharded.getLightAttributes();
+            Assert.assertEquals(23, lights.size());
+            Assert.assertTrue(lights.containsKey("20"));
+            Assert.assertTrue(lights.containsKey("annex:3"));
+
+            State on = new State();
+            on.setOn(true);
+            Map<String, State> states = new LinkedHashMap<String, State>();
+            states.put("2", on);
+            states.put("annex:2", on);
+            states.put("attic:1", on);
+            List<LightResult> results = sharded.setLightStates(states, 2);
+            Assert.assertTrue(results.get(0).isSuccess());
+            Assert.assertEquals("annex:2", results.get(1).getLightId());
+            Assert.assertTrue(results.get(1).isSuccess());
+            Assert.assertFalse(results.get(2).isSuccess());
+            Assert.assertTrue(bridge.getLightState("2").get("on").getBooleanValue());
+            Assert.assertTrue(annex.getLightState("2").get("on").getBooleanValue());
+            Assert.assertFalse(annex.getLightState("1").get("on").getBooleanValue());
+
+            State off = new State();
+            off.setOn(false);
+            sharded.setGroupState("0", off);
+            Assert.assertFalse(bridge.getLightState("2").get("on").getBooleanValue());
+            Assert.assertFalse(annex.getLightState("2").get("on").getBooleanValue());
+            Assert.assertFalse(sharded.getLightState("annex:2").getState().getOn());
+
+            // both bridges know the same user, the qualified light decides where the schedule goes
+            Command command = new Command();
+            command.setMethod(Command.Method.PUT);
+            command.setAddress("/api/testuser/lights/annex:3/state");
+            command.setBody(on);
+            sharded.createSchedule("wake", "2030-01-01T07:00:00", null, command);
+            Assert.assertEquals(1, annex.getScheduleCount());
+            Assert.assertEquals(0, bridge.getScheduleCount());
+            command.setAddress("/api/testuser/lights/attic:3/state");
+            try
+            {
+                sharded.createSchedule("wake", "2030-01-01T07:00:00", null, command);
+                Assert.fail("there is no attic bridge");
+            }
+            catch (IOException e)
+            {
+                Assert.assertEquals(0, bridge.getScheduleCount());
+            }
+        }
+        finally
+        {
+            sharded.disconnect();
+            annex.stop();
+        }
+    }
+
+    @Test
+    public void testUnauthorizedUser() throws Exception
+    {
+        try
+        {
+            newConnector("nobody").connect();
+            Assert.fail("the bridge does not know the user");
+        }
+        catch (ConnectionException e)
+        {
+            // the metrics of a connector that failed to connect are not left behind
+            ObjectName name = new ObjectName("org.mule.module.hue:type=HueConnector,name=" + ObjectName.quote(bridge.getIpAddress() + " 2"));
+            Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        }
+    }
+
+    @Test
+    public void testSetTransportOutlivesDisconnect() throws Exception
+    {
+        HueTransport injected = new JerseyTransport("http://" + bridge.getIpAddress() + "/api/" + bridge.getUsername(), 2, 5000, 10000);
+        HueConnector reconnecting = newConnector(bridge.getUsername());
+        reconnecting.setTransport(injected);
+        try
+        {
+            reconnecting.connect();
+            reconnecting.disconnect();
+            Assert.assertSame(injected, reconnecting.getTransport());
+
+            // the transport was not disposed with the connector, so it carries the next connection too
+            reconnecting.connect();
+            Assert.assertEquals("LCT001", reconnecting.getLightState("1").getModelid());
+        }
+        finally
+        {
+            reconnecting.disconnect();
+            injected.dispose();
+        }
+    }
+
+    @Test
+    public void testRepeatedBridgeNameIsRejected() throws Exception
+    {
+        HueConnector sharded = newConnector("testuser");
+        sharded.setAdditionalBridges("annex=10.0.0.2/testuser, annex=10.0.0.3/testuser");
+        try
+        {
+            sharded.connect();
+            Assert.fail("the name annex is used twice");
+        }
+        catch (IllegalArgumentException e)
+        {
+            Assert.assertTrue(e.getMessage().startsWith("Invalid bridge 'annex=10.0.0.3/testuser'"));
+            // the configuration is checked before anything is registered or opened
+            ObjectName name = new ObjectName("org.mule.module.hue:type=HueConnector,name=" + ObjectName.quote(bridge.getIpAddress() + " 2"));
+            Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        }
+    }
+
+    @Test
+    public void testWatchLightsRejectsInvalidIntervals() throws Exception
+    {
+        try
+        {
+            connector.watchLights(null, 0, 50);
+            Assert.fail("a poll interval of 0 would spin");
+        }
+        catch (IllegalArgumentException e)
+        {
+            Assert.assertTrue(e.getMessage().startsWith("minInterval"));
+        }
+        try
+        {
+            connector.watchLights(null, 100, 50);
+            Assert.fail("the longest interval is shorter than the shortest");
+        }
+        catch (IllegalArgumentException e)
+        {
+            Assert.assertTrue(e.getMessage().startsWith("maxInterval"));
+        }
+    }
+
+    @Test
+    public void testWatchLightsOutlivesFailingFlows() throws Exception
+    {
+        final AtomicInteger processed = new AtomicInteger();
+        // a proxy so the callback does not depend on the methods of the Mule version
+        final SourceCallback callback = (SourceCallback) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{SourceCallback.class}, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                processed.incrementAndGet();
+                throw new IllegalStateException("the flow failed");
+            }
+        });
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Thread source = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    connector.watchLights(callback, 10, 50);
+                }
+                catch (InterruptedException e)
+                {
+                    // stopped
+                }
+                catch (Exception e)
+                {
+                    failure.set(e);
+                }
+            }
+        };
+        source.start();
+        try
+        {
+            // the first poll only learns the lights
+            int requests = bridge.getRequestCount();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (bridge.getRequestCount() == requests && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(10);
+            }
+            State dim = new State();
+            dim.setOn(true);
+            dim.setBrightness(7);
+            connector.setLightState("4", dim);
+            connector.setLightState("5", dim);
+            while (processed.get() < 2 && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(10);
+            }
+            // each change is processed although the flow fails on all of them
+            Assert.assertEquals(2, processed.get());
+
+            connector.setLightState("6", dim);
+            while (processed.get() < 3 && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(3, processed.get());
+            Assert.assertTrue(source.isAlive());
+        }
+        finally
+        {
+            source.interrupt();
+            source.join(5000);
+        }
+        Assert.assertFalse(source.isAlive());
+        Assert.assertNull(failure.get());
+    }
+
+    @Test
+    public void testLazyConnect() throws Exception
+    {
+        HueConnector lazy = newConnector(bridge.getUsername());
+        lazy.setLazyConnect(true);
+        lazy.setCacheTtl(60000);
+        int before = bridge.getRequestCount();
+        lazy.connect();
+        try
+        {
+            // the credentials are checked and then the datastore is read in the background
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!lazy.isWarm() && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(20);
+            }
+            Assert.assertTrue(lazy.isWarm());
+            Assert.assertEquals(before + 2, bridge.getRequestCount());
+            Assert.assertEquals("Hue Lamp 3", lazy.getLightState("3").getName());
+            Assert.assertEquals("served from the warm cache", before + 2, bridge.getRequestCount());
+        }
+        finally
+        {
+            lazy.disconnect();
+        }
+
+        HueConnector unauthorized = newConnector("nobody");
+        unauthorized.setLazyConnect(true);
+        try
+        {
+            unauthorized.connect();
+            Assert.fail("lazy connects still check the credentials");
+        }
+        catch (ConnectionException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRateLimitedBridge() throws Exception
+    {
+        StubHueBridge limited = new StubHueBridge("testuser", 20);
+        limited.setLightCommandsPerSecond(10);
+        limited.start();
+        HueConnector unthrottled = newConnector("testuser");
+        unthrottled.setIpAddress(limited.getIpAddress());
+        unthrottled.connect();
+        try
+        {
+            Map<String, State> states = new LinkedHashMap<String, State>();
+            for (int i = 1; i <= 20; i++)
+            {
+                State state = new State();
+                state.setOn(true);
+                states.put(String.valueOf(i), state);
+            }
+            long start = System.nanoTime();
+            List<LightResult> results = unthrottled.setLightStates(states, 5);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            int overloaded = 0;
+            for (LightResult result : results)
+            {
+                if (!result.isSuccess())
+                {
+                    Assert.assertEquals(901, result.getErrors().get(0).getType());
+                    overloaded++;
+                }
+            }
+            // the bridge takes one command saved up plus ten a second, give or take a couple
+            int accepted = results.size() - overloaded;
+            Assert.assertTrue("accepted " + accepted + " in " + seconds + "s", accepted <= 3 + 10 * seconds);
+            Assert.assertTrue(accepted >= 1);
+            Assert.assertEquals(overloaded, limited.getRejectedCount());
+        }
+        finally
+        {
+            unthrottled.disconnect();
+            limited.stop();
+        }
+    }
+
+    @Test
+    public void testAdaptiveConcurrencyRetriesOverloadedCommands() throws Exception
+    {
+        StubHueBridge limited = new StubHueBridge("testuser", 10);
+        limited.setLightCommandsPerSecond(10);
+        limited.start();
+        HueConnector adaptive = newConnector("testuser");
+        adaptive.setIpAddress(limited.getIpAddress());
+        adaptive.setMaxConnections(8);
+        adaptive.setAdaptiveConcurrency(true);
+        adaptive.setMaxRetries(10);
+        adaptive.connect();
+        try
+        {
+            Assert.assertEquals(8, adaptive.getMetrics().getConcurrencyLimit());
+            Map<String, State> states = new LinkedHashMap<String, State>();
+            for (int i = 1; i <= 10; i++)
+            {
+                State state = new State();
+                state.setOn(true);
+                states.put(String.valueOf(i), state);
+            }
+            for (LightResult result : adaptive.setLightStates(states, 8))
+            {
+                Assert.assertTrue(result.getError(), result.isSuccess());
+            }
+            Assert.assertTrue(limited.getRejectedCount() > 0);
+            Assert.assertTrue(adaptive.getMetrics().getConcurrencyLimit() < 8);
+            Assert.assertTrue(adaptive.getMetrics().getRetryCount() > 0);
+        }
+        finally
+        {
+            adaptive.disconnect();
+            limited.stop();
+        }
+    }
+
+    private HueConnector newConnector(String username)
+    {
+        HueConnector c = new HueConnector();
+        c.setIpAddress(bridge.getIpAddress());
+        c.setUsername(username);
+        c.setMaxConnections(4);
+        c.setConnectTimeout(5000);
+        c.setReadTimeout(10000);
+        c.setLightCommandsPerSecond(0);
+        c.setGroupCommandsPerSecond(0);
+        return c;
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.animation;
+
+import org.mule.module.hue.dispatch.CommandFuture;
+import org.mule.module.hue.model.Animation;
+import org.mule.module.hue.model.Keyframe;
+import org.mule.module.hue.model.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AnimationEngineTestCase
+{
+    @Test
+    public void testAnimationsOnOneBridgeShareItsBudget() throws Exception
+    {
+        final AtomicInteger commands = new AtomicInteger();
+        AnimationEngine engine = new AnimationEngine(new AnimationEngine.Sink()
+        {
+            public Object budgetOf(String lightId)
+            {
+                return "bridge";
+            }
+
+            public CommandFuture<State> submit(String lightId, State state)
+            {
+                commands.incrementAndGet();
+                return CommandFuture.completed(state);
+            }
+        }, 10);
+        try
+        {
+            long start = System.nanoTime();
+            engine.start(animation("1", "2", "3", "4", "5"), 20);
+            engine.start(animation("6", "7", "8", "9", "10"), 20);
+            Thread.sleep(1000);
+            int sent = commands.get();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            // 10 commands per second plus the one saved up before starting,
+            // each animation alone would have sent as many
+            Assert.assertTrue("sent " + sent, sent <= 10 * seconds + 2);
+            Assert.assertTrue("sent " + sent, sent >= 5);
+        }
+        finally
+        {
+            engine.dispose();
+        }
+    }
+
+    private static Animation animation(String... lightIds)
+    {
+        Animation animation = new Animation();
+        animation.setLights(new ArrayList<String>(Arrays.asList(lightIds)));
+        List<Keyframe> keyframes = Arrays.asList(new Keyframe(0, "Red", 10), new Keyframe(100, "Blue", 250), new Keyframe(200, "Red", 10));
+        animation.setKeyframes(keyframes);
+        animation.setLoop(true);
+        return animation;
+    }
+}
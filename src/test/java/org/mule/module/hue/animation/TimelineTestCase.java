@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.animation;
+
+import org.mule.module.hue.ColourUtils;
+import org.mule.module.hue.model.Keyframe;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimelineTestCase
+{
+    @Test
+    public void testInterpolatesBetweenKeyframes()
+    {
+        Timeline timeline = new Timeline(Arrays.asList(new Keyframe(1000, "Blue", 200), new Keyframe(0, "Red", 0)), null, false);
+        Assert.assertEquals(1000, timeline.getDuration());
+
+        double[] red = new double[2];
+        double[] blue = new double[2];
+        ColourUtils.getXYForColour("Red", red);
+        ColourUtils.getXYForColour("Blue", blue);
+        double[] sample = new double[3];
+
+        timeline.sample(-50, sample);
+        Assert.assertEquals(red[0], sample[0], 0.00001);
+        Assert.assertEquals(0, sample[2], 0.00001);
+
+        timeline.sample(250, sample);
+        Assert.assertEquals(red[0] + (blue[0] - red[0]) / 4, sample[0], 0.00001);
+        Assert.assertEquals(red[1] + (blue[1] - red[1]) / 4, sample[1], 0.00001);
+        Assert.assertEquals(50, sample[2], 0.00001);
+
+        timeline.sample(5000, sample);
+        Assert.assertEquals(blue[0], sample[0], 0.00001);
+        Assert.assertEquals(200, sample[2], 0.00001);
+    }
+
+    @Test
+    public void testLoopReturnsToTheFirstKeyframe()
+    {
+        Timeline timeline = new Timeline(Arrays.asList(new Keyframe(0, null, 0), new Keyframe(500, null, 100)), 1000L, true);
+        double[] sample = new double[3];
+
+        timeline.sample(750, sample);
+        Assert.assertEquals(50, sample[2], 0.00001);
+        timeline.sample(1250, sample);
+        Assert.assertEquals(50, sample[2], 0.00001);
+        timeline.sample(-250, sample);
+        Assert.assertEquals(50, sample[2], 0.00001);
+        Assert.assertTrue("no keyframe sets a colour", Double.isNaN(sample[0]));
+    }
+
+    @Test
+    public void testChannelsAreInterpolatedSeparately()
+    {
+        Timeline timeline = new Timeline(Arrays.asList(new Keyframe(0, "Red", 0), new Keyframe(500, "Blue", null),
+                                                       new Keyframe(1000, null, 100)), null, false);
+        double[] blue = new double[2];
+        ColourUtils.getXYForColour("Blue", blue);
+        double[] sample = new double[3];
+
+        timeline.sample(500, sample);
+        Assert.assertEquals(blue[0], sample[0], 0.00001);
+        Assert.assertEquals(50, sample[2], 0.00001);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeyframeAfterTheEnd()
+    {
+        new Timeline(Arrays.asList(new Keyframe(2000, "Red", null)), 1000L, true);
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.cache;
+
+import org.mule.module.hue.model.LightAttributes;
+import org.mule.module.hue.model.State;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DatastoreCacheTestCase
+{
+    private static final String DATASTORE = "{\"lights\":{"
+            + "\"1\":{\"name\":\"Hall\",\"modelid\":\"LCT001\",\"state\":{\"on\":true,\"bri\":100,\"xy\":[0.3,0.3]}},"
+            + "\"2\":{\"name\":\"Desk\",\"modelid\":\"LCT001\",\"state\":{\"on\":false,\"bri\":10}}},"
+            + "\"groups\":{\"1\":{\"name\":\"Office\",\"lights\":[\"2\"],\"action\":{\"on\":false}}},"
+            + "\"schedules\":{},\"config\":{\"name\":\"Philips hue\"}}";
+
+    @Test
+    public void testLoadAndOptimisticUpdates() throws Exception
+    {
+        DatastoreCache cache = new DatastoreCache(null, new ObjectMapper(), 60000);
+        cache.load(DATASTORE);
+
+        LightAttributes hall = cache.getLight("1");
+        Assert.assertEquals("Hall", hall.getName());
+        Assert.assertEquals(Integer.valueOf(100), hall.getState().getBrightness());
+
+        State on = new State();
+        on.setOn(true);
+        cache.updateGroup("1", on);
+        Assert.assertEquals(Boolean.TRUE, cache.getLight("2").getState().getOn());
+        Assert.assertEquals(Integer.valueOf(10), cache.getLight("2").getState().getBrightness());
+        Assert.assertEquals(Boolean.TRUE, cache.getGroup("1").getState().getOn());
+
+        State dim = new State();
+        dim.setBrightness(1);
+        cache.updateGroup("0", dim);
+        Assert.assertEquals(Integer.valueOf(1), cache.getLight("1").getState().getBrightness());
+        Assert.assertEquals(Integer.valueOf(1), cache.getLight("2").getState().getBrightness());
+
+        // objects handed out earlier are never modified
+        Assert.assertEquals(Integer.valueOf(100), hall.getState().getBrightness());
+    }
+
+    @Test
+    public void testGroupColourReplacesTheColourModeOfItsLights() throws Exception
+    {
+        DatastoreCache cache = new DatastoreCache(null, new ObjectMapper(), 60000);
+        cache.load(DATASTORE);
+
+        State warm = new State();
+        warm.setCt(400);
+        cache.updateGroup("0", warm);
+        State hall = cache.getLight("1").getState();
+        Assert.assertEquals("ct", hall.getColormode());
+        Assert.assertEquals(Integer.valueOf(400), hall.getCt());
+        Assert.assertFalse(hall.hasXy());
+
+        State green = new State();
+        green.setXy(0.2, 0.6);
+        cache.updateGroup("1", green);
+        State desk = cache.getLight("2").getState();
+        Assert.assertEquals("xy", desk.getColormode());
+        Assert.assertNull(desk.getCt());
+        State office = cache.getGroup("1").getState();
+        Assert.assertEquals("xy", office.getColormode());
+        Assert.assertNull(office.getCt());
+        Assert.assertEquals(0.2, office.getX(), 0.0001);
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.cache;
+
+import org.mule.module.hue.model.State;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LightStateStoreTestCase
+{
+    @Test
+    public void testStatesSurviveTheRoundTrip()
+    {
+        State reported = new State();
+        reported.setOn(true);
+        reported.setBrightness(254);
+        reported.setHue(65535);
+        reported.setSaturation(0);
+        reported.setCt(500);
+        reported.setXy(0.67532, 0.3);
+        reported.setEffect(State.Effect.colorloop);
+        reported.setAlert(State.Alert.none);
+        reported.setStatus(false, "xy");
+
+        LightStateStore store = new LightStateStore();
+        Assert.assertEquals(0, store.put("7", reported));
+        State state = store.getState("7");
+        Assert.assertEquals(Boolean.TRUE, state.getOn());
+        Assert.assertEquals(Integer.valueOf(254), state.getBrightness());
+        Assert.assertEquals(Integer.valueOf(65535), state.getHue());
+        Assert.assertEquals(Integer.valueOf(0), state.getSaturation());
+        Assert.assertEquals(Integer.valueOf(500), state.getCt());
+        // kept to the precision of the bridge
+        Assert.assertEquals(0.6753, state.getX(), 0);
+        Assert.assertEquals(0.3, state.getY(), 0);
+        Assert.assertEquals(State.Effect.colorloop, state.getEffect());
+        Assert.assertEquals(State.Alert.none, state.getAlert());
+        Assert.assertEquals(Boolean.FALSE, state.isReachable());
+        Assert.assertEquals("xy", state.getColormode());
+
+        State off = new State();
+        off.setOn(false);
+        store.put("8", off);
+        state = store.getState("8");
+        Assert.assertEquals(Boolean.FALSE, state.getOn());
+        Assert.assertNull(state.getBrightness());
+        Assert.assertFalse(state.hasXy());
+        Assert.assertNull(state.getEffect());
+        Assert.assertNull(state.isReachable());
+        Assert.assertNull(state.getColormode());
+        Assert.assertNull(store.getState("9"));
+    }
+
+    @Test
+    public void testUpdatesOnlyChangeTheGivenProperties()
+    {
+        State reported = new State();
+        reported.setOn(false);
+        reported.setBrightness(10);
+        reported.setCt(300);
+        reported.setStatus(true, "ct");
+        LightStateStore store = new LightStateStore();
+        store.put("1", reported);
+        State view = store.getState("1");
+
+        State on = new State();
+        on.setOn(true);
+        on.setTransitionTime(10);
+        Assert.assertTrue(store.update("1", on));
+        Assert.assertFalse(store.update("2", on));
+
+        State state = store.getState("1");
+        Assert.assertEquals(Boolean.TRUE, state.getOn());
+        Assert.assertEquals(Integer.valueOf(10), state.getBrightness());
+        Assert.assertEquals(Integer.valueOf(300), state.getCt());
+        Assert.assertEquals("ct", state.getColormode());
+        Assert.assertNull(state.getTransitionTime());
+        // states handed out earlier are never modified
+        Assert.assertEquals(Boolean.FALSE, view.getOn());
+
+        store.put("1", on);
+        Assert.assertNull(store.getState("1").getBrightness());
+    }
+
+    @Test
+    public void testUpdatesSetTheColormodeOfTheirColour()
+    {
+        State reported = new State();
+        reported.setCt(300);
+        reported.setStatus(true, "ct");
+        LightStateStore store = new LightStateStore();
+        store.put("1", reported);
+
+        State xy = new State();
+        xy.setXy(0.4, 0.5);
+        store.update("1", xy);
+        Assert.assertEquals("xy", store.getState("1").getColormode());
+
+        State hue = new State();
+        hue.setHue(1000);
+        store.update("1", hue);
+        Assert.assertEquals("hs", store.getState("1").getColormode());
+
+        State ct = new State();
+        ct.setCt(400);
+        store.update("1", ct);
+        Assert.assertEquals("ct", store.getState("1").getColormode());
+
+        State bri = new State();
+        bri.setBrightness(20);
+        store.update("1", bri);
+        Assert.assertEquals("ct", store.getState("1").getColormode());
+    }
+
+    @Test
+    public void testOrdinalsStayDenseAsTheStoreGrows()
+    {
+        LightStateStore store = new LightStateStore(1);
+        for (int i = 0; i < 100; i++)
+        {
+            State state = new State();
+            state.setBrightness(i);
+            Assert.assertEquals(i, store.put("light " + i, state));
+        }
+        Assert.assertEquals(100, store.size());
+        Assert.assertEquals(42, store.ordinal("light 42"));
+        Assert.assertEquals(-1, store.ordinal("light 100"));
+        Assert.assertEquals("light 99", store.getLightId(99));
+        Assert.assertEquals(Integer.valueOf(99), store.getState(99).getBrightness());
+        Assert.assertEquals(Integer.valueOf(0), store.getState(0).getBrightness());
+
+        // identifiers with the same hash code are told apart
+        Assert.assertEquals("Aa".hashCode(), "BB".hashCode());
+        Assert.assertEquals(100, store.put("Aa", null));
+        Assert.assertEquals(101, store.put("BB", null));
+        Assert.assertEquals(100, store.ordinal("Aa"));
+        Assert.assertEquals(101, store.ordinal("BB"));
+        Assert.assertEquals(-1, store.ordinal("C#"));
+    }
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.dispatch;
+
+import org.mule.module.hue.model.State;
+import org.mule.module.hue.transport.HueTransport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CommandDispatcherTestCase
+{
+    @Test
+    public void testBurstIsCoalescedIntoOneCommand() throws Exception
+    {
+        List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+        GatedTransport transport = new GatedTransport(bodies);
+        final CommandDispatcher dispatcher = new CommandDispatcher(transport, new ObjectMapper(), 100, 1);
+        dispatcher.start();
+        try
+        {
+            // the first command is taken straight away and blocks the lane
+            Thread first = submit(dispatcher, "3", new State());
+            transport.firstSent.await();
+
+            List<Thread> burst = new ArrayList<Thread>();
+            for (int i = 1; i <= 100; i++)
+            {
+                State state = new State();
+                state.setBrightness(i);
+                if (i == 50)
+                {
+                    state.setOn(false);
+                }
+                burst.add(submit(dispatcher, "3", state));
+                // queued then merged one at a time, so the last submitted is the last merged
+                while (dispatcher.getQueueDepth() < 1 || dispatcher.getCoalescedCount() < i - 1)
+                {
+                    Thread.sleep(1);
+                }
+            }
+            transport.release.countDown();
+
+            first.join();
+            for (Thread t : burst)
+            {
+                t.join();
+            }
+        }
+        finally
+        {
+            dispatcher.stop();
+        }
+
+        Assert.assertEquals(2, bodies.size());
+        Assert.assertEquals("{}", bodies.get(0));
+        State sent = new ObjectMapper().readValue(bodies.get(1), State.class);
+        Assert.assertEquals(Boolean.FALSE, sent.getOn());
+        Assert.assertEquals(Integer.valueOf(100), sent.getBrightness());
+    }
+
+    @Test
+    public void testANewerColourModeReplacesTheQueuedOne() throws Exception
+    {
+        List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+        GatedTransport transport = new GatedTransport(bodies);
+        CommandDispatcher dispatcher = new CommandDispatcher(transport, new ObjectMapper(), 100, 1);
+        dispatcher.start();
+        try
+        {
+            // the first command blocks the lane so the next two are merged
+            dispatcher.submitLightState("3", new State());
+            transport.firstSent.await();
+            State xy = new State();
+            xy.setXy(0.4, 0.5);
+            dispatcher.submitLightState("3", xy);
+            State ct = new State();
+            ct.setCt(300);
+            CommandFuture<String> sent = dispatcher.submitLightState("3", ct);
+            transport.release.countDown();
+            sent.await();
+        }
+        finally
+        {
+            dispatcher.stop();
+        }
+        Assert.assertEquals(Arrays.asList("{}", "{\"ct\":300}"), bodies);
+    }
+
+    @Test
+    public void testUnchangedPropertiesAreSuppressed() throws Exception
+    {
+        List<String> bodies = new ArrayList<String>();
+        StateTracker tracker = new StateTracker(60000);
+        tracker.setGroupMembers(Collections.singletonMap("1", Arrays.asList("3", "4")));
+        CommandDispatcher dispatcher = new CommandDispatcher(new RecordingTransport(bodies), new ObjectMapper(), 0, 0, tracker);
+
+        State state = new State();
+        state.setOn(true);
+        state.setBrightness(100);
+        state.setXy(0.4, 0.5);
+        dispatcher.setLightState("3", state);
+        state.setBrightness(150);
+        dispatcher.setLightState("3", state);
+        dispatcher.setLightState("3", state);
+
+        // the colour of the group replaces the xy colour of its lights
+        State warm = new State();
+        warm.setCt(400);
+        dispatcher.setGroupState("1", warm);
+        dispatcher.setGroupState("1", warm);
+        dispatcher.setLightState("3", state);
+
+        Assert.assertEquals(Arrays.asList("{\"bri\":100,\"on\":true,\"xy\":[0.4000,0.5000]}", "{\"bri\":150}", "{\"ct\":400}",
+                                          "{\"xy\":[0.4000,0.5000]}"), bodies);
+        Assert.assertEquals(2, dispatcher.getSuppressedCount());
+    }
+
+    @Test
+    public void testLightCommandWhileItsGroupIsInFlightIsSent() throws Exception
+    {
+        List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+        GatedTransport transport = new GatedTransport(bodies, "groups/");
+        StateTracker tracker = new StateTracker(60000);
+        tracker.setGroupMembers(Collections.singletonMap("1", Arrays.asList("3")));
+        CommandDispatcher dispatcher = new CommandDispatcher(transport, new ObjectMapper(), 0, 100, tracker);
+        dispatcher.start();
+        try
+        {
+            State on = new State();
+            on.setOn(true);
+            State off = new State();
+            off.setOn(false);
+            dispatcher.setLightState("3", on);
+
+            // the bridge may apply the light command before or after the group command it overtakes
+            CommandFuture<String> group = dispatcher.submitGroupState("1", off);
+            transport.firstSent.await();
+            dispatcher.setLightState("3", on);
+            transport.release.countDown();
+            group.await();
+            dispatcher.setLightState("3", on);
+        }
+        finally
+        {
+            dispatcher.stop();
+        }
+        Assert.assertEquals(Arrays.asList("{\"on\":true}", "{\"on\":true}", "{\"on\":false}", "{\"on\":true}"), bodies);
+        Assert.assertEquals(0, dispatcher.getSuppressedCount());
+    }
+
+    @Test
+    public void testCommandsAfterStopFail() throws Exception
+    {
+        List<String> bodies = new ArrayList<String>();
+        CommandDispatcher dispatcher = new CommandDispatcher(new RecordingTransport(bodies), new ObjectMapper(), 100, 1);
+        dispatcher.start();
+        try
+        {
+            dispatcher.submitLightState("3", null);
+            Assert.fail("a command needs a state");
+        }
+        catch (IllegalArgumentException e)
+        {
+            Assert.assertEquals(0, dispatcher.getQueueDepth());
+        }
+        dispatcher.stop();
+
+        try
+        {
+            dispatcher.setLightState("3", new State());
+            Assert.fail("the dispatcher has been stopped");
+        }
+        catch (IOException e)
+        {
+            Assert.assertEquals(0, dispatcher.getQueueDepth());
+            Assert.assertTrue(bodies.isEmpty());
+        }
+    }
+
+    private Thread submit(final CommandDispatcher dispatcher, final String lightId, final State state)
+    {
+        Thread t = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    dispatcher.setLightState(lightId, state);
+                }
+                catch (IOException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    /**
+     * Holds the first command sent to a path with the gated prefix, and every one after it, until released
+     */
+    private static class GatedTransport extends RecordingTransport
+    {
+        final CountDownLatch firstSent = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        private final String gated;
+
+        GatedTransport(List<String> bodies)
+        {
+            this(bodies, "");
+        }
+
+        GatedTransport(List<String> bodies, String gated)
+        {
+            super(bodies);
+            this.gated = gated;
+        }
+
+        @Override
+        public String put(String path, byte[] body) throws IOException
+        {
+            if (!path.startsWith(gated))
+            {
+                return super.put(path, body);
+            }
+            firstSent.countDown();
+            try
+            {
+                release.await();
+            }
+            catch (InterruptedException e)
+            {
+                throw new IOException(e);
+            }
+            return super.put(path, body);
+        }
+    }
+
+    private static class RecordingTransport implements HueTransport
+    {
+        private final List<String> bodies;
+
+        RecordingTransport(List<String> bodies)
+        {
+            this.bodies = bodies;
+        }
+
+        public String get(String path) throws IOException
+        {
+            return "{}";
+        }
+
+        public InputStream getStream(String path) throws IOException
+        {
+            return new ByteArrayInputStream(get(path).getBytes("UTF-8"));
+        }
+
+        public String put(String path, byte[] body) throws IOException
+        {
+            bodies.add(new String(body, "UTF-8"));
+            return "[]";
+        }
+
+        public String post(String path, byte[] body) throws IOException
+        {
+            return "[]";
+        }
+
+        public String delete(String path) throws IOException
+        {
+            return "[]";
+        }
+
+        public void dispose()
+        {
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.dispatch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrencyLimiterTestCase
+{
+    @Test
+    public void testOverloadHalvesTheLimitOncePerRoundTrip() throws Exception
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(8);
+        long first = limiter.acquire(0);
+        long second = limiter.acquire(0);
+        Assert.assertEquals(2, limiter.getInFlight());
+
+        limiter.release("PUT", first, true);
+        Assert.assertEquals(4, limiter.getLimit());
+        // in flight when the limit was cut, so it saw the same overload
+        limiter.release("PUT", second, true);
+        Assert.assertEquals(4, limiter.getLimit());
+
+        limiter.release("PUT", limiter.acquire(0), true);
+        limiter.release("PUT", limiter.acquire(0), true);
+        limiter.release("PUT", limiter.acquire(0), true);
+        Assert.assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    public void testHealthyCallsRaiseTheLimit() throws Exception
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4);
+        limiter.release("PUT", limiter.acquire(0), true);
+        limiter.release("PUT", limiter.acquire(0), true);
+        Assert.assertEquals(1, limiter.getLimit());
+
+        // one window of healthy calls per step
+        limiter.release("PUT", limiter.acquire(0), false);
+        Assert.assertEquals(2, limiter.getLimit());
+        limiter.release("PUT", limiter.acquire(0), false);
+        limiter.release("PUT", limiter.acquire(0), false);
+        limiter.release("PUT", limiter.acquire(0), false);
+        Assert.assertEquals(3, limiter.getLimit());
+        for (int i = 0; i < 100; i++)
+        {
+            limiter.release("PUT", limiter.acquire(0), false);
+        }
+        Assert.assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testCallsAreComparedWithTheirOwnKind() throws Exception
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(8);
+        for (int i = 0; i < 20; i++)
+        {
+            limiter.release("PUT lights/{id}/state", limiter.acquire(0), false);
+        }
+        // reading the datastore is always much slower than setting a light
+        for (int i = 0; i < 10; i++)
+        {
+            long start = limiter.acquire(0);
+            Thread.sleep(20);
+            limiter.release("GET ", start, false);
+        }
+        Assert.assertEquals(8, limiter.getLimit());
+
+        // while a light command that slow is a sign of overload
+        long start = limiter.acquire(0);
+        Thread.sleep(30);
+        limiter.release("PUT lights/{id}/state", start, false);
+        Assert.assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testAcquireGivesUpAtTheDeadline() throws Exception
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        long start = limiter.acquire(0);
+        Assert.assertTrue(start != 0);
+        Assert.assertEquals(0, limiter.acquire(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20)));
+        limiter.release("PUT", start, false);
+        Assert.assertTrue(limiter.acquire(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20)) != 0);
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.dispatch;
+
+import org.mule.module.hue.json.ModelReader;
+import org.mule.module.hue.model.State;
+import org.mule.module.hue.transport.HueTransport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GroupPlannerTestCase
+{
+    private static final String DATASTORE = "{\"lights\":{\"1\":{\"name\":\"1\"},\"2\":{\"name\":\"2\"},\"3\":{\"name\":\"3\"},"
+            + "\"4\":{\"name\":\"4\"},\"5\":{\"name\":\"5\"}},\"groups\":{},\"schedules\":{},\"config\":{}}";
+
+    @Test
+    public void testGroupInUseIsNotEvicted() throws Exception
+    {
+        ObjectMapper mapper = new ObjectMapper();
+        GroupTransport transport = new GroupTransport();
+        GroupPlanner planner = new GroupPlanner(transport, mapper, 2, 1, 1, null);
+        planner.load(new ModelReader(mapper).readDatastore(DATASTORE));
+
+        List<GroupPlanner.Route> first = planner.plan(states("1", "2"));
+        Assert.assertEquals(1, first.size());
+        Assert.assertEquals("1", first.get(0).getGroupId());
+
+        // the only managed group is still being sent to, so the next set of lights goes out light by light
+        List<GroupPlanner.Route> second = planner.plan(states("3", "4"));
+        Assert.assertEquals(2, second.size());
+        Assert.assertNull(second.get(0).getGroupId());
+        Assert.assertTrue(transport.deleted.isEmpty());
+        for (GroupPlanner.Route route : second)
+        {
+            planner.release(route);
+        }
+
+        planner.release(first.get(0));
+        List<GroupPlanner.Route> third = planner.plan(states("3", "4"));
+        Assert.assertEquals(1, third.size());
+        Assert.assertEquals("2", third.get(0).getGroupId());
+        Assert.assertEquals(Arrays.asList("groups/1"), transport.deleted);
+        Assert.assertEquals(Arrays.asList("2"), planner.getManagedGroups());
+    }
+
+    private static Map<String, State> states(String... lightIds)
+    {
+        State on = new State();
+        on.setOn(true);
+        Map<String, State> states = new LinkedHashMap<String, State>();
+        for (String lightId : lightIds)
+        {
+            states.put(lightId, on);
+        }
+        return states;
+    }
+
+    /**
+     * Numbers the groups it creates from 1 and records the ones deleted
+     */
+    private static class GroupTransport implements HueTransport
+    {
+        private final List<String> deleted = new ArrayList<String>();
+        private int created;
+
+        public String get(String path) throws IOException
+        {
+            return "{}";
+        }
+
+        public InputStream getStream(String path) throws IOException
+        {
+            return new ByteArrayInputStream(get(path).getBytes("UTF-8"));
+        }
+
+        public String put(String path, byte[] body) throws IOException
+        {
+            return "[]";
+        }
+
+        public synchronized String post(String path, byte[] body) throws IOException
+        {
+            return "[{\"success\":{\"id\":\"/groups/" + ++created + "\"}}]";
+        }
+
+        public synchronized String delete(String path) throws IOException
+        {
+            deleted.add(path);
+            return "[{\"success\":\"/" + path + " deleted\"}]";
+        }
+
+        public void dispose()
+        {
+        }
+    }
+}
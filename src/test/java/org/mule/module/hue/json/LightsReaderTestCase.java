@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.json;
+
+import org.mule.module.hue.HueException;
+import org.mule.module.hue.model.LightAttributes;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LightsReaderTestCase
+{
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testReadLights() throws Exception
+    {
+        String json = "{\"1\":{\"state\":{\"on\":true,\"bri\":144,\"xy\":[0.4,0.5],\"reachable\":true},\"type\":\"Extended color light\","
+                      + "\"name\":\"Hall\",\"modelid\":\"LCT001\",\"swversion\":\"65003148\",\"pointsymbol\":{\"1\":\"none\"}},"
+                      + "\"2\":{\"name\":\"Desk\"}}";
+        Map<String, LightAttributes> lights = new LightsReader(mapper).read(new ByteArrayInputStream(json.getBytes("UTF-8")));
+
+        Assert.assertEquals(2, lights.size());
+        LightAttributes hall = lights.get("1");
+        Assert.assertEquals("Hall", hall.getName());
+        Assert.assertEquals("LCT001", hall.getModelid());
+        Assert.assertEquals(Integer.valueOf(144), hall.getState().getBrightness());
+        Assert.assertEquals(0.5, hall.getState().getXyColor().get(1), 0);
+        Assert.assertNull(lights.get("2").getState());
+        Assert.assertEquals("none", ((Map<?, ?>) hall.getPointsymbol()).get("1"));
+
+        Map<?, ?> written = mapper.readValue(mapper.writeValueAsString(hall), Map.class);
+        Assert.assertEquals(144, ((Map<?, ?>) written.get("state")).get("bri"));
+    }
+
+    @Test
+    public void testErrorResponse() throws Exception
+    {
+        String json = "[{\"error\":{\"type\":1,\"address\":\"/lights\",\"description\":\"unauthorized user\"}}]";
+        try
+        {
+            new LightsReader(mapper).read(new ByteArrayInputStream(json.getBytes("UTF-8")));
+            Assert.fail("the response is an error");
+        }
+        catch (HueException e)
+        {
+            Assert.assertEquals(1, e.getErrors().size());
+            Assert.assertEquals(1, e.getErrors().get(0).getType());
+            Assert.assertEquals("/lights", e.getErrors().get(0).getAddress());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.json;
+
+import org.mule.module.hue.model.Command;
+import org.mule.module.hue.model.Datastore;
+import org.mule.module.hue.model.GroupAttributes;
+import org.mule.module.hue.model.LightAttributes;
+import org.mule.module.hue.model.Schedule;
+import org.mule.module.hue.model.State;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ModelCodecTestCase
+{
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ModelWriter writer = new ModelWriter(mapper);
+    private final ModelReader reader = new ModelReader(mapper);
+
+    @Test
+    public void testWriteStateMatchesMapper() throws Exception
+    {
+        State state = new State();
+        state.setOn(true);
+        state.setBrightness(254);
+        state.setHue(-1);
+        state.setAlert(State.Alert.lselect);
+        state.setXy(0.4, 0.51234);
+
+        Map<?, ?> expected = mapper.readValue(mapper.writeValueAsString(state), Map.class);
+        Map<?, ?> actual = mapper.readValue(writer.write(state), Map.class);
+        Assert.assertEquals(Arrays.asList(0.4, 0.5123), actual.remove("xy"));
+        expected.remove("xy");
+        Assert.assertEquals(expected, actual);
+
+        Assert.assertEquals("{}", new String(writer.write(new State()), "UTF-8"));
+    }
+
+    @Test
+    public void testWriteScheduleEscapesStrings() throws Exception
+    {
+        State state = new State();
+        state.setOn(false);
+        Command command = new Command();
+        command.setAddress("/api/user/groups/0/action");
+        command.setMethod(Command.Method.PUT);
+        command.setBody(state);
+        Schedule schedule = new Schedule();
+        schedule.setName("Good \"night\"\né☃");
+        schedule.setTime("2013-12-01T23:00:00");
+        schedule.setCommand(command);
+
+        Assert.assertEquals(mapper.readTree(mapper.writeValueAsString(schedule)), mapper.readTree(writer.write(schedule)));
+    }
+
+    @Test
+    public void testScheduleCommandIsCompactAndReadBack() throws Exception
+    {
+        State state = new State();
+        state.setXy(0.5, 0.41);
+        state.setTransitionTime(10);
+        Command command = new Command();
+        command.setAddress("/api/user/lights/1/state");
+        command.setMethod(Command.Method.PUT);
+        command.setBody(state);
+        Assert.assertEquals("{\"xy\":[0.5,0.41],\"transitiontime\":10}", new String(writer.writeBody(state), "UTF-8"));
+
+        Schedule schedule = new Schedule();
+        schedule.setName("wake");
+        schedule.setTime("2013-12-01T07:00:00");
+        schedule.setCommand(command);
+        Datastore datastore = reader.readDatastore("{\"schedules\":{\"3\":" + new String(writer.write(schedule), "UTF-8") + "}}");
+        Schedule read = datastore.getSchedules().get("3");
+        Assert.assertEquals("wake", read.getName());
+        Assert.assertEquals(Command.Method.PUT, read.getCommand().getMethod());
+        Assert.assertEquals("/api/user/lights/1/state", read.getCommand().getAddress());
+        Assert.assertArrayEquals(writer.writeBody(state), writer.writeBody(read.getCommand().getBody()));
+    }
+
+    @Test
+    public void testReadLightAndGroup() throws Exception
+    {
+        LightAttributes light = reader.readLight("{\"state\":{\"on\":true,\"bri\":144,\"xy\":[0.4,0.5],\"effect\":\"prism\","
+                                                 + "\"alert\":\"select\",\"colormode\":\"xy\",\"reachable\":false},\"type\":\"Extended color light\","
+                                                 + "\"name\":\"Hall\",\"modelid\":\"LCT001\",\"unknown\":[1,{\"a\":2}]}");
+        Assert.assertEquals("Hall", light.getName());
+        Assert.assertEquals("LCT001", light.getModelid());
+        Assert.assertEquals(Integer.valueOf(144), light.getState().getBrightness());
+        Assert.assertEquals(Arrays.asList(0.4, 0.5), light.getState().getXyColor());
+        Assert.assertEquals(State.Alert.select, light.getState().getAlert());
+        Assert.assertNull(light.getState().getEffect());
+        Assert.assertEquals("xy", light.getState().getColormode());
+        Assert.assertEquals(Boolean.FALSE, light.getState().isReachable());
+
+        GroupAttributes group = reader.readGroup("{\"action\":{\"on\":false,\"ct\":300},\"lights\":[\"1\",\"2\"],\"name\":\"Hall\"}");
+        Assert.assertEquals(Arrays.asList("1", "2"), group.getLights());
+        Assert.assertEquals(Integer.valueOf(300), group.getState().getCt());
+        Assert.assertEquals(Boolean.FALSE, group.getState().getOn());
+    }
+
+    @Test
+    public void testReadDatastore() throws Exception
+    {
+        Datastore datastore = reader.readDatastore("{\"lights\":{\"1\":{\"name\":\"Hall\",\"state\":{\"on\":true}}},"
+                                                   + "\"groups\":{\"1\":{\"name\":\"All\",\"lights\":[\"1\"]}},"
+                                                   + "\"schedules\":{\"1\":{\"name\":\"wake\",\"time\":\"2013-12-01T07:00:00\"}},"
+                                                   + "\"config\":{\"name\":\"Bridge\"}}");
+        Assert.assertEquals(Boolean.TRUE, datastore.getLights().get("1").getState().getOn());
+        Assert.assertEquals("All", datastore.getGroups().get("1").getName());
+        Assert.assertEquals("wake", datastore.getSchedules().get("1").getName());
+        Assert.assertEquals("Bridge", datastore.getConfig().get("name"));
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.json;
+
+import org.mule.module.hue.HueException;
+import org.mule.module.hue.model.BridgeResponse;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResponseReaderTestCase
+{
+    private final ResponseReader reader = new ResponseReader(new ObjectMapper());
+
+    @Test
+    public void testMixedResponse() throws Exception
+    {
+        BridgeResponse response = reader.read("[{\"success\":{\"/lights/1/state/bri\":200}},"
+                                              + "{\"error\":{\"type\":201,\"address\":\"/lights/1/state/hue\","
+                                              + "\"description\":\"parameter, hue, is not modifiable. Device is set to off.\"}}]");
+        Assert.assertFalse(response.isSuccess());
+        Assert.assertEquals(200, response.getSuccesses().get(0).get("/lights/1/state/bri"));
+        Assert.assertEquals(201, response.getErrors().get(0).getType());
+        Assert.assertEquals("/lights/1/state/hue", response.getErrors().get(0).getAddress());
+    }
+
+    @Test
+    public void testNamesContainingErrorAreNotErrors() throws Exception
+    {
+        Assert.assertTrue(reader.readSuccess("[{\"success\":{\"id\":\"2\",\"name\":\"error lamp\"}}]").isSuccess());
+        reader.checkRead("{\"name\":\"error lamp\",\"state\":{\"on\":true}}");
+    }
+
+    @Test
+    public void testReadError() throws Exception
+    {
+        try
+        {
+            reader.checkRead(" [{\"error\":{\"type\":1,\"address\":\"/\",\"description\":\"unauthorized user\"}}]");
+            Assert.fail("the error response should have been rejected");
+        }
+        catch (HueException e)
+        {
+            Assert.assertTrue(e.hasErrorType(1));
+            Assert.assertEquals("unauthorized user (type 1, address /)", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTestCase
+{
+    @Test
+    public void testPercentilesAreWithinBucketPrecision()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++)
+        {
+            histogram.record(i);
+        }
+        Assert.assertEquals(10000, histogram.getCount());
+        Assert.assertEquals(10000, histogram.getMax());
+        Assert.assertEquals(5000.5, histogram.getMean(), 0.001);
+        assertWithin(5000, histogram.getPercentile(0.5));
+        assertWithin(9900, histogram.getPercentile(0.99));
+        assertWithin(9990, histogram.getPercentile(0.999));
+        Assert.assertEquals(10000, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void testBucketsCoverEveryValue()
+    {
+        for (long value = 0; value < 1L << 20; value += 1 + value / 7)
+        {
+            int index = LatencyHistogram.index(value);
+            Assert.assertTrue(value <= LatencyHistogram.upperBound(index));
+            Assert.assertTrue(index == 0 || value > LatencyHistogram.upperBound(index - 1));
+        }
+        Assert.assertEquals(LatencyHistogram.index(Long.MAX_VALUE), LatencyHistogram.index(1L << 50));
+    }
+
+    @Test
+    public void testReset()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(250);
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getPercentile(0.99));
+    }
+
+    private static void assertWithin(long expected, long actual)
+    {
+        Assert.assertTrue(actual + " is not within 12.5% of " + expected, Math.abs(actual - expected) <= expected / 8);
+    }
+}
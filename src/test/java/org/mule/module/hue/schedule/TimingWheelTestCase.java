@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.schedule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimingWheelTestCase
+{
+    @Test
+    public void testItemsExpireWithinATickOfTheirDueTime()
+    {
+        TimingWheel<Long> wheel = new TimingWheel<Long>(100, 1234);
+        Random random = new Random(42);
+        int count = 10000;
+        for (int i = 0; i < count; i++)
+        {
+            // spread over all levels, from already due to more than two days ahead
+            long due = 1234 + (long) (Math.pow(random.nextDouble(), 4) * 200000000L) - 1000;
+            wheel.add(due, due);
+        }
+        Assert.assertEquals(count, wheel.size());
+
+        List<TimingWheel.Entry<Long>> expired = new ArrayList<TimingWheel.Entry<Long>>();
+        int seen = 0;
+        for (long now = 1234; wheel.size() > 0; now += 100)
+        {
+            expired.clear();
+            wheel.advance(now, expired);
+            for (TimingWheel.Entry<Long> entry : expired)
+            {
+                Assert.assertTrue("expired early", entry.getDue() <= now);
+                Assert.assertTrue("expired late", entry.getDue() < 1234 || entry.getDue() > now - 200);
+            }
+            seen += expired.size();
+        }
+        Assert.assertEquals(count, seen);
+    }
+
+    @Test
+    public void testCancel()
+    {
+        TimingWheel<String> wheel = new TimingWheel<String>(10, 0);
+        TimingWheel.Entry<String> soon = wheel.add("soon", 50);
+        TimingWheel.Entry<String> later = wheel.add("later", 50000);
+        Assert.assertTrue(wheel.cancel(later));
+        Assert.assertFalse(wheel.cancel(later));
+
+        List<TimingWheel.Entry<String>> expired = new ArrayList<TimingWheel.Entry<String>>();
+        wheel.advance(100000, expired);
+        Assert.assertEquals(1, expired.size());
+        Assert.assertSame(soon, expired.get(0));
+        Assert.assertFalse(wheel.cancel(soon));
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testDrainOnlyTakesItemsInTheWindow()
+    {
+        TimingWheel<String> wheel = new TimingWheel<String>(100, 0);
+        wheel.add("now", 100);
+        wheel.add("minute", 60000);
+        wheel.add("hour", 3600000);
+        wheel.add("day", 86400000);
+        // move on so the hour is held by a level whose slot is not the next one
+        wheel.advance(3000000, new ArrayList<TimingWheel.Entry<String>>());
+
+        List<TimingWheel.Entry<String>> drained = new ArrayList<TimingWheel.Entry<String>>();
+        wheel.drain(3010000, 3700000, 10, drained);
+        Assert.assertEquals(1, drained.size());
+        Assert.assertEquals("hour", drained.get(0).getItem());
+        Assert.assertEquals(1, wheel.size());
+    }
+
+    @Test
+    public void testItemsBeyondTheReachOfTheWheelAreParked()
+    {
+        TimingWheel<String> wheel = new TimingWheel<String>(1, 0);
+        wheel.add("far", (1L << 33) + 5);
+        List<TimingWheel.Entry<String>> expired = new ArrayList<TimingWheel.Entry<String>>();
+        wheel.advance(100000, expired);
+        Assert.assertTrue(expired.isEmpty());
+        Assert.assertEquals(1, wheel.size());
+    }
+}
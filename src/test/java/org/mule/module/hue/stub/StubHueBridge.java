@@ -0,0 +1,609 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.stub;
+
+import org.mule.module.hue.dispatch.TokenBucket;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.ObjectNode;
+
+/**
+ * An in-process HTTP stub of a Hue bridge for hermetic load and latency testing. It serves the datastore,
+ * lights, groups and schedules resources used by the connector and emulates the behaviour of a real bridge
+ * that matters under load:
+ * <ul>
+ *     <li>light and group commands beyond the rate the bridge sustains fail with an error of type 901</li>
+ *     <li>every request can be delayed by a fixed latency</li>
+ *     <li>changing the colour of a light that is off fails with an error of type 201</li>
+ *     <li>an unknown user gets an error of type 1</li>
+ *     <li>groups and schedules are limited in number, creating more fails with an error of type 301</li>
+ * </ul>
+ * Point the connector at {@link #getIpAddress()} and {@link #getUsername()}.
+ * <pre>
+ * StubHueBridge bridge = new StubHueBridge("testuser", 50);
+ * bridge.setLatency(20);
+ * bridge.start();
+ * </pre>
+ */
+public class StubHueBridge
+{
+    private static final int MAX_GROUPS = 16;
+    private static final int MAX_SCHEDULES = 100;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final String username;
+    private final Map<String, ObjectNode> lights = new LinkedHashMap<String, ObjectNode>();
+    private final Map<String, ObjectNode> groups = new LinkedHashMap<String, ObjectNode>();
+    private final Map<String, ObjectNode> schedules = new LinkedHashMap<String, ObjectNode>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger commands = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    private long latency;
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+    private double lightCommandsPerSecond = 10;
+    private double groupCommandsPerSecond = 1;
+    private TokenBucket lightBucket;
+    private TokenBucket groupBucket;
+    private int nextId = 1;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param username   the only user the bridge accepts
+     * @param lightCount the number of lights known by the bridge, identified 1 to lightCount
+     */
+    public StubHueBridge(String username, int lightCount)
+    {
+        this.username = username;
+        for (int i = 1; i <= lightCount; i++)
+        {
+            ObjectNode state = mapper.createObjectNode();
+            state.put("on", false);
+            state.put("bri", 0);
+            state.put("hue", 0);
+            state.put("sat", 0);
+            ArrayNode xy = state.putArray("xy");
+            xy.add(0.0);
+            xy.add(0.0);
+            state.put("ct", 0);
+            state.put("alert", "none");
+            state.put("effect", "none");
+            state.put("colormode", "hs");
+            state.put("reachable", true);
+
+            ObjectNode light = mapper.createObjectNode();
+            light.put("state", state);
+            light.put("type", "Extended color light");
+            light.put("name", "Hue Lamp " + i);
+            light.put("modelid", "LCT001");
+            light.put("swversion", "66009461");
+            lights.put(String.valueOf(i), light);
+        }
+    }
+
+    /**
+     * Sets a fixed delay applied to every request
+     *
+     * @param latency the delay in milliseconds
+     */
+    public void setLatency(long latency)
+    {
+        this.latency = latency;
+    }
+
+    /**
+     * Holds every request from now on until {@link #release()} is called
+     */
+    public void hold()
+    {
+        gate = new CountDownLatch(1);
+    }
+
+    /**
+     * Lets the requests held since {@link #hold()} through
+     */
+    public void release()
+    {
+        gate.countDown();
+    }
+
+    /**
+     * Sets the number of light commands per second the bridge sustains, 0 for no limit. Must be set before start
+     *
+     * @param lightCommandsPerSecond the number of light commands per second
+     */
+    public void setLightCommandsPerSecond(double lightCommandsPerSecond)
+    {
+        this.lightCommandsPerSecond = lightCommandsPerSecond;
+    }
+
+    /**
+     * Sets the number of group commands per second the bridge sustains, 0 for no limit. Must be set before start
+     *
+     * @param groupCommandsPerSecond the number of group commands per second
+     */
+    public void setGroupCommandsPerSecond(double groupCommandsPerSecond)
+    {
+        this.groupCommandsPerSecond = groupCommandsPerSecond;
+    }
+
+    /**
+     * Adds a group to the bridge
+     *
+     * @param name     the name of the group
+     * @param lightIds the lights in the group
+     * @return the identifier of the new group
+     */
+    public synchronized String addGroup(String name, String... lightIds)
+    {
+        ArrayNode members = mapper.createArrayNode();
+        for (String lightId : lightIds)
+        {
+            members.add(lightId);
+        }
+        return createGroup(name, members);
+    }
+
+    /**
+     * Starts listening on a free port of the loopback interface
+     *
+     * @throws IOException if the server cannot be started
+     */
+    public void start() throws IOException
+    {
+        lightBucket = lightCommandsPerSecond > 0 ? new TokenBucket(lightCommandsPerSecond, 1) : null;
+        groupBucket = groupCommandsPerSecond > 0 ? new TokenBucket(groupCommandsPerSecond, 1) : null;
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/api", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                serve(exchange);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Stops the server
+     */
+    public void stop()
+    {
+        if (server != null)
+        {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * @return the address to configure as the ipAddress of the connector, host and port
+     */
+    public String getIpAddress()
+    {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public String getUsername()
+    {
+        return username;
+    }
+
+    /**
+     * @return the number of requests received
+     */
+    public int getRequestCount()
+    {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of light and group commands received, including rejected ones
+     */
+    public int getCommandCount()
+    {
+        return commands.get();
+    }
+
+    /**
+     * @return the number of commands rejected because they exceeded the rate the bridge sustains
+     */
+    public int getRejectedCount()
+    {
+        return rejected.get();
+    }
+
+    /**
+     * Gets the current state of a light
+     *
+     * @param lightId the identifier of the light
+     * @return a copy of the state of the light as json
+     */
+    public synchronized JsonNode getLightState(String lightId) throws IOException
+    {
+        return mapper.readTree(mapper.writeValueAsString(lights.get(lightId).get("state")));
+    }
+
+    /**
+     * @return the number of groups, not counting group 0
+     */
+    public synchronized int getGroupCount()
+    {
+        return groups.size();
+    }
+
+    /**
+     * @param groupId the identifier of the group
+     * @return the name of the group, or null if there is no such group
+     */
+    public synchronized String getGroupName(String groupId)
+    {
+        ObjectNode group = groups.get(groupId);
+        return group == null ? null : group.path("name").getTextValue();
+    }
+
+    /**
+     * @return the number of schedules
+     */
+    public synchronized int getScheduleCount()
+    {
+        return schedules.size();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException
+    {
+        requests.incrementAndGet();
+        try
+        {
+            if (latency > 0)
+            {
+                Thread.sleep(latency);
+            }
+            gate.await();
+            String body = read(exchange.getRequestBody());
+            byte[] bytes;
+            synchronized (this)
+            {
+                // serialized under the lock as responses share nodes with the state of the bridge
+                bytes = mapper.writeValueAsBytes(route(exchange.getRequestMethod(), exchange.getRequestURI().getPath(), body));
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Handles a request, must be called holding the lock of the bridge
+     */
+    private JsonNode route(String method, String path, String body) throws IOException
+    {
+        // /api/{user}/{resource}/{id}/{action}
+        String[] segments = path.replaceAll("/+$", "").split("/");
+        if (segments.length < 3 || !username.equals(segments[2]))
+        {
+            return error(1, "/", "unauthorized user");
+        }
+        String address = segments.length > 3 ? path.substring(("/api/" + username).length()) : "/";
+        String resource = segments.length > 3 ? segments[3] : "";
+        String id = segments.length > 4 ? segments[4] : null;
+        String action = segments.length > 5 ? segments[5] : null;
+
+        if ("GET".equals(method) && resource.length() == 0)
+        {
+            return datastore();
+        }
+        if ("lights".equals(resource))
+        {
+            if ("GET".equals(method) && id == null)
+            {
+                return objectOf(lights);
+            }
+            if (!lights.containsKey(id))
+            {
+                return error(3, address, "resource, " + address + ", not available");
+            }
+            if ("GET".equals(method) && action == null)
+            {
+                return lights.get(id);
+            }
+            if ("PUT".equals(method) && "state".equals(action))
+            {
+                return command(lightBucket, "/lights/" + id + "/state", body, id);
+            }
+        }
+        else if ("groups".equals(resource))
+        {
+            if ("GET".equals(method) && id == null)
+            {
+                return objectOf(groups);
+            }
+            if ("POST".equals(method) && id == null)
+            {
+                if (groups.size() >= MAX_GROUPS)
+                {
+                    return error(301, "/groups", "group could not be created. Group table is full.");
+                }
+                JsonNode group = mapper.readTree(body);
+                return success("id", createGroup(group.path("name").getTextValue(), (ArrayNode) group.get("lights")));
+            }
+            if (!"0".equals(id) && !groups.containsKey(id))
+            {
+                return error(3, address, "resource, " + address + ", not available");
+            }
+            if ("GET".equals(method) && action == null)
+            {
+                return "0".equals(id) ? groupZero() : groups.get(id);
+            }
+            if ("DELETE".equals(method) && action == null && !"0".equals(id))
+            {
+                groups.remove(id);
+                return success(null, "/groups/" + id + " deleted");
+            }
+            if ("PUT".equals(method) && "action".equals(action))
+            {
+                return command(groupBucket, "/groups/" + id + "/action", body, members(id));
+            }
+        }
+        else if ("schedules".equals(resource))
+        {
+            if ("GET".equals(method) && id == null)
+            {
+                ObjectNode names = mapper.createObjectNode();
+                for (Map.Entry<String, ObjectNode> entry : schedules.entrySet())
+                {
+                    names.putObject(entry.getKey()).put("name", entry.getValue().path("name").getTextValue());
+                }
+                return names;
+            }
+            if ("POST".equals(method) && id == null)
+            {
+                if (schedules.size() >= MAX_SCHEDULES)
+                {
+                    return error(301, "/schedules", "Cannot create schedule because limit, " + MAX_SCHEDULES + ", was reached");
+                }
+                ObjectNode schedule = (ObjectNode) mapper.readTree(body);
+                schedule.put("name", uniqueName(schedule.path("name").getTextValue()));
+                String newId = String.valueOf(nextId++);
+                schedules.put(newId, schedule);
+                return success("id", newId);
+            }
+            if (!schedules.containsKey(id))
+            {
+                return error(3, address, "resource, " + address + ", not available");
+            }
+            if ("GET".equals(method))
+            {
+                return schedules.get(id);
+            }
+            if ("DELETE".equals(method))
+            {
+                schedules.remove(id);
+                return success(null, "/schedules/" + id + " deleted");
+            }
+        }
+        return error(4, address, "method, " + method + ", not available for resource, " + address);
+    }
+
+    private JsonNode command(TokenBucket bucket, String address, String body, String... lightIds) throws IOException
+    {
+        commands.incrementAndGet();
+        if (bucket != null && !bucket.tryAcquire())
+        {
+            rejected.incrementAndGet();
+            return error(901, address, "Internal error, 503");
+        }
+
+        JsonNode update = mapper.readTree(body);
+        boolean turningOn = update.path("on").getBooleanValue();
+        ArrayNode response = mapper.createArrayNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = update.getFields();
+        while (fields.hasNext())
+        {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String name = field.getKey();
+            String fieldAddress = address + "/" + name;
+            boolean off = true;
+            for (String lightId : lightIds)
+            {
+                off &= !lights.get(lightId).get("state").path("on").getBooleanValue();
+            }
+            if (!"on".equals(name) && off && !turningOn && lightIds.length > 0)
+            {
+                response.add(errorEntry(201, fieldAddress, "parameter, " + name + ", is not modifiable. Device is set to off."));
+                continue;
+            }
+            // the transition applies to this command only, it is not part of the state of the light
+            if (!"transitiontime".equals(name))
+            {
+                for (String lightId : lightIds)
+                {
+                    ObjectNode state = (ObjectNode) lights.get(lightId).get("state");
+                    state.put(name, field.getValue());
+                    if ("xy".equals(name) || "ct".equals(name))
+                    {
+                        state.put("colormode", name);
+                    }
+                    else if ("hue".equals(name) || "sat".equals(name))
+                    {
+                        state.put("colormode", "hs");
+                    }
+                }
+            }
+            response.addObject().putObject("success").put(fieldAddress, field.getValue());
+        }
+        return response;
+    }
+
+    private String[] members(String groupId)
+    {
+        if ("0".equals(groupId))
+        {
+            return lights.keySet().toArray(new String[lights.size()]);
+        }
+        List<String> members = new ArrayList<String>();
+        for (JsonNode lightId : groups.get(groupId).path("lights"))
+        {
+            if (lights.containsKey(lightId.getTextValue()))
+            {
+                members.add(lightId.getTextValue());
+            }
+        }
+        return members.toArray(new String[members.size()]);
+    }
+
+    private String createGroup(String name, ArrayNode members)
+    {
+        ObjectNode group = mapper.createObjectNode();
+        group.put("name", name == null ? "Group" : name);
+        group.put("lights", members);
+        group.putObject("action").put("on", false);
+        String id = String.valueOf(nextId++);
+        groups.put(id, group);
+        return id;
+    }
+
+    private String uniqueName(String name)
+    {
+        String base = name == null ? "schedule" : name;
+        String candidate = base;
+        for (int i = 1; nameTaken(candidate); i++)
+        {
+            candidate = base + " " + i;
+        }
+        return candidate;
+    }
+
+    private boolean nameTaken(String name)
+    {
+        for (ObjectNode schedule : schedules.values())
+        {
+            if (name.equals(schedule.path("name").getTextValue()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private JsonNode datastore()
+    {
+        ObjectNode datastore = mapper.createObjectNode();
+        datastore.put("lights", objectOf(lights));
+        datastore.put("groups", objectOf(groups));
+        datastore.put("schedules", objectOf(schedules));
+        ObjectNode config = datastore.putObject("config");
+        config.put("name", "Stub bridge");
+        config.put("swversion", "01003372");
+        config.putObject("whitelist").putObject(username).put("name", "stub");
+        return datastore;
+    }
+
+    private JsonNode groupZero()
+    {
+        ObjectNode group = mapper.createObjectNode();
+        group.put("name", "Lightset 0");
+        ArrayNode members = group.putArray("lights");
+        for (String lightId : lights.keySet())
+        {
+            members.add(lightId);
+        }
+        group.putObject("action").put("on", false);
+        return group;
+    }
+
+    private ObjectNode objectOf(Map<String, ObjectNode> entries)
+    {
+        ObjectNode node = mapper.createObjectNode();
+        for (Map.Entry<String, ObjectNode> entry : entries.entrySet())
+        {
+            node.put(entry.getKey(), entry.getValue());
+        }
+        return node;
+    }
+
+    private JsonNode success(String key, String value)
+    {
+        ArrayNode response = mapper.createArrayNode();
+        ObjectNode entry = response.addObject();
+        if (key == null)
+        {
+            entry.put("success", value);
+        }
+        else
+        {
+            entry.putObject("success").put(key, value);
+        }
+        return response;
+    }
+
+    private JsonNode error(int type, String address, String description)
+    {
+        ArrayNode response = mapper.createArrayNode();
+        response.add(errorEntry(type, address, description));
+        return response;
+    }
+
+    private ObjectNode errorEntry(int type, String address, String description)
+    {
+        ObjectNode entry = mapper.createObjectNode();
+        ObjectNode error = entry.putObject("error");
+        error.put("type", type);
+        error.put("address", address);
+        error.put("description", description);
+        return entry;
+    }
+
+    private static String read(InputStream in) throws IOException
+    {
+        // decoded once all the bytes are in, a character may be split across chunks
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[1024];
+        int n;
+        while ((n = in.read(chunk)) != -1)
+        {
+            bytes.write(chunk, 0, n);
+        }
+        return bytes.toString("UTF-8");
+    }
+}
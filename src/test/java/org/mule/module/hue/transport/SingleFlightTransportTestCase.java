@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.transport;
+
+import org.mule.module.hue.metrics.HueMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SingleFlightTransportTestCase
+{
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final HueMetrics metrics = new HueMetrics();
+    private final BlockingTransport bridge = new BlockingTransport();
+    private final SingleFlightTransport transport = new SingleFlightTransport(bridge, metrics);
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentReadsShareOneGet() throws Exception
+    {
+        List<Future<String>> reads = new ArrayList<Future<String>>();
+        for (int i = 0; i < 10; i++)
+        {
+            reads.add(read("lights/5"));
+        }
+        Future<String> other = read("groups/0");
+        while (metrics.getSharedReadCount() < 9)
+        {
+            Thread.sleep(5);
+        }
+        bridge.release.countDown();
+
+        // the two gets may reach the bridge in either order
+        String shared = reads.get(0).get();
+        Assert.assertTrue(shared, shared.startsWith("lights/5#"));
+        for (Future<String> read : reads)
+        {
+            Assert.assertEquals(shared, read.get());
+        }
+        Assert.assertTrue(other.get(), other.get().startsWith("groups/0#"));
+        Assert.assertEquals(2, bridge.gets.get());
+    }
+
+    @Test
+    public void testReadsAfterAWriteAreNotShared() throws Exception
+    {
+        Future<String> before = read("lights/5");
+        while (bridge.gets.get() < 1)
+        {
+            Thread.sleep(5);
+        }
+        transport.put("lights/5/state", new byte[0]);
+        Future<String> after = read("lights/5");
+        while (bridge.gets.get() < 2)
+        {
+            Thread.sleep(5);
+        }
+        bridge.release.countDown();
+        Assert.assertEquals("lights/5#1", before.get());
+        Assert.assertEquals("lights/5#2", after.get());
+        Assert.assertEquals(0, metrics.getSharedReadCount());
+    }
+
+    @Test
+    public void testFailuresAreShared() throws Exception
+    {
+        bridge.fail = true;
+        Future<String> first = read("lights");
+        Future<String> second = read("lights");
+        while (metrics.getSharedReadCount() < 1)
+        {
+            Thread.sleep(5);
+        }
+        bridge.release.countDown();
+        for (Future<String> read : new Future[] {first, second})
+        {
+            try
+            {
+                read.get();
+                Assert.fail("the read should have failed");
+            }
+            catch (ExecutionException e)
+            {
+                Assert.assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+        Assert.assertEquals(1, bridge.gets.get());
+    }
+
+    private Future<String> read(final String path)
+    {
+        return executor.submit(new Callable<String>()
+        {
+            public String call() throws IOException
+            {
+                return transport.get(path);
+            }
+        });
+    }
+
+    private static class BlockingTransport implements HueTransport
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger gets = new AtomicInteger();
+        volatile boolean fail;
+
+        public String get(String path) throws IOException
+        {
+            int n = gets.incrementAndGet();
+            try
+            {
+                release.await();
+            }
+            catch (InterruptedException e)
+            {
+                throw new IOException(e);
+            }
+            if (fail)
+            {
+                throw new IOException("Connection refused");
+            }
+            return path + "#" + n;
+        }
+
+        public InputStream getStream(String path) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public String put(String path, byte[] body)
+        {
+            return "[]";
+        }
+
+        public String post(String path, byte[] body)
+        {
+            return "[]";
+        }
+
+        public String delete(String path)
+        {
+            return "[]";
+        }
+
+        public void dispose()
+        {
+        }
+    }
+}
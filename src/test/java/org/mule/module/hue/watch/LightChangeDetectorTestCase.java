@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.hue.watch;
+
+import org.mule.module.hue.model.LightAttributes;
+import org.mule.module.hue.model.LightChange;
+
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LightChangeDetectorTestCase
+{
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testOnlyChangedLightsAndPropertiesAreReported() throws Exception
+    {
+        LightChangeDetector detector = new LightChangeDetector();
+        Assert.assertTrue(detector.detect(read("{\"1\":{\"name\":\"Hall\",\"state\":{\"on\":true,\"bri\":100}},"
+                                               + "\"2\":{\"name\":\"Desk\",\"state\":{\"on\":true,\"bri\":100}}}")).isEmpty());
+
+        Assert.assertTrue(detector.detect(read("{\"1\":{\"name\":\"Hall\",\"state\":{\"on\":true,\"bri\":100}},"
+                                               + "\"2\":{\"name\":\"Desk\",\"state\":{\"on\":true,\"bri\":100}}}")).isEmpty());
+
+        List<LightChange> changes = detector.detect(read("{\"1\":{\"name\":\"Hall\",\"state\":{\"on\":true,\"bri\":100}},"
+                                                         + "\"2\":{\"name\":\"Desk\",\"state\":{\"on\":true,\"bri\":20}}}"));
+        Assert.assertEquals(1, changes.size());
+        Assert.assertEquals("2", changes.get(0).getLightId());
+        Assert.assertEquals(1, changes.get(0).getChanges().size());
+        Assert.assertEquals(20, changes.get(0).getChanges().get("bri"));
+
+        changes = detector.detect(read("{\"1\":{\"name\":\"Hall\",\"state\":{\"on\":true,\"bri\":100}}}"));
+        Assert.assertEquals(1, changes.size());
+        Assert.assertTrue(changes.get(0).isRemoved());
+    }
+
+    private Map<String, LightAttributes> read(String json) throws Exception
+    {
+        return mapper.readValue(json, new TypeReference<Map<String, LightAttributes>>() {});
+    }
+}